@@ -0,0 +1,214 @@
+package com.gb28181.simulator.sip;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 入站SIP解析对比：SipMessageReader 与原先的 String 解码 + split + 逐次编译正则
+ *
+ * 两条路径取同样的字段：消息类型、Call-ID/From/CSeq/Via，MESSAGE再取消息体和CmdType，
+ * INVITE再取Request-URI用户（通道ID）和SDP消息体
+ *
+ * 运行：mvn -Pjmh package 后
+ * java -cp target/simulator-1.0.0-jar-with-dependencies.jar org.openjdk.jmh.Main SipParseBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SipParseBenchmark {
+
+    // REGISTER为平台对注册请求的401质询，即模拟器注册时实际收到的消息
+    private static final String REGISTER =
+        "SIP/2.0 401 Unauthorized\r\n" +
+        "Via: SIP/2.0/UDP 192.168.1.100:5060;rport=5060;branch=z9hG4bK1839227462\r\n" +
+        "From: <sip:34020000001320000001@3402000000>;tag=1297430281\r\n" +
+        "To: <sip:34020000001320000001@3402000000>;tag=880203531\r\n" +
+        "Call-ID: 1762635541@192.168.1.100\r\n" +
+        "CSeq: 1 REGISTER\r\n" +
+        "WWW-Authenticate: Digest realm=\"3402000000\",nonce=\"0d7d1e3f8a2b4c5d\",algorithm=MD5\r\n" +
+        "User-Agent: WVP-Pro\r\n" +
+        "Content-Length: 0\r\n" +
+        "\r\n";
+
+    private static final String MESSAGE_BODY =
+        "<?xml version=\"1.0\" encoding=\"GB2312\"?>\r\n" +
+        "<Query>\r\n" +
+        "<CmdType>Catalog</CmdType>\r\n" +
+        "<SN>683521</SN>\r\n" +
+        "<DeviceID>34020000001320000001</DeviceID>\r\n" +
+        "</Query>\r\n";
+
+    private static final String MESSAGE =
+        "MESSAGE sip:34020000001320000001@192.168.1.100:5060 SIP/2.0\r\n" +
+        "Via: SIP/2.0/UDP 192.168.1.10:5060;rport;branch=z9hG4bK1416553928\r\n" +
+        "From: <sip:34020000002000000001@3402000000>;tag=1915638467\r\n" +
+        "To: <sip:34020000001320000001@192.168.1.100:5060>\r\n" +
+        "Call-ID: 1430921066\r\n" +
+        "CSeq: 20 MESSAGE\r\n" +
+        "Content-Type: Application/MANSCDP+xml\r\n" +
+        "Max-Forwards: 70\r\n" +
+        "User-Agent: WVP-Pro\r\n" +
+        "Content-Length: " + MESSAGE_BODY.length() + "\r\n" +
+        "\r\n" +
+        MESSAGE_BODY;
+
+    private static final String INVITE_BODY =
+        "v=0\r\n" +
+        "o=34020000001320000001 0 0 IN IP4 192.168.1.20\r\n" +
+        "s=Play\r\n" +
+        "c=IN IP4 192.168.1.20\r\n" +
+        "t=0 0\r\n" +
+        "m=video 30000 RTP/AVP 96 97 98\r\n" +
+        "a=recvonly\r\n" +
+        "a=rtpmap:96 PS/90000\r\n" +
+        "a=rtpmap:97 MPEG4/90000\r\n" +
+        "a=rtpmap:98 H264/90000\r\n" +
+        "y=0200000001\r\n";
+
+    private static final String INVITE =
+        "INVITE sip:34020000001320000001@192.168.1.100:5060 SIP/2.0\r\n" +
+        "Via: SIP/2.0/UDP 192.168.1.10:5060;rport;branch=z9hG4bK590163204\r\n" +
+        "From: <sip:34020000002000000001@3402000000>;tag=1078236742\r\n" +
+        "To: <sip:34020000001320000001@192.168.1.100:5060>\r\n" +
+        "Call-ID: 930128745\r\n" +
+        "CSeq: 20 INVITE\r\n" +
+        "Contact: <sip:34020000002000000001@192.168.1.10:5060>\r\n" +
+        "Content-Type: APPLICATION/SDP\r\n" +
+        "Max-Forwards: 70\r\n" +
+        "Subject: 34020000001320000001:0200000001,34020000002000000001:0\r\n" +
+        "User-Agent: WVP-Pro\r\n" +
+        "Content-Length: " + INVITE_BODY.length() + "\r\n" +
+        "\r\n" +
+        INVITE_BODY;
+
+    @Param({"REGISTER", "MESSAGE", "INVITE"})
+    public String sample;
+
+    private byte[] data;
+    private final SipMessageReader reader = new SipMessageReader();
+
+    @Setup
+    public void setup() {
+        String text;
+        switch (sample) {
+            case "REGISTER":
+                text = REGISTER;
+                break;
+            case "MESSAGE":
+                text = MESSAGE;
+                break;
+            default:
+                text = INVITE;
+                break;
+        }
+        data = text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void legacySplitRegex(Blackhole bh) {
+        String messageText = new String(data, StandardCharsets.UTF_8);
+        String[] lines = messageText.split("\r\n");
+        String firstLine = lines[0];
+        bh.consume(extractHeader(lines, "Call-ID"));
+        bh.consume(extractHeader(lines, "From"));
+        bh.consume(extractHeader(lines, "CSeq"));
+        bh.consume(extractHeader(lines, "Via"));
+        if (firstLine.startsWith("SIP/2.0")) {
+            bh.consume(firstLine);
+        } else if (firstLine.startsWith("MESSAGE")) {
+            String body = extractBody(lines);
+            bh.consume(body);
+            bh.consume(extractCmdType(body));
+        } else if (firstLine.startsWith("INVITE")) {
+            bh.consume(extractChannelId(firstLine));
+            bh.consume(extractBody(lines));
+        }
+    }
+
+    @Benchmark
+    public void reader(Blackhole bh) {
+        SipMessageReader r = reader;
+        r.parse(ByteBuffer.wrap(data));
+        bh.consume(r.header("Call-ID"));
+        bh.consume(r.header("From"));
+        bh.consume(r.header("CSeq"));
+        bh.consume(r.header("Via"));
+        if (r.isResponse()) {
+            bh.consume(r.statusCode());
+        } else if (r.isMethod("MESSAGE")) {
+            bh.consume(r.body());
+            bh.consume(r.xmlElement("CmdType"));
+        } else if (r.isMethod("INVITE")) {
+            bh.consume(r.requestUriUser());
+            bh.consume(r.body());
+        }
+    }
+
+    // 以下为改用SipMessageReader之前SipMessageParser中的实现，保留作对比基线
+
+    private static String extractHeader(String[] lines, String headerName) {
+        String prefix = headerName + ":";
+        for (String line : lines) {
+            if (line.startsWith(prefix)) {
+                return line.substring(prefix.length()).trim();
+            }
+        }
+        return null;
+    }
+
+    private static String extractBody(String[] lines) {
+        StringBuilder body = new StringBuilder();
+        boolean inBody = false;
+
+        for (String line : lines) {
+            if (line.isEmpty() && !inBody) {
+                inBody = true;
+                continue;
+            }
+            if (inBody) {
+                if (body.length() > 0) {
+                    body.append("\r\n");
+                }
+                body.append(line);
+            }
+        }
+        return body.toString();
+    }
+
+    private static String extractChannelId(String requestLine) {
+        Pattern pattern = Pattern.compile("sip:([^@]+)@");
+        Matcher matcher = pattern.matcher(requestLine);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return null;
+    }
+
+    private static String extractCmdType(String body) {
+        Pattern pattern = Pattern.compile("<CmdType>(.*?)</CmdType>", Pattern.CASE_INSENSITIVE);
+        Matcher matcher = pattern.matcher(body);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return null;
+    }
+}
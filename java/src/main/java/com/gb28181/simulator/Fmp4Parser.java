@@ -0,0 +1,591 @@
+package com.gb28181.simulator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 增量解析fMP4（ISO-BMFF）：数据按读到的顺序分段送入，跨段的box头和字段自行拼接，
+ * 不复制数据、不分配内存
+ *
+ * 只解析很小的元数据box（moov中的tkhd/mdhd/hdlr/trex，moof中的tfhd/tfdt和媒体轨的trun），
+ * 它们的字段都是32位字；mdat等其余box整段跳过，每段数据的开销与媒体数据量无关
+ *
+ * 统计的是媒体轨（第一个视频轨，没有视频轨时为第一个出现在分片中的轨）：
+ * 一个分片的样本数、关键帧数和时长在其mdat完整收到后才计入
+ */
+final class Fmp4Parser {
+    private static final int BOX_MOOV = 0x6D6F6F76;
+    private static final int BOX_TRAK = 0x7472616B;
+    private static final int BOX_MDIA = 0x6D646961;
+    private static final int BOX_MVEX = 0x6D766578;
+    private static final int BOX_TKHD = 0x746B6864;
+    private static final int BOX_MDHD = 0x6D646864;
+    private static final int BOX_HDLR = 0x68646C72;
+    private static final int BOX_TREX = 0x74726578;
+    private static final int BOX_MOOF = 0x6D6F6F66;
+    private static final int BOX_TRAF = 0x74726166;
+    private static final int BOX_TFHD = 0x74666864;
+    private static final int BOX_TFDT = 0x74666474;
+    private static final int BOX_TRUN = 0x7472756E;
+    private static final int BOX_MDAT = 0x6D646174;
+    private static final int HANDLER_VIDE = 0x76696465;
+    private static final int SAMPLE_NON_SYNC = 0x00010000;
+    private static final int MAX_DEPTH = 8;
+    private static final int MAX_TRACKS = 8;
+
+    // 当前box头（最多16字节：size + type + largesize）
+    private final byte[] header = new byte[16];
+    private int headerLength;
+    private long position; // 已送入的字节数
+    private boolean invalid;
+
+    // 打开的容器box
+    private final int[] containerType = new int[MAX_DEPTH];
+    private final long[] containerEnd = new long[MAX_DEPTH];
+    private int depth;
+
+    // 当前叶子box
+    private boolean inLeaf;
+    private int leafType;
+    private long leafEnd; // 大小为0（直到流结束）时为Long.MAX_VALUE
+    private boolean parseWords;
+    private int word;
+    private int wordBytes;
+    private int wordIndex;
+    private int version;
+    private int flags;
+
+    // 轨道（来自moov）
+    private final int[] trackIds = new int[MAX_TRACKS];
+    private final long[] timescales = new long[MAX_TRACKS];
+    private final boolean[] video = new boolean[MAX_TRACKS];
+    private final long[] trexDuration = new long[MAX_TRACKS];
+    private final int[] trexFlags = new int[MAX_TRACKS];
+    private int trackCount;
+    private int currentTrak = -1;
+    private int trexTrack = -1;
+    private int mediaTrack = -1;
+    private boolean hasInit;
+
+    // 当前分片
+    private boolean fragmentOpen;    // 已解析moof，等待其mdat
+    private int trafTrack = -1;
+    private long defaultDuration;
+    private int defaultFlags;
+    private int tfhdDurationIndex;
+    private int tfhdFlagsIndex;
+    private boolean tfdtSeen;
+    private long tfdtHigh;
+    private long tfdt;
+    private long trunSamples;
+    private int trunHeaderWords;
+    private int trunSampleWords;
+    private final int[] trunSampleFields = new int[4]; // 逐样本字段依次对应的flags位
+    private int firstSampleFlags;
+    private long sample;
+    private int sampleField;
+    private long sampleDuration;
+    private int sampleFlags;
+    private long trafUnits;          // 当前traf中媒体轨样本时长之和（轨道时间单位）
+    private long pendingFrames;
+    private long pendingKeyframes;
+    private long pendingMediaNanos;
+
+    // 已完整收到的分片
+    private long expectedDecodeTime = -1;
+    private long fragments;
+    private long frames;
+    private long keyframes;
+    private long mediaNanos;
+    private long discontinuities;
+
+    /**
+     * 送入一段数据（data的position和limit不变）
+     *
+     * @return 本段数据中完整收到的分片数
+     */
+    int feed(ByteBuffer data, int from, int to) {
+        int completed = 0;
+        int pos = from;
+        boolean bigEndian = data.order() == ByteOrder.BIG_ENDIAN;
+        while (pos < to && !invalid) {
+            if (inLeaf) {
+                int n = (int) Math.min(leafEnd - position, to - pos);
+                if (parseWords) {
+                    parseWords(data, pos, pos + n, bigEndian);
+                }
+                pos += n;
+                position += n;
+                if (position == leafEnd) {
+                    inLeaf = false;
+                    if (endLeaf()) {
+                        completed++;
+                    }
+                    closeContainers();
+                }
+                continue;
+            }
+            long size;
+            int type;
+            int headerSize;
+            if (headerLength == 0 && to - pos >= 8 && readInt(data, pos, bigEndian) != 1) {
+                // 常见情况：完整的8字节box头在本段内
+                size = readInt(data, pos, bigEndian) & 0xFFFFFFFFL;
+                type = readInt(data, pos + 4, bigEndian);
+                headerSize = 8;
+                pos += 8;
+                position += 8;
+            } else {
+                header[headerLength++] = data.get(pos++);
+                position++;
+                if (headerLength < 8) {
+                    continue;
+                }
+                size = readUint32(0);
+                if (size == 1 && headerLength < 16) {
+                    continue;
+                }
+                type = (int) readUint32(4);
+                headerSize = headerLength;
+                headerLength = 0;
+                if (size == 1) {
+                    size = (readUint32(8) << 32) | readUint32(12);
+                }
+            }
+            long start = position - headerSize;
+            long end;
+            if (size == 0 && depth == 0) {
+                end = Long.MAX_VALUE;
+            } else if (size < headerSize) {
+                invalid = true;
+                break;
+            } else {
+                end = start + size;
+            }
+            if (depth > 0 && end > containerEnd[depth - 1]) {
+                invalid = true;
+                break;
+            }
+            if (isContainer(type)) {
+                if (depth == MAX_DEPTH) {
+                    invalid = true;
+                    break;
+                }
+                containerType[depth] = type;
+                containerEnd[depth] = end;
+                depth++;
+                startContainer(type);
+                closeContainers();
+            } else {
+                startLeaf(type, end);
+                if (position == leafEnd) {
+                    inLeaf = false;
+                    if (endLeaf()) {
+                        completed++;
+                    }
+                    closeContainers();
+                }
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * 按32位字解析叶子box的内容：字对齐且数据足够时整字读取，否则逐字节拼接；
+     * 需要的字段读完后（如trun的样本已全部读出）清除parseWords，叶子剩余内容直接跳过
+     */
+    private void parseWords(ByteBuffer data, int from, int to, boolean bigEndian) {
+        int i = from;
+        while (i < to && parseWords) {
+            if (wordBytes == 0 && to - i >= 4) {
+                if (leafType == BOX_TRUN && wordIndex >= trunHeaderWords && sampleField == 0) {
+                    i = parseSamples(data, i, to, bigEndian);
+                    if (sample >= trunSamples) {
+                        parseWords = false;
+                        break;
+                    }
+                    if (to - i < 4) {
+                        continue;
+                    }
+                }
+                onWord(readInt(data, i, bigEndian));
+                wordIndex++;
+                i += 4;
+                continue;
+            }
+            word = (word << 8) | (data.get(i++) & 0xFF);
+            if (++wordBytes == 4) {
+                onWord(word);
+                wordBytes = 0;
+                wordIndex++;
+            }
+        }
+    }
+
+    /**
+     * trun中连续的完整样本直接按字段偏移读取，返回处理到的位置
+     */
+    private int parseSamples(ByteBuffer data, int from, int to, boolean bigEndian) {
+        int stride = trunSampleWords * 4;
+        int durationOffset = -1;
+        int flagsOffset = -1;
+        for (int f = 0; f < trunSampleWords; f++) {
+            if (trunSampleFields[f] == 0x100) {
+                durationOffset = f * 4;
+            } else if (trunSampleFields[f] == 0x400) {
+                flagsOffset = f * 4;
+            }
+        }
+        int i = from;
+        while (to - i >= stride && sample < trunSamples) {
+            startSample();
+            if (durationOffset >= 0) {
+                sampleDuration = readInt(data, i + durationOffset, bigEndian) & 0xFFFFFFFFL;
+            }
+            if (flagsOffset >= 0) {
+                sampleFlags = readInt(data, i + flagsOffset, bigEndian);
+            }
+            endSample();
+            sample++;
+            i += stride;
+        }
+        wordIndex += (i - from) / 4;
+        return i;
+    }
+
+    private static int readInt(ByteBuffer data, int index, boolean bigEndian) {
+        int w = data.getInt(index);
+        return bigEndian ? w : Integer.reverseBytes(w);
+    }
+
+    private long readUint32(int offset) {
+        return ((header[offset] & 0xFFL) << 24) | ((header[offset + 1] & 0xFFL) << 16)
+            | ((header[offset + 2] & 0xFFL) << 8) | (header[offset + 3] & 0xFFL);
+    }
+
+    private static boolean isContainer(int type) {
+        return type == BOX_MOOV || type == BOX_TRAK || type == BOX_MDIA || type == BOX_MVEX
+            || type == BOX_MOOF || type == BOX_TRAF;
+    }
+
+    private void startContainer(int type) {
+        switch (type) {
+            case BOX_MOOV:
+                hasInit = true;
+                break;
+            case BOX_TRAK:
+                currentTrak = trackCount < MAX_TRACKS ? trackCount++ : -1;
+                break;
+            case BOX_MOOF:
+                fragmentOpen = true;
+                pendingFrames = 0;
+                pendingKeyframes = 0;
+                pendingMediaNanos = 0;
+                break;
+            case BOX_TRAF:
+                trafTrack = -1;
+                tfdtSeen = false;
+                trafUnits = 0;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 关闭已经读完的容器（子box恰好填满容器时）
+     */
+    private void closeContainers() {
+        while (depth > 0 && position >= containerEnd[depth - 1]) {
+            depth--;
+            if (containerType[depth] == BOX_TRAF) {
+                endTraf();
+            } else if (containerType[depth] == BOX_TRAK) {
+                currentTrak = -1;
+            } else if (containerType[depth] == BOX_MOOV) {
+                selectMediaTrack();
+            }
+        }
+    }
+
+    private void startLeaf(int type, long end) {
+        inLeaf = true;
+        leafType = type;
+        leafEnd = end;
+        wordBytes = 0;
+        wordIndex = 0;
+        switch (type) {
+            case BOX_TKHD:
+            case BOX_MDHD:
+            case BOX_HDLR:
+                parseWords = currentTrak >= 0;
+                break;
+            case BOX_TREX:
+                parseWords = true;
+                trexTrack = -1;
+                break;
+            case BOX_TFHD:
+            case BOX_TFDT:
+                parseWords = depth > 0 && containerType[depth - 1] == BOX_TRAF;
+                break;
+            case BOX_TRUN:
+                // 只解析媒体轨的样本
+                parseWords = depth > 0 && containerType[depth - 1] == BOX_TRAF && trafTrack >= 0
+                    && trafTrack == mediaTrack;
+                trunSamples = 0;
+                trunHeaderWords = 2;
+                sample = 0;
+                sampleField = 0;
+                break;
+            default:
+                parseWords = false;
+                break;
+        }
+    }
+
+    /**
+     * 叶子box读完，返回是否完整收到了一个分片
+     */
+    private boolean endLeaf() {
+        if (leafType != BOX_MDAT || !fragmentOpen) {
+            return false;
+        }
+        fragmentOpen = false;
+        fragments++;
+        frames += pendingFrames;
+        keyframes += pendingKeyframes;
+        mediaNanos += pendingMediaNanos;
+        return true;
+    }
+
+    private void onWord(int w) {
+        if (wordIndex == 0 && leafType != BOX_TRUN) {
+            version = w >>> 24;
+            flags = w & 0xFFFFFF;
+            if (leafType == BOX_TFHD) {
+                // tfhd可选字段依次为：base_data_offset(2字)、sample_description_index、
+                // default_sample_duration、default_sample_size、default_sample_flags
+                int index = 2 + ((flags & 0x01) != 0 ? 2 : 0) + ((flags & 0x02) != 0 ? 1 : 0);
+                tfhdDurationIndex = (flags & 0x08) != 0 ? index++ : -1;
+                if ((flags & 0x10) != 0) {
+                    index++;
+                }
+                tfhdFlagsIndex = (flags & 0x20) != 0 ? index : -1;
+            }
+            return;
+        }
+        switch (leafType) {
+            case BOX_TKHD:
+                if (wordIndex == (version == 1 ? 5 : 3)) {
+                    trackIds[currentTrak] = w;
+                }
+                break;
+            case BOX_MDHD:
+                if (wordIndex == (version == 1 ? 5 : 3)) {
+                    timescales[currentTrak] = w & 0xFFFFFFFFL;
+                }
+                break;
+            case BOX_HDLR:
+                if (wordIndex == 2) {
+                    video[currentTrak] = w == HANDLER_VIDE;
+                }
+                break;
+            case BOX_TREX:
+                if (wordIndex == 1) {
+                    trexTrack = findTrack(w, false);
+                } else if (trexTrack >= 0 && wordIndex == 3) {
+                    trexDuration[trexTrack] = w & 0xFFFFFFFFL;
+                } else if (trexTrack >= 0 && wordIndex == 5) {
+                    trexFlags[trexTrack] = w;
+                }
+                break;
+            case BOX_TFHD:
+                onTfhdWord(w);
+                break;
+            case BOX_TFDT:
+                if (version == 1 && wordIndex == 1) {
+                    tfdtHigh = w & 0xFFFFFFFFL;
+                } else if (wordIndex == (version == 1 ? 2 : 1)) {
+                    tfdt = (version == 1 ? tfdtHigh << 32 : 0) | (w & 0xFFFFFFFFL);
+                    tfdtSeen = true;
+                }
+                break;
+            case BOX_TRUN:
+                onTrunWord(w);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onTfhdWord(int w) {
+        if (wordIndex == 1) {
+            trafTrack = findTrack(w, true);
+            defaultDuration = trafTrack >= 0 ? trexDuration[trafTrack] : 0;
+            defaultFlags = trafTrack >= 0 ? trexFlags[trafTrack] : 0;
+            if (mediaTrack < 0 && trafTrack >= 0) {
+                mediaTrack = trafTrack;
+            }
+        } else if (wordIndex == tfhdDurationIndex) {
+            defaultDuration = w & 0xFFFFFFFFL;
+        } else if (wordIndex == tfhdFlagsIndex) {
+            defaultFlags = w;
+        }
+    }
+
+    private void onTrunWord(int w) {
+        if (wordIndex < trunHeaderWords) {
+            if (wordIndex == 0) {
+                flags = w & 0xFFFFFF;
+                // 头部：flags、sample_count、[data_offset]、[first_sample_flags]
+                trunHeaderWords = 2 + ((flags & 0x01) != 0 ? 1 : 0) + ((flags & 0x04) != 0 ? 1 : 0);
+                trunSampleWords = 0;
+                for (int bit = 0x100; bit <= 0x800; bit <<= 1) {
+                    if ((flags & bit) != 0) {
+                        trunSampleFields[trunSampleWords++] = bit;
+                    }
+                }
+            } else if (wordIndex == 1) {
+                trunSamples = w & 0xFFFFFFFFL;
+            } else if (wordIndex == trunHeaderWords - 1 && (flags & 0x04) != 0) {
+                firstSampleFlags = w;
+            }
+            if (wordIndex == trunHeaderWords - 1) {
+                if (trunSampleWords == 0) {
+                    // 没有逐样本字段：全部样本使用默认值
+                    for (; sample < trunSamples; sample++) {
+                        startSample();
+                        endSample();
+                    }
+                }
+                if (sample >= trunSamples) {
+                    parseWords = false;
+                }
+            }
+            return;
+        }
+        if (sampleField == 0) {
+            startSample();
+        }
+        // 逐样本字段依次为：duration(0x100)、size(0x200)、flags(0x400)、composition_time_offset(0x800)
+        int field = trunSampleFields[sampleField];
+        if (field == 0x100) {
+            sampleDuration = w & 0xFFFFFFFFL;
+        } else if (field == 0x400) {
+            sampleFlags = w;
+        }
+        if (++sampleField == trunSampleWords) {
+            endSample();
+            sampleField = 0;
+            if (++sample >= trunSamples) {
+                // 样本之后的内容（填充等）不再解析
+                parseWords = false;
+            }
+        }
+    }
+
+    private void startSample() {
+        sampleDuration = defaultDuration;
+        sampleFlags = sample == 0 && (flags & 0x04) != 0 ? firstSampleFlags : defaultFlags;
+    }
+
+    private void endSample() {
+        if (trafTrack < 0 || trafTrack != mediaTrack) {
+            return;
+        }
+        pendingFrames++;
+        if ((sampleFlags & SAMPLE_NON_SYNC) == 0) {
+            pendingKeyframes++;
+        }
+        trafUnits += sampleDuration;
+    }
+
+    private void endTraf() {
+        if (trafTrack < 0 || trafTrack != mediaTrack) {
+            return;
+        }
+        long timescale = timescales[trafTrack];
+        if (timescale > 0) {
+            pendingMediaNanos += trafUnits * 1_000_000_000L / timescale;
+        }
+        if (tfdtSeen) {
+            if (expectedDecodeTime >= 0 && tfdt != expectedDecodeTime) {
+                discontinuities++;
+            }
+            expectedDecodeTime = tfdt + trafUnits;
+        } else if (expectedDecodeTime >= 0) {
+            expectedDecodeTime += trafUnits;
+        }
+    }
+
+    /**
+     * 按track_ID查找轨道；分片中出现moov里没有的轨道时按需登记（时间单位未知）
+     */
+    private int findTrack(int trackId, boolean add) {
+        for (int i = 0; i < trackCount; i++) {
+            if (trackIds[i] == trackId) {
+                return i;
+            }
+        }
+        if (!add || trackCount == MAX_TRACKS) {
+            return -1;
+        }
+        trackIds[trackCount] = trackId;
+        return trackCount++;
+    }
+
+    /**
+     * 媒体轨设为第一个视频轨（moov解析完之后才知道）
+     */
+    private void selectMediaTrack() {
+        for (int i = 0; i < trackCount; i++) {
+            if (video[i]) {
+                mediaTrack = i;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 数据不是合法的box结构，之后的数据不再解析
+     */
+    boolean isInvalid() {
+        return invalid;
+    }
+
+    /**
+     * 是否收到过moov（初始化段）或分片，即响应体确实是fMP4
+     */
+    boolean isFmp4() {
+        return !invalid && (hasInit || fragments > 0);
+    }
+
+    long getFragments() {
+        return fragments;
+    }
+
+    /**
+     * 媒体轨已完整收到的样本（帧）数
+     */
+    long getFrames() {
+        return frames;
+    }
+
+    long getKeyframes() {
+        return keyframes;
+    }
+
+    /**
+     * 媒体轨已完整收到的媒体时长（纳秒）
+     */
+    long getMediaNanos() {
+        return mediaNanos;
+    }
+
+    /**
+     * 分片解码时间（tfdt）与上一分片结束时间不连续的次数
+     */
+    long getDiscontinuities() {
+        return discontinuities;
+    }
+}
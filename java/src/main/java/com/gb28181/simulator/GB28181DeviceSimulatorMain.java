@@ -1,8 +1,13 @@
 package com.gb28181.simulator;
 
 import com.gb28181.simulator.device.GB28181DeviceSimulator;
+import com.gb28181.simulator.media.MediaCatalog;
+import com.gb28181.simulator.media.SyntheticStream;
+import com.gb28181.simulator.transport.Impairment;
+import com.gb28181.simulator.util.VirtualThreads;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
@@ -65,6 +70,98 @@ public class GB28181DeviceSimulatorMain {
         
         int channelCount = readIntInput("请输入每个设备的通道数（默认: 1）: ", 1);
         
+        int catalogItemsPerPacket = readIntInput("请输入Catalog应答每包通道数（0为不分包，默认: 2）: ", 2);
+        simulator.setCatalogItemsPerPacket(catalogItemsPerPacket);
+        int catalogInterval = readIntInput("请输入Catalog分包发送间隔毫秒（按"
+            + GB28181DeviceSimulator.PACING_TICK_MS + "毫秒向上取整，默认: 20）: ", 20);
+        simulator.setCatalogFragmentInterval(catalogInterval);
+        
+        int cpuCount = Runtime.getRuntime().availableProcessors();
+        int transportChoice = readIntInput("请选择SIP传输模式（1=每设备独立线程, 2=NIO事件循环, 3=共享端口，默认: 1）: ", 1);
+        // 共享端口模式下设备按序号轮流分配到 basePort 起始的若干端口
+        int sharedPortCount = 0;
+        boolean virtualThreads = false;
+        if (transportChoice == 2) {
+            simulator.setTransportMode(GB28181DeviceSimulator.TransportMode.NIO);
+            int loopCount = readIntInput("请输入事件循环线程数（默认: CPU核数 " + cpuCount + "）: ", cpuCount);
+            simulator.setEventLoopCount(loopCount);
+        } else if (transportChoice == 3) {
+            simulator.setTransportMode(GB28181DeviceSimulator.TransportMode.SHARED_PORT);
+            sharedPortCount = Math.max(1, readIntInput("请输入共享的本地SIP端口数（默认: 1）: ", 1));
+            int workers = readIntInput("请输入每个端口的接收线程数（SO_REUSEPORT，默认: CPU核数 " + cpuCount + "）: ", cpuCount);
+            simulator.setSharedPortWorkers(workers);
+        } else if (VirtualThreads.isSupported()) {
+            virtualThreads = readIntInput("请选择设备线程类型（1=平台线程, 2=虚拟线程，默认: 1）: ", 1) == 2;
+            simulator.setVirtualThreads(virtualThreads);
+        }
+        
+        int watermarkChoice = 0;
+        int streamChoice = readIntInput("请选择推流方式（1=FFmpeg转码, 2=内置PS/RTP封装, 3=FFmpeg共享编码转发，默认: 1）: ", 1);
+        if (streamChoice == 3) {
+            simulator.setStreamMode(GB28181DeviceSimulator.StreamMode.RELAY);
+        } else if (streamChoice == 2) {
+            simulator.setStreamMode(GB28181DeviceSimulator.StreamMode.NATIVE);
+            int senders = readIntInput("请输入RTP发送线程数（默认: CPU核数 " + cpuCount + "）: ", cpuCount);
+            simulator.setMediaSenderCount(senders);
+            int pacingRate = readIntInput("请输入每路RTP平滑发送速率kbps（0为源平均码率的4倍，默认: 0）: ", 0);
+            simulator.setPacingRateKbps(pacingRate);
+        } else {
+            watermarkChoice = readIntInput("请选择通道水印方式（1=每会话实时叠加, 2=首次点播时预渲染, 3=启动时预渲染全部通道，默认: 2）: ", 2);
+            if (watermarkChoice == 1) {
+                simulator.setWatermarkMode(GB28181DeviceSimulator.WatermarkMode.LIVE);
+            } else {
+                if (watermarkChoice == 3) {
+                    simulator.setWatermarkMode(GB28181DeviceSimulator.WatermarkMode.EAGER);
+                }
+                int renderDefault = Math.max(1, cpuCount / 2);
+                int renderThreads = readIntInput("请输入水印预渲染并发进程数（默认: " + renderDefault + "）: ", renderDefault);
+                simulator.setWatermarkRenderThreads(renderThreads);
+            }
+        }
+        
+        String mediaDirectory = readInput("请输入媒体文件目录或合成码流（留空使用test.mp4，合成码流如 "
+            + SyntheticStream.PREFIX + "h264:4000:25:50）: ").trim();
+        simulator.setMediaDirectory(mediaDirectory);
+        if (!mediaDirectory.isEmpty() && !SyntheticStream.isSynthetic(mediaDirectory)) {
+            int mappingChoice = readIntInput("请选择媒体源分配方式（1=轮询, 2=按通道ID哈希, 3=按映射文件"
+                + MediaCatalog.MAP_FILE + "，默认: 1）: ", 1);
+            if (mappingChoice == 2) {
+                simulator.setMediaMapping(MediaCatalog.Mapping.HASH);
+            } else if (mappingChoice == 3) {
+                simulator.setMediaMapping(MediaCatalog.Mapping.EXPLICIT);
+            }
+        }
+        
+        String impairmentInput = readInput("请输入网络损伤参数或按设备/通道指定的文件（留空不启用，如 "
+            + "loss=1%,delay=50ms,jitter=20ms）: ").trim();
+        Impairment.Profiles impairments = null;
+        int impairmentChoice = 1;
+        try {
+            impairments = Impairment.Profiles.load(impairmentInput);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("✗ 网络损伤参数无效，不启用: " + e.getMessage());
+        }
+        if (impairments != null) {
+            simulator.setImpairments(impairments);
+            impairmentChoice = readIntInput("请选择网络损伤作用范围（1=SIP和媒体, 2=仅媒体, 3=仅SIP，默认: 1）: ", 1);
+            if (impairmentChoice == 2) {
+                simulator.setImpairmentScope(GB28181DeviceSimulator.ImpairmentScope.MEDIA);
+            } else if (impairmentChoice == 3) {
+                simulator.setImpairmentScope(GB28181DeviceSimulator.ImpairmentScope.SIP);
+            }
+        }
+        
+        String jitterInput = readInput("请输入心跳/重注册定时抖动比例（0~1，默认: 0.1）: ").trim();
+        double timerJitter = 0.1;
+        if (!jitterInput.isEmpty()) {
+            try {
+                timerJitter = Double.parseDouble(jitterInput);
+            } catch (NumberFormatException e) {
+                // 使用默认值
+            }
+        }
+        simulator.setTimerJitter(timerJitter);
+        
         // 创建设备
         String baseDeviceId = "3402000000132000";
         int basePort = 15060;
@@ -79,7 +176,7 @@ public class GB28181DeviceSimulatorMain {
             String deviceId = baseDeviceId + String.format("%04d", i + 1);
             String deviceName = "模拟设备" + (i + 1);
             String localIp = defaultLocalIp;
-            int localPort = basePort + i;
+            int localPort = sharedPortCount > 0 ? basePort + (i % sharedPortCount) : basePort + i;
             
             simulator.createDevice(
                 deviceId,
@@ -101,6 +198,29 @@ public class GB28181DeviceSimulatorMain {
         System.out.println("  设备数量: " + deviceCount);
         System.out.println("  每设备通道数: " + channelCount);
         System.out.println("  总通道数: " + (deviceCount * channelCount));
+        if (transportChoice == 2) {
+            System.out.println("  传输模式: NIO事件循环");
+        } else if (transportChoice == 3) {
+            System.out.println("  传输模式: 共享端口（" + sharedPortCount + " 个端口，起始 " + basePort + "）");
+        } else {
+            System.out.println("  传输模式: 每设备独立线程" + (virtualThreads ? "（虚拟线程）" : ""));
+        }
+        if (streamChoice == 2) {
+            System.out.println("  推流方式: 内置PS/RTP封装");
+        } else if (streamChoice == 3) {
+            System.out.println("  推流方式: FFmpeg共享编码转发");
+        } else {
+            System.out.println("  推流方式: FFmpeg转码");
+            System.out.println("  通道水印: " + (watermarkChoice == 1 ? "每会话实时叠加"
+                : watermarkChoice == 3 ? "启动时预渲染全部通道" : "首次点播时预渲染"));
+        }
+        System.out.println("  媒体" + (SyntheticStream.isSynthetic(mediaDirectory) ? "源: 合成码流 " : "文件: ")
+            + (mediaDirectory.isEmpty() ? "test.mp4" : mediaDirectory));
+        if (impairments != null) {
+            System.out.println("  网络损伤: " + (new File(impairmentInput).isFile() ? "按文件 " : "")
+                + impairmentInput + "（作用于" + (impairmentChoice == 2 ? "媒体" : impairmentChoice == 3 ? "SIP"
+                    : "SIP和媒体") + "）");
+        }
         System.out.println("=".repeat(60));
         
         // 启动所有设备
@@ -1,78 +1,226 @@
 package com.gb28181.simulator;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 全局统计管理器（线程安全）
+ *
+ * 读数据的线程通过registerStream返回的StreamInfo直接累加字节数（LongAdder，无锁）；
+ * 全局统计线程每秒采样一次各流和全局的累计值，得出全局和每路的瞬时、10秒和60秒速率，
+ * 每秒输出10秒速率最低的几路，结束时输出每路平均速率和最慢的几路
+ *
+ * 启动时延（响应头、首字节、首关键帧）记入直方图，每秒输出本秒的分布，结束时输出总的百分位
+ *
+ * 播放质量（帧率、卡顿、媒体时间偏差）按fMP4分片统计：每秒输出全局帧率和卡顿中的路数，
+ * 每路结束时汇总，有卡顿或没有媒体分片的路单独输出一行
  */
 class GlobalStats {
+    static final int WINDOW_SECONDS = 60;
+    static final int SHORT_WINDOW_SECONDS = 10;
+    // 每秒和结束时列出的最慢路数
+    static final int SLOWEST_STREAMS = 5;
+
     private final Map<String, StreamInfo> activeStreams = new ConcurrentHashMap<>();
     private final AtomicBoolean globalStatsStop = new AtomicBoolean(false);
     private Thread globalStatsThread;
     private final AtomicLong startPlayTime = new AtomicLong(0);
+    final LongAdder totalBytes = new LongAdder();
+    final LatencyHistogram headerLatency = new LatencyHistogram();
+    final LatencyHistogram firstByteLatency = new LatencyHistogram();
+    final LatencyHistogram firstKeyframeLatency = new LatencyHistogram();
+    private final LongAdder startedStreams = new LongAdder();
+    private final LongAdder noResponseStreams = new LongAdder();
+    private final LongAdder noKeyframeStreams = new LongAdder();
+    final LongAdder totalFrames = new LongAdder();
+    // 已结束的fMP4流的播放质量
+    private final LongAdder mediaStreams = new LongAdder();
+    private final DoubleAdder fpsSum = new DoubleAdder();
+    private final LongAccumulator minFpsCenti = new LongAccumulator(Long::min, Long.MAX_VALUE);
+    private final LongAdder stalledStreams = new LongAdder();
+    private final LongAdder stallEvents = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+    private final LongAdder discontinuities = new LongAdder();
+    private final LatencyHistogram mediaLag = new LatencyHistogram(); // 媒体时间落后墙上时间的量
+    // 已结束且收到响应的流的平均速率
+    private final LongAdder ratedStreams = new LongAdder();
+    private final DoubleAdder avgMbpsSum = new DoubleAdder();
+    private final LongAccumulator minAvgMbpsMilli = new LongAccumulator(Long::min, Long.MAX_VALUE);
+    // 平均速率最低的SLOWEST_STREAMS路（堆顶为其中最快的一路），访问时锁定
+    private final PriorityQueue<StreamRate> slowestEnded = new PriorityQueue<>(
+        Comparator.comparingDouble((StreamRate r) -> r.avgMbps).reversed());
+    // 只由全局统计线程访问
+    private RateWindow totalWindow = new RateWindow(WINDOW_SECONDS);
+    private RateWindow frameWindow = new RateWindow(WINDOW_SECONDS);
+    private LatencyHistogram.Snapshot[] lastLatency;
 
     /**
      * 注册一个播放流
+     *
+     * @param requestNanos 该路获得并发名额后开始拉流的时刻（System.nanoTime）
+     * @param scheduledNanos 该路按计划应发起的时刻（System.nanoTime），启动时延从这里算起
+     * @return 该流的统计对象，读数据时直接调用其onHeaders/onBody/addBytes
      */
-    public void registerStream(String streamKey) {
+    public StreamInfo registerStream(String streamKey, long requestNanos, long scheduledNanos) {
         long currentTime = System.currentTimeMillis() / 1000;
         startPlayTime.compareAndSet(0, currentTime);
-        
-        activeStreams.put(streamKey, new StreamInfo(currentTime));
+        startedStreams.increment();
+
+        StreamInfo info = new StreamInfo(streamKey, currentTime, requestNanos, scheduledNanos, this);
+        activeStreams.put(streamKey, info);
+        return info;
+    }
+
+    /**
+     * 注销一个播放流（同一streamKey已被重新注册时不影响新的流）
+     */
+    public void unregisterStream(StreamInfo info) {
+        activeStreams.remove(info.streamKey, info);
+        if (!info.hasHeaders()) {
+            noResponseStreams.increment();
+        } else if (!info.hasKeyframe()) {
+            noKeyframeStreams.increment();
+        }
+        long now = System.nanoTime();
+        info.finish(now);
+        if (info.hasHeaders()) {
+            recordStreamRate(info, now);
+        }
+        Fmp4Parser parser = info.getParser();
+        if (!parser.isFmp4()) {
+            return;
+        }
+        PlaybackModel playback = info.playback;
+        if (parser.getFrames() == 0) {
+            System.out.println("✗ [" + info.streamKey + "] 收到fMP4初始化段后没有完整的媒体分片（"
+                + info.getBytesTotal() + " 字节）");
+            return;
+        }
+        double fps = info.getDeliveredFps(now);
+        mediaStreams.increment();
+        fpsSum.add(fps);
+        minFpsCenti.accumulate(Math.round(fps * 100));
+        mediaLag.recordNanos(Math.max(0, -playback.getDriftNanos()));
+        discontinuities.add(parser.getDiscontinuities());
+        if (playback.getStalls() > 0) {
+            stalledStreams.increment();
+            stallEvents.add(playback.getStalls());
+            stallNanos.add(playback.getStallNanos());
+            System.out.printf("⚠ [%s] 卡顿 %d 次共 %.1fs │ 帧率: %.1f fps │ 媒体时间偏差: %+.1fs%n", info.streamKey,
+                playback.getStalls(), playback.getStallNanos() / 1e9, fps, playback.getDriftNanos() / 1e9);
+        }
     }
 
     /**
-     * 注销一个播放流
+     * 记录一路结束时的平均速率（从开始拉流到结束）
      */
-    public void unregisterStream(String streamKey) {
-        activeStreams.remove(streamKey);
+    private void recordStreamRate(StreamInfo info, long nowNanos) {
+        long elapsed = nowNanos - info.requestNanos;
+        if (elapsed <= 0) {
+            return;
+        }
+        StreamRate rate = new StreamRate(info.streamKey, info.getBytesTotal() * 8e3 / elapsed, info.minMbps10s);
+        ratedStreams.increment();
+        avgMbpsSum.add(rate.avgMbps);
+        minAvgMbpsMilli.accumulate(Math.round(rate.avgMbps * 1000));
+        synchronized (slowestEnded) {
+            slowestEnded.add(rate);
+            if (slowestEnded.size() > SLOWEST_STREAMS) {
+                slowestEnded.poll();
+            }
+        }
     }
 
     /**
-     * 更新流的字节统计
+     * 采样全局和各流的累计字节数（全局统计线程每秒调用一次）
      */
-    public void updateBytes(String streamKey, long bytesCount) {
-        StreamInfo info = activeStreams.get(streamKey);
-        if (info != null) {
-            synchronized (info) {
-                info.bytesTotal += bytesCount;
-                long currentTime = System.currentTimeMillis() / 1000;
-                long elapsed = currentTime - info.lastUpdateTime;
-                
-                if (elapsed >= 1) {
-                    info.bytesLastSec = bytesCount;
-                    info.lastUpdateTime = currentTime;
-                } else {
-                    info.bytesLastSec += bytesCount;
+    private void sample() {
+        long now = System.nanoTime();
+        totalWindow.sample(totalBytes.sum(), now);
+        frameWindow.sample(totalFrames.sum(), now);
+        for (StreamInfo info : activeStreams.values()) {
+            info.window.sample(info.getBytesTotal(), now);
+            if (info.window.span(SHORT_WINDOW_SECONDS) == SHORT_WINDOW_SECONDS) {
+                double mbps = info.window.mbps(SHORT_WINDOW_SECONDS);
+                if (info.minMbps10s < 0 || mbps < info.minMbps10s) {
+                    info.minMbps10s = mbps;
                 }
             }
         }
     }
 
     /**
-     * 获取当前统计信息
+     * 输出已播放满10秒的流中10秒速率最低的几路及其瞬时、10秒、60秒速率（由全局统计线程调用）
+     */
+    private void printSlowestActive(String color, String reset) {
+        // 按10秒速率保留最低的SLOWEST_STREAMS路（堆顶为其中最快的一路）
+        PriorityQueue<StreamInfo> slowest = new PriorityQueue<>(
+            Comparator.comparingDouble((StreamInfo info) -> info.window.mbps(SHORT_WINDOW_SECONDS)).reversed());
+        for (StreamInfo info : activeStreams.values()) {
+            if (info.window.span(SHORT_WINDOW_SECONDS) < SHORT_WINDOW_SECONDS) {
+                continue;
+            }
+            slowest.add(info);
+            if (slowest.size() > SLOWEST_STREAMS) {
+                slowest.poll();
+            }
+        }
+        if (slowest.isEmpty()) {
+            return;
+        }
+        List<StreamInfo> ordered = new ArrayList<>(slowest);
+        ordered.sort(Comparator.comparingDouble(info -> info.window.mbps(SHORT_WINDOW_SECONDS)));
+        StringBuilder line = new StringBuilder(color).append("[最慢的路] 瞬时/10秒/60秒 Mbps");
+        for (StreamInfo info : ordered) {
+            line.append(String.format(" │ %s %.2f/%.2f/%.2f", info.streamKey, info.window.mbps(1),
+                info.window.mbps(SHORT_WINDOW_SECONDS), info.window.mbps(WINDOW_SECONDS)));
+        }
+        System.out.println(line.append(reset));
+    }
+
+    /**
+     * 获取当前统计信息（基于最近一次采样，由全局统计线程调用）
      */
     public StatsResult getStats() {
-        int activeCount = activeStreams.size();
-        long totalBytes = activeStreams.values().stream()
-                .mapToLong(info -> {
-                    synchronized (info) {
-                        return info.bytesTotal;
-                    }
-                })
-                .sum();
-        double totalMb = totalBytes / (1024.0 * 1024.0);
-        
+        int activeCount = 0;
+        int stalledCount = 0;
+        int rebufferingCount = 0;
+        int mediaCount = 0;
+        long now = System.nanoTime();
+        for (StreamInfo info : activeStreams.values()) {
+            activeCount++;
+            if (info.playback.hasMedia()) {
+                mediaCount++;
+            }
+            if (info.playback.isStalled(now)) {
+                rebufferingCount++;
+            }
+            // 已播放满10秒但这10秒内没有收到数据
+            if (info.window.span(SHORT_WINDOW_SECONDS) == SHORT_WINDOW_SECONDS
+                    && info.window.deltaIn(SHORT_WINDOW_SECONDS) == 0) {
+                stalledCount++;
+            }
+        }
+        double totalMb = totalBytes.sum() / (1024.0 * 1024.0);
+
         long playDuration = 0;
         long startTime = startPlayTime.get();
         if (startTime > 0) {
             playDuration = (System.currentTimeMillis() / 1000) - startTime;
         }
-        
-        return new StatsResult(activeCount, totalMb, playDuration);
+
+        return new StatsResult(activeCount, totalMb, playDuration, totalWindow.mbps(1),
+                totalWindow.mbps(SHORT_WINDOW_SECONDS), totalWindow.mbps(WINDOW_SECONDS), stalledCount,
+                frameWindow.perSecond(1), mediaCount, rebufferingCount, totalFrames.sum() > 0);
     }
 
     /**
@@ -87,9 +235,15 @@ class GlobalStats {
         
         globalStatsThread = new Thread(() -> {
             long lastTime = System.currentTimeMillis() / 1000;
+            // 每轮播放重新开始计算速率，不把两轮之间的空闲时间算进窗口
+            totalWindow = new RateWindow(WINDOW_SECONDS);
+            frameWindow = new RateWindow(WINDOW_SECONDS);
+            lastLatency = latencySnapshots();
+            sample();
             while (!globalStatsStop.get()) {
                 long currentTime = System.currentTimeMillis() / 1000;
                 if (currentTime - lastTime >= 1) {
+                    sample();
                     StatsResult stats = getStats();
                     // 灰绿色输出全局统计，包含开始播放时长
                     String grayGreen = "\033[38;5;245m";
@@ -97,6 +251,15 @@ class GlobalStats {
                     System.out.println(grayGreen + "═══════════════════════════════════════════════════════════════════════════════" + reset);
                     System.out.printf("%s[全局统计] │ 播放路数: %d 路 │ 总流量: %.3f MB │ 开始播放时长: %ds%s%n",
                             grayGreen, stats.activeCount, stats.totalMb, stats.playDuration, reset);
+                    System.out.printf("%s[全局速率] │ 瞬时: %.2f Mbps │ 10秒: %.2f Mbps │ 60秒: %.2f Mbps │ 10秒无数据: %d 路%s%n",
+                            grayGreen, stats.instantMbps, stats.avg10sMbps, stats.avg60sMbps, stats.stalledCount, reset);
+                    if (stats.hasMedia) {
+                        System.out.printf("%s[播放质量] │ 帧率: %.0f fps（平均每路 %.1f）│ 卡顿中: %d 路%s%n", grayGreen,
+                                stats.framesPerSecond, stats.mediaCount > 0 ? stats.framesPerSecond / stats.mediaCount : 0,
+                                stats.rebufferingCount, reset);
+                    }
+                    printSlowestActive(grayGreen, reset);
+                    printLatencyInterval(grayGreen, reset);
                     System.out.println(grayGreen + "═══════════════════════════════════════════════════════════════════════════════" + reset);
                     lastTime = currentTime;
                 }
@@ -106,11 +269,104 @@ class GlobalStats {
                     break;
                 }
             }
-        });
+        }, "GlobalStats");
         globalStatsThread.setDaemon(true);
         globalStatsThread.start();
     }
 
+    private LatencyHistogram.Snapshot[] latencySnapshots() {
+        return new LatencyHistogram.Snapshot[] {
+            headerLatency.snapshot(), firstByteLatency.snapshot(), firstKeyframeLatency.snapshot()
+        };
+    }
+
+    /**
+     * 输出本秒内记录的启动时延（本秒没有新的记录时不输出）
+     */
+    private void printLatencyInterval(String color, String reset) {
+        LatencyHistogram.Snapshot[] current = latencySnapshots();
+        StringBuilder line = new StringBuilder(color).append("[启动时延]");
+        boolean any = false;
+        String[] names = {"响应头", "首字节", "首关键帧"};
+        for (int i = 0; i < current.length; i++) {
+            LatencyHistogram.Snapshot interval = current[i].minus(lastLatency[i]);
+            if (interval.count == 0) {
+                continue;
+            }
+            any = true;
+            line.append(String.format(" │ %s %d路 p50 %.1f p99 %.1f 最大 %.1f ms", names[i], interval.count,
+                interval.percentileMillis(50), interval.percentileMillis(99), interval.maxMillis()));
+        }
+        lastLatency = current;
+        if (any) {
+            System.out.println(line.append(reset));
+        }
+    }
+
+    /**
+     * 输出从开始到现在全部播放的启动时延百分位（QueryAndConcurrentLive结束时调用）
+     */
+    public void printLatencySummary() {
+        LatencyHistogram.Snapshot[] all = latencySnapshots();
+        String[] names = {"请求→响应头", "请求→首字节", "请求→首关键帧"};
+        System.out.println("启动时延（ms，从按计划应发起的时刻计时，含因前面的路变慢而推迟拿到并发名额的时间，共发起 " + startedStreams.sum() + " 路）:");
+        System.out.printf("  %-12s %8s %10s %10s %10s %10s %10s%n", "", "路数", "p50", "p90", "p99", "p99.9", "最大");
+        for (int i = 0; i < all.length; i++) {
+            LatencyHistogram.Snapshot h = all[i];
+            System.out.printf("  %-12s %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n", names[i], h.count,
+                h.percentileMillis(50), h.percentileMillis(90), h.percentileMillis(99), h.percentileMillis(99.9),
+                h.maxMillis());
+        }
+        if (noResponseStreams.sum() > 0) {
+            System.out.println("  ⚠ 未收到响应头: " + noResponseStreams.sum() + " 路（连接失败或超时，不计入时延）");
+        }
+        if (noKeyframeStreams.sum() > 0) {
+            System.out.println("  ⚠ 收到响应但没有媒体分片: " + noKeyframeStreams.sum() + " 路");
+        }
+    }
+
+    /**
+     * 输出已结束的fMP4流的播放质量汇总（QueryAndConcurrentLive结束时调用）
+     */
+    public void printPlaybackSummary() {
+        long streams = mediaStreams.sum();
+        if (streams == 0) {
+            return;
+        }
+        LatencyHistogram.Snapshot lag = mediaLag.snapshot();
+        System.out.println("播放质量（共 " + streams + " 路收到fMP4媒体分片）:");
+        System.out.printf("  平均帧率: %.1f fps（最低 %.1f fps）%n", fpsSum.sum() / streams, minFpsCenti.get() / 100.0);
+        System.out.printf("  卡顿: %d 路共 %d 次，累计 %.1fs（缓冲 %dms 的播放模型）%n", stalledStreams.sum(),
+            stallEvents.sum(), stallNanos.sum() / 1e9, PlaybackModel.BUFFER_NANOS / 1_000_000);
+        System.out.printf("  媒体时间落后墙上时间（ms）: p50 %.1f │ p99 %.1f │ 最大 %.1f%n", lag.percentileMillis(50),
+            lag.percentileMillis(99), lag.maxMillis());
+        if (discontinuities.sum() > 0) {
+            System.out.println("  ⚠ 分片时间戳不连续: " + discontinuities.sum() + " 次");
+        }
+    }
+
+    /**
+     * 输出已结束的流的每路平均速率和最慢的几路（QueryAndConcurrentLive结束时调用）
+     */
+    public void printRateSummary() {
+        long streams = ratedStreams.sum();
+        if (streams == 0) {
+            return;
+        }
+        System.out.printf("每路速率（共 %d 路收到响应，从开始拉流到结束的平均）: 平均 %.2f Mbps │ 最低 %.2f Mbps%n",
+            streams, avgMbpsSum.sum() / streams, minAvgMbpsMilli.get() / 1000.0);
+        List<StreamRate> ordered;
+        synchronized (slowestEnded) {
+            ordered = new ArrayList<>(slowestEnded);
+        }
+        ordered.sort(Comparator.comparingDouble(r -> r.avgMbps));
+        System.out.println("  最慢的 " + ordered.size() + " 路:");
+        for (StreamRate rate : ordered) {
+            System.out.printf("  %s │ 平均 %.2f Mbps │ 10秒最低 %s%n", rate.streamKey, rate.avgMbps,
+                rate.minMbps10s < 0 ? "未满10秒" : String.format("%.2f Mbps", rate.minMbps10s));
+        }
+    }
+
     /**
      * 停止全局统计
      */
@@ -127,19 +383,51 @@ class GlobalStats {
         startPlayTime.set(0);
     }
 
+    /**
+     * 一路结束时的速率
+     */
+    private static final class StreamRate {
+        final String streamKey;
+        final double avgMbps;
+        final double minMbps10s;
+
+        StreamRate(String streamKey, double avgMbps, double minMbps10s) {
+            this.streamKey = streamKey;
+            this.avgMbps = avgMbps;
+            this.minMbps10s = minMbps10s;
+        }
+    }
+
     /**
      * 统计结果
      */
     static class StatsResult {
         final int activeCount;
-        final double totalMb;
+        final double totalMb;        // 本进程累计收到的流量
         final long playDuration;
+        final double instantMbps;    // 最近1秒
+        final double avg10sMbps;
+        final double avg60sMbps;
+        final int stalledCount;      // 最近10秒没有收到数据的路数
+        final double framesPerSecond; // 最近1秒完整收到的视频帧
+        final int mediaCount;        // 收到过媒体分片的路数
+        final int rebufferingCount;  // 按播放模型当前处于卡顿的路数
+        final boolean hasMedia;      // 是否收到过fMP4媒体分片
 
-        StatsResult(int activeCount, double totalMb, long playDuration) {
+        StatsResult(int activeCount, double totalMb, long playDuration, double instantMbps,
+                    double avg10sMbps, double avg60sMbps, int stalledCount, double framesPerSecond,
+                    int mediaCount, int rebufferingCount, boolean hasMedia) {
             this.activeCount = activeCount;
             this.totalMb = totalMb;
             this.playDuration = playDuration;
+            this.instantMbps = instantMbps;
+            this.avg10sMbps = avg10sMbps;
+            this.avg60sMbps = avg60sMbps;
+            this.stalledCount = stalledCount;
+            this.framesPerSecond = framesPerSecond;
+            this.mediaCount = mediaCount;
+            this.rebufferingCount = rebufferingCount;
+            this.hasMedia = hasMedia;
         }
     }
 }
-
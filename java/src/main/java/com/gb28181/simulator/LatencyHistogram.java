@@ -0,0 +1,128 @@
+package com.gb28181.simulator;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 时延直方图（对数-线性分桶，与HdrHistogram同样的思路）：每个2的幂区间再均分为64个桶，
+ * 相对误差不超过1/64；记录只是一次数组元素的原子加，可由任意线程无锁并发调用
+ *
+ * 数值单位为微秒，最大约38小时（更大的值计入最后一个桶）
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);
+    private static final long MAX_VALUE = (1L << 37) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    private static int index(long value) {
+        // value >= 128时：位移量 = 有效位数 - 7，桶号 = 位移量 * 64 + 高7位
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << (SUB_BUCKET_BITS - 1)) + (int) (value >>> shift);
+    }
+
+    /**
+     * 桶内的最大值（百分位按此报告，不会低估）
+     */
+    private static long highestEquivalent(int index) {
+        if (index < 2 * SUB_BUCKET_HALF) {
+            return index;
+        }
+        int shift = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+        long sub = index - ((long) shift << (SUB_BUCKET_BITS - 1));
+        return (sub << shift) + (1L << shift) - 1;
+    }
+
+    /**
+     * 记录一个时延（纳秒，按微秒分桶）
+     */
+    void recordNanos(long nanos) {
+        long micros = Math.min(MAX_VALUE, Math.max(0, nanos / 1000));
+        counts.getAndIncrement(index(micros));
+        total.increment();
+        max.accumulate(micros);
+    }
+
+    long getTotalCount() {
+        return total.sum();
+    }
+
+    /**
+     * 当前累计分布的快照（最大值为精确值）
+     */
+    Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, max.get());
+    }
+
+    /**
+     * 直方图快照，两次快照相减得到这段时间内的分布
+     */
+    static final class Snapshot {
+        private final long[] counts;
+        final long count;
+        private final long exactMax; // 微秒，-1表示按桶估计
+
+        private Snapshot(long[] counts, long count, long exactMax) {
+            this.counts = counts;
+            this.count = count;
+            this.exactMax = exactMax;
+        }
+
+        /**
+         * 本快照减去较早的快照（同一直方图）
+         */
+        Snapshot minus(Snapshot earlier) {
+            long[] diff = new long[counts.length];
+            long n = 0;
+            for (int i = 0; i < counts.length; i++) {
+                diff[i] = counts[i] - earlier.counts[i];
+                n += diff[i];
+            }
+            return new Snapshot(diff, n, -1);
+        }
+
+        /**
+         * 百分位值（毫秒），没有数据时为0
+         *
+         * @param percentile 0~100
+         */
+        double percentileMillis(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    long value = highestEquivalent(i);
+                    return (exactMax >= 0 ? Math.min(value, exactMax) : value) / 1000.0;
+                }
+            }
+            return maxMillis();
+        }
+
+        double maxMillis() {
+            if (exactMax >= 0) {
+                return exactMax / 1000.0;
+            }
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return highestEquivalent(i) / 1000.0;
+                }
+            }
+            return 0;
+        }
+    }
+}
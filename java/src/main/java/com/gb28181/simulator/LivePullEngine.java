@@ -0,0 +1,549 @@
+package com.gb28181.simulator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 事件驱动的live.mp4拉流引擎：少量Selector线程驱动全部HTTP/1.1流式响应
+ *
+ * 每路拉流只有一个非阻塞连接和少量状态，不占用线程；响应体读入所在事件循环共用的
+ * 直接缓冲区后即丢弃，只累计字节数。支持chunked和Content-Length响应、重定向、
+ * 连接/空闲超时，到达播放时长后主动断开。仅支持http（https由调用方改用阻塞方式）
+ */
+class LivePullEngine {
+
+    public static final int DEFAULT_READ_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int MAX_REDIRECTS = 5;
+
+    private final List<Loop> loops = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final GlobalStats stats;
+
+    /**
+     * @param loopCount 事件循环线程数
+     * @param readBufferSize 每个事件循环的读缓冲区大小
+     * @param stats 全局统计（每路按streamKey注册，记录字节数和启动时延）
+     */
+    LivePullEngine(int loopCount, int readBufferSize, GlobalStats stats) throws IOException {
+        for (int i = 0; i < Math.max(1, loopCount); i++) {
+            loops.add(new Loop("LivePull-" + i, readBufferSize));
+        }
+        this.stats = stats;
+    }
+
+    /**
+     * 启动全部事件循环线程
+     */
+    void start() {
+        for (Loop loop : loops) {
+            loop.start();
+        }
+    }
+
+    /**
+     * 开始拉一路流：连接在timeoutSeconds内未建立或未收到响应头、或读取空闲超过该时长时结束，
+     * 达到播放时长后主动断开。是否播放成功见StreamInfo.isPlayable
+     *
+     * @param scheduledNanos 该路按计划应发起的时刻（System.nanoTime），见QueryAndConcurrentLive.scheduledStart
+     */
+    CompletableFuture<Boolean> pull(String url, String token, String streamKey, int durationSeconds,
+                                    double timeoutSeconds, long scheduledNanos) {
+        Stream stream = new Stream(streamKey, token, durationSeconds * 1_000_000_000L,
+            (long) (timeoutSeconds * 1_000_000_000L), scheduledNanos);
+        try {
+            stream.target = withToken(URI.create(url), token);
+        } catch (IllegalArgumentException e) {
+            stream.future.complete(false);
+            return stream.future;
+        }
+        loops.get(Math.floorMod(next.getAndIncrement(), loops.size())).submit(stream);
+        return stream.future;
+    }
+
+    /**
+     * 事件循环线程数
+     */
+    int size() {
+        return loops.size();
+    }
+
+    /**
+     * 停止全部事件循环，未结束的拉流按失败结束
+     */
+    void stop() {
+        for (Loop loop : loops) {
+            loop.stop();
+        }
+    }
+
+    /**
+     * 附加:X_Access_Token查询参数（与HttpUtils.getStream一致）
+     */
+    private static URI withToken(URI uri, String token) {
+        String query = ":X_Access_Token=" + URLEncoder.encode(token, StandardCharsets.UTF_8);
+        String raw = uri.getRawQuery();
+        return URI.create(uri.getScheme() + "://" + uri.getRawAuthority() + uri.getRawPath()
+            + "?" + (raw != null && !raw.isEmpty() ? raw + "&" : "") + query);
+    }
+
+    private enum State {
+        CONNECTING, SENDING, HEADERS, BODY
+    }
+
+    /**
+     * 一路拉流（除future外只由所属事件循环线程访问）
+     */
+    private static final class Stream {
+        final String streamKey;
+        final String token;
+        final long durationNanos;
+        final long timeoutNanos;
+        final long requestNanos = System.nanoTime(); // 调用pull的时刻（调用方已获得并发名额）
+        final long scheduledNanos; // 按计划应发起的时刻，启动时延从这里算起
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        URI target;
+        int redirects;
+        long startNanos;
+        long lastActivityNanos;
+        long timerNanos; // 当前有效的定时器时刻（定时器队列中时刻不一致的条目已过期）
+
+        SocketChannel channel;
+        SelectionKey key;
+        State state;
+        ByteBuffer request;
+        byte[] header;
+        int headerLength;
+        StreamInfo info; // 全局统计，注册前为null
+
+        // 响应体
+        long contentLength; // -1为读到连接关闭
+        boolean chunked;
+        long chunkRemaining; // chunked：当前块剩余数据字节，-1为正在读块大小行
+        int chunkCrlf;       // chunked：块数据后待跳过的CRLF字节数
+        long chunkSize;
+        boolean chunkSizeDone;
+        long bodyBytes;
+
+        Stream(String streamKey, String token, long durationNanos, long timeoutNanos, long scheduledNanos) {
+            this.streamKey = streamKey;
+            this.token = token;
+            this.durationNanos = durationNanos;
+            this.timeoutNanos = timeoutNanos;
+            this.scheduledNanos = scheduledNanos;
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        final Stream stream;
+        final long atNanos;
+
+        Timer(Stream stream, long atNanos) {
+            this.stream = stream;
+            this.atNanos = atNanos;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(atNanos, other.atNanos);
+        }
+    }
+
+    /**
+     * 一个事件循环：一个Selector、一个读缓冲区，驱动分配给它的全部拉流
+     */
+    private final class Loop implements Runnable {
+        private final String name;
+        private final Selector selector;
+        private final ByteBuffer readBuffer;
+        private final Queue<Stream> pending = new ConcurrentLinkedQueue<>();
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>(); // 仅事件循环线程访问
+        private final Set<Stream> streams = new HashSet<>(); // 仅事件循环线程访问
+        private volatile boolean running;
+        private Thread thread;
+
+        Loop(String name, int readBufferSize) throws IOException {
+            this.name = name;
+            this.selector = Selector.open();
+            this.readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+        }
+
+        void start() {
+            running = true;
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void submit(Stream stream) {
+            pending.add(stream);
+            selector.wakeup();
+        }
+
+        void stop() {
+            running = false;
+            selector.wakeup();
+            if (thread != null) {
+                try {
+                    thread.join(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long now = System.nanoTime();
+                Stream stream;
+                while ((stream = pending.poll()) != null) {
+                    stream.startNanos = now;
+                    stream.info = stats.registerStream(stream.streamKey, stream.requestNanos, stream.scheduledNanos);
+                    streams.add(stream);
+                    open(stream, now);
+                }
+                now = runTimers(System.nanoTime());
+                Timer first = timers.peek();
+                long waitMillis = first == null ? 0 : Math.max(1, (first.atNanos - now + 999_999) / 1_000_000);
+                try {
+                    selector.select(waitMillis);
+                } catch (IOException e) {
+                    System.err.println("✗ 拉流事件循环出错: " + e.getMessage());
+                    continue;
+                }
+                now = System.nanoTime();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Stream s = (Stream) key.attachment();
+                    if (!key.isValid() || s.future.isDone()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isConnectable()) {
+                            onConnect(s, now);
+                        } else if (key.isWritable()) {
+                            onWritable(s);
+                        } else if (key.isReadable()) {
+                            onReadable(s, now);
+                        }
+                    } catch (IOException e) {
+                        finish(s, s.info.isPlayable());
+                    }
+                }
+            }
+            for (Stream s : new ArrayList<>(streams)) {
+                finish(s, false);
+            }
+            Stream s;
+            while ((s = pending.poll()) != null) {
+                s.future.complete(false);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+
+        /**
+         * 连接stream.target（首次或重定向后）
+         */
+        private void open(Stream s, long now) {
+            URI uri = s.target;
+            if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+                finish(s, false);
+                return;
+            }
+            int port = uri.getPort() > 0 ? uri.getPort() : 80;
+            StringBuilder request = new StringBuilder(256)
+                .append("GET ").append(uri.getRawPath().isEmpty() ? "/" : uri.getRawPath());
+            if (uri.getRawQuery() != null) {
+                request.append('?').append(uri.getRawQuery());
+            }
+            request.append(" HTTP/1.1\r\nHost: ").append(uri.getHost()).append(uri.getPort() > 0 ? ":" + port : "")
+                .append("\r\nX-Access-Token: ").append(s.token)
+                .append("\r\nX_Access_Token: ").append(s.token)
+                .append("\r\nAccept: */*\r\nConnection: close\r\n\r\n");
+            s.request = ByteBuffer.wrap(request.toString().getBytes(StandardCharsets.UTF_8));
+            s.header = new byte[1024];
+            s.headerLength = 0;
+            s.lastActivityNanos = now;
+            try {
+                InetSocketAddress remote = new InetSocketAddress(uri.getHost(), port);
+                if (remote.isUnresolved()) {
+                    throw new IOException("无法解析地址 " + uri.getHost());
+                }
+                SocketChannel channel = SocketChannel.open();
+                s.channel = channel;
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (channel.connect(remote)) {
+                    s.key = channel.register(selector, SelectionKey.OP_WRITE, s);
+                    s.state = State.SENDING;
+                } else {
+                    s.key = channel.register(selector, SelectionKey.OP_CONNECT, s);
+                    s.state = State.CONNECTING;
+                }
+            } catch (IOException e) {
+                finish(s, false);
+                return;
+            }
+            schedule(s, Math.min(s.startNanos + s.durationNanos, now + s.timeoutNanos));
+        }
+
+        private void onConnect(Stream s, long now) throws IOException {
+            if (s.channel.finishConnect()) {
+                s.lastActivityNanos = now;
+                s.state = State.SENDING;
+                s.key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void onWritable(Stream s) throws IOException {
+            s.channel.write(s.request);
+            if (!s.request.hasRemaining()) {
+                s.request = null;
+                s.state = State.HEADERS;
+                s.key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void onReadable(Stream s, long now) throws IOException {
+            readBuffer.clear();
+            int n = s.channel.read(readBuffer);
+            if (n < 0) {
+                // 未声明长度的响应体以连接关闭结束
+                finish(s, s.info.isPlayable());
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            s.lastActivityNanos = now;
+            readBuffer.flip();
+            if (s.state == State.HEADERS && !readHeaders(s, now)) {
+                return;
+            }
+            if (readBuffer.hasRemaining()) {
+                boolean complete = readBody(s, now);
+                if (complete) {
+                    finish(s, s.info.isPlayable());
+                }
+            }
+        }
+
+        /**
+         * 累积响应头，完整后解析；返回false表示响应头尚未完整或已结束该路拉流
+         */
+        private boolean readHeaders(Stream s, long now) {
+            int end = -1;
+            while (readBuffer.hasRemaining()) {
+                if (s.headerLength == s.header.length) {
+                    if (s.header.length >= MAX_HEADER_BYTES) {
+                        finish(s, false);
+                        return false;
+                    }
+                    s.header = Arrays.copyOf(s.header, s.header.length * 2);
+                }
+                byte b = readBuffer.get();
+                s.header[s.headerLength++] = b;
+                int len = s.headerLength;
+                if (b == '\n' && len >= 4 && s.header[len - 2] == '\r' && s.header[len - 3] == '\n'
+                        && s.header[len - 4] == '\r') {
+                    end = len;
+                    break;
+                }
+            }
+            if (end < 0) {
+                return false;
+            }
+            String[] lines = new String(s.header, 0, end - 4, StandardCharsets.ISO_8859_1).split("\r\n");
+            s.header = null;
+            String[] status = lines[0].split(" ", 3);
+            int code;
+            try {
+                code = status.length >= 2 ? Integer.parseInt(status[1]) : 0;
+            } catch (NumberFormatException e) {
+                code = 0;
+            }
+            String location = null;
+            s.contentLength = -1;
+            s.chunked = false;
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = lines[i].substring(colon + 1).trim();
+                if ("content-length".equals(name)) {
+                    try {
+                        s.contentLength = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        // 按读到连接关闭处理
+                    }
+                } else if ("transfer-encoding".equals(name)) {
+                    s.chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+                } else if ("location".equals(name)) {
+                    location = value;
+                }
+            }
+            if (code >= 300 && code < 400 && location != null && s.redirects < MAX_REDIRECTS) {
+                // 重定向到媒体服务器：关闭当前连接后连接新地址
+                s.redirects++;
+                closeChannel(s);
+                try {
+                    s.target = s.target.resolve(location);
+                } catch (IllegalArgumentException e) {
+                    finish(s, false);
+                    return false;
+                }
+                open(s, now);
+                return false;
+            }
+            s.info.onHeaders(now);
+            if (code < 200 || code >= 300) {
+                finish(s, false);
+                return false;
+            }
+            s.state = State.BODY;
+            s.chunkRemaining = -1;
+            s.chunkSize = 0;
+            s.chunkSizeDone = false;
+            s.chunkCrlf = 0;
+            // 已到达播放时长的定时器仍然有效，这里把空闲检查对齐到新的活动时刻
+            schedule(s, Math.min(s.startNanos + s.durationNanos, now + s.timeoutNanos));
+            if (s.contentLength == 0 && !s.chunked) {
+                finish(s, false);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 把readBuffer中的响应体数据交给统计后丢弃，返回响应体是否已结束
+         */
+        private boolean readBody(Stream s, long now) {
+            if (!s.chunked) {
+                int n = readBuffer.remaining();
+                s.info.onBody(readBuffer, readBuffer.position(), readBuffer.limit(), now);
+                readBuffer.position(readBuffer.limit());
+                s.bodyBytes += n;
+                return s.contentLength >= 0 && s.bodyBytes >= s.contentLength;
+            }
+            while (readBuffer.hasRemaining()) {
+                if (s.chunkCrlf > 0) {
+                    readBuffer.get();
+                    s.chunkCrlf--;
+                } else if (s.chunkRemaining > 0) {
+                    int n = (int) Math.min(s.chunkRemaining, readBuffer.remaining());
+                    s.info.onBody(readBuffer, readBuffer.position(), readBuffer.position() + n, now);
+                    readBuffer.position(readBuffer.position() + n);
+                    s.chunkRemaining -= n;
+                    s.bodyBytes += n;
+                    if (s.chunkRemaining == 0) {
+                        s.chunkCrlf = 2;
+                        s.chunkRemaining = -1;
+                    }
+                } else {
+                    // 块大小行：十六进制大小[;扩展]\r\n
+                    byte b = readBuffer.get();
+                    if (b == '\n') {
+                        if (s.chunkSize == 0) {
+                            return true; // 末尾块（忽略trailer）
+                        }
+                        s.chunkRemaining = s.chunkSize;
+                        s.chunkSize = 0;
+                        s.chunkSizeDone = false;
+                    } else if (!s.chunkSizeDone) {
+                        int digit = Character.digit(b, 16);
+                        if (digit >= 0) {
+                            s.chunkSize = s.chunkSize * 16 + digit;
+                        } else {
+                            s.chunkSizeDone = true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void schedule(Stream s, long atNanos) {
+            s.timerNanos = atNanos;
+            timers.add(new Timer(s, atNanos));
+        }
+
+        /**
+         * 处理到期定时器：到达播放时长正常结束，连接/响应/读取空闲超时按是否收到媒体数据结束
+         */
+        private long runTimers(long now) {
+            Timer timer;
+            while ((timer = timers.peek()) != null && timer.atNanos - now <= 0) {
+                timers.poll();
+                Stream s = timer.stream;
+                if (s.future.isDone() || timer.atNanos != s.timerNanos) {
+                    continue;
+                }
+                long end = s.startNanos + s.durationNanos;
+                if (now - end >= 0) {
+                    finish(s, s.info.isPlayable());
+                } else if (now - s.lastActivityNanos >= s.timeoutNanos) {
+                    finish(s, s.info.isPlayable());
+                } else {
+                    schedule(s, Math.min(end, s.lastActivityNanos + s.timeoutNanos));
+                }
+            }
+            return now;
+        }
+
+        private void closeChannel(Stream s) {
+            if (s.key != null) {
+                s.key.cancel();
+                s.key = null;
+            }
+            if (s.channel != null) {
+                try {
+                    s.channel.close();
+                } catch (IOException e) {
+                    // 忽略
+                }
+                s.channel = null;
+            }
+        }
+
+        private void finish(Stream s, boolean success) {
+            if (s.future.isDone()) {
+                return;
+            }
+            closeChannel(s);
+            streams.remove(s);
+            if (s.info != null) {
+                stats.unregisterStream(s.info);
+            }
+            s.future.complete(success);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.gb28181.simulator;
+
+/**
+ * 按收到的媒体时长模拟一个播放器：缓冲够BUFFER_NANOS后开始（或恢复）按墙上时间播放，
+ * 播放位置追上已收到的媒体时长即为一次卡顿，卡顿期间再缓冲够BUFFER_NANOS后恢复
+ *
+ * onMedia和finish只由读数据的线程调用；isStalled可由全局统计线程调用
+ */
+final class PlaybackModel {
+    static final long BUFFER_NANOS = 500_000_000L;
+
+    private long buffered;          // 已收到的媒体时长
+    private long playWallNanos;     // 本次开始播放的墙上时刻
+    private long playMediaNanos;    // 本次开始播放时的播放位置
+    private long stallStartNanos;
+    private long firstWallNanos;
+    private long firstMediaNanos;
+    private long lastWallNanos;
+    private volatile boolean received;
+    private boolean started;
+    private long stalls;
+    private long stallNanos;
+    private volatile boolean playing;
+    private volatile boolean stalled;
+    private volatile long emptyAtNanos; // 播放中时缓冲耗尽的时刻
+
+    /**
+     * 收到了新的完整分片
+     *
+     * @param mediaNanos 累计收到的媒体时长
+     */
+    void onMedia(long mediaNanos, long nowNanos) {
+        if (!received) {
+            received = true;
+            firstWallNanos = nowNanos;
+            firstMediaNanos = mediaNanos;
+        }
+        lastWallNanos = nowNanos;
+        if (playing && nowNanos - emptyAtNanos > 0) {
+            // 新数据到达前缓冲已经耗尽
+            startStall(emptyAtNanos);
+        }
+        buffered = mediaNanos;
+        if (playing) {
+            emptyAtNanos = playWallNanos + (buffered - playMediaNanos);
+            return;
+        }
+        long position = started ? playMediaNanos : 0;
+        if (buffered - position >= BUFFER_NANOS) {
+            if (stalled) {
+                stallNanos += nowNanos - stallStartNanos;
+                stalled = false;
+            }
+            started = true;
+            playWallNanos = nowNanos;
+            playMediaNanos = position;
+            emptyAtNanos = playWallNanos + (buffered - playMediaNanos);
+            playing = true;
+        }
+    }
+
+    private void startStall(long atNanos) {
+        playing = false;
+        stalled = true;
+        stalls++;
+        stallStartNanos = atNanos;
+        playMediaNanos = buffered;
+    }
+
+    /**
+     * 播放结束：仍在卡顿或缓冲已耗尽的计入卡顿
+     */
+    void finish(long nowNanos) {
+        lastWallNanos = nowNanos;
+        if (playing && nowNanos - emptyAtNanos > 0) {
+            startStall(emptyAtNanos);
+        }
+        if (stalled) {
+            stallNanos += nowNanos - stallStartNanos;
+            stalled = false;
+        }
+        playing = false;
+    }
+
+    /**
+     * 当前是否处于卡顿
+     */
+    boolean isStalled(long nowNanos) {
+        return stalled || (playing && nowNanos - emptyAtNanos > 0);
+    }
+
+    long getStalls() {
+        return stalls;
+    }
+
+    long getStallNanos() {
+        return stallNanos;
+    }
+
+    /**
+     * 媒体时间相对墙上时间的偏差（纳秒）：从收到第一个分片到播放结束（未结束时为最后一个分片），
+     * 期间收到的媒体时长减去经过的墙上时间，负数表示推送慢于实时
+     */
+    long getDriftNanos() {
+        return (buffered - firstMediaNanos) - (lastWallNanos - firstWallNanos);
+    }
+
+    boolean hasMedia() {
+        return received;
+    }
+
+    /**
+     * 收到第一个分片的时刻
+     */
+    long getFirstWallNanos() {
+        return firstWallNanos;
+    }
+}
@@ -1,5 +1,6 @@
 package com.gb28181.simulator;
 
+import com.gb28181.simulator.util.VirtualThreads;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 
@@ -7,9 +8,9 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 查询指定平台的全部视频设备及其通道，并发发起点播（live.mp4）请求做压测
@@ -20,13 +21,115 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * 说明：
  * - 并发开启多个通道的视频流点播
  * - 每个通道播放300秒（5分钟）后自动停止
- * - 每个播放流独立开启接收数据统计，每秒输出全局统计信息
+ * - http地址由事件驱动的LivePullEngine拉流（少量线程驱动全部连接），https地址每路占用一个线程阻塞读取
+ * - 每秒输出全局统计信息和本秒的启动时延，结束时输出启动时延百分位
  */
 public class QueryAndConcurrentLive {
     private static final GlobalStats globalStats = new GlobalStats();
+    // 阻塞方式拉流时，每路的拉流线程是否使用虚拟线程（需Java 21及以上）
+    private static boolean virtualThreads = false;
+
+    private static String liveUrl(String baseUrl, String deviceId, String channelId) {
+        return baseUrl + "/api/media/device/" + deviceId + "/" + channelId + "/live.mp4";
+    }
+
+    /**
+     * 第index路按计划应发起的时刻：前concurrency路在runStart同时发起，之后按目标并发和播放时长
+     * 每隔duration/concurrency发起一路（即不受并发名额限制时的节奏runStart + index * interval）。
+     * 压测是闭环的，平台变慢时后面的路会晚拿到名额，启动时延从计划时刻算起才不会漏掉这段推迟（协调遗漏）
+     */
+    private static long scheduledStart(long runStart, int index, int duration, int concurrency) {
+        int slots = Math.max(1, concurrency);
+        if (index < slots) {
+            return runStart;
+        }
+        return runStart + index * (duration * 1_000_000_000L / slots);
+    }
 
     /**
-     * 启动一个 live.mp4 流，持续播放指定时长，并实时统计接收数据
+     * 并发播放全部通道（同时播放的路数不超过concurrency），返回播放失败的通道
+     *
+     * @param engine 事件驱动拉流引擎，为null时每路占用一个线程阻塞读取（https或选择了虚拟线程）
+     */
+    private static List<Map.Entry<String, String>> playAll(List<Map.Entry<String, String>> targets,
+                                                           LivePullEngine engine, String baseUrl, String token,
+                                                           int duration, double timeout, int concurrency,
+                                                           boolean isRetry) {
+        List<Map.Entry<String, String>> failedStreams = Collections.synchronizedList(new ArrayList<>());
+        if (engine != null) {
+            Semaphore permits = new Semaphore(Math.max(1, concurrency));
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            long runStart = System.nanoTime();
+            for (int i = 0; i < targets.size(); i++) {
+                Map.Entry<String, String> target = targets.get(i);
+                // 启动时延从计划时刻算起，晚于计划拿到名额的时间也计入
+                long scheduledNanos = scheduledStart(runStart, i, duration, concurrency);
+                permits.acquireUninterruptibly();
+                CompletableFuture<Boolean> future = engine.pull(liveUrl(baseUrl, target.getKey(), target.getValue()),
+                    token, target.getKey() + "/" + target.getValue(), duration, timeout, scheduledNanos);
+                future.whenComplete((success, e) -> {
+                    if (!Boolean.TRUE.equals(success)) {
+                        failedStreams.add(target);
+                    }
+                    permits.release();
+                });
+                futures.add(future);
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            return failedStreams;
+        }
+
+        // 虚拟线程不限数量，同时播放的路数由信号量限制；平台线程由线程池大小限制
+        ExecutorService executor = VirtualThreads.newExecutor("LivePull-", concurrency, virtualThreads);
+        Semaphore permits = virtualThreads ? new Semaphore(Math.max(1, concurrency)) : null;
+        List<Future<Boolean>> futures = new ArrayList<>();
+        long runStart = System.nanoTime();
+
+        for (int i = 0; i < targets.size(); i++) {
+            Map.Entry<String, String> target = targets.get(i);
+            String devId = target.getKey();
+            String chId = target.getValue();
+            long scheduledNanos = scheduledStart(runStart, i, duration, concurrency);
+            Future<Boolean> future = executor.submit(() -> {
+                boolean success;
+                if (permits != null) {
+                    permits.acquireUninterruptibly();
+                }
+                try {
+                    success = pullLiveStream(baseUrl, devId, chId, token, duration, timeout, scheduledNanos, isRetry);
+                } finally {
+                    if (permits != null) {
+                        permits.release();
+                    }
+                }
+                if (!success) {
+                    failedStreams.add(target);
+                }
+                return success;
+            });
+            futures.add(future);
+        }
+
+        // 等待所有任务完成
+        for (Future<Boolean> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                // 如果执行出错，添加到失败列表（已在pullLiveStream中处理）
+            }
+        }
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return failedStreams;
+    }
+
+    /**
+     * 启动一个 live.mp4 流（阻塞方式，用于https），持续播放指定时长，并实时统计接收数据
      * 
      * @param baseUrl 平台根地址
      * @param deviceId 设备ID
@@ -34,117 +137,61 @@ public class QueryAndConcurrentLive {
      * @param token 访问令牌
      * @param duration 播放时长（秒），默认300秒
      * @param timeout HTTP超时时间（秒）
+     * @param scheduledNanos 按计划应发起的时刻（System.nanoTime），启动时延从这里算起
      * @param isRetry 是否为重试播放
      * @return 播放是否成功
      */
     private static boolean pullLiveStream(String baseUrl, String deviceId, String channelId,
-                                         String token, int duration, double timeout, boolean isRetry) {
-        String url = baseUrl + "/api/media/device/" + deviceId + "/" + channelId + "/live.mp4";
+                                         String token, int duration, double timeout, long scheduledNanos,
+                                         boolean isRetry) {
+        String url = liveUrl(baseUrl, deviceId, channelId);
         String streamKey = deviceId + "/" + channelId;
         
-        BlockingQueue<Long> byteQueue = new LinkedBlockingQueue<>();
-        AtomicBoolean stopFlag = new AtomicBoolean(false);
-        long startTime = System.currentTimeMillis() / 1000;
-        final long[] totalBytes = {0};
-
-        // 注册到全局统计
-        globalStats.registerStream(streamKey);
-
-        // 统计线程：更新全局统计
-        Thread statThread = new Thread(() -> {
-            while (!stopFlag.get()) {
-                // 收集队列中的所有字节
-                long bytesThisCycle = 0;
-                long count = byteQueue.size();
-                for (int i = 0; i < count; i++) {
-                    Long b = byteQueue.poll();
-                    if (b != null) {
-                        bytesThisCycle += b;
-                    }
-                }
+        long requestNanos = System.nanoTime();
+        long endTime = System.currentTimeMillis() + duration * 1000L;
 
-                // 更新全局统计
-                if (bytesThisCycle > 0) {
-                    globalStats.updateBytes(streamKey, bytesThisCycle);
-                }
-
-                // 检查是否达到播放时长
-                long elapsedFromStart = (System.currentTimeMillis() / 1000) - startTime;
-                if (elapsedFromStart >= duration) {
-                    stopFlag.set(true);
-                    break;
-                }
-
-                try {
-                    Thread.sleep(100); // 短暂休眠避免CPU占用过高
-                } catch (InterruptedException e) {
-                    break;
-                }
-            }
-
-            // 最终统计 - 收集剩余字节
-            long finalBytesThisCycle = 0;
-            Long b;
-            while ((b = byteQueue.poll()) != null) {
-                finalBytesThisCycle += b;
-            }
-
-            // 更新全局统计最后一次
-            if (finalBytesThisCycle > 0) {
-                globalStats.updateBytes(streamKey, finalBytesThisCycle);
-            }
-        });
-        statThread.setDaemon(false);
-        statThread.start();
+        // 注册到全局统计，读到的字节直接累加到该流的计数器；启动时延从计划时刻（不晚于进入本方法时）算起
+        StreamInfo info = globalStats.registerStream(streamKey, requestNanos, scheduledNanos);
 
         boolean playSuccess = false;
 
         try {
             Response response = HttpUtils.getStream(url, token);
+            info.onHeaders(System.nanoTime());
             
             if (!response.isSuccessful()) {
                 response.close();
-                stopFlag.set(true);
                 return false;
             }
 
             ResponseBody body = response.body();
             if (body == null) {
                 response.close();
-                stopFlag.set(true);
                 return false;
             }
 
             try (InputStream inputStream = body.byteStream()) {
                 byte[] buffer = new byte[64 * 1024];
+                ByteBuffer view = ByteBuffer.wrap(buffer);
                 int bytesRead;
 
-                while (!stopFlag.get() && (bytesRead = inputStream.read(buffer)) != -1) {
+                // 达到播放时长后停止读取
+                while (System.currentTimeMillis() < endTime && (bytesRead = inputStream.read(buffer)) != -1) {
                     if (bytesRead > 0) {
-                        totalBytes[0] += bytesRead;
-                        byteQueue.offer((long) bytesRead);
+                        info.onBody(view, 0, bytesRead, System.nanoTime());
                     }
                 }
             }
 
-            // 如果接收到数据，认为播放成功
-            playSuccess = totalBytes[0] > 0;
+            // 收到完整的媒体分片（不是fMP4时为收到数据）认为播放成功
+            playSuccess = info.isPlayable();
             response.close();
-            stopFlag.set(true);
 
         } catch (Exception e) {
-            stopFlag.set(true);
             playSuccess = false;
         } finally {
             // 注销全局统计
-            globalStats.unregisterStream(streamKey);
-        }
-
-        // 等待统计线程结束
-        try {
-            statThread.join(5000);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            globalStats.unregisterStream(info);
         }
 
         return playSuccess;
@@ -214,8 +261,26 @@ public class QueryAndConcurrentLive {
 
         int perDeviceLimit = readIntInput("每设备通道上限（0为不限制，默认: 0）: ", 0);
         int playDuration = readIntInput("每个通道播放时长（秒，默认: 300）: ", 300);
-        int concurrency = readIntInput("并发线程数（默认: 20）: ", 20);
+        int concurrency = readIntInput("并发播放路数（默认: 20）: ", 20);
         double connectTimeout = readDoubleInput("HTTP超时秒（默认: 30）: ", 30.0);
+        boolean http = baseUrl.toLowerCase(Locale.ROOT).startsWith("http://");
+        if (VirtualThreads.isSupported()) {
+            virtualThreads = readIntInput(http ? "请选择拉流方式（1=事件循环, 2=每路一个虚拟线程，默认: 1）: "
+                : "请选择拉流线程类型（1=平台线程, 2=虚拟线程，默认: 2）: ", http ? 1 : 2) == 2;
+        }
+        LivePullEngine engine = null;
+        if (http && !virtualThreads) {
+            int loopThreads = readIntInput("拉流事件循环线程数（默认: CPU核数 " + Runtime.getRuntime().availableProcessors()
+                + "）: ", Runtime.getRuntime().availableProcessors());
+            try {
+                engine = new LivePullEngine(loopThreads, LivePullEngine.DEFAULT_READ_BUFFER_SIZE, globalStats);
+                engine.start();
+            } catch (IOException e) {
+                System.err.println("✗ 创建拉流事件循环失败，改为每路一个线程: " + e.getMessage());
+            }
+        } else if (!http && !virtualThreads) {
+            System.out.println("⚠ 非http地址，每路播放占用一个线程");
+        }
 
         System.out.println("查询设备列表: " + baseUrl);
         
@@ -262,14 +327,13 @@ public class QueryAndConcurrentLive {
             return;
         }
 
-        System.out.println("通道总数: " + targets.size() + "，开始并发播放（每个通道播放 " + playDuration + " 秒，并发数: " + concurrency + "）…");
+        System.out.println("通道总数: " + targets.size() + "，开始并发播放（每个通道播放 " + playDuration + " 秒，并发数: " + concurrency
+            + (engine != null ? "，事件循环线程: " + engine.size() : virtualThreads ? "，虚拟线程" : "") + "）…");
         System.out.println("=".repeat(60));
 
         // 启动全局统计线程
         globalStats.startGlobalStatsThread();
 
-        // 失败重试集合（线程安全）
-        List<Map.Entry<String, String>> failedStreams = Collections.synchronizedList(new ArrayList<>());
         long tStart = System.currentTimeMillis() / 1000;
 
         // 并发开启每个通道的播放
@@ -277,39 +341,9 @@ public class QueryAndConcurrentLive {
         System.out.println("已启动 " + targets.size() + " 个通道并发播放，等待所有播放完成...");
         System.out.println("=".repeat(60));
 
-        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
-        List<Future<Boolean>> futures = new ArrayList<>();
-
-        for (Map.Entry<String, String> target : targets) {
-            String devId = target.getKey();
-            String chId = target.getValue();
-            Future<Boolean> future = executor.submit(() -> {
-                boolean success = pullLiveStream(baseUrl, devId, chId, token, playDuration, connectTimeout, false);
-                if (!success) {
-                    synchronized (failedStreams) {
-                        failedStreams.add(new AbstractMap.SimpleEntry<>(devId, chId));
-                    }
-                }
-                return success;
-            });
-            futures.add(future);
-        }
-
-        // 等待所有任务完成
-        for (Future<Boolean> future : futures) {
-            try {
-                future.get();
-            } catch (InterruptedException | ExecutionException e) {
-                // 如果执行出错，添加到失败列表（已在pullLiveStream中处理）
-            }
-        }
-
-        executor.shutdown();
-        try {
-            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+        // 失败重试集合
+        List<Map.Entry<String, String>> failedStreams = playAll(targets, engine, baseUrl, token, playDuration,
+            connectTimeout, concurrency, false);
 
         // 停止全局统计线程
         globalStats.stopGlobalStats();
@@ -329,32 +363,9 @@ public class QueryAndConcurrentLive {
             System.out.println("已启动 " + failedStreams.size() + " 个重试通道并发播放，等待所有重试完成...");
             System.out.println("=".repeat(60));
 
-            ExecutorService retryExecutor = Executors.newFixedThreadPool(concurrency);
-            List<Future<?>> retryFutures = new ArrayList<>();
-
-            for (Map.Entry<String, String> target : failedStreams) {
-                String devId = target.getKey();
-                String chId = target.getValue();
-                retryFutures.add(retryExecutor.submit(() -> {
-                    pullLiveStream(baseUrl, devId, chId, token, playDuration, connectTimeout, true);
-                }));
-            }
-
-            // 等待所有重试任务完成
-            for (Future<?> retryFuture : retryFutures) {
-                try {
-                    retryFuture.get();
-                } catch (InterruptedException | ExecutionException e) {
-                    // 重试失败不处理
-                }
-            }
-
-            retryExecutor.shutdown();
-            try {
-                retryExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            // 重试失败不处理
+            playAll(new ArrayList<>(failedStreams), engine, baseUrl, token, playDuration, connectTimeout, concurrency,
+                true);
 
             // 停止全局统计线程
             globalStats.stopGlobalStats();
@@ -365,6 +376,10 @@ public class QueryAndConcurrentLive {
             System.out.println("=".repeat(60));
         }
 
+        if (engine != null) {
+            engine.stop();
+        }
+
         long dur = (System.currentTimeMillis() / 1000) - tStart;
         System.out.println("\n" + "=".repeat(60));
         System.out.println("所有通道播放完成，总耗时 " + dur + "s");
@@ -372,6 +387,9 @@ public class QueryAndConcurrentLive {
         if (!failedStreams.isEmpty()) {
             System.out.println("失败通道数: " + failedStreams.size());
         }
+        globalStats.printRateSummary();
+        globalStats.printLatencySummary();
+        globalStats.printPlaybackSummary();
     }
 }
 
@@ -0,0 +1,74 @@
+package com.gb28181.simulator;
+
+/**
+ * 按秒采样的速率窗口：环形缓冲保存最近若干次采样时的累计值（字节数、帧数）和采样时刻，
+ * 任意窗口的速率由首尾两次采样的差值得出，写入方只需累加计数器，不需要按秒清零
+ *
+ * 非线程安全，只由全局统计线程访问
+ */
+final class RateWindow {
+    private final long[] totals;
+    private final long[] nanos;
+    private int head = -1;
+    private int count;
+
+    /**
+     * @param seconds 最长的统计窗口（秒）
+     */
+    RateWindow(int seconds) {
+        this.totals = new long[seconds + 1];
+        this.nanos = new long[seconds + 1];
+    }
+
+    /**
+     * 记录一次采样（每秒一次）
+     *
+     * @param total 当前累计值
+     */
+    void sample(long total, long nowNanos) {
+        head = (head + 1) % totals.length;
+        totals[head] = total;
+        nanos[head] = nowNanos;
+        if (count < totals.length) {
+            count++;
+        }
+    }
+
+    /**
+     * 已覆盖的窗口（最近seconds次采样间隔，不足时取已有的）
+     */
+    int span(int seconds) {
+        return Math.min(seconds, count - 1);
+    }
+
+    /**
+     * 最近seconds秒内的增量
+     */
+    long deltaIn(int seconds) {
+        int n = span(seconds);
+        if (n <= 0) {
+            return 0;
+        }
+        return totals[head] - totals[(head - n + totals.length) % totals.length];
+    }
+
+    /**
+     * 最近seconds秒的平均速率（Mbps），按实际采样间隔计算
+     */
+    double mbps(int seconds) {
+        return perSecond(seconds) * 8 / 1_000_000;
+    }
+
+    /**
+     * 最近seconds秒每秒的平均增量，按实际采样间隔计算
+     */
+    double perSecond(int seconds) {
+        int n = span(seconds);
+        if (n <= 0) {
+            return 0;
+        }
+        int tail = (head - n + totals.length) % totals.length;
+        long elapsed = nanos[head] - nanos[tail];
+        return elapsed > 0 ? (totals[head] - totals[tail]) * 1e9 / elapsed : 0;
+    }
+}
@@ -1,19 +1,134 @@
 package com.gb28181.simulator;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
- * 流统计信息
+ * 流统计信息：读数据的线程直接累加计数器（无锁、无装箱），
+ * 全局统计线程每秒采样一次累计值到速率窗口
+ *
+ * 启动时延（响应头、首字节、首关键帧）都从scheduledNanos算起，由读数据的线程各记录一次；
+ * 响应体同时交给Fmp4Parser解析，按完整收到的分片统计帧数、关键帧、媒体时长和卡顿
  */
 class StreamInfo {
-    long bytesTotal;
-    long bytesLastSec;
-    long lastUpdateTime;
-    long startTime;
-
-    StreamInfo(long currentTime) {
-        this.bytesTotal = 0;
-        this.bytesLastSec = 0;
-        this.lastUpdateTime = currentTime;
+    final String streamKey;
+    final long startTime;
+    // 该路获得并发名额后开始拉流的时刻，每路平均速率从这里算起
+    final long requestNanos;
+    // 该路按计划应发起的时刻（不晚于requestNanos）。压测为闭环（一路结束才开始下一路），
+    // 平台变慢时后面的路会晚拿到名额，从计划时刻计时使这段被推迟的时间也计入时延（协调遗漏校正）
+    final long scheduledNanos;
+    private final GlobalStats stats;
+    private final LongAdder bytesTotal = new LongAdder();
+    // 只由全局统计线程访问
+    final RateWindow window = new RateWindow(GlobalStats.WINDOW_SECONDS);
+    // 播放期间最低的10秒平均速率（Mbps，未播放满10秒时为-1），由全局统计线程更新，结束时读取
+    volatile double minMbps10s = -1;
+
+    // 以下字段只由读数据的线程访问
+    private final Fmp4Parser parser = new Fmp4Parser();
+    final PlaybackModel playback = new PlaybackModel(); // isStalled可由全局统计线程调用
+    private boolean headersRecorded;
+    private boolean firstByteRecorded;
+    private boolean keyframeRecorded;
+
+    StreamInfo(String streamKey, long currentTime, long requestNanos, long scheduledNanos, GlobalStats stats) {
+        this.streamKey = streamKey;
         this.startTime = currentTime;
+        this.requestNanos = requestNanos;
+        this.scheduledNanos = Math.min(scheduledNanos, requestNanos);
+        this.stats = stats;
+    }
+
+    /**
+     * 累加收到的字节数（读数据的线程调用）
+     */
+    void addBytes(long bytesCount) {
+        bytesTotal.add(bytesCount);
+        stats.totalBytes.add(bytesCount);
+    }
+
+    long getBytesTotal() {
+        return bytesTotal.sum();
+    }
+
+    /**
+     * 收到最终（非重定向）响应的完整响应头
+     */
+    void onHeaders(long nowNanos) {
+        if (!headersRecorded) {
+            headersRecorded = true;
+            stats.headerLatency.recordNanos(nowNanos - scheduledNanos);
+        }
+    }
+
+    /**
+     * 收到一段响应体数据（已去掉chunked编码；data的position和limit不变）
+     */
+    void onBody(ByteBuffer data, int from, int to, long nowNanos) {
+        if (to <= from) {
+            return;
+        }
+        addBytes(to - from);
+        if (!firstByteRecorded) {
+            firstByteRecorded = true;
+            stats.firstByteLatency.recordNanos(nowNanos - scheduledNanos);
+        }
+        long framesBefore = parser.getFrames();
+        if (parser.feed(data, from, to) == 0) {
+            return;
+        }
+        stats.totalFrames.add(parser.getFrames() - framesBefore);
+        // 首关键帧：第一个含关键帧的分片完整收到
+        if (!keyframeRecorded && parser.getKeyframes() > 0) {
+            keyframeRecorded = true;
+            stats.firstKeyframeLatency.recordNanos(nowNanos - scheduledNanos);
+        }
+        playback.onMedia(parser.getMediaNanos(), nowNanos);
+    }
+
+    /**
+     * 是否播放成功：响应体是fMP4时需要收到至少一帧完整的媒体数据，
+     * 只有初始化段、之后再无分片的流不算成功；不是fMP4时收到数据即算成功
+     */
+    boolean isPlayable() {
+        if (parser.isFmp4()) {
+            return parser.getFrames() > 0;
+        }
+        return getBytesTotal() > 0;
+    }
+
+    /**
+     * 播放结束，结束播放模型（读数据的线程在注销前调用）
+     */
+    void finish(long nowNanos) {
+        playback.finish(nowNanos);
+    }
+
+    Fmp4Parser getParser() {
+        return parser;
+    }
+
+    /**
+     * 从收到第一个分片到结束时的平均帧率
+     */
+    double getDeliveredFps(long nowNanos) {
+        if (!playback.hasMedia()) {
+            return 0;
+        }
+        long elapsed = nowNanos - playback.getFirstWallNanos();
+        return elapsed > 0 ? parser.getFrames() * 1e9 / elapsed : 0;
     }
-}
 
+    boolean hasHeaders() {
+        return headersRecorded;
+    }
+
+    boolean hasFirstByte() {
+        return firstByteRecorded;
+    }
+
+    boolean hasKeyframe() {
+        return keyframeRecorded;
+    }
+}
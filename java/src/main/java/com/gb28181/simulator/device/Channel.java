@@ -2,12 +2,14 @@ package com.gb28181.simulator.device;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * GB28181设备通道信息
  */
 public class Channel {
     private final Map<String, String> attributes = new HashMap<>();
+    private Runnable changeListener; // 属性变化回调（用于使设备的目录缓存失效）
 
     public Channel(String id, String name) {
         attributes.put("id", id);
@@ -33,7 +35,18 @@ public class Channel {
     }
 
     public void setAttribute(String key, String value) {
-        attributes.put(key, value);
+        String old = attributes.put(key, value);
+        Runnable listener = changeListener;
+        if (listener != null && !Objects.equals(old, value)) {
+            listener.run();
+        }
+    }
+    
+    /**
+     * 设置属性变化回调
+     */
+    void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
     }
 
     public String getAttribute(String key) {
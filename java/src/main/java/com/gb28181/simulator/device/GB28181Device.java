@@ -1,11 +1,31 @@
 package com.gb28181.simulator.device;
 
+import com.gb28181.simulator.media.FfmpegCommand;
+import com.gb28181.simulator.media.MediaCatalog;
+import com.gb28181.simulator.media.MediaEngine;
+import com.gb28181.simulator.media.Playback;
+import com.gb28181.simulator.media.RtcpReporter;
+import com.gb28181.simulator.media.RtpRelayGroup;
+import com.gb28181.simulator.media.RtpTcpConnection;
+import com.gb28181.simulator.media.RtpTcpLoop;
+import com.gb28181.simulator.media.StreamSession;
+import com.gb28181.simulator.media.SyntheticStream;
+import com.gb28181.simulator.media.WatermarkCache;
+import com.gb28181.simulator.sip.SipBuffer;
 import com.gb28181.simulator.sip.SipMessageBuilder;
+import com.gb28181.simulator.sip.SipTemplate;
+import com.gb28181.simulator.timer.TimingWheel;
+import com.gb28181.simulator.transport.ImpairedLink;
+import com.gb28181.simulator.transport.Impairment;
+import com.gb28181.simulator.transport.ImpairmentScheduler;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * GB28181设备类
@@ -23,16 +43,45 @@ public class GB28181Device {
     private int callIdSeq = 0;
     private int cseq = 0;
     private final String tag;
+    private volatile SipTemplate sipTemplate; // 预编码的请求模板，Contact地址变化时重建
     public int registerExpires = 3600;
     public volatile boolean isRegistered = false;
     public int heartbeatInterval = 30; // 心跳间隔（秒）
     public int retryInterval = 10; // 重试间隔（秒）
+    public double timerJitter = 0.1; // 心跳/重注册/重试定时的抖动比例
+    public int catalogItemsPerPacket = 2; // Catalog应答每包通道数（<=0表示不分包）
+    public int catalogFragmentIntervalMs = 20; // Catalog分包发送间隔（毫秒）
+    
+    // 定时器（由时间轮统一调度）
+    public TimingWheel timingWheel;
+    public TimingWheel pacingWheel; // Catalog分包发送用的细刻度定时器
+    public TimingWheel.Timeout heartbeatTimeout;
+    public boolean heartbeatActive; // 受设备对象锁保护
+    public TimingWheel.Timeout registerTimeout;
     
     private DatagramSocket socket;
+    private DatagramChannel channel; // NIO传输模式下使用的通道（与socket二选一）
+    private InetSocketAddress serverAddress;
     private final List<Channel> channels = new ArrayList<>();
+    // 已渲染的通道目录条目，通道增加或属性变化时版本号递增使其失效
+    private final AtomicInteger catalogVersion = new AtomicInteger();
+    private volatile CatalogItems catalogItems;
     
     // 每通道独立的推流进程
     private final Map<String, Process> channelIdToProcess = new ConcurrentHashMap<>();
+    // 内置媒体引擎或编码转发中继（均为null时每会话一个FFmpeg进程推流）及其会话
+    public MediaEngine mediaEngine;
+    public RtpRelayGroup rtpRelays;
+    public MediaEngine syntheticEngine; // 合成码流媒体源使用的内置引擎（任何推流方式下都由它发送）
+    public RtpTcpLoop rtpTcpLoop; // RTP over TCP连接（仅内置引擎和转发中继支持）
+    private final Map<String, StreamSession> sessionKeyToMedia = new ConcurrentHashMap<>();
+    public MediaSessionManager mediaSessions; // INVITE/BYE的推流启停在其工作线程中执行
+    public MediaCatalog mediaCatalog; // 启动时扫描的媒体源及通道分配
+    // 网络损伤（为null时不加损伤）：SIP出口一条链路，每路UDP点播会话各一条链路
+    public ImpairmentScheduler impairmentScheduler;
+    public ImpairedLink sipImpairment;
+    public Impairment.Profiles mediaImpairments;
+    public WatermarkCache watermarks; // 通道水印预渲染缓存（仅FFmpeg推流方式，null表示每会话实时叠加水印）
     
     public String contactIp; // Contact头中使用的IP地址（用于0.0.0.0绑定情况）
     private int heartbeatSn = 0; // 心跳消息序列号
@@ -85,46 +134,83 @@ public class GB28181Device {
     /**
      * 创建注册请求
      */
-    public String createRegisterRequest() {
+    public synchronized SipBuffer createRegisterRequest() {
         callIdSeq = 0;
         cseq = 0;
         
+        return getSipTemplate().writeRegister(SipMessageBuilder.messageBuffer(), ++cseq);
+    }
+    
+    /**
+     * 获取请求模板（首次使用或Contact地址变化时构建）
+     */
+    private SipTemplate getSipTemplate() {
         String contactAddress = (contactIp != null && !contactIp.isEmpty()) ? contactIp : localIp;
-        return SipMessageBuilder.createRegisterRequest(
-            deviceId, localIp, localPort, serverIp, serverPort,
-            password, tag, contactAddress
-        );
+        SipTemplate template = sipTemplate;
+        if (template == null || !template.getContactAddress().equals(contactAddress)) {
+            template = new SipTemplate(deviceId, localIp, contactAddress, localPort,
+                serverIp, serverPort, password, tag);
+            sipTemplate = template;
+        }
+        return template;
     }
     
     /**
      * 发送Keepalive心跳消息
      */
-    public void sendKeepalive(MessagePrinter messagePrinter) {
+    public synchronized void sendKeepalive(MessagePrinter messagePrinter) {
         heartbeatSn++;
-        String keepaliveXml = XmlGenerator.createKeepaliveXml(deviceId, heartbeatSn);
-        
-        String contactAddress = (contactIp != null && !contactIp.isEmpty()) ? contactIp : localIp;
-        String message = SipMessageBuilder.createKeepaliveMessage(
-            deviceId, contactAddress, localPort, serverIp, serverPort,
-            heartbeatSn, keepaliveXml, tag
-        );
+        SipBuffer message = getSipTemplate().writeKeepalive(SipMessageBuilder.messageBuffer(), heartbeatSn);
         
         try {
-            if (socket != null && !socket.isClosed()) {
-                byte[] data = message.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                socket.send(new DatagramPacket(data, data.length, 
-                    InetAddress.getByName(serverIp), serverPort));
-            }
+            send(message, getServerAddress());
         } catch (IOException e) {
             System.err.println("✗ 发送心跳消息失败: " + e.getMessage());
         }
     }
     
+    /**
+     * 是否支持RTP over TCP推流
+     */
+    public boolean supportsTcpMedia() {
+        return rtpTcpLoop != null && (mediaEngine != null || rtpRelays != null);
+    }
+    
+    /**
+     * 建立RTP over TCP媒体连接：被动方式在本地端口监听，主动方式连接平台媒体端口
+     */
+    public RtpTcpConnection openTcpMedia(boolean passive, String targetIp, int targetPort) throws IOException {
+        if (passive) {
+            return rtpTcpLoop.listen();
+        }
+        InetSocketAddress remote = new InetSocketAddress(targetIp, targetPort);
+        if (remote.isUnresolved()) {
+            throw new IOException("无法解析地址 " + targetIp);
+        }
+        return rtpTcpLoop.connect(remote);
+    }
+    
     /**
      * 启动视频流推送
      */
     public boolean startStreamPush(String channelId, String avcaptureUrl, String targetIp,
                                    int targetPort, String ssrc) {
+        return startStreamPush(channelId, avcaptureUrl, targetIp, targetPort, ssrc, null);
+    }
+    
+    /**
+     * 启动视频流推送（tcp不为null时经该RTP over TCP连接发送）
+     */
+    public boolean startStreamPush(String channelId, String avcaptureUrl, String targetIp,
+                                   int targetPort, String ssrc, RtpTcpConnection tcp) {
+        return startStreamPush(channelId, avcaptureUrl, targetIp, targetPort, ssrc, tcp, null);
+    }
+    
+    /**
+     * 启动视频流推送（playback不为null时为历史回放/下载，仅内置媒体引擎支持，其他方式按实时流推送）
+     */
+    public boolean startStreamPush(String channelId, String avcaptureUrl, String targetIp,
+                                   int targetPort, String ssrc, RtpTcpConnection tcp, Playback playback) {
         // 使用会话键（同通道不同端口可并发）：channel@ip:port
         String sessionKey = channelId + "@" + targetIp + ":" + targetPort;
         
@@ -135,74 +221,56 @@ public class GB28181Device {
         
         System.out.println("\n推流: 循环播放 -> " + rtpUrl + " (SSRC: " + ssrc + ", 通道: " + channelId + ")");
         
-        try {
-            // 构建FFmpeg命令（包含循环播放、音频编码等）
-            List<String> cmd = new ArrayList<>();
-            cmd.add("ffmpeg");
-            // 循环播放参数：-stream_loop -1 表示无限循环，-re 表示实时速率读取
-            cmd.add("-stream_loop");
-            cmd.add("-1");
-            cmd.add("-re");
-            cmd.add("-i");
-            cmd.add(avcaptureUrl);
-            
-            // 查找通道名称（用于水印）
-            String channelName = channelId;
-            for (Channel ch : channels) {
-                if (ch.getId().equals(channelId)) {
-                    String name = ch.getAttribute("name");
-                    if (name != null && !name.isEmpty()) {
-                        channelName = name;
-                        break;
-                    }
+        MediaEngine engine = mediaEngine;
+        if (engine == null && SyntheticStream.isSynthetic(avcaptureUrl)) {
+            engine = syntheticEngine;
+        }
+        RtpRelayGroup relays = rtpRelays;
+        if (playback != null && engine == null) {
+            System.out.println("  ⚠ 当前推流方式不支持回放/下载，按实时流推送");
+        }
+        if (engine != null || relays != null) {
+            InetSocketAddress target = new InetSocketAddress(targetIp, targetPort);
+            if (target.isUnresolved()) {
+                System.err.println("✗ 启动推流失败: 无法解析地址 " + targetIp);
+                if (tcp != null) {
+                    tcp.close();
                 }
+                return false;
             }
-            if (channelName == null || channelName.isEmpty()) {
-                channelName = channelId != null ? channelId : "CHANNEL";
+            // TCP会话由内核重传，不加损伤
+            ImpairedLink impairment = tcp == null ? mediaImpairment(channelId) : null;
+            if (engine != null) {
+                sessionKeyToMedia.put(sessionKey, engine.startSession(sessionKey, avcaptureUrl, target, ssrc, tcp,
+                    playback, impairment));
+                String kind = playback == null ? "" : playback.isDownload() ? "，下载" + playback.getSpeed() + "倍速" : "，回放";
+                System.out.println("✓ 推流已启动到 " + rtpUrl + "（内置PS/RTP封装" + (tcp != null ? "，TCP" : "") + kind + "）");
+                return true;
             }
-            
-            // 构建drawtext水印滤镜（优先中文名，无则用ID）
-            // 参考Python版本的实现，使用NotoSansCJK字体支持中文
-            String watermark = channelName;
-            // 转义单引号（Python版本在f-string中会自动处理，Java需要手动转义）
-            String escapedWatermark = watermark.replace("'", "\\'");
-            String filterStr = String.format(
-                "drawtext=fontfile=/usr/share/fonts/opentype/noto/NotoSansCJK-Regular.ttc:text='%s':fontcolor=white:fontsize=28:box=1:boxcolor=black@0.4:boxborderw=6:x=10:y=10",
-                escapedWatermark
-            );
-            cmd.add("-vf");
-            cmd.add(filterStr);
-            
-            // 视频编码参数
-            cmd.add("-c:v");
-            cmd.add("libx264");
-            cmd.add("-preset");
-            cmd.add("veryfast");
-            cmd.add("-tune");
-            cmd.add("zerolatency");
-            cmd.add("-b:v");
-            cmd.add("2000k");
-            cmd.add("-maxrate");
-            cmd.add("2000k");
-            cmd.add("-bufsize");
-            cmd.add("4000k");
-            cmd.add("-g");
-            cmd.add("50");
-            cmd.add("-pix_fmt");
-            cmd.add("yuv420p");
-            cmd.add("-flags");
-            cmd.add("+global_header");
-            
-            // 音频编码参数（允许音频一并推送）
-            cmd.add("-c:a");
-            cmd.add("aac");
-            cmd.add("-b:a");
-            cmd.add("128k");
-            
-            // 输出格式
-            cmd.add("-f");
-            cmd.add("rtp_mpegts");  // GB28181通常使用MPEG-TS over RTP
-            cmd.add(rtpUrl);
+            try {
+                sessionKeyToMedia.put(sessionKey, relays.subscribe(sessionKey, avcaptureUrl,
+                    sourceBitrate(avcaptureUrl), target, ssrc, tcp, impairment));
+            } catch (IOException e) {
+                System.err.println("✗ 启动推流失败: " + e.getMessage());
+                if (tcp != null) {
+                    tcp.close();
+                }
+                return false;
+            }
+            System.out.println("✓ 推流已启动到 " + rtpUrl + "（共享编码转发" + (tcp != null ? "，TCP" : "") + "）");
+            return true;
+        }
+        
+        try {
+            // 通道水印：已预渲染时直接转封装推送缓存文件，否则（渲染中或未启用预渲染）实时drawtext编码
+            String watermark = watermarkText(channelId);
+            WatermarkCache cache = watermarks;
+            String variant = cache != null
+                ? cache.readyVariant(channelId, watermark, avcaptureUrl, sourceBitrate(avcaptureUrl)) : null;
+            List<String> cmd = variant != null
+                ? FfmpegCommand.copyToRtp(variant, rtpUrl)
+                : FfmpegCommand.encodeToRtp(avcaptureUrl, FfmpegCommand.drawtextFilter(watermark), rtpUrl,
+                    sourceBitrate(avcaptureUrl));
             
             ProcessBuilder pb = new ProcessBuilder(cmd);
             // 重定向错误输出到空，避免FFmpeg日志干扰
@@ -212,7 +280,7 @@ public class GB28181Device {
             Process process = pb.start();
             channelIdToProcess.put(sessionKey, process);
             
-            System.out.println("✓ 推流已启动到 " + rtpUrl);
+            System.out.println("✓ 推流已启动到 " + rtpUrl + (variant != null ? "（预渲染水印）" : ""));
             return true;
         } catch (IOException e) {
             System.err.println("✗ 启动推流失败: " + e.getMessage());
@@ -220,21 +288,86 @@ public class GB28181Device {
         }
     }
     
+    /**
+     * 会话键对应的推流会话（FFmpeg进程推流或不存在时为null）
+     */
+    public StreamSession getStreamSession(String sessionKey) {
+        return sessionKeyToMedia.get(sessionKey);
+    }
+    
+    /**
+     * 通道水印文字（优先通道中文名，无则用通道ID）
+     */
+    public String watermarkText(String channelId) {
+        for (Channel ch : channels) {
+            if (ch.getId().equals(channelId)) {
+                String name = ch.getAttribute("name");
+                if (name != null && !name.isEmpty()) {
+                    return name;
+                }
+            }
+        }
+        return channelId != null && !channelId.isEmpty() ? channelId : "CHANNEL";
+    }
+    
+    /**
+     * 提交全部通道的水印预渲染（按启动时分配的媒体源）
+     */
+    public void prerenderWatermarks() {
+        WatermarkCache cache = watermarks;
+        if (cache == null || mediaCatalog == null) {
+            return;
+        }
+        for (Channel ch : channels) {
+            MediaCatalog.Source source = mediaCatalog.sourceFor(ch.getId());
+            if (source != null && !SyntheticStream.isSynthetic(source.getPath())) {
+                cache.variant(ch.getId(), watermarkText(ch.getId()), source.getPath(), source.getBitrateKbps());
+            }
+        }
+    }
+    
+    /**
+     * 为一路UDP点播会话创建网络损伤链路（该通道不加损伤时返回null）
+     */
+    private ImpairedLink mediaImpairment(String channelId) {
+        Impairment.Profiles profiles = mediaImpairments;
+        Impairment impairment = profiles != null ? profiles.forChannel(deviceId, channelId) : null;
+        return impairment != null && impairmentScheduler != null
+            ? new ImpairedLink(impairment, impairmentScheduler) : null;
+    }
+    
+    /**
+     * 媒体源的探测码率（kbps，未知时为0），转码推流按该码率编码
+     */
+    private int sourceBitrate(String path) {
+        MediaCatalog catalog = mediaCatalog;
+        MediaCatalog.Source source = catalog != null ? catalog.sourceAt(path) : null;
+        return source != null ? source.getBitrateKbps() : 0;
+    }
+    
     /**
      * 按session key停止推流
      */
     private void stopStreamPushBySessionKey(String sessionKey) {
+        StreamSession session = sessionKeyToMedia.remove(sessionKey);
+        if (session != null) {
+            session.stop();
+            RtcpReporter rtcp = session.getRtcp();
+            if (rtcp != null && rtcp.getReportCount() > 0) {
+                System.out.println(String.format("  会话 %s 平台RTCP: 丢包率 %.1f%%，累计丢包 %d，抖动 %.1fms，RTT %s",
+                    sessionKey, rtcp.getFractionLost() * 100, rtcp.getCumulativeLost(), rtcp.getJitterMillis(),
+                    rtcp.getRttMillis() < 0 ? "未知" : String.format("%.1fms", rtcp.getRttMillis())));
+            }
+        }
         Process process = channelIdToProcess.remove(sessionKey);
         if (process != null && process.isAlive()) {
             process.destroy();
-            try {
-                if (!process.waitFor(5, java.util.concurrent.TimeUnit.SECONDS)) {
+            // 不等待进程退出，5秒后仍未退出时强制结束
+            process.onExit().orTimeout(5, java.util.concurrent.TimeUnit.SECONDS).whenComplete((p, e) -> {
+                if (e != null) {
                     process.destroyForcibly();
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                process.destroyForcibly();
-            }
+            });
         }
     }
     
@@ -249,6 +382,11 @@ public class GB28181Device {
                 keysToRemove.add(key);
             }
         }
+        for (String key : sessionKeyToMedia.keySet()) {
+            if (key.startsWith(channelId + "@")) {
+                keysToRemove.add(key);
+            }
+        }
         // 也尝试直接匹配（兼容旧代码）
         if (channelIdToProcess.containsKey(channelId)) {
             keysToRemove.add(channelId);
@@ -266,6 +404,9 @@ public class GB28181Device {
         for (String channelId : new ArrayList<>(channelIdToProcess.keySet())) {
             stopStreamPush(channelId);
         }
+        for (String sessionKey : new ArrayList<>(sessionKeyToMedia.keySet())) {
+            stopStreamPushBySessionKey(sessionKey);
+        }
     }
     
     /**
@@ -279,7 +420,92 @@ public class GB28181Device {
      * 添加通道
      */
     public void addChannel(Channel channel) {
+        channel.setChangeListener(this::invalidateCatalog);
         channels.add(channel);
+        invalidateCatalog();
+    }
+    
+    /**
+     * 获取已渲染的通道目录条目（缓存失效时重新渲染）
+     */
+    public byte[][] getCatalogItems() {
+        int version = catalogVersion.get();
+        CatalogItems cached = catalogItems;
+        if (cached != null && cached.version == version) {
+            return cached.items;
+        }
+        List<Channel> snapshot = getChannels();
+        byte[][] items = new byte[snapshot.size()][];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = XmlGenerator.renderCatalogItem(deviceId, snapshot.get(i));
+        }
+        catalogItems = new CatalogItems(version, items);
+        return items;
+    }
+    
+    private void invalidateCatalog() {
+        catalogVersion.incrementAndGet();
+    }
+    
+    private static final class CatalogItems {
+        final int version;
+        final byte[][] items;
+        
+        CatalogItems(int version, byte[][] items) {
+            this.version = version;
+            this.items = items;
+        }
+    }
+    
+    /**
+     * 发送数据到指定地址（阻塞Socket与NIO通道两种传输方式通用）
+     */
+    public void send(byte[] data, SocketAddress target) throws IOException {
+        send(data, data.length, target);
+    }
+    
+    /**
+     * 发送缓冲区中已构建的SIP消息
+     */
+    public void send(SipBuffer message, SocketAddress target) throws IOException {
+        send(message.array(), message.length(), target);
+    }
+    
+    private void send(byte[] data, int length, SocketAddress target) throws IOException {
+        ImpairedLink impairment = sipImpairment;
+        if (impairment != null) {
+            impairment.send(ByteBuffer.wrap(data, 0, length), target, this::sendNow);
+            return;
+        }
+        sendNow(ByteBuffer.wrap(data, 0, length), target);
+    }
+    
+    private void sendNow(ByteBuffer packet, SocketAddress target) throws IOException {
+        DatagramChannel ch = channel;
+        if (ch != null) {
+            if (!ch.isOpen()) {
+                return;
+            }
+            if (ch.send(packet, target) == 0) {
+                throw new IOException("发送缓冲区已满，数据被丢弃");
+            }
+            return;
+        }
+        DatagramSocket s = socket;
+        if (s != null && !s.isClosed()) {
+            s.send(new DatagramPacket(packet.array(), packet.arrayOffset() + packet.position(), packet.remaining(),
+                target));
+        }
+    }
+    
+    /**
+     * 获取平台地址（首次调用时解析并缓存）
+     */
+    public InetSocketAddress getServerAddress() throws UnknownHostException {
+        if (serverAddress == null) {
+            serverAddress = new InetSocketAddress(InetAddress.getByName(serverIp), serverPort);
+        }
+        return serverAddress;
     }
     
     /**
@@ -296,6 +522,36 @@ public class GB28181Device {
         this.socket = socket;
     }
     
+    /**
+     * 获取NIO通道
+     */
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+    
+    /**
+     * 设置NIO通道
+     */
+    public void setChannel(DatagramChannel channel) {
+        this.channel = channel;
+    }
+    
+    /**
+     * 关闭传输（Socket或NIO通道）
+     */
+    public void closeTransport() {
+        if (socket != null && !socket.isClosed()) {
+            socket.close();
+        }
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+    
     /**
      * 消息打印接口
      */
@@ -2,24 +2,233 @@ package com.gb28181.simulator.device;
 
 import com.gb28181.simulator.device.handler.ByeHandler;
 import com.gb28181.simulator.device.handler.CatalogHandler;
-import com.gb28181.simulator.device.handler.HeartbeatHandler;
+import com.gb28181.simulator.device.handler.InfoHandler;
 import com.gb28181.simulator.device.handler.InviteHandler;
 import com.gb28181.simulator.device.handler.RegisterHandler;
+import com.gb28181.simulator.media.MediaCatalog;
+import com.gb28181.simulator.media.MediaEngine;
+import com.gb28181.simulator.media.RtcpChannel;
+import com.gb28181.simulator.media.RtpRelayGroup;
+import com.gb28181.simulator.media.RtpTcpLoop;
+import com.gb28181.simulator.media.SyntheticStream;
+import com.gb28181.simulator.media.WatermarkCache;
+import com.gb28181.simulator.sip.SipBuffer;
 import com.gb28181.simulator.sip.SipMessageBuilder;
-import com.gb28181.simulator.sip.SipMessageParser;
+import com.gb28181.simulator.sip.SipMessage;
+import com.gb28181.simulator.sip.SipMessageReader;
+import com.gb28181.simulator.timer.TimingWheel;
+import com.gb28181.simulator.transport.ImpairedLink;
+import com.gb28181.simulator.transport.Impairment;
+import com.gb28181.simulator.transport.ImpairmentScheduler;
+import com.gb28181.simulator.transport.SharedPortTransport;
+import com.gb28181.simulator.transport.SipEventLoopGroup;
+import com.gb28181.simulator.util.VirtualThreads;
 
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.DatagramChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * GB28181设备模拟器
  */
 public class GB28181DeviceSimulator {
+    
+    /**
+     * SIP传输模式
+     */
+    public enum TransportMode {
+        THREAD_PER_DEVICE, // 每设备独立线程 + 阻塞Socket
+        NIO,               // 少量Selector事件循环复用全部设备通道
+        SHARED_PORT        // 多设备共享少量本地端口（SO_REUSEPORT多线程接收）
+    }
+    
+    /**
+     * 推流方式
+     */
+    public enum StreamMode {
+        FFMPEG, // 每会话一个FFmpeg转码进程
+        NATIVE, // 内置引擎：预编码码流只封装一次PS/RTP，全部会话共享发送线程
+        RELAY   // 每个媒体源一个FFmpeg编码进程，RTP包在进程内转发给全部会话
+    }
+    
+    /**
+     * 通道水印方式（仅FFmpeg推流方式）
+     */
+    public enum WatermarkMode {
+        LIVE,  // 每会话实时drawtext编码
+        LAZY,  // 通道首次点播时后台预渲染，之后不转码推送
+        EAGER  // 启动时预渲染全部通道
+    }
+    
+    /**
+     * 网络损伤的作用范围
+     */
+    public enum ImpairmentScope {
+        ALL,   // SIP和媒体
+        MEDIA, // 仅媒体（UDP点播会话）
+        SIP    // 仅SIP
+    }
+    
+    private static final long MEDIA_STATS_INTERVAL_MS = 10_000;
+    
+    /**
+     * Catalog分包发送定时器的刻度（毫秒），分包间隔按此取整
+     */
+    public static final int PACING_TICK_MS = 5;
+    
+    // 每个接收线程复用一个解析器
+    private static final ThreadLocal<SipMessageReader> READER = ThreadLocal.withInitial(SipMessageReader::new);
+    
     private final List<GB28181Device> devices = new ArrayList<>();
     private volatile boolean running = false;
+    private TransportMode transportMode = TransportMode.THREAD_PER_DEVICE;
+    private boolean virtualThreads = false;
+    private int eventLoopCount = Runtime.getRuntime().availableProcessors();
+    private SipEventLoopGroup eventLoopGroup;
+    private double timerJitter = 0.1;
+    private int catalogItemsPerPacket = 2;
+    private int catalogFragmentIntervalMs = 20;
+    // 全部设备共用的定时器：心跳、重注册、注册重试
+    private final TimingWheel timingWheel = new TimingWheel("DeviceTimer", 100, 512);
+    // Catalog分包等短间隔发送用的细刻度定时器
+    private final TimingWheel pacingWheel = new TimingWheel("PacingTimer", PACING_TICK_MS, 1024);
+    private int sharedPortWorkers = Runtime.getRuntime().availableProcessors();
+    private final List<SharedPortTransport> sharedPortTransports = new ArrayList<>();
+    // 平台地址 -> 本机对外可见IP
+    private final Map<String, String> contactIpCache = new ConcurrentHashMap<>();
+    private StreamMode streamMode = StreamMode.FFMPEG;
+    private int mediaSenderCount = Runtime.getRuntime().availableProcessors();
+    private int pacingRateKbps = 0;
+    private MediaEngine mediaEngine;
+    private long lastMissedDeadlines;
+    private RtpRelayGroup rtpRelays;
+    private RtcpChannel rtcpChannel;
+    private RtpTcpLoop rtpTcpLoop;
+    private MediaSessionManager mediaSessions;
+    private String mediaDirectory = "";
+    private MediaCatalog.Mapping mediaMapping = MediaCatalog.Mapping.ROUND_ROBIN;
+    private WatermarkMode watermarkMode = WatermarkMode.LAZY;
+    private int watermarkRenderThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private WatermarkCache watermarks;
+    private Impairment.Profiles impairments;
+    private ImpairmentScope impairmentScope = ImpairmentScope.ALL;
+    private ImpairmentScheduler impairmentScheduler;
+    
+    /**
+     * 设置SIP传输模式
+     */
+    public void setTransportMode(TransportMode transportMode) {
+        this.transportMode = transportMode;
+    }
+    
+    /**
+     * 设置每设备独立线程模式是否使用虚拟线程（需Java 21及以上）
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads && VirtualThreads.isSupported();
+    }
+    
+    /**
+     * 设置NIO事件循环线程数
+     */
+    public void setEventLoopCount(int eventLoopCount) {
+        this.eventLoopCount = eventLoopCount;
+    }
+    
+    /**
+     * 设置心跳/重注册/重试定时的抖动比例（0~1）
+     */
+    public void setTimerJitter(double timerJitter) {
+        this.timerJitter = Math.max(0, Math.min(1, timerJitter));
+    }
+    
+    /**
+     * 设置Catalog应答每包通道数（<=0表示全部通道放在一个包内）
+     */
+    public void setCatalogItemsPerPacket(int catalogItemsPerPacket) {
+        this.catalogItemsPerPacket = catalogItemsPerPacket;
+    }
+    
+    /**
+     * 设置Catalog分包之间的发送间隔（毫秒），向上取整为PACING_TICK_MS的整数倍
+     */
+    public void setCatalogFragmentInterval(int catalogFragmentIntervalMs) {
+        int interval = Math.max(0, catalogFragmentIntervalMs);
+        this.catalogFragmentIntervalMs = (interval + PACING_TICK_MS - 1) / PACING_TICK_MS * PACING_TICK_MS;
+    }
+    
+    /**
+     * 设置共享端口模式下每个端口的SO_REUSEPORT接收线程数
+     */
+    public void setSharedPortWorkers(int sharedPortWorkers) {
+        this.sharedPortWorkers = sharedPortWorkers;
+    }
+    
+    /**
+     * 设置推流方式
+     */
+    public void setStreamMode(StreamMode streamMode) {
+        this.streamMode = streamMode;
+    }
+    
+    /**
+     * 设置媒体文件目录（为空时使用test.mp4），也可以是合成码流描述（synthetic:编码:码率:帧率:GOP）
+     */
+    public void setMediaDirectory(String mediaDirectory) {
+        this.mediaDirectory = mediaDirectory != null ? mediaDirectory : "";
+    }
+    
+    /**
+     * 设置媒体源到通道的分配方式
+     */
+    public void setMediaMapping(MediaCatalog.Mapping mediaMapping) {
+        this.mediaMapping = mediaMapping;
+    }
+    
+    /**
+     * 设置通道水印方式
+     */
+    public void setWatermarkMode(WatermarkMode watermarkMode) {
+        this.watermarkMode = watermarkMode;
+    }
+    
+    /**
+     * 设置水印预渲染的并发FFmpeg进程数
+     */
+    public void setWatermarkRenderThreads(int watermarkRenderThreads) {
+        this.watermarkRenderThreads = watermarkRenderThreads;
+    }
+    
+    /**
+     * 设置网络损伤参数（null为不加损伤）
+     */
+    public void setImpairments(Impairment.Profiles impairments) {
+        this.impairments = impairments;
+    }
+    
+    /**
+     * 设置网络损伤的作用范围
+     */
+    public void setImpairmentScope(ImpairmentScope impairmentScope) {
+        this.impairmentScope = impairmentScope;
+    }
+    
+    /**
+     * 设置内置媒体引擎的RTP发送线程数
+     */
+    public void setMediaSenderCount(int mediaSenderCount) {
+        this.mediaSenderCount = mediaSenderCount;
+    }
+    
+    /**
+     * 设置内置媒体引擎每路的令牌桶平滑速率（kbps，<=0为按源码率自动计算）
+     */
+    public void setPacingRateKbps(int pacingRateKbps) {
+        this.pacingRateKbps = pacingRateKbps;
+    }
     
     /**
      * 创建设备
@@ -124,55 +333,57 @@ public class GB28181DeviceSimulator {
     }
     
     /**
-     * 处理SIP消息
+     * 处理收到的SIP数据包（每设备独立线程和NIO事件循环模式）
      */
     public void processSipMessage(GB28181Device device, byte[] data, SocketAddress addr) {
+        SipMessage message;
+        try {
+            message = SipMessage.parse(data, READER.get());
+        } catch (Exception e) {
+            System.err.println("✗ 解析SIP消息出错: " + e.getMessage());
+            return;
+        }
+        if (message != null) {
+            processSipMessage(device, message, addr);
+        }
+    }
+    
+    /**
+     * 处理已解析的SIP消息（共享端口模式在接收线程上解析后直接调用）
+     */
+    public void processSipMessage(GB28181Device device, SipMessage message, SocketAddress addr) {
         try {
-            String messageText = new String(data, StandardCharsets.UTF_8);
-            String[] lines = SipMessageParser.parseLines(messageText);
-            
-            if (lines.length == 0) {
-                return;
-            }
-            
             // 仅在目录订阅相关时打印
             boolean shouldPrint = false;
-            if (lines[0].startsWith("SUBSCRIBE")) {
-                for (String line : lines) {
-                    if (line.startsWith("Event:") && line.split(":", 2)[1].trim().equalsIgnoreCase("catalog")) {
-                        shouldPrint = true;
-                        break;
-                    }
-                }
-            } else if (lines[0].startsWith("MESSAGE")) {
-                if (messageText.contains("Catalog")) {
-                    shouldPrint = true;
-                }
+            if (message.isRequest("SUBSCRIBE")) {
+                shouldPrint = "catalog".equals(message.getEventType());
+            } else if (message.isRequest("MESSAGE")) {
+                shouldPrint = message.getBody().contains("Catalog");
             }
             
             if (shouldPrint) {
-                printSipMessage(device.deviceId, "recv", messageText, addr);
+                printSipMessage(device.deviceId, "recv", message.text(), addr);
             }
             
-            String requestBody = SipMessageParser.extractBody(lines);
-            String firstLine = lines[0];
-            
             // 处理不同类型的消息
-            if (firstLine.startsWith("SIP/2.0")) {
+            if (message.isResponse()) {
                 // 响应消息 - 注册响应
-                RegisterHandler.handleRegisterResponse(device, lines);
-            } else if (firstLine.startsWith("SUBSCRIBE")) {
+                RegisterHandler.handleRegisterResponse(device, message, this::printSipMessage);
+            } else if (message.isRequest("SUBSCRIBE")) {
                 // SUBSCRIBE请求 - Catalog订阅等
-                handleSubscribe(device, lines, addr);
-            } else if (firstLine.startsWith("MESSAGE")) {
+                handleSubscribe(device, message, addr);
+            } else if (message.isRequest("MESSAGE")) {
                 // MESSAGE请求
-                handleMessage(device, requestBody, lines, addr);
-            } else if (firstLine.startsWith("INVITE")) {
+                handleMessage(device, message, addr);
+            } else if (message.isRequest("INVITE")) {
                 // INVITE请求
-                InviteHandler.handleInvite(device, lines, addr, this::printSipMessage);
-            } else if (firstLine.startsWith("BYE")) {
+                InviteHandler.handleInvite(device, message, addr, this::printSipMessage);
+            } else if (message.isRequest("BYE")) {
                 // BYE请求 - 平台结束点播
-                ByeHandler.handleBye(device, lines, addr, this::printSipMessage);
+                ByeHandler.handleBye(device, message, addr, this::printSipMessage);
+            } else if (message.isRequest("INFO")) {
+                // INFO请求 - 回放控制（MANSRTSP）
+                InfoHandler.handleInfo(device, message, addr, this::printSipMessage);
             }
         } catch (Exception e) {
             System.err.println("✗ 处理SIP消息出错: " + e.getMessage());
@@ -183,19 +394,17 @@ public class GB28181DeviceSimulator {
     /**
      * 处理SUBSCRIBE请求
      */
-    private void handleSubscribe(GB28181Device device, String[] lines, SocketAddress addr) {
-        String eventType = SipMessageParser.extractEventType(lines);
+    private void handleSubscribe(GB28181Device device, SipMessage request, SocketAddress addr) {
+        String eventType = request.getEventType();
         
         if ("catalog".equals(eventType)) {
-            CatalogHandler.handleSubscribeCatalog(device, lines, addr, this::printSipMessage);
+            CatalogHandler.handleSubscribeCatalog(device, request, addr, this::printSipMessage);
         } else {
             // 其他类型的SUBSCRIBE，发送200 OK
             String contactIp = device.contactIp != null ? device.contactIp : device.localIp;
-            String response = SipMessageBuilder.createSubscribeResponse(lines, contactIp, null, device.deviceId);
+            SipBuffer response = SipMessageBuilder.createSubscribeResponse(request, contactIp, null, device.deviceId);
             try {
-                byte[] responseData = response.getBytes(StandardCharsets.UTF_8);
-                device.getSocket().send(new DatagramPacket(responseData, responseData.length,
-                    ((InetSocketAddress) addr).getAddress(), ((InetSocketAddress) addr).getPort()));
+                device.send(response, addr);
             } catch (IOException e) {
                 System.err.println("✗ 发送SUBSCRIBE响应失败: " + e.getMessage());
             }
@@ -205,10 +414,11 @@ public class GB28181DeviceSimulator {
     /**
      * 处理MESSAGE请求
      */
-    private void handleMessage(GB28181Device device, String requestBody, String[] lines, SocketAddress addr) {
+    private void handleMessage(GB28181Device device, SipMessage request, SocketAddress addr) {
         System.out.println("\n收到MESSAGE请求 (设备: " + device.deviceId + ")");
         
-        String cmdType = SipMessageParser.extractCmdType(requestBody);
+        String requestBody = request.getBody();
+        String cmdType = request.getCmdType();
         
         if (requestBody != null && requestBody.length() > 300) {
             System.out.println("  请求体预览: " + requestBody.substring(0, 300) + "...");
@@ -218,20 +428,18 @@ public class GB28181DeviceSimulator {
         String cmdTypeLower = cmdType != null ? cmdType.toLowerCase() : null;
         
         if ("deviceinfo".equals(cmdTypeLower)) {
-            handleDeviceInfo(device, requestBody, lines, addr);
+            handleDeviceInfo(device, request, addr);
         } else if ("configdownload".equals(cmdTypeLower)) {
-            handleConfigDownload(device, requestBody, lines, addr);
+            handleConfigDownload(device, request, addr);
         } else if ("catalog".equals(cmdTypeLower)) {
-            CatalogHandler.handleCatalogMessage(device, requestBody, lines, addr, this::printSipMessage);
+            CatalogHandler.handleCatalogMessage(device, request, addr, this::printSipMessage);
         } else {
             System.out.println("  请求类型: " + (cmdType != null ? cmdType : "未知") + " (未匹配到已知类型)");
             String contactIp = device.contactIp != null ? device.contactIp : device.localIp;
-            String response = SipMessageBuilder.createMessageResponse(lines, contactIp);
+            SipBuffer response = SipMessageBuilder.createMessageResponse(request, contactIp);
             try {
-                byte[] responseData = response.getBytes(StandardCharsets.UTF_8);
-                device.getSocket().send(new DatagramPacket(responseData, responseData.length,
-                    ((InetSocketAddress) addr).getAddress(), ((InetSocketAddress) addr).getPort()));
-                printSipMessage(device.deviceId, "send", response, addr);
+                device.send(response, addr);
+                printSipMessage(device.deviceId, "send", response.toString(), addr);
             } catch (IOException e) {
                 System.err.println("✗ 发送响应失败: " + e.getMessage());
             }
@@ -241,24 +449,19 @@ public class GB28181DeviceSimulator {
     /**
      * 处理DeviceInfo请求
      */
-    private void handleDeviceInfo(GB28181Device device, String requestBody, String[] lines, SocketAddress addr) {
+    private void handleDeviceInfo(GB28181Device device, SipMessage request, SocketAddress addr) {
         System.out.println("  请求类型: 获取设备信息（DeviceInfo）");
         
-        String sn = SipMessageParser.extractSn(requestBody);
-        String deviceInfoXml = XmlGenerator.createDeviceInfoXml(device.deviceId, device.deviceName, Integer.parseInt(sn));
+        String sn = request.getSn();
+        SipBuffer deviceInfoXml = XmlGenerator.createDeviceInfoXml(SipMessageBuilder.bodyBuffer(),
+            device.deviceId, device.deviceName, sn);
         
         String contactIp = device.contactIp != null ? device.contactIp : device.localIp;
-        String response = SipMessageBuilder.createMessageResponse(lines, contactIp);
-        int bodyLength = deviceInfoXml.getBytes(StandardCharsets.UTF_8).length;
-        response = response.replace("Content-Length: 0",
-            "Content-Type: Application/MANSCDP+xml\r\nContent-Length: " + bodyLength);
-        response += "\r\n" + deviceInfoXml;
+        SipBuffer response = SipMessageBuilder.createMessageResponse(request, contactIp, deviceInfoXml);
         
         try {
-            byte[] responseData = response.getBytes(StandardCharsets.UTF_8);
-            device.getSocket().send(new DatagramPacket(responseData, responseData.length,
-                ((InetSocketAddress) addr).getAddress(), ((InetSocketAddress) addr).getPort()));
-            printSipMessage(device.deviceId, "send", response, addr);
+            device.send(response, addr);
+            printSipMessage(device.deviceId, "send", response.toString(), addr);
             System.out.println("✓ 已发送设备信息");
         } catch (Exception e) {
             System.err.println("✗ 发送设备信息失败: " + e.getMessage());
@@ -268,33 +471,74 @@ public class GB28181DeviceSimulator {
     /**
      * 处理ConfigDownload请求
      */
-    private void handleConfigDownload(GB28181Device device, String requestBody, String[] lines, SocketAddress addr) {
+    private void handleConfigDownload(GB28181Device device, SipMessage request, SocketAddress addr) {
         System.out.println("  请求类型: 配置下载（ConfigDownload）");
         
-        String sn = SipMessageParser.extractSn(requestBody);
-        String configXml = XmlGenerator.createConfigDownloadXml(
+        String sn = request.getSn();
+        SipBuffer configXml = XmlGenerator.createConfigDownloadXml(SipMessageBuilder.bodyBuffer(),
             device.deviceId, device.deviceName, device.localIp,
-            device.localPort, device.password, Integer.parseInt(sn)
+            device.localPort, device.password, sn
         );
         
         String contactIp = device.contactIp != null ? device.contactIp : device.localIp;
-        String response = SipMessageBuilder.createMessageResponse(lines, contactIp);
-        int bodyLength = configXml.getBytes(StandardCharsets.UTF_8).length;
-        response = response.replace("Content-Length: 0",
-            "Content-Type: Application/MANSCDP+xml\r\nContent-Length: " + bodyLength);
-        response += "\r\n" + configXml;
+        SipBuffer response = SipMessageBuilder.createMessageResponse(request, contactIp, configXml);
         
         try {
-            byte[] responseData = response.getBytes(StandardCharsets.UTF_8);
-            device.getSocket().send(new DatagramPacket(responseData, responseData.length,
-                ((InetSocketAddress) addr).getAddress(), ((InetSocketAddress) addr).getPort()));
-            printSipMessage(device.deviceId, "send", response, addr);
+            device.send(response, addr);
+            printSipMessage(device.deviceId, "send", response.toString(), addr);
             System.out.println("✓ 已发送配置信息");
         } catch (Exception e) {
             System.err.println("✗ 发送配置信息失败: " + e.getMessage());
         }
     }
     
+    /**
+     * 计算设备实际绑定的本地IP（服务器为外部地址时绑定到0.0.0.0）
+     */
+    private String resolveBindIp(GB28181Device device) {
+        String bindIp = device.localIp;
+        if ("127.0.0.1".equals(bindIp) && !"127.0.0.1".equals(device.serverIp) && !"localhost".equals(device.serverIp)) {
+            bindIp = "0.0.0.0";
+        }
+        return bindIp;
+    }
+    
+    /**
+     * 确定设备的Contact地址（绑定0.0.0.0时获取实际对外可见的IP，按平台地址缓存）
+     */
+    private void resolveContactIp(GB28181Device device, String bindIp) {
+        if ("0.0.0.0".equals(bindIp)) {
+            String key = device.serverIp + ":" + device.serverPort;
+            String actualIp = contactIpCache.computeIfAbsent(key, k -> {
+                try (DatagramSocket tempSocket = new DatagramSocket()) {
+                    tempSocket.connect(InetAddress.getByName(device.serverIp), device.serverPort);
+                    return tempSocket.getLocalAddress().getHostAddress();
+                } catch (Exception e) {
+                    System.out.println("⚠ 获取实际IP地址失败: " + e.getMessage() + "，使用localIp");
+                    return null;
+                }
+            });
+            if (actualIp != null) {
+                device.contactIp = actualIp;
+                System.out.println("✓ 设备 " + device.deviceId + " 监听 " + bindIp + ":" + device.localPort +
+                    "，Contact地址: " + device.contactIp + ":" + device.localPort);
+            } else {
+                device.contactIp = device.localIp;
+            }
+        } else {
+            device.contactIp = bindIp;
+            System.out.println("✓ 设备 " + device.deviceId + " 监听 " + bindIp + ":" + device.localPort);
+        }
+    }
+    
+    /**
+     * 发送首次注册（后续重试、重注册与心跳均由时间轮调度）
+     */
+    private void sendInitialRegister(GB28181Device device) {
+        device.lastHeartbeat = System.currentTimeMillis() / 1000;
+        RegisterHandler.register(device);
+    }
+    
     /**
      * 设备线程函数
      */
@@ -304,10 +548,7 @@ public class GB28181DeviceSimulator {
             DatagramSocket socket = new DatagramSocket(null);
             
             // 如果服务器IP是外部地址，绑定到0.0.0.0而不是127.0.0.1
-            String bindIp = device.localIp;
-            if ("127.0.0.1".equals(bindIp) && !"127.0.0.1".equals(device.serverIp) && !"localhost".equals(device.serverIp)) {
-                bindIp = "0.0.0.0";
-            }
+            String bindIp = resolveBindIp(device);
             
             try {
                 socket.bind(new InetSocketAddress(bindIp, device.localPort));
@@ -320,53 +561,24 @@ public class GB28181DeviceSimulator {
             device.setSocket(socket);
             
             // 如果绑定到0.0.0.0，需要获取实际对外可见的IP地址
-            if ("0.0.0.0".equals(bindIp)) {
-                try {
-                    DatagramSocket tempSocket = new DatagramSocket();
-                    tempSocket.connect(InetAddress.getByName(device.serverIp), device.serverPort);
-                    String actualIp = tempSocket.getLocalAddress().getHostAddress();
-                    tempSocket.close();
-                    device.contactIp = actualIp;
-                    System.out.println("✓ 设备 " + device.deviceId + " 监听 " + bindIp + ":" + device.localPort +
-                        "，Contact地址: " + device.contactIp + ":" + device.localPort);
-                } catch (Exception e) {
-                    System.out.println("⚠ 获取实际IP地址失败: " + e.getMessage() + "，使用localIp");
-                    device.contactIp = device.localIp;
-                }
-            } else {
-                device.contactIp = bindIp;
-                System.out.println("✓ 设备 " + device.deviceId + " 监听 " + bindIp + ":" + device.localPort);
-            }
+            resolveContactIp(device, bindIp);
             
             // 注册
-            try {
-                RegisterHandler.sendRegisterRequest(device, socket);
-            } catch (IOException e) {
-                System.err.println("✗ 发送注册请求失败: " + e.getMessage());
-            }
+            sendInitialRegister(device);
             
-            long lastRegister = System.currentTimeMillis() / 1000;
-            device.lastHeartbeat = System.currentTimeMillis() / 1000;
-            
-            // 消息接收循环
+            // 消息接收循环（接收缓冲区按UDP最大载荷分配并复用，收到的数据会被复制）
+            byte[] buffer = new byte[65535];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
             while (running) {
                 try {
-                    byte[] buffer = new byte[4096];
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    packet.setLength(buffer.length);
                     socket.receive(packet);
                     
                     byte[] receivedData = Arrays.copyOf(packet.getData(), packet.getLength());
                     processSipMessage(device, receivedData, packet.getSocketAddress());
                     
                 } catch (SocketTimeoutException e) {
-                    // 超时，检查是否需要重注册或心跳
-                    long currentTime = System.currentTimeMillis() / 1000;
-                    
-                    // 检查并发送心跳
-                    HeartbeatHandler.checkAndSendHeartbeat(device, currentTime, this::printSipMessage);
-                    
-                    // 检查并重注册
-                    lastRegister = RegisterHandler.checkAndReRegister(device, socket, lastRegister, currentTime);
+                    // 超时仅用于检查running标志，定时任务由时间轮负责
                 } catch (IOException e) {
                     if (running) {
                         System.err.println("✗ 设备 " + device.deviceId + " 接收消息出错: " + e.getMessage());
@@ -377,27 +589,106 @@ public class GB28181DeviceSimulator {
             System.err.println("✗ 设备 " + device.deviceId + " 线程出错: " + e.getMessage());
             e.printStackTrace();
         } finally {
-            if (device.getSocket() != null && !device.getSocket().isClosed()) {
-                device.getSocket().close();
-            }
+            device.closeTransport();
             device.stopAllStreamPush();
         }
     }
     
     /**
-     * 启动所有设备
+     * 以NIO方式打开设备通道，发送首次注册后交给事件循环
      */
-    public void startAllDevices() {
-        running = true;
+    private boolean openNioDevice(GB28181Device device) {
+        String bindIp = resolveBindIp(device);
+        DatagramChannel channel = null;
+        try {
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(bindIp, device.localPort));
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            System.err.println("✗ 设备 " + device.deviceId + " 绑定通道失败: " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // 忽略
+                }
+            }
+            return false;
+        }
         
-        System.out.println("\n启动 " + devices.size() + " 个设备...");
+        device.setChannel(channel);
+        resolveContactIp(device, bindIp);
+        sendInitialRegister(device);
+        eventLoopGroup.register(device);
+        return true;
+    }
+    
+    /**
+     * 以NIO事件循环方式启动全部设备
+     */
+    private void startNioDevices() {
+        try {
+            eventLoopGroup = new SipEventLoopGroup(eventLoopCount, this::processSipMessage);
+        } catch (IOException e) {
+            System.err.println("✗ 创建事件循环失败: " + e.getMessage());
+            return;
+        }
+        eventLoopGroup.start();
+        System.out.println("  传输模式: NIO事件循环（线程数: " + eventLoopGroup.size() + "）");
         
-        List<Thread> threads = new ArrayList<>();
+        int started = 0;
         for (GB28181Device device : devices) {
-            Thread thread = new Thread(() -> deviceThread(device), "Device-" + device.deviceId);
-            thread.setDaemon(true);
-            thread.start();
-            threads.add(thread);
+            if (openNioDevice(device)) {
+                started++;
+            }
+        }
+        System.out.println("✓ 已启动设备: " + started + "/" + devices.size());
+    }
+    
+    /**
+     * 以共享端口方式启动全部设备（按localPort分组，每组共用一组SO_REUSEPORT通道）
+     */
+    private void startSharedPortDevices() {
+        Map<Integer, List<GB28181Device>> devicesByPort = new LinkedHashMap<>();
+        for (GB28181Device device : devices) {
+            devicesByPort.computeIfAbsent(device.localPort, k -> new ArrayList<>()).add(device);
+        }
+        
+        int started = 0;
+        for (Map.Entry<Integer, List<GB28181Device>> entry : devicesByPort.entrySet()) {
+            List<GB28181Device> portDevices = entry.getValue();
+            String bindIp = resolveBindIp(portDevices.get(0));
+            SharedPortTransport transport = new SharedPortTransport(bindIp, entry.getKey(),
+                sharedPortWorkers, this::processSipMessage);
+            try {
+                transport.start();
+            } catch (IOException e) {
+                System.err.println("✗ 绑定共享端口 " + bindIp + ":" + entry.getKey() + " 失败: " + e.getMessage());
+                transport.stop();
+                continue;
+            }
+            sharedPortTransports.add(transport);
+            
+            for (GB28181Device device : portDevices) {
+                transport.addDevice(device);
+            }
+            for (GB28181Device device : portDevices) {
+                resolveContactIp(device, bindIp);
+                sendInitialRegister(device);
+                started++;
+            }
+        }
+        System.out.println("  传输模式: 共享端口（端口数: " + sharedPortTransports.size() + "）");
+        System.out.println("✓ 已启动设备: " + started + "/" + devices.size());
+
+    }
+    
+    /**
+     * 以每设备独立线程方式启动全部设备
+     */
+    private void startThreadPerDevice() {
+        for (GB28181Device device : devices) {
+            VirtualThreads.newThread("Device-" + device.deviceId, () -> deviceThread(device), virtualThreads).start();
             try {
                 Thread.sleep(500); // 避免端口冲突
             } catch (InterruptedException e) {
@@ -405,6 +696,163 @@ public class GB28181DeviceSimulator {
                 break;
             }
         }
+    }
+    
+    /**
+     * 定期打印媒体会话的启停状态，以及内置媒体引擎的会话数和错过节拍次数
+     */
+    private void reportMediaStats() {
+        if (!running) {
+            return;
+        }
+        int starting = mediaSessions.count(MediaSessionManager.State.STARTING);
+        int stopping = mediaSessions.count(MediaSessionManager.State.STOPPING);
+        int queued = mediaSessions.queuedCommands();
+        if (starting > 0 || stopping > 0 || queued > 0) {
+            System.out.println("  媒体会话: 推流中 " + mediaSessions.count(MediaSessionManager.State.RUNNING)
+                + "，启动中 " + starting + "，停止中 " + stopping + "，排队命令 " + queued);
+        }
+        if (mediaEngine != null) {
+            long missed = mediaEngine.getMissedDeadlines();
+            int sessions = mediaEngine.sessionCount();
+            if (sessions > 0 || missed != lastMissedDeadlines) {
+                System.out.println("  媒体发送: 会话 " + sessions + "，错过节拍 " + (missed - lastMissedDeadlines)
+                    + "（累计 " + missed + "）");
+            }
+            lastMissedDeadlines = missed;
+        }
+        if (watermarks != null && watermarks.pendingCount() > 0) {
+            System.out.println("  水印预渲染: 已就绪 " + watermarks.readyCount() + "，渲染中 " + watermarks.pendingCount()
+                + "，失败 " + watermarks.getFailedCount());
+        }
+        if (rtcpChannel != null) {
+            RtcpChannel.Summary rtcp = rtcpChannel.summarize();
+            if (rtcp.sessions > 0) {
+                System.out.println(String.format("  RTCP: 会话 %d（已收到RR %d），丢包率 平均%.1f%% 最大%.1f%%，累计丢包 %d，"
+                        + "抖动 平均%.1fms 最大%.1fms，RTT %s", rtcp.sessions, rtcp.reporting,
+                    rtcp.avgFractionLost * 100, rtcp.maxFractionLost * 100, rtcp.cumulativeLost, rtcp.avgJitterMillis,
+                    rtcp.maxJitterMillis, rtcp.avgRttMillis < 0 ? "未知"
+                        : String.format("平均%.1fms 最大%.1fms", rtcp.avgRttMillis, rtcp.maxRttMillis)));
+            }
+        }
+        if (impairmentScheduler != null) {
+            System.out.println("  网络损伤: 丢弃 " + impairmentScheduler.getLost() + "，限速溢出 "
+                + impairmentScheduler.getOverflowed() + "，重复 " + impairmentScheduler.getDuplicated() + "，乱序 "
+                + impairmentScheduler.getReordered() + "，延迟发送 " + impairmentScheduler.getDelayed() + "（排队 "
+                + impairmentScheduler.queuedPackets() + "）");
+        }
+        timingWheel.schedule(this::reportMediaStats, MEDIA_STATS_INTERVAL_MS);
+    }
+    
+    /**
+     * 启动所有设备
+     */
+    public void startAllDevices() {
+        running = true;
+        
+        System.out.println("\n启动 " + devices.size() + " 个设备...");
+        
+        timingWheel.start();
+        pacingWheel.start();
+        MediaCatalog mediaCatalog = MediaCatalog.scan(mediaDirectory, mediaMapping);
+        for (GB28181Device device : devices) {
+            List<String> channelIds = new ArrayList<>();
+            for (Channel channel : device.getChannels()) {
+                channelIds.add(channel.getId());
+            }
+            mediaCatalog.assign(device.deviceId, channelIds);
+        }
+        // 合成码流只能由内置引擎生成：其他推流方式下也创建引擎，只用于合成码流
+        boolean nativeMode = streamMode == StreamMode.NATIVE;
+        if (nativeMode || streamMode == StreamMode.RELAY || mediaCatalog.hasSynthetic()) {
+            try {
+                rtcpChannel = new RtcpChannel();
+                rtcpChannel.start();
+                System.out.println("  RTCP: 本地端口 " + rtcpChannel.getLocalPort());
+            } catch (IOException e) {
+                System.err.println("✗ 创建RTCP端口失败，不发送RTCP: " + e.getMessage());
+            }
+        }
+        if (nativeMode || mediaCatalog.hasSynthetic()) {
+            try {
+                mediaEngine = new MediaEngine(mediaSenderCount, pacingRateKbps, rtcpChannel);
+                mediaEngine.start();
+                System.out.println("  " + (nativeMode ? "推流方式" : "合成码流") + ": 内置PS/RTP封装（发送线程数: "
+                    + mediaEngine.size() + "）");
+                for (MediaCatalog.Source source : mediaCatalog.getSources()) {
+                    if (nativeMode || SyntheticStream.isSynthetic(source.getPath())) {
+                        mediaEngine.preload(source.getPath());
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("✗ 创建媒体引擎失败" + (nativeMode ? "，改用FFmpeg推流" : "，合成码流无法推流") + ": "
+                    + e.getMessage());
+                nativeMode = false;
+            }
+        }
+        if (streamMode == StreamMode.RELAY) {
+            rtpRelays = new RtpRelayGroup(rtcpChannel);
+            System.out.println("  推流方式: FFmpeg共享编码转发");
+        }
+        if (!nativeMode && rtpRelays == null && watermarkMode != WatermarkMode.LIVE) {
+            watermarks = new WatermarkCache(WatermarkCache.DEFAULT_CACHE_DIR, watermarkRenderThreads);
+            System.out.println("  通道水印: 预渲染（" + (watermarkMode == WatermarkMode.EAGER ? "启动时" : "首次点播时")
+                + "，缓存目录: " + watermarks.getCacheDir() + "）");
+        }
+        if (impairments != null) {
+            impairmentScheduler = new ImpairmentScheduler(ImpairmentScheduler.DEFAULT_MAX_QUEUED_BYTES);
+            impairmentScheduler.start();
+            System.out.println("  网络损伤: " + (impairments.getDefaults() != null ? impairments.getDefaults() : "无默认参数")
+                + (impairments.overrideCount() > 0 ? "（另有 " + impairments.overrideCount() + " 个设备/通道单独指定）" : "")
+                + "，作用于" + (impairmentScope == ImpairmentScope.ALL ? "SIP和媒体"
+                    : impairmentScope == ImpairmentScope.MEDIA ? "媒体" : "SIP"));
+        }
+        mediaSessions = new MediaSessionManager(Runtime.getRuntime().availableProcessors(),
+            MediaSessionManager.DEFAULT_QUEUE_CAPACITY);
+        timingWheel.schedule(this::reportMediaStats, MEDIA_STATS_INTERVAL_MS);
+        if (nativeMode || rtpRelays != null) {
+            try {
+                rtpTcpLoop = new RtpTcpLoop(RtpTcpLoop.DEFAULT_MAX_PENDING);
+                rtpTcpLoop.start();
+            } catch (IOException e) {
+                System.err.println("✗ 创建TCP媒体事件循环失败，仅支持UDP推流: " + e.getMessage());
+            }
+        }
+        for (GB28181Device device : devices) {
+            device.mediaEngine = nativeMode ? mediaEngine : null;
+            device.syntheticEngine = mediaEngine;
+            device.rtpRelays = rtpRelays;
+            device.rtpTcpLoop = rtpTcpLoop;
+            device.mediaSessions = mediaSessions;
+            device.mediaCatalog = mediaCatalog;
+            device.watermarks = watermarks;
+            if (impairmentScheduler != null) {
+                device.impairmentScheduler = impairmentScheduler;
+                Impairment sip = impairments.forDevice(device.deviceId);
+                if (impairmentScope != ImpairmentScope.MEDIA && sip != null) {
+                    device.sipImpairment = new ImpairedLink(sip, impairmentScheduler);
+                }
+                if (impairmentScope != ImpairmentScope.SIP) {
+                    device.mediaImpairments = impairments;
+                }
+            }
+            device.timingWheel = timingWheel;
+            device.pacingWheel = pacingWheel;
+            device.timerJitter = timerJitter;
+            device.catalogItemsPerPacket = catalogItemsPerPacket;
+            device.catalogFragmentIntervalMs = catalogFragmentIntervalMs;
+            if (watermarks != null && watermarkMode == WatermarkMode.EAGER) {
+                device.prerenderWatermarks();
+            }
+        }
+        
+        if (transportMode == TransportMode.NIO) {
+            startNioDevices();
+        } else if (transportMode == TransportMode.SHARED_PORT) {
+            startSharedPortDevices();
+        } else {
+            startThreadPerDevice();
+        }
         
         System.out.println("\n✓ 所有设备已启动，按 Ctrl+C 停止");
         
@@ -412,9 +860,36 @@ public class GB28181DeviceSimulator {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("\n正在停止所有设备...");
             running = false;
+            if (eventLoopGroup != null) {
+                eventLoopGroup.stop();
+            }
+            for (SharedPortTransport transport : sharedPortTransports) {
+                transport.stop();
+            }
+            timingWheel.stop();
+            pacingWheel.stop();
+            mediaSessions.stop();
             for (GB28181Device device : devices) {
                 device.stopAllStreamPush();
             }
+            if (mediaEngine != null) {
+                mediaEngine.stop();
+            }
+            if (rtpRelays != null) {
+                rtpRelays.stop();
+            }
+            if (watermarks != null) {
+                watermarks.stop();
+            }
+            if (rtpTcpLoop != null) {
+                rtpTcpLoop.stop();
+            }
+            if (rtcpChannel != null) {
+                rtcpChannel.stop();
+            }
+            if (impairmentScheduler != null) {
+                impairmentScheduler.stop();
+            }
             try {
                 Thread.sleep(2000);
             } catch (InterruptedException e) {
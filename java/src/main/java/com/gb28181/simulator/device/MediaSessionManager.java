@@ -0,0 +1,206 @@
+package com.gb28181.simulator.device;
+
+import com.gb28181.simulator.media.Playback;
+import com.gb28181.simulator.media.RtpTcpConnection;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 媒体会话管理器：INVITE/BYE处理只把启动、停止命令放入队列，建立TCP媒体连接、
+ * 启动和停止推流都由独立的有界线程池执行，SIP接收线程不被推流操作阻塞
+ *
+ * 同一设备的命令固定由同一个工作线程按提交顺序执行，同一会话的启动和停止不会乱序
+ */
+public class MediaSessionManager {
+
+    /**
+     * 会话状态
+     */
+    public enum State {
+        STARTING, // 启动命令已入队或正在执行
+        RUNNING,  // 推流已启动
+        STOPPING  // 停止命令已入队或正在执行
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    private final ThreadPoolExecutor[] workers;
+    // 设备ID/会话键 -> 状态
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+
+    /**
+     * @param workerCount 工作线程数
+     * @param queueCapacity 每个工作线程的命令队列容量
+     */
+    public MediaSessionManager(int workerCount, int queueCapacity) {
+        workers = new ThreadPoolExecutor[Math.max(1, workerCount)];
+        for (int i = 0; i < workers.length; i++) {
+            String name = "MediaSession-" + i;
+            workers[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+                    Thread thread = new Thread(r, name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        }
+    }
+
+    /**
+     * 提交启动命令
+     *
+     * @param mediaPath 媒体文件路径（由媒体源目录分配）
+     * @param tcp 已建立监听的被动TCP连接（主动方式和UDP为null）
+     * @param tcpActive 是否由本端主动连接平台的TCP媒体端口
+     * @param playback 回放/下载参数，实时点播为null
+     * @return 是否已入队（队列已满时关闭tcp并返回false）
+     */
+    public boolean start(GB28181Device device, String channelId, String mediaPath, String targetIp, int targetPort,
+                         String ssrc, RtpTcpConnection tcp, boolean tcpActive, Playback playback) {
+        String key = key(device, channelId + "@" + targetIp + ":" + targetPort);
+        states.put(key, State.STARTING);
+        try {
+            worker(device).execute(() -> doStart(device, key, channelId, mediaPath, targetIp, targetPort, ssrc, tcp,
+                tcpActive, playback));
+            return true;
+        } catch (RejectedExecutionException e) {
+            System.err.println("✗ 媒体命令队列已满，放弃启动推流 (设备: " + device.deviceId + ", 通道: " + channelId + ")");
+            states.remove(key, State.STARTING);
+            if (tcp != null) {
+                tcp.close();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 提交按会话键停止的命令
+     */
+    public void stop(GB28181Device device, String sessionKey) {
+        String key = key(device, sessionKey);
+        states.put(key, State.STOPPING);
+        submitStop(device, () -> {
+            device.stopStreamPushBySessionKeyPublic(sessionKey);
+            states.remove(key, State.STOPPING);
+        });
+    }
+
+    /**
+     * 提交停止指定通道全部会话的命令
+     */
+    public void stopChannel(GB28181Device device, String channelId) {
+        submitStop(device, () -> {
+            device.stopStreamPush(channelId);
+            clearStates(key(device, channelId + "@"));
+        });
+    }
+
+    /**
+     * 提交停止设备全部会话的命令
+     */
+    public void stopAll(GB28181Device device) {
+        submitStop(device, () -> {
+            device.stopAllStreamPush();
+            clearStates(key(device, ""));
+        });
+    }
+
+    /**
+     * 停止命令不能丢弃：队列已满时在当前线程执行（停止操作本身不等待进程退出）
+     */
+    private void submitStop(GB28181Device device, Runnable command) {
+        try {
+            worker(device).execute(command);
+        } catch (RejectedExecutionException e) {
+            command.run();
+        }
+    }
+
+    private void doStart(GB28181Device device, String key, String channelId, String mediaPath, String targetIp,
+                         int targetPort, String ssrc, RtpTcpConnection tcp, boolean tcpActive,
+                         Playback playback) {
+        if (states.get(key) != State.STARTING) {
+            // 启动前已收到BYE
+            if (tcp != null) {
+                tcp.close();
+            }
+            return;
+        }
+        boolean success = false;
+        try {
+            RtpTcpConnection connection = tcp;
+            if (tcpActive) {
+                try {
+                    connection = device.openTcpMedia(false, targetIp, targetPort);
+                } catch (IOException e) {
+                    System.err.println("✗ 连接TCP媒体端口 " + targetIp + ":" + targetPort + " 失败: " + e.getMessage());
+                    return;
+                }
+            }
+            success = device.startStreamPush(channelId, mediaPath, targetIp, targetPort, ssrc, connection, playback);
+        } finally {
+            if (success) {
+                // 执行期间收到BYE时保持STOPPING，由随后的停止命令清理
+                states.replace(key, State.STARTING, State.RUNNING);
+            } else {
+                states.remove(key, State.STARTING);
+                if (tcp != null) {
+                    tcp.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 清除已执行停止的会话状态（同一设备的命令按序执行，此时处于STARTING的是之后提交的启动命令）
+     */
+    private void clearStates(String prefix) {
+        states.entrySet().removeIf(e -> e.getKey().startsWith(prefix) && e.getValue() != State.STARTING);
+    }
+
+    private ThreadPoolExecutor worker(GB28181Device device) {
+        return workers[Math.floorMod(device.deviceId.hashCode(), workers.length)];
+    }
+
+    private static String key(GB28181Device device, String sessionKey) {
+        return device.deviceId + "/" + sessionKey;
+    }
+
+    /**
+     * 指定状态的会话数
+     */
+    public int count(State state) {
+        int count = 0;
+        for (State s : states.values()) {
+            if (s == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 排队中的命令数
+     */
+    public int queuedCommands() {
+        int queued = 0;
+        for (ThreadPoolExecutor worker : workers) {
+            queued += worker.getQueue().size();
+        }
+        return queued;
+    }
+
+    /**
+     * 停止全部工作线程，丢弃未执行的命令
+     */
+    public void stop() {
+        for (ThreadPoolExecutor worker : workers) {
+            worker.shutdownNow();
+        }
+    }
+}
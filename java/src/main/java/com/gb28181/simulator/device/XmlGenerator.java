@@ -1,184 +1,125 @@
 package com.gb28181.simulator.device;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.StringWriter;
-import java.util.List;
+import com.gb28181.simulator.sip.SipBuffer;
 
 /**
  * GB28181 XML消息生成器
+ *
+ * 通过XmlWriter直接写入字节缓冲区；通道目录条目按设备缓存，应答时只拼接SN/InfoID与本包条目
  */
 public class XmlGenerator {
     
     /**
-     * 创建Keepalive心跳消息XML
+     * 渲染单个通道的目录条目（Item元素）
      */
-    public static String createKeepaliveXml(String deviceId, int sn) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.newDocument();
-
-            Element root = doc.createElement("Notify");
-            doc.appendChild(root);
-
-            appendElement(doc, root, "CmdType", "Keepalive");
-            appendElement(doc, root, "SN", String.valueOf(sn));
-            appendElement(doc, root, "DeviceID", deviceId);
-            appendElement(doc, root, "Status", "OK");
-            appendElement(doc, root, "Info", "");
-
-            return xmlToString(doc);
-        } catch (Exception e) {
-            throw new RuntimeException("创建Keepalive XML失败", e);
+    static byte[] renderCatalogItem(String deviceId, Channel channel) {
+        XmlWriter xml = new XmlWriter(new SipBuffer(512));
+        xml.start("Item")
+            .element("DeviceID", channel.getId())
+            .element("Name", channel.getName())
+            .element("Manufacturer", channel.getAttribute("manufacturer", "IPC"))
+            .element("Model", channel.getAttribute("model", "IPC"))
+            .element("Owner", channel.getAttribute("owner", deviceId));
+        
+        String civilCode = channel.getAttribute("civil_code", "340200");
+        if (civilCode.length() > 6) {
+            civilCode = civilCode.substring(0, 6);
+        }
+        xml.element("CivilCode", civilCode)
+            .element("Address", channel.getAttribute("address", "Address"))
+            .element("Parental", channel.getAttribute("parental", "0"));
+        
+        if ("1".equals(channel.getAttribute("parental"))) {
+            xml.element("ParentID", channel.getAttribute("parent_id", deviceId));
         }
+        
+        xml.element("SafetyWay", channel.getAttribute("safety_way", "0"))
+            .element("RegisterWay", channel.getAttribute("register_way", "1"))
+            .element("Secrecy", channel.getAttribute("secrecy", "0"))
+            .element("Status", channel.getAttribute("status", "ON"))
+            .element("Online", channel.getAttribute("online", "ON"))
+            .element("AlarmStatus", channel.getAttribute("alarm_status", "READY"))
+            .end("Item");
+        return xml.buffer().toByteArray();
     }
-
+    
     /**
-     * 创建通道目录响应XML
+     * 写入通道目录响应XML（items[from, to)为本包条目，SumNum为通道总数）
      */
-    public static String createCatalogXml(String deviceId, List<Channel> channels, int sn, String infoId) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.newDocument();
-
-            Element root = doc.createElement("Response");
-            doc.appendChild(root);
-
-            appendElement(doc, root, "CmdType", "Catalog");
-            appendElement(doc, root, "SN", String.valueOf(sn));
-            appendElement(doc, root, "DeviceID", deviceId);
-            appendElement(doc, root, "SumNum", String.valueOf(channels.size()));
-
-            if (infoId != null && !infoId.isEmpty()) {
-                appendElement(doc, root, "InfoID", infoId);
-            }
-
-            Element deviceList = doc.createElement("DeviceList");
-            deviceList.setAttribute("Num", String.valueOf(channels.size()));
-            root.appendChild(deviceList);
-
-            for (Channel channel : channels) {
-                Element item = doc.createElement("Item");
-                deviceList.appendChild(item);
-
-                appendElement(doc, item, "DeviceID", channel.getId());
-                appendElement(doc, item, "Name", channel.getName());
-                appendElement(doc, item, "Manufacturer", channel.getAttribute("manufacturer", "IPC"));
-                appendElement(doc, item, "Model", channel.getAttribute("model", "IPC"));
-                appendElement(doc, item, "Owner", channel.getAttribute("owner", deviceId));
-                
-                String civilCode = channel.getAttribute("civil_code", "340200");
-                if (civilCode.length() > 6) {
-                    civilCode = civilCode.substring(0, 6);
-                }
-                appendElement(doc, item, "CivilCode", civilCode);
-                
-                appendElement(doc, item, "Address", channel.getAttribute("address", "Address"));
-                appendElement(doc, item, "Parental", channel.getAttribute("parental", "0"));
-                
-                if ("1".equals(channel.getAttribute("parental"))) {
-                    appendElement(doc, item, "ParentID", channel.getAttribute("parent_id", deviceId));
-                }
-                
-                appendElement(doc, item, "SafetyWay", channel.getAttribute("safety_way", "0"));
-                appendElement(doc, item, "RegisterWay", channel.getAttribute("register_way", "1"));
-                appendElement(doc, item, "Secrecy", channel.getAttribute("secrecy", "0"));
-                appendElement(doc, item, "Status", channel.getAttribute("status", "ON"));
-                appendElement(doc, item, "Online", channel.getAttribute("online", "ON"));
-                appendElement(doc, item, "AlarmStatus", channel.getAttribute("alarm_status", "READY"));
-            }
-
-            return xmlToString(doc);
-        } catch (Exception e) {
-            throw new RuntimeException("创建Catalog XML失败", e);
+    public static SipBuffer createCatalogXml(SipBuffer out, String deviceId, byte[][] items, int from, int to,
+                                             String sn, String infoId) {
+        XmlWriter xml = new XmlWriter(out);
+        xml.declaration()
+            .start("Response")
+            .element("CmdType", "Catalog")
+            .element("SN", sn)
+            .element("DeviceID", deviceId)
+            .element("SumNum", items.length);
+        
+        if (infoId != null && !infoId.isEmpty()) {
+            xml.element("InfoID", infoId);
+        }
+        
+        xml.start("DeviceList", "Num", String.valueOf(to - from));
+        for (int i = from; i < to; i++) {
+            xml.raw(items[i]);
         }
+        return xml.end("DeviceList")
+            .end("Response")
+            .buffer();
     }
-
+    
     /**
-     * 创建设备信息响应XML
+     * 写入设备信息响应XML
      */
-    public static String createDeviceInfoXml(String deviceId, String deviceName, int sn) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.newDocument();
-
-            Element root = doc.createElement("Response");
-            doc.appendChild(root);
-
-            appendElement(doc, root, "CmdType", "DeviceInfo");
-            appendElement(doc, root, "SN", String.valueOf(sn));
-            appendElement(doc, root, "DeviceID", deviceId);
-            appendElement(doc, root, "DeviceName", deviceName);
-            appendElement(doc, root, "Manufacturer", "GB28181-Simulator");
-            appendElement(doc, root, "Model", "IPC-Simulator-v1.0");
-            appendElement(doc, root, "Firmware", "v1.0.0");
-            appendElement(doc, root, "Result", "OK");
-
-            return xmlToString(doc);
-        } catch (Exception e) {
-            throw new RuntimeException("创建设备信息XML失败", e);
-        }
+    public static SipBuffer createDeviceInfoXml(SipBuffer out, String deviceId, String deviceName, String sn) {
+        return new XmlWriter(out).declaration()
+            .start("Response")
+            .element("CmdType", "DeviceInfo")
+            .element("SN", sn)
+            .element("DeviceID", deviceId)
+            .element("DeviceName", deviceName)
+            .element("Manufacturer", "GB28181-Simulator")
+            .element("Model", "IPC-Simulator-v1.0")
+            .element("Firmware", "v1.0.0")
+            .element("Result", "OK")
+            .end("Response")
+            .buffer();
     }
     
     /**
-     * 创建配置下载响应XML
+     * 写入媒体状态通知XML（NotifyType 121：历史媒体文件发送结束）
      */
-    public static String createConfigDownloadXml(String deviceId, String deviceName, String localIp, int localPort, String password, int sn) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.newDocument();
-
-            Element root = doc.createElement("Response");
-            doc.appendChild(root);
-
-            appendElement(doc, root, "CmdType", "ConfigDownload");
-            appendElement(doc, root, "SN", String.valueOf(sn));
-            appendElement(doc, root, "DeviceID", deviceId);
-            appendElement(doc, root, "Result", "OK");
-
-            Element basicParam = doc.createElement("BasicParam");
-            root.appendChild(basicParam);
-            
-            appendElement(doc, basicParam, "Name", deviceName);
-            appendElement(doc, basicParam, "DeviceID", deviceId);
-            appendElement(doc, basicParam, "IPAddress", localIp);
-            appendElement(doc, basicParam, "Port", String.valueOf(localPort));
-            appendElement(doc, basicParam, "Password", password != null ? password : "");
-
-            return xmlToString(doc);
-        } catch (Exception e) {
-            throw new RuntimeException("创建配置下载XML失败", e);
-        }
+    public static SipBuffer createMediaStatusXml(SipBuffer out, String channelId, String sn) {
+        return new XmlWriter(out).declaration()
+            .start("Notify")
+            .element("CmdType", "MediaStatus")
+            .element("SN", sn)
+            .element("DeviceID", channelId)
+            .element("NotifyType", "121")
+            .end("Notify")
+            .buffer();
     }
-
-    private static void appendElement(Document doc, Element parent, String tagName, String textContent) {
-        Element element = doc.createElement(tagName);
-        element.setTextContent(textContent);
-        parent.appendChild(element);
-    }
-
-    private static String xmlToString(Document doc) throws Exception {
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-        transformer.setOutputProperty(OutputKeys.ENCODING, "GB2312");
-        transformer.setOutputProperty(OutputKeys.INDENT, "no");
-
-        StringWriter writer = new StringWriter();
-        transformer.transform(new DOMSource(doc), new StreamResult(writer));
-        return writer.toString();
+    
+    /**
+     * 写入配置下载响应XML
+     */
+    public static SipBuffer createConfigDownloadXml(SipBuffer out, String deviceId, String deviceName,
+                                                    String localIp, int localPort, String password, String sn) {
+        return new XmlWriter(out).declaration()
+            .start("Response")
+            .element("CmdType", "ConfigDownload")
+            .element("SN", sn)
+            .element("DeviceID", deviceId)
+            .element("Result", "OK")
+            .start("BasicParam")
+            .element("Name", deviceName)
+            .element("DeviceID", deviceId)
+            .element("IPAddress", localIp)
+            .element("Port", localPort)
+            .element("Password", password != null ? password : "")
+            .end("BasicParam")
+            .end("Response")
+            .buffer();
     }
 }
-
@@ -0,0 +1,129 @@
+package com.gb28181.simulator.device;
+
+import com.gb28181.simulator.sip.SipBuffer;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 流式MANSCDP XML写入器
+ *
+ * 直接按声明的GB2312编码写入字节缓冲区，文本与属性值做XML转义，
+ * GB2312无法表示的字符输出为数字字符引用（&#x...;）
+ */
+final class XmlWriter {
+
+    static final Charset CHARSET = Charset.forName("GB2312");
+
+    private static final byte[] DECLARATION = ascii("<?xml version=\"1.0\" encoding=\"GB2312\"?>\r\n");
+    private static final byte[] AMP = ascii("&amp;");
+    private static final byte[] LT = ascii("&lt;");
+    private static final byte[] GT = ascii("&gt;");
+    private static final byte[] QUOT = ascii("&quot;");
+    private static final byte[] APOS = ascii("&apos;");
+
+    private static final ThreadLocal<CharsetEncoder> ENCODER = ThreadLocal.withInitial(CHARSET::newEncoder);
+
+    private final SipBuffer out;
+
+    XmlWriter(SipBuffer out) {
+        this.out = out;
+    }
+
+    XmlWriter declaration() {
+        out.append(DECLARATION);
+        return this;
+    }
+
+    XmlWriter start(String tag) {
+        out.appendByte('<').append(tag).append(">\r\n");
+        return this;
+    }
+
+    /**
+     * 带单个属性的开始标签
+     */
+    XmlWriter start(String tag, String attr, String value) {
+        out.appendByte('<').append(tag).appendByte(' ').append(attr).append("=\"");
+        escape(value);
+        out.append("\">\r\n");
+        return this;
+    }
+
+    XmlWriter end(String tag) {
+        out.append("</").append(tag).append(">\r\n");
+        return this;
+    }
+
+    /**
+     * 文本元素（null按空内容输出）
+     */
+    XmlWriter element(String tag, String text) {
+        out.appendByte('<').append(tag).appendByte('>');
+        escape(text);
+        out.append("</").append(tag).append(">\r\n");
+        return this;
+    }
+
+    XmlWriter element(String tag, long value) {
+        out.appendByte('<').append(tag).appendByte('>').append(value)
+            .append("</").append(tag).append(">\r\n");
+        return this;
+    }
+
+    /**
+     * 直接写入已渲染好的片段（如缓存的目录条目）
+     */
+    XmlWriter raw(byte[] fragment) {
+        out.append(fragment);
+        return this;
+    }
+
+    SipBuffer buffer() {
+        return out;
+    }
+
+    private void escape(String text) {
+        if (text == null) {
+            return;
+        }
+        int n = text.length();
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&': out.append(AMP); break;
+                case '<': out.append(LT); break;
+                case '>': out.append(GT); break;
+                case '"': out.append(QUOT); break;
+                case '\'': out.append(APOS); break;
+                default:
+                    if (c >= 0x80) {
+                        i = encode(text, i);
+                    } else if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                        out.appendByte(c);
+                    }
+                    // 其余控制字符在XML 1.0中非法，直接丢弃
+            }
+        }
+    }
+
+    /**
+     * 编码一个非ASCII字符，返回最后消费的下标
+     */
+    private int encode(String text, int i) {
+        int cp = text.codePointAt(i);
+        int count = Character.charCount(cp);
+        String ch = text.substring(i, i + count);
+        if (count == 1 && ENCODER.get().canEncode(ch.charAt(0))) {
+            out.append(ch.getBytes(CHARSET));
+        } else {
+            out.append("&#x").append(Integer.toHexString(cp)).appendByte(';');
+        }
+        return i + count - 1;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
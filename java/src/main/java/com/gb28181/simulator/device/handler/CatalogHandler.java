@@ -2,14 +2,13 @@ package com.gb28181.simulator.device.handler;
 
 import com.gb28181.simulator.device.GB28181Device;
 import com.gb28181.simulator.device.XmlGenerator;
+import com.gb28181.simulator.sip.SipBuffer;
 import com.gb28181.simulator.sip.SipMessageBuilder;
-import com.gb28181.simulator.sip.SipMessageParser;
+import com.gb28181.simulator.sip.SipMessage;
 
 import java.io.IOException;
 import java.net.*;
-import java.nio.charset.StandardCharsets;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Function;
 
 /**
  * Catalog处理类（处理SUBSCRIBE catalog和MESSAGE catalog）
@@ -27,79 +26,58 @@ public class CatalogHandler {
     /**
      * 处理Catalog订阅（SUBSCRIBE catalog）
      */
-    public static void handleSubscribeCatalog(GB28181Device device, String[] lines, SocketAddress addr,
+    public static void handleSubscribeCatalog(GB28181Device device, SipMessage request, SocketAddress addr,
                                              MessagePrinter printSipMessage) {
         long requestTime = System.currentTimeMillis();
         System.out.println("\n收到SUBSCRIBE请求 (事件: catalog, 设备: " + device.deviceId + ")");
         
         try {
-            String requestBody = SipMessageParser.extractBody(lines);
-            
             // 解析平台目录接收者编码、订阅者tag、Expires
-            String platformId = SipMessageParser.extractPlatformIdFromSubscribe(lines);
-            String subscriberTag = SipMessageParser.extractSubscriberTag(lines);
-            Integer expires = SipMessageParser.extractExpires(lines);
+            String platformId = request.getPlatformId();
+            String subscriberTag = request.getFromTag();
+            Integer expires = request.getExpires();
             
             // 提取SN和InfoID
-            String sn = SipMessageParser.extractSnFromSubscribe(requestBody);
-            String infoId = SipMessageParser.extractInfoIdFromSubscribe(requestBody);
+            String sn = request.getSn();
+            String infoId = request.getInfoId();
             
             // 从请求体提取DeviceID（如果存在）
-            String deviceIdForOk = device.deviceId;
-            if (requestBody != null && requestBody.contains("<DeviceID>")) {
-                Pattern pattern = Pattern.compile("<DeviceID>(.*?)</DeviceID>", Pattern.CASE_INSENSITIVE);
-                Matcher matcher = pattern.matcher(requestBody);
-                if (matcher.find()) {
-                    deviceIdForOk = matcher.group(1).trim();
-                }
-            }
+            String deviceIdForOk = request.getBodyDeviceId() != null ? request.getBodyDeviceId() : device.deviceId;
             
             // 立即发送200 OK响应（含Result=OK的MANSCDP体）
             String contactIp = device.contactIp != null ? device.contactIp : device.localIp;
-            String subscribeResponse = SipMessageBuilder.createSubscribeResponse(lines, contactIp, sn, deviceIdForOk);
+            SipBuffer subscribeResponse = SipMessageBuilder.createSubscribeResponse(request, contactIp, sn, deviceIdForOk);
             
             long responseSendTime = System.currentTimeMillis();
-            byte[] responseData = subscribeResponse.getBytes(StandardCharsets.UTF_8);
-            device.getSocket().send(new DatagramPacket(responseData, responseData.length,
-                ((InetSocketAddress) addr).getAddress(), ((InetSocketAddress) addr).getPort()));
+            device.send(subscribeResponse, addr);
             
             double delayMs = (responseSendTime - requestTime);
             System.out.println("✓ 已立即发送SUBSCRIBE 200 OK响应（延迟: " + String.format("%.2f", delayMs) + " 毫秒）");
-            printSipMessage.print(device.deviceId, "send", subscribeResponse, addr);
+            printSipMessage.print(device.deviceId, "send", subscribeResponse.toString(), addr);
             
             System.out.println("  使用的SN: " + sn);
             if (infoId != null) {
                 System.out.println("  提取的InfoID: " + infoId);
             }
             
-            // 立即发送NOTIFY消息（包含Catalog信息）
-            String catalogXml = XmlGenerator.createCatalogXml(device.deviceId, device.getChannels(),
-                Integer.parseInt(sn), infoId);
-            
-            String notifyRequest = SipMessageBuilder.createNotifyRequest(
-                device.deviceId,
-                device.localIp,
-                device.localPort,
-                device.serverIp,
-                device.serverPort,
-                platformId,
-                catalogXml,
-                contactIp,
-                subscriberTag,
-                expires
-            );
-            
-            long notifySendTime = System.currentTimeMillis();
-            byte[] notifyData = notifyRequest.getBytes(StandardCharsets.UTF_8);
-            device.getSocket().send(new DatagramPacket(notifyData, notifyData.length,
-                ((InetSocketAddress) addr).getAddress(), ((InetSocketAddress) addr).getPort()));
-            
-            double elapsedMs = (notifySendTime - requestTime);
-            System.out.println("✓ 已发送NOTIFY消息（包含Catalog信息）");
+            // 立即发送NOTIFY消息（包含Catalog信息，按每包通道数分包）
+            sendCatalog(device, sn, infoId, addr, "NOTIFY", printSipMessage,
+                body -> SipMessageBuilder.createNotifyRequest(
+                    device.deviceId,
+                    device.localIp,
+                    device.localPort,
+                    device.serverIp,
+                    device.serverPort,
+                    platformId,
+                    body,
+                    contactIp,
+                    subscriberTag,
+                    expires
+                ));
+            
+            double elapsedMs = (System.currentTimeMillis() - requestTime);
             System.out.println("  发送到: " + ((InetSocketAddress) addr).getAddress().getHostAddress() + ":" + ((InetSocketAddress) addr).getPort());
-            System.out.println("  总延迟: " + String.format("%.2f", elapsedMs) + " 毫秒");
-            System.out.println("  通道数量: " + device.getChannels().size());
-            printSipMessage.print(device.deviceId, "send", notifyRequest, addr);
+            System.out.println("  首包延迟: " + String.format("%.2f", elapsedMs) + " 毫秒");
             
         } catch (Exception e) {
             System.err.println("✗ 处理SUBSCRIBE请求时出错: " + e.getMessage());
@@ -110,13 +88,13 @@ public class CatalogHandler {
     /**
      * 处理Catalog MESSAGE请求
      */
-    public static void handleCatalogMessage(GB28181Device device, String requestBody, String[] lines, SocketAddress addr,
+    public static void handleCatalogMessage(GB28181Device device, SipMessage request, SocketAddress addr,
                                            MessagePrinter printSipMessage) {
         System.out.println("  请求类型: 查询通道目录（Catalog）");
         
         try {
-            String sn = SipMessageParser.extractSn(requestBody);
-            String infoId = SipMessageParser.extractInfoId(requestBody);
+            String sn = request.getSn();
+            String infoId = request.getInfoId();
             System.out.println("  提取的SN: " + sn);
             if (infoId != null) {
                 System.out.println("  提取的InfoID: " + infoId);
@@ -124,41 +102,100 @@ public class CatalogHandler {
             
             // 步骤1：先对平台的MESSAGE查询立即回复200 OK
             String contactIp = device.contactIp != null ? device.contactIp : device.localIp;
-            String okResponse = SipMessageBuilder.createMessageResponse(lines, contactIp);
+            SipBuffer okResponse = SipMessageBuilder.createMessageResponse(request, contactIp);
             try {
-                byte[] responseData = okResponse.getBytes(StandardCharsets.UTF_8);
-                device.getSocket().send(new DatagramPacket(responseData, responseData.length,
-                    ((InetSocketAddress) addr).getAddress(), ((InetSocketAddress) addr).getPort()));
-                printSipMessage.print(device.deviceId, "send", okResponse, addr);
+                device.send(okResponse, addr);
+                printSipMessage.print(device.deviceId, "send", okResponse.toString(), addr);
                 System.out.println("✓ 已发送第一步 200 OK");
             } catch (IOException e) {
                 System.err.println("✗ 发送200 OK失败: " + e.getMessage());
                 return;
             }
             
-            // 步骤2：再主动发送一个MESSAGE携带Catalog响应XML
-            String catalogXml = XmlGenerator.createCatalogXml(device.deviceId, device.getChannels(),
-                Integer.parseInt(sn), infoId);
-            
-            String platformId = SipMessageParser.extractPlatformId(lines);
-            String catalogMessage = SipMessageBuilder.createCatalogMessage(device.deviceId,
-                contactIp, device.localPort, device.serverIp, device.serverPort,
-                platformId, catalogXml, contactIp);
-            
-            try {
-                byte[] messageData = catalogMessage.getBytes(StandardCharsets.UTF_8);
-                device.getSocket().send(new DatagramPacket(messageData, messageData.length,
-                    InetAddress.getByName(device.serverIp), device.serverPort));
-                printSipMessage.print(device.deviceId, "send", catalogMessage,
-                    new InetSocketAddress(device.serverIp, device.serverPort));
-                System.out.println("✓ 已发送第二步 Catalog MESSAGE（通道数: " + device.getChannels().size() + "）");
-            } catch (IOException e) {
-                System.err.println("✗ 发送Catalog MESSAGE失败: " + e.getMessage());
-            }
+            // 步骤2：再主动发送MESSAGE携带Catalog响应XML（按每包通道数分包）
+            String platformId = request.getPlatformId();
+            sendCatalog(device, sn, infoId, device.getServerAddress(), "MESSAGE", printSipMessage,
+                body -> SipMessageBuilder.createCatalogMessage(device.deviceId,
+                    contactIp, device.localPort, device.serverIp, device.serverPort,
+                    platformId, body, contactIp));
         } catch (Exception e) {
             System.err.println("✗ 处理Catalog请求时出错: " + e.getMessage());
             e.printStackTrace();
         }
     }
+    
+    /**
+     * 分包发送Catalog：每包最多catalogItemsPerPacket个通道，SumNum为总通道数；
+     * 首包立即发送，其余每发完一包再按catalogFragmentIntervalMs由细刻度定时器调度下一包
+     */
+    private static void sendCatalog(GB28181Device device, String sn, String infoId, SocketAddress target,
+                                    String method, MessagePrinter printSipMessage,
+                                    Function<SipBuffer, SipBuffer> messageBuilder) {
+        new CatalogFragments(device, sn, infoId, target, method, printSipMessage, messageBuilder).run();
+    }
+    
+    /**
+     * 一次Catalog应答的分包发送状态：下一包从上一包实际发出时起算间隔，定时器晚到时不会把积压的分包一起发出
+     */
+    private static final class CatalogFragments implements Runnable {
+        private final GB28181Device device;
+        private final String sn;
+        private final String infoId;
+        private final SocketAddress target;
+        private final String method;
+        private final MessagePrinter printSipMessage;
+        private final Function<SipBuffer, SipBuffer> messageBuilder;
+        private final byte[][] items;
+        private final int perPacket;
+        private final int packets;
+        private int next;
+        private int sent;
+        
+        CatalogFragments(GB28181Device device, String sn, String infoId, SocketAddress target, String method,
+                         MessagePrinter printSipMessage, Function<SipBuffer, SipBuffer> messageBuilder) {
+            this.device = device;
+            this.sn = sn;
+            this.infoId = infoId;
+            this.target = target;
+            this.method = method;
+            this.printSipMessage = printSipMessage;
+            this.messageBuilder = messageBuilder;
+            // 固定本次应答使用的条目快照，分包期间通道变化不影响已开始的应答
+            this.items = device.getCatalogItems();
+            this.perPacket = device.catalogItemsPerPacket > 0 ? device.catalogItemsPerPacket : Math.max(1, items.length);
+            this.packets = Math.max(1, (items.length + perPacket - 1) / perPacket);
+        }
+        
+        @Override
+        public void run() {
+            boolean paced = device.pacingWheel != null && device.catalogFragmentIntervalMs > 0;
+            do {
+                sendNext();
+            } while (!paced && next < packets);
+            if (next < packets) {
+                device.pacingWheel.schedule(this, device.catalogFragmentIntervalMs);
+            }
+        }
+        
+        private void sendNext() {
+            int index = next++;
+            int from = index * perPacket;
+            int to = Math.min(items.length, from + perPacket);
+            SipBuffer body = XmlGenerator.createCatalogXml(SipMessageBuilder.bodyBuffer(),
+                device.deviceId, items, from, to, sn, infoId);
+            SipBuffer message = messageBuilder.apply(body);
+            try {
+                device.send(message, target);
+                if (index == 0) {
+                    printSipMessage.print(device.deviceId, "send", message.toString(), target);
+                }
+                if (++sent == packets) {
+                    System.out.println("✓ 已发送Catalog " + method + "（设备: " + device.deviceId
+                        + ", 通道数: " + items.length + ", 分包数: " + packets + "）");
+                }
+            } catch (IOException e) {
+                System.err.println("✗ 发送Catalog " + method + "分包失败（" + (from + 1) + "-" + to + "）: " + e.getMessage());
+            }
+        }
+    }
 }
-
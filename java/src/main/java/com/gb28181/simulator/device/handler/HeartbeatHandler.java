@@ -1,6 +1,9 @@
 package com.gb28181.simulator.device.handler;
 
 import com.gb28181.simulator.device.GB28181Device;
+import com.gb28181.simulator.timer.TimingWheel;
+
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * 心跳处理类
@@ -8,24 +11,55 @@ import com.gb28181.simulator.device.GB28181Device;
 public class HeartbeatHandler {
     
     /**
-     * 检查并发送心跳（如果需要）
+     * 注册成功后启动心跳定时（已在运行则保持原有节奏）
+     * 
+     * 首次心跳在一个心跳周期内随机取值，使大量设备的心跳均匀分散而不是同时触发
      * 
      * @param device 设备
-     * @param currentTime 当前时间（秒）
      * @param messagePrinter 消息打印函数
-     * @return 是否发送了心跳
      */
-    public static boolean checkAndSendHeartbeat(GB28181Device device, long currentTime,
-                                                GB28181Device.MessagePrinter messagePrinter) {
-        // 注册成功后每30秒发送心跳消息
-        if (device.isRegistered && device.lastHeartbeat != null) {
-            if ((currentTime - device.lastHeartbeat) >= device.heartbeatInterval) {
-                device.sendKeepalive(messagePrinter);
-                device.lastHeartbeat = currentTime;
-                return true;
+    public static void startHeartbeat(GB28181Device device, GB28181Device.MessagePrinter messagePrinter) {
+        synchronized (device) {
+            if (device.heartbeatActive) {
+                return;
+            }
+            device.heartbeatActive = true;
+            long intervalMs = device.heartbeatInterval * 1000L;
+            long firstDelay = 1 + (long) (ThreadLocalRandom.current().nextDouble() * intervalMs);
+            device.heartbeatTimeout = device.timingWheel.schedule(
+                () -> onHeartbeatTimer(device, messagePrinter), firstDelay);
+        }
+    }
+    
+    /**
+     * 停止心跳定时
+     */
+    public static void stopHeartbeat(GB28181Device device) {
+        synchronized (device) {
+            device.heartbeatActive = false;
+            if (device.heartbeatTimeout != null) {
+                device.heartbeatTimeout.cancel();
+                device.heartbeatTimeout = null;
             }
         }
-        return false;
+    }
+    
+    /**
+     * 心跳定时到期：发送心跳并安排下一次
+     */
+    private static void onHeartbeatTimer(GB28181Device device, GB28181Device.MessagePrinter messagePrinter) {
+        if (!device.heartbeatActive || !device.isRegistered) {
+            return;
+        }
+        device.sendKeepalive(messagePrinter);
+        device.lastHeartbeat = System.currentTimeMillis() / 1000;
+        synchronized (device) {
+            if (!device.heartbeatActive) {
+                return;
+            }
+            device.heartbeatTimeout = device.timingWheel.schedule(
+                () -> onHeartbeatTimer(device, messagePrinter),
+                device.heartbeatInterval * 1000L, device.timerJitter);
+        }
     }
 }
-
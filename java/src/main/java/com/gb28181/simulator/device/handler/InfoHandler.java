@@ -0,0 +1,85 @@
+package com.gb28181.simulator.device.handler;
+
+import com.gb28181.simulator.device.GB28181Device;
+import com.gb28181.simulator.media.MediaSession;
+import com.gb28181.simulator.media.StreamSession;
+import com.gb28181.simulator.sip.MansRtsp;
+import com.gb28181.simulator.sip.SipBuffer;
+import com.gb28181.simulator.sip.SipMessage;
+import com.gb28181.simulator.sip.SipMessageBuilder;
+
+import java.io.IOException;
+import java.net.*;
+
+/**
+ * INFO处理类（回放控制：MANSRTSP的倍速、拖动、暂停、继续）
+ */
+public class InfoHandler {
+
+    /**
+     * 消息打印接口
+     */
+    @FunctionalInterface
+    public interface MessagePrinter {
+        void print(String deviceId, String direction, String message, SocketAddress addr);
+    }
+
+    /**
+     * 处理INFO请求
+     */
+    public static void handleInfo(GB28181Device device, SipMessage request, SocketAddress addr,
+                                  MessagePrinter printSipMessage) {
+        System.out.println("\n收到平台INFO指令 (设备: " + device.deviceId + ")");
+
+        // 发送200 OK响应
+        String contactIp = device.contactIp != null ? device.contactIp : device.localIp;
+        SipBuffer response = SipMessageBuilder.createMessageResponse(request, contactIp);
+        try {
+            device.send(response, addr);
+            printSipMessage.print(device.deviceId, "send", response.toString(), addr);
+        } catch (IOException e) {
+            System.err.println("✗ 发送INFO响应失败: " + e.getMessage());
+            return;
+        }
+
+        MansRtsp command = MansRtsp.parse(request.getBody());
+        if (command == null) {
+            System.out.println("  ⚠ 无法解析的MANSRTSP命令");
+            return;
+        }
+
+        // 控制命令只写入会话的命令队列，由发送线程执行
+        int applied = 0;
+        String callIdValue = request.getCallId();
+        for (String sessionKey : device.getSessionKeysByCallId(callIdValue != null ? callIdValue : "")) {
+            StreamSession session = device.getStreamSession(sessionKey);
+            if (!(session instanceof MediaSession) || !((MediaSession) session).isPlayback()) {
+                continue;
+            }
+            MediaSession playback = (MediaSession) session;
+            if ("PAUSE".equals(command.getMethod())) {
+                playback.pause();
+            } else if ("PLAY".equals(command.getMethod())) {
+                if (command.getScale() != null) {
+                    if (command.getScale() > 0) {
+                        playback.setSpeed(command.getScale());
+                    } else {
+                        System.out.println("  ⚠ 不支持倒放（Scale: " + command.getScale() + "）");
+                    }
+                }
+                if (command.getRangeStart() != null) {
+                    playback.seek(command.getRangeStart());
+                }
+                playback.resume();
+            } else if ("TEARDOWN".equals(command.getMethod())) {
+                device.mediaSessions.stop(device, sessionKey);
+            }
+            applied++;
+        }
+
+        System.out.println("  回放控制: " + command.getMethod()
+            + (command.getScale() != null ? " Scale=" + command.getScale() : "")
+            + (command.getRangeStart() != null ? " Range=" + command.getRangeStart() + "s" : "")
+            + (applied > 0 ? "（会话数: " + applied + "）" : "（未找到回放会话）"));
+    }
+}
@@ -1,13 +1,17 @@
 package com.gb28181.simulator.device.handler;
 
 import com.gb28181.simulator.device.GB28181Device;
+import com.gb28181.simulator.device.XmlGenerator;
+import com.gb28181.simulator.media.MediaCatalog;
+import com.gb28181.simulator.media.Playback;
+import com.gb28181.simulator.media.RtpTcpConnection;
+import com.gb28181.simulator.sip.SipBuffer;
 import com.gb28181.simulator.sip.SipMessageBuilder;
-import com.gb28181.simulator.sip.SipMessageParser;
+import com.gb28181.simulator.sip.SdpInfo;
+import com.gb28181.simulator.sip.SipMessage;
 
 import java.io.IOException;
 import java.net.*;
-import java.nio.charset.StandardCharsets;
-import java.util.Map;
 
 /**
  * INVITE处理类
@@ -25,153 +29,122 @@ public class InviteHandler {
     /**
      * 处理INVITE请求
      */
-    public static void handleInvite(GB28181Device device, String[] lines, SocketAddress addr,
+    public static void handleInvite(GB28181Device device, SipMessage request, SocketAddress addr,
                                     MessagePrinter printSipMessage) {
         System.out.println("\n收到平台INVITE指令 (设备: " + device.deviceId + ")");
         
-        Map<String, Object> sdp = SipMessageParser.parseInviteSdp(lines);
-        if (sdp.containsKey("ip")) {
-            String ip = (String) sdp.get("ip");
-            Integer videoPort = (Integer) sdp.get("video_port");
-            String ssrc = (String) sdp.get("ssrc");
+        SdpInfo sdp = request.getSdp();
+        if (sdp != null && sdp.getConnectionIp() != null) {
+            String ip = sdp.getConnectionIp();
+            Integer videoPort = sdp.getVideoPort();
+            String ssrc = sdp.getSsrc();
             
             System.out.println("  推流地址: " + ip + ":" + (videoPort != null ? videoPort : "N/A"));
             System.out.println("  SSRC: " + (ssrc != null ? ssrc : "N/A"));
+            if (sdp.isPlayback()) {
+                System.out.println("  会话类型: " + sdp.getSessionName() + "，时间段 " + sdp.getStartTime() + "-"
+                    + sdp.getStopTime() + (sdp.isDownload() ? "，下载倍速 " + sdp.getDownloadSpeed() : ""));
+            }
             
-            // 发送200 OK响应（包含SDP）
+            // RTP over TCP：平台a=setup:active时本端被动监听，否则（passive或未指定）本端主动连接
+            boolean tcp = sdp.isTcp();
+            if (tcp && !device.supportsTcpMedia()) {
+                System.out.println("  ⚠ 平台要求TCP传输，当前推流方式仅支持UDP，按UDP应答");
+                tcp = false;
+            }
+            boolean passive = tcp && "active".equals(sdp.getSetup());
+            RtpTcpConnection tcpConnection = null;
+            if (passive) {
+                try {
+                    tcpConnection = device.openTcpMedia(true, ip, 0);
+                } catch (IOException e) {
+                    System.err.println("✗ 创建TCP媒体监听失败: " + e.getMessage());
+                    return;
+                }
+                System.out.println("  传输方式: TCP被动，监听端口 " + tcpConnection.getLocalPort());
+            } else if (tcp) {
+                System.out.println("  传输方式: TCP主动");
+            }
+            
+            // 发送200 OK响应（包含SDP，RFC 4145规定主动方端口为9）
             String contactIp = device.contactIp != null ? device.contactIp : device.localIp;
-            String response = SipMessageBuilder.createInviteResponse(lines, contactIp, device.deviceId, device.localPort);
+            int mediaPort = tcpConnection != null ? tcpConnection.getLocalPort() : (tcp ? 9 : 0);
+            SipBuffer response = SipMessageBuilder.createInviteResponse(request, contactIp, device.deviceId,
+                device.localPort, mediaPort, tcp ? (passive ? "passive" : "active") : null);
             try {
-                byte[] responseData = response.getBytes(StandardCharsets.UTF_8);
-                device.getSocket().send(new DatagramPacket(responseData, responseData.length,
-                    ((InetSocketAddress) addr).getAddress(), ((InetSocketAddress) addr).getPort()));
-                printSipMessage.print(device.deviceId, "send", response, addr);
+                device.send(response, addr);
+                printSipMessage.print(device.deviceId, "send", response.toString(), addr);
             } catch (IOException e) {
                 System.err.println("✗ 发送INVITE响应失败: " + e.getMessage());
+                if (tcpConnection != null) {
+                    tcpConnection.close();
+                }
                 return;
             }
             
-            // 启动推流
-            String firstLine = lines[0];
-            String channelId = SipMessageParser.extractChannelId(firstLine);
+            // 启动推流：媒体源取启动时分配给该通道的文件，主动建立TCP连接和启动推流由媒体会话管理器在工作线程中完成
+            String channelId = request.getRequestUriUser();
             if (channelId == null && !device.getChannels().isEmpty()) {
                 channelId = device.getChannels().get(0).getId();
             }
             
-            // 查找test.mp4文件：优先在java/src/main目录，然后项目根目录，最后向上查找
-            String avcaptureUrl = null;
-            java.util.List<String> searchPaths = new java.util.ArrayList<>();
-            
-            // 方法1: 基于类文件位置计算可能的查找路径
-            try {
-                java.net.URL classUrl = InviteHandler.class.getProtectionDomain()
-                    .getCodeSource().getLocation();
-                if (classUrl != null && "file".equals(classUrl.getProtocol())) {
-                    java.io.File classFile = new java.io.File(classUrl.toURI());
-                    java.io.File baseDir;
-                    
-                    if (classFile.isFile() && classFile.getName().endsWith(".jar")) {
-                        // JAR文件：在JAR所在目录及其父目录查找
-                        baseDir = classFile.getParentFile();
-                        // 尝试JAR目录、java目录、项目根目录
-                        java.io.File[] searchDirs = {
-                            baseDir,  // target目录
-                            baseDir.getParentFile(),  // java目录
-                            baseDir.getParentFile() != null ? baseDir.getParentFile().getParentFile() : null  // 项目根目录
-                        };
-                        for (java.io.File dir : searchDirs) {
-                            if (dir != null && dir.exists()) {
-                                searchPaths.add(new java.io.File(dir, "test.mp4").getAbsolutePath());
-                            }
-                        }
-                        // 添加java/src/main/test.mp4
-                        if (baseDir.getParentFile() != null) {
-                            java.io.File javaDir = baseDir.getParentFile();
-                            searchPaths.add(new java.io.File(javaDir, "src/main/test.mp4").getAbsolutePath());
-                        }
-                    } else {
-                        // 类文件：java/src/main/java/com/gb28181/simulator/device/
-                        // 找到java目录和项目根目录
-                        baseDir = classFile.getParentFile();  // device/
-                        for (int i = 0; i < 3 && baseDir != null; i++) {
-                            baseDir = baseDir.getParentFile();  // 到java目录
-                        }
-                        if (baseDir != null && baseDir.exists()) {
-                            // java/src/main/test.mp4
-                            searchPaths.add(new java.io.File(baseDir, "src/main/test.mp4").getAbsolutePath());
-                            // 项目根目录
-                            java.io.File projectRoot = baseDir.getParentFile();
-                            if (projectRoot != null && projectRoot.exists()) {
-                                searchPaths.add(new java.io.File(projectRoot, "test.mp4").getAbsolutePath());
-                            }
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                // 忽略异常，继续尝试其他方法
-            }
-            
-            // 方法2: 从当前工作目录向上查找
-            java.io.File currentDir = new java.io.File(System.getProperty("user.dir"));
-            int maxLevels = 5;
-            for (int level = 0; level < maxLevels && currentDir != null; level++) {
-                searchPaths.add(new java.io.File(currentDir, "test.mp4").getAbsolutePath());
-                java.io.File parentDir = currentDir.getParentFile();
-                if (parentDir == null || parentDir.equals(currentDir)) {
-                    break;  // 已到达根目录
-                }
-                currentDir = parentDir;
-            }
-            
-            // 按顺序查找
-            for (String path : searchPaths) {
-                java.io.File testFile = new java.io.File(path);
-                if (testFile.exists() && testFile.isFile()) {
-                    avcaptureUrl = path;
-                    break;
-                }
-            }
-            
-            if (avcaptureUrl != null) {
-                System.out.println("  使用test.mp4文件: " + avcaptureUrl);
-            } else {
-                System.out.println("  错误: 未找到test.mp4文件");
-                System.out.println("  已查找的主要位置:");
-                int count = 0;
-                for (String path : searchPaths) {
-                    if (count++ < 5) {  // 只显示前5个
-                        System.out.println("    - " + path);
-                    }
+            MediaCatalog.Source source = device.mediaCatalog.sourceFor(channelId);
+            if (source == null) {
+                System.out.println("✗ 无法启动推流：没有可用的媒体文件");
+                if (tcpConnection != null) {
+                    tcpConnection.close();
                 }
+                return;
             }
+            System.out.println("  媒体源: " + source);
             
             int targetPort = videoPort != null ? videoPort : 5004;
             if (ssrc == null || ssrc.isEmpty()) {
                 ssrc = String.valueOf(System.currentTimeMillis() % 100000000);
             }
             
-            if (avcaptureUrl != null) {
-                boolean success = device.startStreamPush(channelId, avcaptureUrl, ip, targetPort, ssrc);
-                if (success) {
-                    System.out.println("✓ 推流已启动到 " + ip + ":" + targetPort);
-                    
-                    // 记录Call-ID到session_key的映射
-                    String callIdValue = null;
-                    for (String line : lines) {
-                        if (line.startsWith("Call-ID:")) {
-                            callIdValue = line.substring(8).trim();
-                            break;
-                        }
-                    }
-                    if (callIdValue != null && !callIdValue.isEmpty()) {
-                        String sessionKey = channelId + "@" + ip + ":" + targetPort;
-                        device.addCallIdToSession(callIdValue, sessionKey);
-                    }
+            // 回放/下载：发送t=指定的时间段，结束时发送MediaStatus通知（在时间轮线程中发送，不占用发送线程）
+            String callIdValue = request.getCallId();
+            Playback playback = null;
+            if (sdp.isPlayback()) {
+                long duration = sdp.getStopTime() > sdp.getStartTime() && sdp.getStartTime() > 0
+                    ? sdp.getStopTime() - sdp.getStartTime() : 0;
+                double speed = sdp.isDownload() ? Math.max(1, sdp.getDownloadSpeed()) : 1;
+                String platformId = request.getPlatformId();
+                String mediaChannelId = channelId;
+                playback = new Playback(sdp.isDownload(), duration, speed, () -> device.timingWheel.schedule(
+                    () -> sendMediaStatus(device, mediaChannelId, platformId, callIdValue, printSipMessage), 0));
+            }
+            
+            if (device.mediaSessions.start(device, channelId, source.getPath(), ip, targetPort, ssrc,
+                    tcpConnection, tcp && !passive, playback)) {
+                // 记录Call-ID到session_key的映射（启动完成前收到的BYE也能找到该会话）
+                if (callIdValue != null && !callIdValue.isEmpty()) {
+                    String sessionKey = channelId + "@" + ip + ":" + targetPort;
+                    device.addCallIdToSession(callIdValue, sessionKey);
                 }
-            } else {
-                System.out.println("✗ 无法启动推流：未找到test.mp4文件");
             }
         }
     }
+    
+    /**
+     * 回放/下载发送结束后通知平台（MediaStatus，NotifyType=121），Call-ID沿用点播INVITE
+     */
+    private static void sendMediaStatus(GB28181Device device, String channelId, String platformId, String callId,
+                                        MessagePrinter printSipMessage) {
+        String contactIp = device.contactIp != null ? device.contactIp : device.localIp;
+        SipBuffer body = XmlGenerator.createMediaStatusXml(SipMessageBuilder.bodyBuffer(), channelId,
+            String.valueOf(System.currentTimeMillis() / 1000));
+        SipBuffer message = SipMessageBuilder.createMediaStatusMessage(device.deviceId, contactIp, device.localPort,
+            device.serverIp, device.serverPort, platformId, body, contactIp, callId);
+        try {
+            SocketAddress target = device.getServerAddress();
+            device.send(message, target);
+            printSipMessage.print(device.deviceId, "send", message.toString(), target);
+            System.out.println("✓ 已发送回放结束通知（设备: " + device.deviceId + ", 通道: " + channelId + "）");
+        } catch (IOException e) {
+            System.err.println("✗ 发送回放结束通知失败: " + e.getMessage());
+        }
+    }
 }
 
@@ -1,62 +1,96 @@
 package com.gb28181.simulator.device.handler;
 
 import com.gb28181.simulator.device.GB28181Device;
+import com.gb28181.simulator.sip.SipMessage;
+import com.gb28181.simulator.timer.TimingWheel;
 
 import java.io.IOException;
-import java.net.*;
-import java.nio.charset.StandardCharsets;
 
 /**
  * 注册处理类
  */
 public class RegisterHandler {
     
+    // 在注册有效期的该比例处提前重注册
+    private static final double RE_REGISTER_RATIO = 0.9;
+    
     /**
-     * 处理注册响应
+     * 处理注册响应（其他请求的响应直接忽略）
      */
-    public static void handleRegisterResponse(GB28181Device device, String[] lines) {
-        String firstLine = lines[0];
-        if (firstLine.contains("200 OK")) {
+    public static void handleRegisterResponse(GB28181Device device, SipMessage response,
+                                              GB28181Device.MessagePrinter messagePrinter) {
+        if (!"REGISTER".equals(response.getCSeqMethod())) {
+            return;
+        }
+        if (response.getStatusCode() == 200) {
             device.isRegistered = true;
             device.lastHeartbeat = System.currentTimeMillis() / 1000;
-        } else if (firstLine.contains("401 Unauthorized")) {
+            scheduleReRegister(device);
+            HeartbeatHandler.startHeartbeat(device, messagePrinter);
+        } else if (response.getStatusCode() == 401) {
             device.isRegistered = false;
+            HeartbeatHandler.stopHeartbeat(device);
+            scheduleRetry(device);
         }
     }
     
     /**
      * 发送注册请求
      */
-    public static void sendRegisterRequest(GB28181Device device, DatagramSocket socket) throws IOException {
-        String registerRequest = device.createRegisterRequest();
-        byte[] data = registerRequest.getBytes(StandardCharsets.UTF_8);
-        socket.send(new DatagramPacket(data, data.length,
-            InetAddress.getByName(device.serverIp), device.serverPort));
+    public static void sendRegisterRequest(GB28181Device device) throws IOException {
+        device.send(device.createRegisterRequest(), device.getServerAddress());
+    }
+    
+    /**
+     * 发送注册请求，并在retryInterval后检查是否注册成功（未成功则重试）
+     */
+    public static void register(GB28181Device device) {
+        try {
+            sendRegisterRequest(device);
+        } catch (IOException e) {
+            System.err.println("✗ 发送注册请求失败: " + e.getMessage());
+        }
+        scheduleRetry(device);
+    }
+    
+    /**
+     * 安排注册重试（替换已有的注册定时）
+     */
+    private static void scheduleRetry(GB28181Device device) {
+        synchronized (device) {
+            if (device.registerTimeout != null) {
+                device.registerTimeout.cancel();
+            }
+            device.registerTimeout = device.timingWheel.schedule(
+                () -> register(device), device.retryInterval * 1000L, device.timerJitter);
+        }
+    }
+    
+    /**
+     * 注册成功后，在有效期到期前安排重注册（替换已有的注册定时）
+     */
+    private static void scheduleReRegister(GB28181Device device) {
+        synchronized (device) {
+            if (device.registerTimeout != null) {
+                device.registerTimeout.cancel();
+            }
+            long expiresMs = device.registerExpires * 1000L;
+            long delayMs = TimingWheel.jitter((long) (expiresMs * RE_REGISTER_RATIO), device.timerJitter);
+            // 抖动后仍须在有效期内完成重注册
+            delayMs = Math.min(delayMs, Math.max(1000, expiresMs - 1000));
+            device.registerTimeout = device.timingWheel.schedule(() -> register(device), delayMs);
+        }
     }
     
     /**
-     * 检查并执行重注册（如果需要）
-     * 
-     * @param device 设备
-     * @param socket Socket
-     * @param lastRegister 上次注册时间（秒）
-     * @param currentTime 当前时间（秒）
-     * @return 新的lastRegister时间
+     * 停止注册相关定时
      */
-    public static long checkAndReRegister(GB28181Device device, DatagramSocket socket, 
-                                         long lastRegister, long currentTime) {
-        // 如果未注册或注册过期，重新注册
-        if (!device.isRegistered || (currentTime - lastRegister) >= device.registerExpires) {
-            if ((currentTime - lastRegister) >= device.retryInterval) {
-                try {
-                    sendRegisterRequest(device, socket);
-                    return currentTime;
-                } catch (IOException e) {
-                    // 忽略，下次重试
-                }
+    public static void cancelTimers(GB28181Device device) {
+        synchronized (device) {
+            if (device.registerTimeout != null) {
+                device.registerTimeout.cancel();
+                device.registerTimeout = null;
             }
         }
-        return lastRegister;
     }
 }
-
@@ -0,0 +1,101 @@
+package com.gb28181.simulator.media;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * H.264/H.265 Annex-B码流解析：按起始码切分NAL并组装为访问单元（帧）
+ */
+public final class AnnexBReader {
+
+    /**
+     * 访问单元：data[offset, offset+length)，包含起始码
+     */
+    public static final class AccessUnit {
+        public final int offset;
+        public final int length;
+        public final boolean keyFrame;
+
+        AccessUnit(int offset, int length, boolean keyFrame) {
+            this.offset = offset;
+            this.length = length;
+            this.keyFrame = keyFrame;
+        }
+    }
+
+    private AnnexBReader() {
+    }
+
+    /**
+     * 切分访问单元
+     */
+    public static List<AccessUnit> readAccessUnits(byte[] data, VideoCodec codec) {
+        List<AccessUnit> units = new ArrayList<>();
+        int auStart = -1;
+        boolean auHasVcl = false;
+        boolean auKey = false;
+
+        int pos = nextStartCode(data, 0);
+        while (pos >= 0) {
+            int header = pos + (data[pos + 2] == 1 ? 3 : 4);
+            int next = nextStartCode(data, header);
+            if (header >= data.length) {
+                break;
+            }
+
+            int type;
+            boolean vcl;
+            boolean firstSlice;
+            boolean key;
+            boolean startsAu;
+            if (codec == VideoCodec.H264) {
+                type = data[header] & 0x1F;
+                vcl = type >= 1 && type <= 5;
+                // first_mb_in_slice == 0 时ue(v)编码的首位为1
+                firstSlice = vcl && header + 1 < data.length && (data[header + 1] & 0x80) != 0;
+                key = type == 5;
+                startsAu = type == 9 || (type >= 6 && type <= 8 && auHasVcl);
+            } else {
+                type = (data[header] >> 1) & 0x3F;
+                vcl = type < 32;
+                // first_slice_segment_in_pic_flag
+                firstSlice = vcl && header + 2 < data.length && (data[header + 2] & 0x80) != 0;
+                key = type >= 16 && type <= 21;
+                startsAu = type == 35 || ((type >= 32 && type <= 34 || type == 39) && auHasVcl);
+            }
+            if (vcl && firstSlice && auHasVcl) {
+                startsAu = true;
+            }
+
+            if (auStart < 0) {
+                auStart = pos;
+            } else if (startsAu) {
+                units.add(new AccessUnit(auStart, pos - auStart, auKey));
+                auStart = pos;
+                auHasVcl = false;
+                auKey = false;
+            }
+            auHasVcl |= vcl;
+            auKey |= key;
+            pos = next;
+        }
+        if (auStart >= 0 && auHasVcl) {
+            units.add(new AccessUnit(auStart, data.length - auStart, auKey));
+        }
+        return units;
+    }
+
+    /**
+     * 查找下一个起始码（00 00 01 或 00 00 00 01）的位置，未找到返回-1
+     */
+    private static int nextStartCode(byte[] data, int from) {
+        for (int i = from; i + 2 < data.length; i++) {
+            if (data[i] == 0 && data[i + 1] == 0) {
+                if (data[i + 2] == 1) {
+                    return (i > from && data[i - 1] == 0) ? i - 1 : i;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,125 @@
+package com.gb28181.simulator.media;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FFmpeg命令：循环读取并以libx264实时编码推流、预渲染到文件、不转码推流（输出均为rtp_mpegts）
+ */
+public final class FfmpegCommand {
+
+    public static final int DEFAULT_BITRATE_KBPS = 2000;
+    private static final int MIN_BITRATE_KBPS = 256;
+    private static final int MAX_BITRATE_KBPS = 20000;
+
+    private FfmpegCommand() {
+    }
+
+    /**
+     * 通道名水印的drawtext滤镜（使用NotoSansCJK字体支持中文）
+     */
+    public static String drawtextFilter(String text) {
+        // 转义单引号（Python版本在f-string中会自动处理，Java需要手动转义）
+        String escaped = text.replace("'", "\\'");
+        return String.format(
+            "drawtext=fontfile=/usr/share/fonts/opentype/noto/NotoSansCJK-Regular.ttc:text='%s':fontcolor=white:fontsize=28:box=1:boxcolor=black@0.4:boxborderw=6:x=10:y=10",
+            escaped
+        );
+    }
+
+    /**
+     * 构建编码推流命令
+     *
+     * @param videoFilter -vf滤镜，为null时不加滤镜
+     * @param bitrateKbps 目标码率（一般取源文件码率），<=0时使用默认的2000kbps
+     */
+    public static List<String> encodeToRtp(String input, String videoFilter, String rtpUrl, int bitrateKbps) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("ffmpeg");
+        // 循环播放参数：-stream_loop -1 表示无限循环，-re 表示实时速率读取
+        cmd.add("-stream_loop");
+        cmd.add("-1");
+        cmd.add("-re");
+        cmd.add("-i");
+        cmd.add(input);
+        addEncoding(cmd, videoFilter, bitrateKbps);
+
+        // 输出格式
+        cmd.add("-f");
+        cmd.add("rtp_mpegts");  // GB28181通常使用MPEG-TS over RTP
+        cmd.add(rtpUrl);
+        return cmd;
+    }
+
+    /**
+     * 构建预渲染命令：按推流时相同的编码参数把带滤镜的结果一次性写入文件（不限速）
+     */
+    public static List<String> renderToFile(String input, String videoFilter, int bitrateKbps, String output) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("ffmpeg");
+        cmd.add("-y");
+        cmd.add("-v");
+        cmd.add("error");
+        cmd.add("-i");
+        cmd.add(input);
+        addEncoding(cmd, videoFilter, bitrateKbps);
+        cmd.add("-f");
+        cmd.add("mp4");
+        cmd.add(output);
+        return cmd;
+    }
+
+    /**
+     * 构建不转码的推流命令（循环读取已编码的文件，只重新封装为rtp_mpegts）
+     */
+    public static List<String> copyToRtp(String input, String rtpUrl) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("ffmpeg");
+        cmd.add("-stream_loop");
+        cmd.add("-1");
+        cmd.add("-re");
+        cmd.add("-i");
+        cmd.add(input);
+        cmd.add("-c");
+        cmd.add("copy");
+        cmd.add("-f");
+        cmd.add("rtp_mpegts");
+        cmd.add(rtpUrl);
+        return cmd;
+    }
+
+    private static void addEncoding(List<String> cmd, String videoFilter, int bitrateKbps) {
+        int kbps = bitrateKbps > 0
+            ? Math.max(MIN_BITRATE_KBPS, Math.min(MAX_BITRATE_KBPS, bitrateKbps)) : DEFAULT_BITRATE_KBPS;
+        if (videoFilter != null) {
+            cmd.add("-vf");
+            cmd.add(videoFilter);
+        }
+
+        // 视频编码参数
+        cmd.add("-c:v");
+        cmd.add("libx264");
+        cmd.add("-preset");
+        cmd.add("veryfast");
+        cmd.add("-tune");
+        cmd.add("zerolatency");
+        cmd.add("-b:v");
+        cmd.add(kbps + "k");
+        cmd.add("-maxrate");
+        cmd.add(kbps + "k");
+        cmd.add("-bufsize");
+        cmd.add(2 * kbps + "k");
+        cmd.add("-g");
+        cmd.add("50");
+        cmd.add("-pix_fmt");
+        cmd.add("yuv420p");
+        cmd.add("-flags");
+        cmd.add("+global_header");
+
+        // 音频编码参数（允许音频一并推送）
+        cmd.add("-c:a");
+        cmd.add("aac");
+        cmd.add("-b:a");
+        cmd.add("128k");
+    }
+}
@@ -0,0 +1,476 @@
+package com.gb28181.simulator.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 媒体源目录：启动时扫描一次媒体目录，用ffprobe读取各文件的编码、时长和码率，
+ * 并为每个通道分配媒体源。点播时只查内存中的分配结果，不访问文件系统
+ *
+ * 分配方式：轮询（按通道创建顺序依次分配）、按通道ID哈希、按映射文件指定
+ * （目录下的 media-map.txt，每行 "通道ID或设备ID=文件名"，未指定的通道按哈希分配）
+ *
+ * 媒体目录或映射文件中的文件名也可以是合成码流描述（synthetic:编码:码率:帧率:GOP），
+ * 合成码流不需要文件，由内置媒体引擎生成
+ */
+public final class MediaCatalog {
+
+    /**
+     * 通道分配方式
+     */
+    public enum Mapping {
+        ROUND_ROBIN,
+        HASH,
+        EXPLICIT
+    }
+
+    public static final String MAP_FILE = "media-map.txt";
+    private static final Set<String> EXTENSIONS = new TreeSet<>(Arrays.asList(
+        "mp4", "mkv", "mov", "flv", "ts", "avi", "h264", "264", "h265", "265", "hevc"));
+
+    /**
+     * 一个媒体源及其探测信息（未知的时长、码率为0）
+     */
+    public static final class Source {
+        private final String path;
+        private final String name;
+        private final String codec;
+        private final double durationSeconds;
+        private final int bitrateKbps;
+
+        Source(String path, String name, String codec, double durationSeconds, int bitrateKbps) {
+            this.path = path;
+            this.name = name;
+            this.codec = codec;
+            this.durationSeconds = durationSeconds;
+            this.bitrateKbps = bitrateKbps;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getCodec() {
+            return codec;
+        }
+
+        public double getDurationSeconds() {
+            return durationSeconds;
+        }
+
+        public int getBitrateKbps() {
+            return bitrateKbps;
+        }
+
+        @Override
+        public String toString() {
+            return name + "（" + codec
+                + (durationSeconds > 0 ? String.format(", %.1f秒", durationSeconds) : "")
+                + (bitrateKbps > 0 ? ", " + bitrateKbps + "kbps" : "") + "）";
+        }
+    }
+
+    private final List<Source> sources;
+    private final List<Source> hashSources; // 按哈希分配时的候选（有媒体文件时不含映射文件中的合成码流）
+    private final Map<String, Source> byPath = new HashMap<>();
+    private final Map<String, String> explicit; // 通道ID或设备ID -> 文件名
+    private final Mapping mapping;
+    private final Map<String, Source> channelSources = new ConcurrentHashMap<>();
+    private int nextIndex;
+
+    private MediaCatalog(List<Source> sources, Mapping mapping, Map<String, String> explicit) {
+        this.sources = Collections.unmodifiableList(sources);
+        List<Source> files = new ArrayList<>();
+        for (Source source : sources) {
+            if (!SyntheticStream.isSynthetic(source.getPath())) {
+                files.add(source);
+            }
+        }
+        this.hashSources = files.isEmpty() ? this.sources : files;
+        this.mapping = mapping;
+        this.explicit = explicit;
+        for (Source source : sources) {
+            byPath.put(source.getPath(), source);
+        }
+    }
+
+    /**
+     * 扫描媒体目录（directory为空时查找默认的test.mp4）
+     */
+    public static MediaCatalog scan(String directory, Mapping mapping) {
+        List<File> files = new ArrayList<>();
+        Map<String, String> explicit = new HashMap<>();
+        List<Source> synthetics = new ArrayList<>();
+        if (SyntheticStream.isSynthetic(directory)) {
+            // 全部通道使用同一个合成码流
+            addSynthetic(directory, synthetics);
+        } else if (directory == null || directory.isEmpty()) {
+            String testFile = locateTestFile();
+            if (testFile != null) {
+                files.add(new File(testFile));
+            }
+        } else {
+            File dir = new File(directory);
+            File[] list = dir.listFiles();
+            if (list == null) {
+                System.err.println("✗ 媒体目录不存在或无法读取: " + dir.getAbsolutePath());
+            } else {
+                Arrays.sort(list);
+                for (File file : list) {
+                    if (file.isFile() && EXTENSIONS.contains(extension(file.getName()))) {
+                        files.add(file);
+                    }
+                }
+                if (mapping == Mapping.EXPLICIT) {
+                    explicit = readMapFile(new File(dir, MAP_FILE));
+                    for (Map.Entry<String, String> entry : explicit.entrySet()) {
+                        Source source = addSynthetic(entry.getValue(), synthetics);
+                        if (source != null) {
+                            entry.setValue(source.getName());
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Source> sources = new ArrayList<>();
+        boolean probeAvailable = true;
+        for (File file : files) {
+            String path = file.getAbsolutePath();
+            Source source = null;
+            if (probeAvailable) {
+                try {
+                    source = probe(path, file.getName());
+                    if (source == null) {
+                        System.out.println("  ⚠ 跳过无视频流的文件: " + file.getName());
+                        continue;
+                    }
+                } catch (IOException e) {
+                    // ffprobe不可用时仍使用全部文件，只是没有探测信息
+                    System.out.println("  ⚠ 无法探测媒体信息（" + e.getMessage() + "），按文件扩展名识别");
+                    probeAvailable = false;
+                }
+            }
+            if (source == null) {
+                VideoCodec codec = VideoCodec.fromName(extension(file.getName()));
+                source = new Source(path, file.getName(), codec != null ? codec.toString() : "unknown", 0, 0);
+            }
+            sources.add(source);
+            System.out.println("  媒体源: " + source);
+        }
+        for (Source source : synthetics) {
+            sources.add(source);
+            System.out.println("  媒体源: " + source);
+        }
+        if (sources.isEmpty()) {
+            System.err.println("✗ 未找到可用的媒体文件，点播将无法推流");
+        } else {
+            System.out.println("✓ 媒体源目录: " + sources.size() + " 个媒体源，分配方式 " + mapping);
+        }
+        return new MediaCatalog(sources, mapping, explicit);
+    }
+
+    /**
+     * 解析合成码流描述并加入列表（同一码流只加入一次），不是合成码流或格式错误时返回null
+     */
+    private static Source addSynthetic(String spec, List<Source> synthetics) {
+        SyntheticStream stream;
+        try {
+            stream = SyntheticStream.parse(spec);
+        } catch (IllegalArgumentException e) {
+            System.err.println("✗ " + e.getMessage());
+            return null;
+        }
+        if (stream == null) {
+            return null;
+        }
+        String name = stream.toString();
+        for (Source source : synthetics) {
+            if (source.getName().equals(name)) {
+                return source;
+            }
+        }
+        Source source = new Source(name, name, stream.getCodec().toString(),
+            2.0 * stream.getGop() / stream.getFps(), stream.getBitrateKbps());
+        synthetics.add(source);
+        return source;
+    }
+
+    /**
+     * 是否包含合成码流媒体源
+     */
+    public boolean hasSynthetic() {
+        for (Source source : sources) {
+            if (SyntheticStream.isSynthetic(source.getPath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 为设备的全部通道分配媒体源（启动时按通道创建顺序调用）
+     */
+    public synchronized void assign(String deviceId, List<String> channelIds) {
+        if (sources.isEmpty()) {
+            return;
+        }
+        for (String channelId : channelIds) {
+            Source source = null;
+            if (mapping == Mapping.EXPLICIT) {
+                String name = explicit.get(channelId);
+                if (name == null) {
+                    name = explicit.get(deviceId);
+                }
+                source = findByName(name);
+                if (name != null && source == null) {
+                    System.out.println("  ⚠ 映射文件中的媒体文件不存在: " + name + "（通道 " + channelId + " 改为按哈希分配）");
+                }
+            } else if (mapping == Mapping.ROUND_ROBIN) {
+                source = sources.get(nextIndex++ % sources.size());
+            }
+            channelSources.put(channelId, source != null ? source : hashed(channelId));
+        }
+    }
+
+    /**
+     * 通道的媒体源（未分配的通道按哈希选择，目录为空时返回null）
+     */
+    public Source sourceFor(String channelId) {
+        if (sources.isEmpty()) {
+            return null;
+        }
+        Source source = channelId != null ? channelSources.get(channelId) : null;
+        return source != null ? source : hashed(channelId);
+    }
+
+    /**
+     * 按文件路径查找媒体源
+     */
+    public Source sourceAt(String path) {
+        return byPath.get(path);
+    }
+
+    public List<Source> getSources() {
+        return sources;
+    }
+
+    private Source hashed(String channelId) {
+        int hash = channelId != null ? channelId.hashCode() : 0;
+        return hashSources.get(Math.floorMod(hash, hashSources.size()));
+    }
+
+    private Source findByName(String name) {
+        if (name != null) {
+            for (Source source : sources) {
+                if (source.getName().equals(name)) {
+                    return source;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 读取映射文件：每行 "通道ID或设备ID=文件名"，#开头为注释
+     */
+    private static Map<String, String> readMapFile(File file) {
+        Map<String, String> map = new HashMap<>();
+        if (!file.isFile()) {
+            System.out.println("  ⚠ 未找到映射文件 " + file.getName() + "，全部通道按哈希分配");
+            return map;
+        }
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                line = line.trim();
+                int eq = line.indexOf('=');
+                if (line.isEmpty() || line.startsWith("#") || eq <= 0) {
+                    continue;
+                }
+                map.put(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+            }
+        } catch (IOException e) {
+            System.err.println("✗ 读取映射文件失败: " + e.getMessage());
+        }
+        return map;
+    }
+
+    /**
+     * 用ffprobe读取首个视频流的编码、时长和码率，没有视频流时返回null
+     */
+    private static Source probe(String path, String name) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("ffprobe");
+        cmd.add("-v");
+        cmd.add("error");
+        cmd.add("-select_streams");
+        cmd.add("v:0");
+        cmd.add("-show_entries");
+        cmd.add("stream=codec_name,bit_rate:format=duration,bit_rate");
+        cmd.add("-of");
+        cmd.add("default");
+        cmd.add(path);
+        String output;
+        try {
+            output = MediaSourceLoader.run(cmd);
+        } catch (IOException e) {
+            if (e.getMessage() != null && e.getMessage().startsWith("Cannot run program")) {
+                throw new IOException("ffprobe未找到");
+            }
+            // ffprobe能运行但无法解析该文件
+            return null;
+        }
+        String codecName = null;
+        double duration = 0;
+        long streamBitrate = 0;
+        long formatBitrate = 0;
+        boolean inFormat = false; // 输出分为[STREAM]和[FORMAT]两段，两段都有bit_rate
+        for (String line : output.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.startsWith("[")) {
+                inFormat = "[FORMAT]".equals(line);
+                continue;
+            }
+            int eq = line.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            String key = line.substring(0, eq);
+            String value = line.substring(eq + 1);
+            if ("codec_name".equals(key)) {
+                codecName = value;
+            } else if ("duration".equals(key)) {
+                duration = parseNumber(value);
+            } else if ("bit_rate".equals(key)) {
+                if (inFormat) {
+                    formatBitrate = (long) parseNumber(value);
+                } else {
+                    streamBitrate = (long) parseNumber(value);
+                }
+            }
+        }
+        if (codecName == null) {
+            return null;
+        }
+        long bitrate = streamBitrate > 0 ? streamBitrate : formatBitrate;
+        VideoCodec codec = VideoCodec.fromName(codecName);
+        return new Source(path, name, codec != null ? codec.toString() : codecName, duration,
+            (int) (bitrate / 1000));
+    }
+
+    private static double parseNumber(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0; // N/A
+        }
+    }
+
+    private static String extension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 查找test.mp4文件：优先在java/src/main目录，然后项目根目录，最后向上查找
+     */
+    private static String locateTestFile() {
+        List<String> searchPaths = new ArrayList<>();
+
+        // 方法1: 基于类文件位置计算可能的查找路径
+        try {
+            URL classUrl = MediaCatalog.class.getProtectionDomain().getCodeSource().getLocation();
+            if (classUrl != null && "file".equals(classUrl.getProtocol())) {
+                File classFile = new File(classUrl.toURI());
+                File baseDir;
+
+                if (classFile.isFile() && classFile.getName().endsWith(".jar")) {
+                    // JAR文件：在JAR所在目录及其父目录查找
+                    baseDir = classFile.getParentFile();
+                    // 尝试JAR目录、java目录、项目根目录
+                    File[] searchDirs = {
+                        baseDir,  // target目录
+                        baseDir.getParentFile(),  // java目录
+                        baseDir.getParentFile() != null ? baseDir.getParentFile().getParentFile() : null  // 项目根目录
+                    };
+                    for (File dir : searchDirs) {
+                        if (dir != null && dir.exists()) {
+                            searchPaths.add(new File(dir, "test.mp4").getAbsolutePath());
+                        }
+                    }
+                    // 添加java/src/main/test.mp4
+                    if (baseDir.getParentFile() != null) {
+                        File javaDir = baseDir.getParentFile();
+                        searchPaths.add(new File(javaDir, "src/main/test.mp4").getAbsolutePath());
+                    }
+                } else {
+                    // 类文件：java/src/main/java/com/gb28181/simulator/device/
+                    // 找到java目录和项目根目录
+                    baseDir = classFile.getParentFile();  // device/
+                    for (int i = 0; i < 3 && baseDir != null; i++) {
+                        baseDir = baseDir.getParentFile();  // 到java目录
+                    }
+                    if (baseDir != null && baseDir.exists()) {
+                        // java/src/main/test.mp4
+                        searchPaths.add(new File(baseDir, "src/main/test.mp4").getAbsolutePath());
+                        // 项目根目录
+                        File projectRoot = baseDir.getParentFile();
+                        if (projectRoot != null && projectRoot.exists()) {
+                            searchPaths.add(new File(projectRoot, "test.mp4").getAbsolutePath());
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // 忽略异常，继续尝试其他方法
+        }
+
+        // 方法2: 从当前工作目录向上查找
+        File currentDir = new File(System.getProperty("user.dir"));
+        int maxLevels = 5;
+        for (int level = 0; level < maxLevels && currentDir != null; level++) {
+            searchPaths.add(new File(currentDir, "test.mp4").getAbsolutePath());
+            File parentDir = currentDir.getParentFile();
+            if (parentDir == null || parentDir.equals(currentDir)) {
+                break;  // 已到达根目录
+            }
+            currentDir = parentDir;
+        }
+
+        // 按顺序查找
+        for (String path : searchPaths) {
+            File testFile = new File(path);
+            if (testFile.exists() && testFile.isFile()) {
+                System.out.println("  使用test.mp4文件: " + path);
+                return path;
+            }
+        }
+
+        System.out.println("  错误: 未找到test.mp4文件");
+        System.out.println("  已查找的主要位置:");
+        int count = 0;
+        for (String path : searchPaths) {
+            if (count++ < 5) {  // 只显示前5个
+                System.out.println("    - " + path);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,180 @@
+package com.gb28181.simulator.media;
+
+import com.gb28181.simulator.transport.ImpairedLink;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 内置媒体引擎：替代每会话一个FFmpeg进程的推流方式
+ *
+ * 每个媒体文件只加载、封装一次（按路径缓存，由单独的加载线程完成，封装结果
+ * 写入磁盘缓存并以只读内存映射打开），所有会话共享同一份PS-over-RTP载荷，
+ * 每个会话只持有一个读取位置。固定数量的发送线程各自用一个节拍时间轮在帧的90kHz
+ * 时间戳放行RTP包，帧内各包按每路的令牌桶速率平滑发出
+ */
+public class MediaEngine {
+
+    // 未指定平滑速率时，按源平均码率的该倍数发送（关键帧被摊到少数几个帧间隔内）
+    private static final int AUTO_RATE_MULTIPLIER = 4;
+
+    private final List<MediaSender> senders = new ArrayList<>();
+    // 各媒体源共用的"直播"时间轴起点，新会话从该时间轴上最近的关键帧开始
+    private final long epochNanos = System.nanoTime();
+    private final Map<String, CompletableFuture<PacketizedMedia>> sources = new ConcurrentHashMap<>();
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "MediaLoader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long pacingBytesPerSecond;
+    private final RtcpChannel rtcp;
+
+    /**
+     * @param senderCount 发送线程数
+     * @param pacingRateKbps 每路令牌桶速率（kbps），<=0时按源平均码率自动计算
+     * @param rtcp UDP会话共用的RTCP端口，为null时不发送RTCP
+     */
+    public MediaEngine(int senderCount, int pacingRateKbps, RtcpChannel rtcp) throws IOException {
+        int count = Math.max(1, senderCount);
+        for (int i = 0; i < count; i++) {
+            senders.add(new MediaSender("MediaSender-" + i, MediaSender.DEFAULT_TICK_NANOS));
+        }
+        this.pacingBytesPerSecond = Math.max(0, pacingRateKbps) * 125L;
+        this.rtcp = rtcp;
+    }
+
+    /**
+     * 启动全部发送线程
+     */
+    public void start() {
+        for (MediaSender sender : senders) {
+            sender.start();
+        }
+    }
+
+    /**
+     * 开始一路推流：媒体源加载完成后自动开始发送，加载失败时会话被停止
+     *
+     * @param tcp RTP over TCP连接，为null时经UDP发送到target
+     */
+    public MediaSession startSession(String sessionKey, String mediaPath, InetSocketAddress target, String ssrc,
+                                     RtpTcpConnection tcp) {
+        return startSession(sessionKey, mediaPath, target, ssrc, tcp, null, null);
+    }
+
+    /**
+     * 开始一路推流
+     *
+     * @param playback 回放/下载参数，为null时为实时点播（从共享时间轴上最近的关键帧开始循环发送）；
+     *                 回放从媒体文件开头发送请求的时间段
+     * @param impairment UDP发送的网络损伤，为null时直接发送
+     */
+    public MediaSession startSession(String sessionKey, String mediaPath, InetSocketAddress target, String ssrc,
+                                     RtpTcpConnection tcp, Playback playback, ImpairedLink impairment) {
+        int ssrcValue = MediaSession.parseSsrc(ssrc);
+        RtcpReporter reporter = rtcp != null && tcp == null ? rtcp.open(ssrcValue, sessionKey, target, impairment) : null;
+        MediaSession session = new MediaSession(sessionKey, target, ssrcValue, tcp, playback, impairment, reporter);
+        loadSource(mediaPath).whenComplete((media, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                System.err.println("✗ 会话 " + sessionKey + " 加载媒体源失败: " + cause.getMessage());
+                session.stop();
+            } else if (!session.isStopped()) {
+                long now = System.nanoTime();
+                long position90k = (now - epochNanos) * 9 / 100_000L;
+                long rate = pacingBytesPerSecond > 0 ? pacingBytesPerSecond
+                    : Math.max(1, media.averageBytesPerSecond() * AUTO_RATE_MULTIPLIER);
+                int startFrame = media.nearestKeyFrame(playback != null ? 0 : position90k);
+                session.attach(media, now, startFrame, rate);
+                leastLoadedSender().add(session);
+            }
+        });
+        return session;
+    }
+
+    /**
+     * 预先加载媒体源（启动时调用，首个点播无需等待封装）
+     */
+    public void preload(String mediaPath) {
+        loadSource(mediaPath);
+    }
+
+    /**
+     * 获取（首次时加载）媒体源，加载失败的源会被移除以便下次重试
+     */
+    private CompletableFuture<PacketizedMedia> loadSource(String mediaPath) {
+        CompletableFuture<PacketizedMedia> future = sources.computeIfAbsent(mediaPath,
+            path -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    return MediaSourceLoader.load(path, MediaSourceLoader.DEFAULT_CACHE_DIR);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, loader));
+        future.whenComplete((media, error) -> {
+            if (error != null) {
+                sources.remove(mediaPath, future);
+            }
+        });
+        return future;
+    }
+
+    private synchronized MediaSender leastLoadedSender() {
+        MediaSender best = senders.get(0);
+        for (MediaSender sender : senders) {
+            if (sender.sessionCount() < best.sessionCount()) {
+                best = sender;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 发送线程数
+     */
+    public int size() {
+        return senders.size();
+    }
+
+    /**
+     * 当前会话总数
+     */
+    public int sessionCount() {
+        int count = 0;
+        for (MediaSender sender : senders) {
+            count += sender.sessionCount();
+        }
+        return count;
+    }
+
+    /**
+     * 累计错过节拍次数（帧首包放行晚于其时间戳超过2个刻度）
+     */
+    public long getMissedDeadlines() {
+        long missed = 0;
+        for (MediaSender sender : senders) {
+            missed += sender.getMissedDeadlines();
+        }
+        return missed;
+    }
+
+    /**
+     * 停止全部发送线程
+     */
+    public void stop() {
+        for (MediaSender sender : senders) {
+            sender.stop();
+        }
+        loader.shutdownNow();
+    }
+}
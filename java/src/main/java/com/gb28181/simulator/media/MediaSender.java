@@ -0,0 +1,159 @@
+package com.gb28181.simulator.media;
+
+import com.gb28181.simulator.transport.ImpairmentScheduler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * RTP发送线程：一个线程、一个UDP通道驱动多路会话
+ *
+ * 会话按下一个发送时刻挂在节拍时间轮上，每个刻度只处理到期的会话，
+ * 单线程可承载的会话数不受逐个扫描的开销限制
+ */
+public class MediaSender implements Runnable {
+
+    public static final long DEFAULT_TICK_NANOS = 1_000_000L;
+    private static final int WHEEL_SIZE = 1024;
+    // 放行晚于帧时间戳超过该刻度数时计为错过节拍
+    private static final int MISS_TOLERANCE_TICKS = 2;
+
+    private final String name;
+    private final DatagramChannel channel;
+    private final ImpairmentScheduler.Sink udp;
+    private final PacingWheel wheel;
+    private final long missTolerance;
+    private final Queue<MediaSession> pendingSessions = new ConcurrentLinkedQueue<>();
+    // 暂停或发送到结尾后离开时间轮、又收到控制命令或被停止的会话
+    private final Queue<MediaSession> wokenSessions = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(PacketizedMedia.RTP_HEADER_LENGTH + 65536);
+    private final byte[] scratch = new byte[8];
+    private volatile boolean running = false;
+    private volatile int sessionCount;
+    private volatile long missedDeadlines;
+    private Thread thread;
+
+    public MediaSender(String name, long tickNanos) throws IOException {
+        this.name = name;
+        this.channel = DatagramChannel.open();
+        this.channel.bind(null);
+        this.udp = (packet, target) -> channel.send(packet, target);
+        this.wheel = new PacingWheel(tickNanos, WHEEL_SIZE, System.nanoTime());
+        this.missTolerance = MISS_TOLERANCE_TICKS * tickNanos;
+    }
+
+    /**
+     * 启动发送线程
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 将已绑定媒体源的会话加入本发送线程
+     */
+    public void add(MediaSession session) {
+        session.setSender(this);
+        pendingSessions.add(session);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * 将离开时间轮的会话放回时间轮（由MediaSession调用）
+     */
+    void wake(MediaSession session) {
+        wokenSessions.add(session);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * 本线程负责的会话数量（含待加入）
+     */
+    public int sessionCount() {
+        return sessionCount + pendingSessions.size();
+    }
+
+    /**
+     * 累计错过节拍次数
+     */
+    public long getMissedDeadlines() {
+        return missedDeadlines;
+    }
+
+    @Override
+    public void run() {
+        int count = 0;
+        long missed = 0;
+        while (running) {
+            long now = System.nanoTime();
+            MediaSession session;
+            while ((session = pendingSessions.poll()) != null) {
+                wheel.schedule(session, now);
+                count++;
+            }
+            while ((session = wokenSessions.poll()) != null) {
+                wheel.schedule(session, now);
+            }
+
+            long nowTick = wheel.tickOf(now);
+            while (wheel.getCurrentTick() < nowTick) {
+                session = wheel.advance();
+                while (session != null) {
+                    MediaSession next = session.wheelNext;
+                    session.wheelNext = null;
+                    if (session.isStopped()) {
+                        count--;
+                    } else {
+                        long before = session.getMissedDeadlines();
+                        try {
+                            long due = session.release(now, udp, sendBuffer, scratch, missTolerance);
+                            if (due != MediaSession.PARKED) {
+                                wheel.schedule(session, due);
+                            }
+                            missed += session.getMissedDeadlines() - before;
+                        } catch (IOException e) {
+                            System.err.println("✗ 会话 " + session.getSessionKey() + " 发送RTP失败: " + e.getMessage());
+                            session.stop();
+                            count--;
+                        }
+                    }
+                    session = next;
+                }
+            }
+            sessionCount = count;
+            missedDeadlines = missed;
+
+            long wait = wheel.nanosOf(wheel.getCurrentTick() + 1) - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    /**
+     * 停止发送线程
+     */
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.gb28181.simulator.media;
+
+import com.gb28181.simulator.transport.ImpairedLink;
+import com.gb28181.simulator.transport.ImpairmentScheduler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+
+/**
+ * 一路点播会话：按帧时间戳把共享的预封装媒体循环发送到平台指定的RTP地址
+ *
+ * 每帧的首包在其90kHz时间戳（按倍速缩放）对应的时刻放行，帧内各包再经令牌桶按限定速率平滑发出。
+ * 回放/下载会话只发送请求的时间段，到结尾时通知一次；倍速、暂停、拖动等控制命令由任意线程提交，
+ * 发送线程在下次放行时执行。暂停或发送到结尾的会话离开时间轮，提交控制命令或停止时再由发送线程唤醒。
+ * 其余状态只由所属发送线程访问
+ */
+public final class MediaSession implements StreamSession {
+
+    // 落后超过该时长时不再追赶，直接把会话时钟对齐到当前时间
+    private static final long MAX_LAG_NANOS = 500_000_000L;
+    // 令牌桶容量（按最大RTP包计）
+    private static final int BURST_PACKETS = 4;
+    /**
+     * release返回该值表示会话已暂停或发送到结尾，不再放回时间轮
+     */
+    static final long PARKED = Long.MAX_VALUE;
+    private static final double NANOS_PER_90K = 100_000.0 / 9;
+
+    private final String sessionKey;
+    private final InetSocketAddress target;
+    private final int ssrc;
+    private final RtpTcpConnection tcp; // 为null时经UDP发送
+    private final ImpairedLink impairment; // UDP发送的网络损伤，为null时直接发送
+    private final RtcpReporter rtcp; // 为null时不发送RTCP
+    private final Playback playback; // 为null时为实时点播
+    private volatile PacketizedMedia media;
+    private ByteBuffer cursor; // 本会话在共享载荷上的读取视图
+    private volatile boolean stopped;
+    private volatile MediaSender sender; // 所属发送线程，加入发送线程时设置
+    private final AtomicBoolean parked = new AtomicBoolean();
+
+    private int seq;
+    private final long ptsBase;
+    private long startNanos;
+    private long loop;
+    private int packetIndex;
+    private long lastTimestamp;      // 最近发送的帧的RTP时间戳（SR用）
+    private long lastTimestampNanos; // 该帧在会话时钟上的时刻
+
+    // 回放控制
+    private final Queue<LongConsumer> controls = new ConcurrentLinkedQueue<>();
+    private double speed = 1;
+    private long base90k;  // 回放起点在时间轴上的位置
+    private long range90k; // 回放时间段长度，0表示实时点播（无限循环）
+    private boolean paused;
+    private boolean ended;
+
+    // 令牌桶（字节）
+    private double bytesPerNano;
+    private double bucketDepth;
+    private double tokens;
+    private long refillNanos;
+
+    // 节拍时间轮链表（由PacingWheel维护）
+    MediaSession wheelNext;
+    long wheelTick;
+
+    private long packetsSent;
+    private long bytesSent;
+    private long missedDeadlines;
+
+    MediaSession(String sessionKey, InetSocketAddress target, int ssrc, RtpTcpConnection tcp, Playback playback,
+                 ImpairedLink impairment, RtcpReporter rtcp) {
+        this.sessionKey = sessionKey;
+        this.target = target;
+        this.ssrc = ssrc;
+        this.tcp = tcp;
+        this.playback = playback;
+        this.impairment = impairment;
+        this.rtcp = rtcp;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        this.seq = random.nextInt(0x10000);
+        this.ptsBase = random.nextLong(0x100000000L);
+    }
+
+    /**
+     * 媒体源加载完成后绑定，从startFrame（关键帧）开始计时发送
+     *
+     * @param bytesPerSecond 令牌桶速率（字节/秒）
+     */
+    void attach(PacketizedMedia media, long nowNanos, int startFrame, long bytesPerSecond) {
+        this.cursor = media.cursor();
+        this.packetIndex = media.firstPacketOfFrame(startFrame);
+        if (playback != null) {
+            // 回放从startFrame立即开始，发送请求的时间段（未指定时为一遍媒体文件）
+            this.speed = playback.getSpeed();
+            this.base90k = media.frameTimestamp(startFrame);
+            this.range90k = playback.getDurationSeconds() > 0 ? playback.getDurationSeconds() * 90_000L
+                : media.getDuration90k();
+            this.startNanos = nowNanos - (long) (base90k * NANOS_PER_90K / speed);
+        } else {
+            // 各会话的帧边界在一个帧间隔内随机错开，避免同源会话在同一刻度集中发送
+            long frameNanos = Math.max(1, media.getDuration90k() * 100_000L / 9 / media.frameCount());
+            this.startNanos = nowNanos - media.frameTimestamp(startFrame) * 100_000L / 9
+                + ThreadLocalRandom.current().nextLong(frameNanos);
+        }
+        this.bytesPerNano = bytesPerSecond / 1e9;
+        this.bucketDepth = BURST_PACKETS * (double) (PacketizedMedia.RTP_HEADER_LENGTH + media.getMaxPayload());
+        this.tokens = bucketDepth;
+        this.refillNanos = nowNanos;
+        this.media = media;
+    }
+
+    /**
+     * 发送当前可放行的RTP包（帧已到期且令牌足够），返回下一次需要唤醒的时刻
+     *
+     * @param udp 发送线程的UDP通道
+     * @param missTolerance 帧首包晚于其时间戳超过该时长时计为错过节拍
+     */
+    long release(long nowNanos, ImpairmentScheduler.Sink udp, ByteBuffer buffer, byte[] scratch,
+                 long missTolerance) throws IOException {
+        PacketizedMedia m = media;
+        if (tcp != null && tcp.isClosed()) {
+            stop();
+            return nowNanos;
+        }
+        LongConsumer control;
+        while ((control = controls.poll()) != null) {
+            control.accept(nowNanos);
+        }
+        if (rtcp != null && packetsSent > 0 && rtcp.isDue(nowNanos)) {
+            // 按倍速由最近一帧的时间戳外推到当前时刻
+            long elapsed90k = (long) ((nowNanos - lastTimestampNanos) * speed / NANOS_PER_90K);
+            rtcp.sendReport(nowNanos, lastTimestamp + elapsed90k, packetsSent,
+                bytesSent - packetsSent * PacketizedMedia.RTP_HEADER_LENGTH);
+        }
+        if (paused || ended) {
+            refillNanos = nowNanos;
+            return park(nowNanos);
+        }
+        // 倍速播放时令牌桶速率同比放大
+        double rate = bytesPerNano * speed;
+        tokens = Math.min(bucketDepth, tokens + (nowNanos - refillNanos) * rate);
+        refillNanos = nowNanos;
+        while (true) {
+            int frame = m.frameOfPacket(packetIndex);
+            long offset90k = loop * m.getDuration90k() + m.frameTimestamp(frame);
+            if (range90k > 0 && offset90k - base90k >= range90k) {
+                ended = true;
+                Runnable listener = playback.getEndListener();
+                if (listener != null) {
+                    listener.run();
+                }
+                return park(nowNanos);
+            }
+            long due = startNanos + (long) (offset90k * NANOS_PER_90K / speed);
+            if (due > nowNanos) {
+                return due;
+            }
+            int size = m.packetLength(packetIndex);
+            if (tokens < size) {
+                return nowNanos + (long) Math.ceil((size - tokens) / rate);
+            }
+            boolean frameStart = m.firstPacketOfFrame(frame) == packetIndex;
+            if (frameStart) {
+                long lateness = nowNanos - due;
+                if (lateness > missTolerance) {
+                    missedDeadlines++;
+                }
+                if (lateness > MAX_LAG_NANOS) {
+                    startNanos += lateness;
+                }
+                lastTimestamp = ptsBase + offset90k;
+                lastTimestampNanos = startNanos + (long) (offset90k * NANOS_PER_90K / speed);
+            }
+            buffer.clear();
+            m.writePacket(packetIndex, buffer, seq, ptsBase + offset90k, ssrc, cursor, scratch);
+            buffer.flip();
+            if (tcp != null) {
+                tcp.offer(buffer, frameStart && m.isKeyFrame(frame));
+            } else if (impairment != null) {
+                impairment.send(buffer, target, udp);
+            } else {
+                udp.send(buffer, target);
+            }
+            tokens -= size;
+            seq = (seq + 1) & 0xFFFF;
+            packetsSent++;
+            bytesSent += size;
+            if (++packetIndex == m.packetCount()) {
+                packetIndex = 0;
+                loop++;
+            }
+        }
+    }
+
+    /**
+     * 离开时间轮；与submit/stop各自先写后查，任一方都能看到对方，控制命令不会漏执行
+     */
+    private long park(long nowNanos) {
+        parked.set(true);
+        if ((!controls.isEmpty() || stopped) && parked.compareAndSet(true, false)) {
+            return nowNanos;
+        }
+        return PARKED;
+    }
+
+    /**
+     * 已离开时间轮的会话交回发送线程（只有一方能成功取消parked，会话不会被重复加入）
+     */
+    private void wake() {
+        MediaSender s = sender;
+        if (s != null && parked.compareAndSet(true, false)) {
+            s.wake(this);
+        }
+    }
+
+    /**
+     * 提交控制命令，由发送线程在下次放行时执行
+     */
+    private void submit(LongConsumer control) {
+        controls.add(control);
+        wake();
+    }
+
+    void setSender(MediaSender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * 设置回放倍速（限制在0.25~16倍），从当前位置按新倍速继续
+     */
+    public void setSpeed(double speed) {
+        double newSpeed = Playback.clampSpeed(speed);
+        submit(now -> {
+            this.speed = newSpeed;
+            reanchor(now);
+        });
+    }
+
+    /**
+     * 暂停发送
+     */
+    public void pause() {
+        submit(now -> paused = true);
+    }
+
+    /**
+     * 从暂停位置继续发送
+     */
+    public void resume() {
+        submit(now -> {
+            if (paused) {
+                paused = false;
+                reanchor(now);
+            }
+        });
+    }
+
+    /**
+     * 拖动到回放时间段内的指定秒数（从最近的关键帧开始发送）
+     */
+    public void seek(double seconds) {
+        submit(now -> {
+            PacketizedMedia m = media;
+            long target90k = base90k + (long) (Math.max(0, seconds) * 90_000);
+            if (range90k > 0) {
+                target90k = Math.min(target90k, base90k + range90k - 1);
+            }
+            int frame = m.nearestKeyFrame(target90k);
+            loop = Math.floorDiv(target90k, m.getDuration90k());
+            packetIndex = m.firstPacketOfFrame(frame);
+            ended = false;
+            reanchor(now);
+        });
+    }
+
+    /**
+     * 重新对齐会话时钟，使下一帧立即到期（倍速变化、继续播放、拖动后）
+     */
+    private void reanchor(long nowNanos) {
+        PacketizedMedia m = media;
+        long offset90k = loop * m.getDuration90k() + m.frameTimestamp(m.frameOfPacket(packetIndex));
+        startNanos = nowNanos - (long) (offset90k * NANOS_PER_90K / speed);
+    }
+
+    /**
+     * 是否为回放/下载会话
+     */
+    public boolean isPlayback() {
+        return playback != null;
+    }
+
+    /**
+     * 停止发送（发送线程随后移除该会话）
+     */
+    @Override
+    public void stop() {
+        stopped = true;
+        // 离开时间轮的会话交回发送线程移除
+        wake();
+        if (tcp != null) {
+            tcp.close();
+        }
+        if (rtcp != null) {
+            rtcp.close();
+        }
+    }
+
+    @Override
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public String getSessionKey() {
+        return sessionKey;
+    }
+
+    public InetSocketAddress getTarget() {
+        return target;
+    }
+
+    public int getSsrc() {
+        return ssrc;
+    }
+
+    @Override
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public RtcpReporter getRtcp() {
+        return rtcp;
+    }
+
+    /**
+     * 帧首包晚于其时间戳超过容差的次数
+     */
+    public long getMissedDeadlines() {
+        return missedDeadlines;
+    }
+
+    /**
+     * 解析SDP中y=的SSRC（十进制字符串），无效时随机生成
+     */
+    public static int parseSsrc(String ssrc) {
+        if (ssrc != null) {
+            try {
+                return (int) (Long.parseLong(ssrc.trim()) & 0xFFFFFFFFL);
+            } catch (NumberFormatException e) {
+                // 使用随机值
+            }
+        }
+        return ThreadLocalRandom.current().nextInt();
+    }
+}
@@ -0,0 +1,217 @@
+package com.gb28181.simulator.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 媒体源加载：读取预编码的H.264/H.265码流并预封装为PS-over-RTP
+ *
+ * 裸码流文件（.h264/.264/.h265/.265/.hevc）直接读取；其他容器（如mp4）
+ * 先用FFmpeg以 -c copy 方式（不转码）导出为Annex-B码流。封装结果连同帧/关键帧
+ * 索引写入缓存目录，源文件未变化时（大小和修改时间相同）直接映射缓存文件；
+ * 合成码流（synthetic:...）在内存中生成
+ */
+public final class MediaSourceLoader {
+
+    public static final double DEFAULT_FPS = 25.0;
+    public static final Path DEFAULT_CACHE_DIR = Paths.get(System.getProperty("java.io.tmpdir"), "gb28181-media-cache");
+
+    private MediaSourceLoader() {
+    }
+
+    /**
+     * 加载媒体源（优先使用缓存目录中的预封装文件）
+     */
+    public static PacketizedMedia load(String path, Path cacheDir) throws IOException {
+        if (SyntheticStream.isSynthetic(path)) {
+            // 合成码流直接在内存中生成，不需要缓存
+            SyntheticStream synthetic;
+            try {
+                synthetic = SyntheticStream.parse(path);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+            PacketizedMedia media = synthetic.packetize(PacketizedMedia.DEFAULT_MAX_PAYLOAD);
+            System.out.println("✓ 合成码流已生成: " + media.getName() + "（" + media.frameCount() + "帧, "
+                + media.packetCount() + "个RTP包）");
+            return media;
+        }
+        File file = new File(path);
+        if (!file.isFile()) {
+            throw new IOException("媒体文件不存在: " + path);
+        }
+        PacketizedMedia.SourceStamp stamp = new PacketizedMedia.SourceStamp(file.length(), file.lastModified(),
+            PacketizedMedia.DEFAULT_MAX_PAYLOAD);
+        Path cacheFile = cacheDir.resolve(cacheFileName(file));
+        if (Files.isRegularFile(cacheFile)) {
+            PacketizedMedia cached = PacketizedMedia.map(cacheFile, file.getName(), stamp);
+            if (cached != null) {
+                System.out.println("✓ 媒体源已从缓存映射: " + file.getName() + "（" + cached.getCodec() + ", "
+                    + cached.frameCount() + "帧, " + cached.packetCount() + "个RTP包, " + cacheFile + "）");
+                return cached;
+            }
+        }
+
+        PacketizedMedia media = build(file);
+        Files.createDirectories(cacheDir);
+        Path tmp = Files.createTempFile(cacheDir, cacheFile.getFileName().toString(), ".tmp");
+        try {
+            media.writeTo(tmp, stamp);
+            Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        PacketizedMedia mapped = PacketizedMedia.map(cacheFile, file.getName(), stamp);
+        if (mapped == null) {
+            throw new IOException("缓存文件写入后无法读取: " + cacheFile);
+        }
+        return mapped;
+    }
+
+    /**
+     * 缓存文件名：源文件名 + 绝对路径哈希
+     */
+    private static String cacheFileName(File file) {
+        String safeName = file.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        return safeName + "-" + Integer.toHexString(file.getAbsolutePath().hashCode()) + ".psrtp";
+    }
+
+    /**
+     * 解析源文件并封装（不使用缓存）
+     */
+    private static PacketizedMedia build(File file) throws IOException {
+        String path = file.getPath();
+        String ext = extension(file.getName());
+        VideoCodec codec = VideoCodec.fromName(ext);
+        double fps = DEFAULT_FPS;
+        byte[] annexB;
+        if (codec != null) {
+            annexB = Files.readAllBytes(file.toPath());
+        } else {
+            String[] probe = probe(path);
+            codec = VideoCodec.fromName(probe[0]);
+            if (codec == null) {
+                throw new IOException("不支持的视频编码: " + probe[0] + "（仅支持H.264/H.265）");
+            }
+            fps = parseFrameRate(probe[1], DEFAULT_FPS);
+            annexB = extractAnnexB(path, codec);
+        }
+        long start = System.currentTimeMillis();
+        PacketizedMedia media = PacketizedMedia.build(file.getName(), annexB, codec, fps,
+            PacketizedMedia.DEFAULT_MAX_PAYLOAD);
+        System.out.println("✓ 媒体源已封装: " + file.getName() + "（" + codec + ", " + fps + "fps, "
+            + media.frameCount() + "帧, " + media.packetCount() + "个RTP包, 耗时"
+            + (System.currentTimeMillis() - start) + "ms）");
+        return media;
+    }
+
+    /**
+     * 用ffprobe读取首个视频流的编码名和帧率
+     */
+    private static String[] probe(String path) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("ffprobe");
+        cmd.add("-v");
+        cmd.add("error");
+        cmd.add("-select_streams");
+        cmd.add("v:0");
+        cmd.add("-show_entries");
+        cmd.add("stream=codec_name,avg_frame_rate");
+        cmd.add("-of");
+        cmd.add("default=noprint_wrappers=1");
+        cmd.add(path);
+        String output = run(cmd);
+        String codecName = null;
+        String frameRate = null;
+        for (String line : output.split("\\r?\\n")) {
+            if (line.startsWith("codec_name=")) {
+                codecName = line.substring("codec_name=".length()).trim();
+            } else if (line.startsWith("avg_frame_rate=")) {
+                frameRate = line.substring("avg_frame_rate=".length()).trim();
+            }
+        }
+        if (codecName == null) {
+            throw new IOException("ffprobe未找到视频流: " + path);
+        }
+        return new String[]{codecName, frameRate};
+    }
+
+    /**
+     * 用FFmpeg（-c copy，不转码）导出Annex-B码流
+     */
+    private static byte[] extractAnnexB(String path, VideoCodec codec) throws IOException {
+        File out = File.createTempFile("gb28181-media-", codec == VideoCodec.H264 ? ".h264" : ".h265");
+        try {
+            List<String> cmd = new ArrayList<>();
+            cmd.add("ffmpeg");
+            cmd.add("-y");
+            cmd.add("-v");
+            cmd.add("error");
+            cmd.add("-i");
+            cmd.add(path);
+            cmd.add("-map");
+            cmd.add("0:v:0");
+            cmd.add("-c:v");
+            cmd.add("copy");
+            cmd.add("-bsf:v");
+            cmd.add(codec == VideoCodec.H264 ? "h264_mp4toannexb" : "hevc_mp4toannexb");
+            cmd.add("-f");
+            cmd.add(codec == VideoCodec.H264 ? "h264" : "hevc");
+            cmd.add(out.getAbsolutePath());
+            run(cmd);
+            return Files.readAllBytes(out.toPath());
+        } finally {
+            out.delete();
+        }
+    }
+
+    static String run(List<String> cmd) throws IOException {
+        Process process = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        byte[] output = process.getInputStream().readAllBytes();
+        try {
+            if (!process.waitFor(60, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IOException(cmd.get(0) + " 执行超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            throw new IOException(cmd.get(0) + " 被中断");
+        }
+        String text = new String(output, StandardCharsets.UTF_8);
+        if (process.exitValue() != 0) {
+            throw new IOException(cmd.get(0) + " 执行失败: " + text.trim());
+        }
+        return text;
+    }
+
+    /**
+     * 解析"num/den"形式的帧率
+     */
+    static double parseFrameRate(String value, double defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int slash = value.indexOf('/');
+            double fps = slash < 0 ? Double.parseDouble(value)
+                : Double.parseDouble(value.substring(0, slash)) / Double.parseDouble(value.substring(slash + 1));
+            return fps > 0 && fps < 1000 ? fps : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String extension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase();
+    }
+}
@@ -0,0 +1,92 @@
+package com.gb28181.simulator.media;
+
+/**
+ * RTP发送节拍时间轮（单线程，由所属发送线程独占访问）
+ *
+ * 会话按下一个发送时刻散列到槽位，每个槽位是以MediaSession.wheelNext串起的单向链表，
+ * 调度不分配对象。超过一圈的会话留在槽位中，直到其刻度到达才被取出；
+ * 已停止的会话在到期时由发送线程丢弃，因此无需取消操作
+ */
+final class PacingWheel {
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final MediaSession[] slots;
+    private final int mask;
+    private long currentTick;
+
+    /**
+     * @param tickNanos 刻度（纳秒）
+     * @param wheelSize 槽位数（向上取整为2的幂）
+     */
+    PacingWheel(long tickNanos, int wheelSize, long startNanos) {
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickNanos = tickNanos;
+        this.startNanos = startNanos;
+        this.slots = new MediaSession[size];
+        this.mask = size - 1;
+    }
+
+    long getTickNanos() {
+        return tickNanos;
+    }
+
+    long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * 时刻所在的刻度（向下取整）
+     */
+    long tickOf(long nanos) {
+        return Math.floorDiv(nanos - startNanos, tickNanos);
+    }
+
+    /**
+     * 刻度的起始时刻
+     */
+    long nanosOf(long tick) {
+        return startNanos + tick * tickNanos;
+    }
+
+    /**
+     * 把会话安排在不早于dueNanos的刻度（至少为下一刻度）
+     */
+    void schedule(MediaSession session, long dueNanos) {
+        long tick = Math.max(currentTick + 1, -Math.floorDiv(startNanos - dueNanos, tickNanos));
+        int slot = (int) (tick & mask);
+        session.wheelTick = tick;
+        session.wheelNext = slots[slot];
+        slots[slot] = session;
+    }
+
+    /**
+     * 推进一个刻度，取出该刻度到期的会话（以wheelNext串起，无到期时返回null）
+     */
+    MediaSession advance() {
+        long tick = ++currentTick;
+        int slot = (int) (tick & mask);
+        MediaSession due = null;
+        MediaSession prev = null;
+        MediaSession session = slots[slot];
+        while (session != null) {
+            MediaSession next = session.wheelNext;
+            if (session.wheelTick <= tick) {
+                if (prev == null) {
+                    slots[slot] = next;
+                } else {
+                    prev.wheelNext = next;
+                }
+                session.wheelNext = due;
+                due = session;
+            } else {
+                prev = session;
+            }
+            session = next;
+        }
+        return due;
+    }
+}
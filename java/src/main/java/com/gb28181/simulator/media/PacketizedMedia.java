@@ -0,0 +1,386 @@
+package com.gb28181.simulator.media;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预先封装并切分好的PS-over-RTP媒体（全部会话共享，只读）
+ *
+ * 源码流只解析、封装一次：每个RTP包的载荷连续存放在同一块只读缓冲区中
+ * （通常是缓存文件的内存映射），发送时只需写入RTP头并按会话时间戳改写
+ * 帧首包中的SCR/PTS字段。每个会话通过cursor()持有自己的读取视图
+ */
+public final class PacketizedMedia {
+
+    public static final int RTP_HEADER_LENGTH = 12;
+    public static final int PAYLOAD_TYPE = 96;
+    public static final int DEFAULT_MAX_PAYLOAD = 1400;
+
+    // 缓存文件：头部 + 帧/包索引 + 载荷
+    private static final int CACHE_MAGIC = 0x47425053; // "GBPS"
+    private static final int CACHE_VERSION = 1;
+
+    /**
+     * 缓存文件对应的源文件信息，用于判断缓存是否过期
+     */
+    public static final class SourceStamp {
+        final long size;
+        final long lastModified;
+        final int maxPayload;
+
+        public SourceStamp(long size, long lastModified, int maxPayload) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.maxPayload = maxPayload;
+        }
+
+        boolean matches(long size, long lastModified, int maxPayload) {
+            return this.size == size && this.lastModified == lastModified && this.maxPayload == maxPayload;
+        }
+    }
+
+    private final String name;
+    private final VideoCodec codec;
+    private final ByteBuffer payload;
+    private final int[] packetOffset;   // 每个RTP包载荷在payload中的偏移（多一个元素作为结尾）
+    private final int[] packetFrame;    // 每个RTP包所属帧
+    private final int[] frameFirstPacket; // 每帧的首包（多一个元素作为结尾）
+    private final int[] framePtsOffset; // 帧首包内PTS字段的偏移
+    private final long[] frameTimestamp; // 帧时间戳（90kHz，相对片头）
+    private final boolean[] keyFrame;
+    private final int[] keyFrames;      // 全部关键帧序号（升序）
+    private final long duration90k;     // 循环一次的时长（90kHz）
+    private final int maxPayload;
+
+    private PacketizedMedia(String name, VideoCodec codec, ByteBuffer payload, int[] packetOffset, int[] packetFrame,
+                            int[] frameFirstPacket, int[] framePtsOffset, long[] frameTimestamp,
+                            boolean[] keyFrame, long duration90k) {
+        this.name = name;
+        this.codec = codec;
+        this.payload = payload;
+        this.packetOffset = packetOffset;
+        this.packetFrame = packetFrame;
+        this.frameFirstPacket = frameFirstPacket;
+        this.framePtsOffset = framePtsOffset;
+        this.frameTimestamp = frameTimestamp;
+        this.keyFrame = keyFrame;
+        this.duration90k = duration90k;
+        int max = 0;
+        for (int p = 0; p < packetFrame.length; p++) {
+            max = Math.max(max, packetOffset[p + 1] - packetOffset[p]);
+        }
+        this.maxPayload = max;
+        List<Integer> keys = new ArrayList<>();
+        for (int f = 0; f < keyFrame.length; f++) {
+            if (keyFrame[f]) {
+                keys.add(f);
+            }
+        }
+        this.keyFrames = keys.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * 由Annex-B码流构建：从第一个关键帧开始，按帧率分配时间戳，封装PS并切分为RTP载荷
+     */
+    public static PacketizedMedia build(String name, byte[] annexB, VideoCodec codec, double fps, int maxPayload) {
+        List<AnnexBReader.AccessUnit> all = AnnexBReader.readAccessUnits(annexB, codec);
+        int first = 0;
+        while (first < all.size() && !all.get(first).keyFrame) {
+            first++;
+        }
+        if (first == all.size()) {
+            throw new IllegalArgumentException("码流中没有关键帧: " + name);
+        }
+        List<AnnexBReader.AccessUnit> units = all.subList(first, all.size());
+        int frames = units.size();
+        double frameDuration = 90000.0 / fps;
+        long duration90k = Math.round(frames * frameDuration);
+        long esBytes = 0;
+        for (AnnexBReader.AccessUnit au : units) {
+            esBytes += au.length;
+        }
+        PsMuxer muxer = new PsMuxer(codec, (long) (esBytes * fps / frames));
+
+        ByteArrayOutputStream ps = new ByteArrayOutputStream(annexB.length + frames * 64);
+        int[] frameStart = new int[frames + 1];
+        int[] framePtsOffset = new int[frames];
+        long[] frameTimestamp = new long[frames];
+        boolean[] keyFrame = new boolean[frames];
+        for (int f = 0; f < frames; f++) {
+            AnnexBReader.AccessUnit au = units.get(f);
+            frameTimestamp[f] = Math.round(f * frameDuration);
+            keyFrame[f] = au.keyFrame;
+            frameStart[f] = ps.size();
+            framePtsOffset[f] = muxer.muxFrame(annexB, au.offset, au.length, au.keyFrame, frameTimestamp[f], ps);
+        }
+        frameStart[frames] = ps.size();
+        byte[] payload = ps.toByteArray();
+
+        // 按最大载荷切分，每帧单独起包（帧首包包含PS包头和首个PES头）
+        int packets = 0;
+        for (int f = 0; f < frames; f++) {
+            packets += (frameStart[f + 1] - frameStart[f] + maxPayload - 1) / maxPayload;
+        }
+        int[] packetOffset = new int[packets + 1];
+        int[] packetFrame = new int[packets];
+        int[] frameFirstPacket = new int[frames + 1];
+        int p = 0;
+        for (int f = 0; f < frames; f++) {
+            frameFirstPacket[f] = p;
+            for (int off = frameStart[f]; off < frameStart[f + 1]; off += maxPayload) {
+                packetOffset[p] = off;
+                packetFrame[p] = f;
+                p++;
+            }
+        }
+        packetOffset[packets] = payload.length;
+        frameFirstPacket[frames] = packets;
+        return new PacketizedMedia(name, codec, ByteBuffer.wrap(payload).asReadOnlyBuffer(), packetOffset,
+            packetFrame, frameFirstPacket, framePtsOffset, frameTimestamp, keyFrame, duration90k);
+    }
+
+    /**
+     * 写入缓存文件
+     */
+    public void writeTo(Path file, SourceStamp stamp) throws IOException {
+        int frames = frameCount();
+        int packets = packetCount();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(CACHE_VERSION);
+            out.writeLong(stamp.size);
+            out.writeLong(stamp.lastModified);
+            out.writeInt(stamp.maxPayload);
+            out.writeInt(codec.getStreamType());
+            out.writeInt(frames);
+            out.writeInt(packets);
+            out.writeLong(duration90k);
+            for (int f = 0; f <= frames; f++) {
+                out.writeInt(frameFirstPacket[f]);
+            }
+            for (int f = 0; f < frames; f++) {
+                out.writeInt(framePtsOffset[f]);
+                out.writeLong(frameTimestamp[f]);
+                out.writeByte(keyFrame[f] ? 1 : 0);
+            }
+            for (int p = 0; p <= packets; p++) {
+                out.writeInt(packetOffset[p]);
+            }
+            ByteBuffer data = payload.duplicate();
+            data.clear();
+            byte[] chunk = new byte[1 << 16];
+            while (data.hasRemaining()) {
+                int n = Math.min(chunk.length, data.remaining());
+                data.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+    }
+
+    /**
+     * 以只读内存映射方式打开缓存文件，源文件信息不匹配或格式不符时返回null
+     */
+    public static PacketizedMedia map(Path file, String name, SourceStamp stamp) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(48);
+            if (channel.read(header, 0) < header.capacity()) {
+                return null;
+            }
+            header.flip();
+            if (header.getInt() != CACHE_MAGIC || header.getInt() != CACHE_VERSION
+                || !stamp.matches(header.getLong(), header.getLong(), header.getInt())) {
+                return null;
+            }
+            int streamType = header.getInt();
+            VideoCodec codec = null;
+            for (VideoCodec c : VideoCodec.values()) {
+                if (c.getStreamType() == streamType) {
+                    codec = c;
+                }
+            }
+            int frames = header.getInt();
+            int packets = header.getInt();
+            long duration90k = header.getLong();
+            long indexLength = 4L * (frames + 1) + 13L * frames + 4L * (packets + 1);
+            if (codec == null || frames <= 0 || packets <= 0 || header.position() + indexLength > channel.size()) {
+                return null;
+            }
+
+            ByteBuffer index = ByteBuffer.allocate((int) indexLength);
+            channel.read(index, header.position());
+            index.flip();
+            int[] frameFirstPacket = new int[frames + 1];
+            int[] framePtsOffset = new int[frames];
+            long[] frameTimestamp = new long[frames];
+            boolean[] keyFrame = new boolean[frames];
+            int[] packetOffset = new int[packets + 1];
+            int[] packetFrame = new int[packets];
+            for (int f = 0; f <= frames; f++) {
+                frameFirstPacket[f] = index.getInt();
+            }
+            for (int f = 0; f < frames; f++) {
+                framePtsOffset[f] = index.getInt();
+                frameTimestamp[f] = index.getLong();
+                keyFrame[f] = index.get() != 0;
+            }
+            for (int p = 0; p <= packets; p++) {
+                packetOffset[p] = index.getInt();
+            }
+            for (int f = 0; f < frames; f++) {
+                for (int p = frameFirstPacket[f]; p < frameFirstPacket[f + 1]; p++) {
+                    packetFrame[p] = f;
+                }
+            }
+
+            long payloadStart = header.position() + indexLength;
+            long payloadLength = channel.size() - payloadStart;
+            if (payloadLength != packetOffset[packets] || payloadLength > Integer.MAX_VALUE) {
+                return null;
+            }
+            // 映射在通道关闭后仍然有效
+            ByteBuffer payload = channel.map(FileChannel.MapMode.READ_ONLY, payloadStart, payloadLength);
+            return new PacketizedMedia(name, codec, payload, packetOffset, packetFrame, frameFirstPacket,
+                framePtsOffset, frameTimestamp, keyFrame, duration90k);
+        }
+    }
+
+    /**
+     * 创建一个独立的载荷读取视图（每个发送会话一个，共享底层数据）
+     */
+    public ByteBuffer cursor() {
+        return payload.duplicate();
+    }
+
+    /**
+     * 写入第index个RTP包：RTP头 + 载荷，帧首包改写SCR/PTS为pts（90kHz）
+     *
+     * @param cursor  由cursor()创建的读取视图
+     * @param scratch 至少6字节的临时数组
+     */
+    public void writePacket(int index, ByteBuffer out, int seq, long pts, int ssrc, ByteBuffer cursor, byte[] scratch) {
+        int frame = packetFrame[index];
+        boolean first = frameFirstPacket[frame] == index;
+        boolean last = frameFirstPacket[frame + 1] == index + 1;
+        int offset = packetOffset[index];
+        int length = packetOffset[index + 1] - offset;
+
+        int start = out.position();
+        out.put((byte) 0x80);
+        out.put((byte) ((last ? 0x80 : 0x00) | PAYLOAD_TYPE));
+        out.putShort((short) seq);
+        out.putInt((int) pts);
+        out.putInt(ssrc);
+        cursor.limit(offset + length).position(offset);
+        out.put(cursor);
+
+        if (first) {
+            long ts = pts & 0x1FFFFFFFFL;
+            int base = start + RTP_HEADER_LENGTH;
+            PsMuxer.writeScr(scratch, 0, ts);
+            for (int i = 0; i < 6; i++) {
+                out.put(base + PsMuxer.SCR_OFFSET + i, scratch[i]);
+            }
+            PsMuxer.writePts(scratch, 0, ts);
+            for (int i = 0; i < 5; i++) {
+                out.put(base + framePtsOffset[frame] + i, scratch[i]);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public VideoCodec getCodec() {
+        return codec;
+    }
+
+    public int packetCount() {
+        return packetFrame.length;
+    }
+
+    public int frameCount() {
+        return frameTimestamp.length;
+    }
+
+    public int frameOfPacket(int index) {
+        return packetFrame[index];
+    }
+
+    public int firstPacketOfFrame(int frame) {
+        return frameFirstPacket[frame];
+    }
+
+    public long frameTimestamp(int frame) {
+        return frameTimestamp[frame];
+    }
+
+    public boolean isKeyFrame(int frame) {
+        return keyFrame[frame];
+    }
+
+    /**
+     * 距给定时间点（90kHz，相对片头，超出时长时取模）最近的关键帧
+     */
+    public int nearestKeyFrame(long offset90k) {
+        long t = Math.floorMod(offset90k, duration90k);
+        int lo = 0;
+        int hi = keyFrames.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (frameTimestamp[keyFrames[mid]] <= t) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        int best = keyFrames[lo];
+        if (lo + 1 < keyFrames.length
+            && frameTimestamp[keyFrames[lo + 1]] - t < t - frameTimestamp[best]) {
+            best = keyFrames[lo + 1];
+        }
+        return best;
+    }
+
+    public long getDuration90k() {
+        return duration90k;
+    }
+
+    /**
+     * 第index个RTP包的总长度（含RTP头）
+     */
+    public int packetLength(int index) {
+        return RTP_HEADER_LENGTH + packetOffset[index + 1] - packetOffset[index];
+    }
+
+    /**
+     * 最大RTP载荷长度
+     */
+    public int getMaxPayload() {
+        return maxPayload;
+    }
+
+    /**
+     * 平均码率（字节/秒）
+     */
+    public long averageBytesPerSecond() {
+        return (payload.capacity() + (long) packetCount() * RTP_HEADER_LENGTH) * 90000L / duration90k;
+    }
+
+    /**
+     * 全部RTP载荷的总字节数
+     */
+    public int payloadBytes() {
+        return payload.capacity();
+    }
+}
@@ -0,0 +1,53 @@
+package com.gb28181.simulator.media;
+
+/**
+ * 历史回放/下载参数：请求的时间段长度、初始倍速和播放结束回调
+ */
+public final class Playback {
+
+    public static final double MIN_SPEED = 0.25;
+    public static final double MAX_SPEED = 16;
+
+    private final boolean download;
+    private final long durationSeconds;
+    private final double speed;
+    private final Runnable endListener;
+
+    /**
+     * @param durationSeconds 回放时间段长度（t=结束-开始），<=0时播放一遍媒体文件
+     * @param speed 初始倍速（下载为a=downloadspeed，回放为1）
+     * @param endListener 发送到时间段结尾时调用一次（在发送线程中调用，不能阻塞）
+     */
+    public Playback(boolean download, long durationSeconds, double speed, Runnable endListener) {
+        this.download = download;
+        this.durationSeconds = durationSeconds;
+        this.speed = clampSpeed(speed);
+        this.endListener = endListener;
+    }
+
+    /**
+     * 倍速限制在0.25~16之间（无效值按1倍速）
+     */
+    public static double clampSpeed(double speed) {
+        if (!(speed > 0)) {
+            return 1;
+        }
+        return Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
+    }
+
+    public boolean isDownload() {
+        return download;
+    }
+
+    public long getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public Runnable getEndListener() {
+        return endListener;
+    }
+}
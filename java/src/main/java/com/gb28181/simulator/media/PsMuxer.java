@@ -0,0 +1,150 @@
+package com.gb28181.simulator.media;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * MPEG-PS封装（GB28181 PS/90000）
+ *
+ * 每帧输出：PS包头 [+ 系统头 + PSM（关键帧）] + 若干PES（仅首个PES携带PTS）。
+ * SCR和PTS的字段位置返回给调用方，发送时按会话时间戳原地改写
+ */
+public final class PsMuxer {
+
+    public static final int VIDEO_STREAM_ID = 0xE0;
+    /** PS包头中SCR字段相对帧起始的偏移 */
+    public static final int SCR_OFFSET = 4;
+
+    private static final int MAX_PES_PAYLOAD = 65000;
+
+    private final VideoCodec codec;
+    private final int muxRate; // 单位：50字节/秒
+
+    public PsMuxer(VideoCodec codec, long bytesPerSecond) {
+        this.codec = codec;
+        this.muxRate = (int) Math.max(1, Math.min(0x3FFFFF, bytesPerSecond / 50 + 1));
+    }
+
+    /**
+     * 封装一帧，返回首个PES中PTS字段相对帧起始的偏移
+     */
+    public int muxFrame(byte[] es, int offset, int length, boolean keyFrame, long pts, ByteArrayOutputStream out) {
+        int frameStart = out.size();
+        writePackHeader(out, pts);
+        if (keyFrame) {
+            writeSystemHeader(out);
+            writeProgramStreamMap(out);
+        }
+        int ptsOffset = -1;
+        int pos = offset;
+        int end = offset + length;
+        boolean first = true;
+        while (pos < end || first) {
+            int chunk = Math.min(MAX_PES_PAYLOAD, end - pos);
+            if (first) {
+                ptsOffset = out.size() - frameStart + 9;
+                writePesHeader(out, chunk, pts);
+                first = false;
+            } else {
+                writePesHeader(out, chunk, -1);
+            }
+            out.write(es, pos, chunk);
+            pos += chunk;
+        }
+        return ptsOffset;
+    }
+
+    private void writePackHeader(ByteArrayOutputStream out, long scr) {
+        out.write(0x00);
+        out.write(0x00);
+        out.write(0x01);
+        out.write(0xBA);
+        byte[] field = new byte[6];
+        writeScr(field, 0, scr);
+        out.write(field, 0, 6);
+        out.write((muxRate >> 14) & 0xFF);
+        out.write((muxRate >> 6) & 0xFF);
+        out.write(((muxRate << 2) & 0xFC) | 0x03);
+        out.write(0xF8); // reserved + pack_stuffing_length=0
+    }
+
+    private void writeSystemHeader(ByteArrayOutputStream out) {
+        out.write(0x00);
+        out.write(0x00);
+        out.write(0x01);
+        out.write(0xBB);
+        out.write(0x00);
+        out.write(0x09); // header_length
+        out.write(0x80 | ((muxRate >> 15) & 0x7F));
+        out.write((muxRate >> 7) & 0xFF);
+        out.write(((muxRate << 1) & 0xFE) | 0x01);
+        out.write(0x00); // audio_bound=0, fixed_flag=0, CSPS_flag=0
+        out.write(0xE1); // system_audio/video_lock, marker, video_bound=1
+        out.write(0x7F); // packet_rate_restriction_flag=0 + reserved
+        out.write(VIDEO_STREAM_ID);
+        out.write(0xE8); // P-STD_buffer_bound_scale=1, size_bound=0x800
+        out.write(0x00);
+    }
+
+    private void writeProgramStreamMap(ByteArrayOutputStream out) {
+        byte[] psm = {
+            0x00, 0x00, 0x01, (byte) 0xBC,
+            0x00, 0x0E,                 // program_stream_map_length
+            (byte) 0xE0, (byte) 0xFF,   // current_next_indicator/version, marker
+            0x00, 0x00,                 // program_stream_info_length
+            0x00, 0x04,                 // elementary_stream_map_length
+            (byte) codec.getStreamType(), (byte) VIDEO_STREAM_ID, 0x00, 0x00,
+            0, 0, 0, 0                  // CRC_32
+        };
+        int crc = Crc32Mpeg2.compute(psm, 0, psm.length - 4);
+        psm[psm.length - 4] = (byte) (crc >>> 24);
+        psm[psm.length - 3] = (byte) (crc >>> 16);
+        psm[psm.length - 2] = (byte) (crc >>> 8);
+        psm[psm.length - 1] = (byte) crc;
+        out.write(psm, 0, psm.length);
+    }
+
+    /**
+     * PES包头，pts < 0 时不携带PTS
+     */
+    private void writePesHeader(ByteArrayOutputStream out, int payloadLength, long pts) {
+        int headerDataLength = pts >= 0 ? 5 : 0;
+        int pesLength = 3 + headerDataLength + payloadLength;
+        out.write(0x00);
+        out.write(0x00);
+        out.write(0x01);
+        out.write(VIDEO_STREAM_ID);
+        out.write((pesLength >> 8) & 0xFF);
+        out.write(pesLength & 0xFF);
+        out.write(pts >= 0 ? 0x84 : 0x80); // 首个PES置data_alignment_indicator
+        out.write(pts >= 0 ? 0x80 : 0x00); // PTS_DTS_flags
+        out.write(headerDataLength);
+        if (pts >= 0) {
+            byte[] field = new byte[5];
+            writePts(field, 0, pts);
+            out.write(field, 0, 5);
+        }
+    }
+
+    /**
+     * 写入6字节SCR字段（33位base，扩展为0）
+     */
+    public static void writeScr(byte[] b, int i, long scr) {
+        b[i] = (byte) (0x44 | ((scr >> 27) & 0x38) | ((scr >> 28) & 0x03));
+        b[i + 1] = (byte) (scr >> 20);
+        b[i + 2] = (byte) (((scr >> 12) & 0xF8) | 0x04 | ((scr >> 13) & 0x03));
+        b[i + 3] = (byte) (scr >> 5);
+        b[i + 4] = (byte) (((scr << 3) & 0xF8) | 0x04);
+        b[i + 5] = 0x01;
+    }
+
+    /**
+     * 写入5字节PTS字段（'0010'前缀）
+     */
+    public static void writePts(byte[] b, int i, long pts) {
+        b[i] = (byte) (0x21 | ((pts >> 29) & 0x0E));
+        b[i + 1] = (byte) (pts >> 22);
+        b[i + 2] = (byte) (((pts >> 14) & 0xFE) | 0x01);
+        b[i + 3] = (byte) (pts >> 7);
+        b[i + 4] = (byte) (((pts << 1) & 0xFE) | 0x01);
+    }
+}
@@ -0,0 +1,231 @@
+package com.gb28181.simulator.media;
+
+import com.gb28181.simulator.transport.ImpairedLink;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全部UDP点播会话共用的RTCP端口：各会话的SR/SDES/BYE从这里发出，
+ * 平台回送到该端口的RR/SR由一个接收线程解析，按报告块中的SSRC交给对应会话
+ */
+public class RtcpChannel implements Runnable {
+
+    private static final long NTP_UNIX_OFFSET_SECONDS = 2_208_988_800L;
+
+    private final DatagramChannel channel;
+    private final Map<Integer, RtcpReporter> reporters = new ConcurrentHashMap<>();
+    // NTP时间由启动时刻的系统时间加单调时钟的增量得出，不受系统时间调整影响
+    private final long epochNanos = System.nanoTime();
+    private final long epochUnixNanos = System.currentTimeMillis() * 1_000_000L;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+    private final AtomicLong sendErrors = new AtomicLong();
+    private volatile boolean running;
+    private Thread thread;
+
+    public RtcpChannel() throws IOException {
+        this.channel = DatagramChannel.open();
+        this.channel.bind(null);
+    }
+
+    /**
+     * 启动接收线程
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this, "RtcpReceiver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 为一路会话创建RTCP（RTCP发往rtpTarget的端口+1）
+     *
+     * @param cname SDES CNAME
+     * @param impairment 该会话的网络损伤链路，为null时直接发送
+     */
+    public RtcpReporter open(int ssrc, String cname, InetSocketAddress rtpTarget, ImpairedLink impairment) {
+        RtcpReporter reporter = new RtcpReporter(this, ssrc, cname, rtpTarget, impairment);
+        // 平台分配的SSRC重复时后建的会话生效
+        reporters.put(ssrc, reporter);
+        return reporter;
+    }
+
+    void unregister(RtcpReporter reporter) {
+        reporters.remove(reporter.getSsrc(), reporter);
+    }
+
+    void send(ByteBuffer packet, SocketAddress target) throws IOException {
+        channel.send(packet, target);
+    }
+
+    void sendFailed() {
+        sendErrors.incrementAndGet();
+    }
+
+    /**
+     * 单调时钟时刻对应的64位NTP时间
+     */
+    long ntpTime(long nanos) {
+        long unixNanos = epochUnixNanos + (nanos - epochNanos);
+        long seconds = unixNanos / 1_000_000_000L + NTP_UNIX_OFFSET_SECONDS;
+        long fraction = ((unixNanos % 1_000_000_000L) << 32) / 1_000_000_000L;
+        return (seconds << 32) | fraction;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buffer = ByteBuffer.allocate(2048);
+        while (running) {
+            try {
+                buffer.clear();
+                channel.receive(buffer);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                continue;
+            }
+            received.incrementAndGet();
+            buffer.flip();
+            parse(buffer, ntpTime(System.nanoTime()));
+        }
+    }
+
+    /**
+     * 解析复合RTCP包中SR/RR的报告块
+     */
+    private void parse(ByteBuffer buffer, long arrivalNtp) {
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int first = buffer.get(start) & 0xFF;
+            int type = buffer.get(start + 1) & 0xFF;
+            int length = ((buffer.getShort(start + 2) & 0xFFFF) + 1) * 4;
+            if ((first >> 6) != 2 || length > buffer.remaining()) {
+                return;
+            }
+            int blocks = first & 0x1F;
+            int offset = type == 200 ? 28 : type == 201 ? 8 : -1;
+            if (offset > 0) {
+                for (int i = 0; i < blocks && offset + 24 <= length; i++, offset += 24) {
+                    int block = start + offset;
+                    RtcpReporter reporter = reporters.get(buffer.getInt(block));
+                    if (reporter == null) {
+                        unmatched.incrementAndGet();
+                        continue;
+                    }
+                    int lost = buffer.getInt(block + 4);
+                    // 累计丢包为24位有符号数
+                    reporter.onReport(lost >>> 24, (lost << 8) >> 8, buffer.getInt(block + 12) & 0xFFFFFFFFL,
+                        buffer.getInt(block + 16) & 0xFFFFFFFFL, buffer.getInt(block + 20) & 0xFFFFFFFFL,
+                        arrivalNtp);
+                }
+            }
+            buffer.position(start + length);
+        }
+    }
+
+    /**
+     * 汇总当前全部会话的RR统计
+     */
+    public Summary summarize() {
+        return new Summary(reporters.values());
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * 找不到对应会话的报告块数（会话已结束或SSRC不匹配）
+     */
+    public long getUnmatched() {
+        return unmatched.get();
+    }
+
+    public long getSendErrors() {
+        return sendErrors.get();
+    }
+
+    /**
+     * 停止接收线程并关闭端口
+     */
+    public void stop() {
+        running = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    public int getLocalPort() {
+        try {
+            return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 全部会话的RR统计汇总
+     */
+    public static final class Summary {
+        public final int sessions;        // 开启RTCP的会话数
+        public final int reporting;       // 已收到RR的会话数
+        public final double avgFractionLost;
+        public final double maxFractionLost;
+        public final long cumulativeLost;
+        public final double avgJitterMillis;
+        public final double maxJitterMillis;
+        public final double avgRttMillis; // 没有RTT时为-1
+        public final double maxRttMillis;
+
+        private Summary(Iterable<RtcpReporter> reporters) {
+            int count = 0;
+            int withReport = 0;
+            int withRtt = 0;
+            double fractionSum = 0;
+            double fractionMax = 0;
+            long lost = 0;
+            double jitterSum = 0;
+            double jitterMax = 0;
+            double rttSum = 0;
+            double rttMax = -1;
+            for (RtcpReporter reporter : reporters) {
+                count++;
+                if (reporter.getReportCount() == 0) {
+                    continue;
+                }
+                withReport++;
+                fractionSum += reporter.getFractionLost();
+                fractionMax = Math.max(fractionMax, reporter.getFractionLost());
+                lost += reporter.getCumulativeLost();
+                jitterSum += reporter.getJitterMillis();
+                jitterMax = Math.max(jitterMax, reporter.getJitterMillis());
+                double rtt = reporter.getRttMillis();
+                if (rtt >= 0) {
+                    withRtt++;
+                    rttSum += rtt;
+                    rttMax = Math.max(rttMax, rtt);
+                }
+            }
+            this.sessions = count;
+            this.reporting = withReport;
+            this.avgFractionLost = withReport > 0 ? fractionSum / withReport : 0;
+            this.maxFractionLost = fractionMax;
+            this.cumulativeLost = lost;
+            this.avgJitterMillis = withReport > 0 ? jitterSum / withReport : 0;
+            this.maxJitterMillis = jitterMax;
+            this.avgRttMillis = withRtt > 0 ? rttSum / withRtt : -1;
+            this.maxRttMillis = rttMax;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.gb28181.simulator.media;
+
+import com.gb28181.simulator.transport.ImpairedLink;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 一路UDP点播会话的RTCP：由会话的发送线程按间隔发送SR+SDES（发往RTP端口+1），
+ * 平台回送的RR由RtcpChannel的接收线程按SSRC交给本对象，记录丢包率、累计丢包、抖动和往返时延
+ */
+public final class RtcpReporter {
+
+    // RFC 3550建议的最小报告间隔，每次在0.5~1.5倍之间随机
+    public static final long REPORT_INTERVAL_NANOS = 5_000_000_000L;
+    private static final int PT_SR = 200;
+    private static final int PT_RR = 201;
+    private static final int PT_SDES = 202;
+    private static final int PT_BYE = 203;
+    private static final int SDES_CNAME = 1;
+
+    private final RtcpChannel channel;
+    private final int ssrc;
+    private final byte[] cname;
+    private final InetSocketAddress target;
+    private final ImpairedLink impairment; // 与RTP同一条损伤链路，为null时直接发送
+    private volatile boolean closed;
+
+    // 以下字段只由会话的发送线程访问
+    private final ByteBuffer buffer;
+    private long nextReportNanos;
+
+    // 平台RR（由接收线程写入）
+    private volatile double fractionLost;
+    private volatile long cumulativeLost;
+    private volatile long jitter90k;
+    private volatile long rttNanos = -1;
+    private volatile long reportCount;
+
+    RtcpReporter(RtcpChannel channel, int ssrc, String cname, InetSocketAddress rtpTarget, ImpairedLink impairment) {
+        this.channel = channel;
+        this.ssrc = ssrc;
+        byte[] text = cname.getBytes(StandardCharsets.UTF_8);
+        this.cname = text.length > 255 ? Arrays.copyOf(text, 255) : text;
+        this.target = new InetSocketAddress(rtpTarget.getAddress(), rtpTarget.getPort() + 1);
+        this.impairment = impairment;
+        this.buffer = ByteBuffer.allocate(28 + 12 + this.cname.length + 4);
+        // 首个报告在半个间隔内发出
+        this.nextReportNanos = System.nanoTime() + nextInterval() / 2;
+    }
+
+    private static long nextInterval() {
+        return (long) (REPORT_INTERVAL_NANOS * (0.5 + ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * 是否到了发送下一个SR的时刻
+     */
+    public boolean isDue(long nowNanos) {
+        return nowNanos - nextReportNanos >= 0;
+    }
+
+    /**
+     * 发送SR+SDES（发送失败只计数，不影响RTP发送）
+     *
+     * @param rtpTimestamp 与nowNanos对应的RTP时间戳
+     * @param octets 已发送的RTP载荷字节数（不含RTP头）
+     */
+    public void sendReport(long nowNanos, long rtpTimestamp, long packets, long octets) {
+        nextReportNanos = nowNanos + nextInterval();
+        if (closed) {
+            return;
+        }
+        long ntp = channel.ntpTime(nowNanos);
+        buffer.clear();
+        // SR（不含报告块：设备不接收RTP）
+        buffer.putShort((short) (0x8000 | PT_SR)).putShort((short) 6).putInt(ssrc);
+        buffer.putLong(ntp).putInt((int) rtpTimestamp).putInt((int) packets).putInt((int) octets);
+        putSdes(buffer);
+        buffer.flip();
+        try {
+            if (impairment != null) {
+                impairment.send(buffer, target, channel::send);
+            } else {
+                channel.send(buffer, target);
+            }
+        } catch (IOException e) {
+            channel.sendFailed();
+        }
+    }
+
+    private void putSdes(ByteBuffer out) {
+        // 块长度：SSRC + CNAME项 + 结束符，补齐到4字节
+        int chunk = 4 + 2 + cname.length + 1;
+        int padded = (chunk + 3) & ~3;
+        out.putShort((short) (0x8100 | PT_SDES)).putShort((short) (padded / 4));
+        out.putInt(ssrc).put((byte) SDES_CNAME).put((byte) cname.length).put(cname);
+        for (int i = chunk - 1; i < padded; i++) {
+            out.put((byte) 0);
+        }
+    }
+
+    /**
+     * 收到平台对本SSRC的报告块（接收线程调用）
+     *
+     * @param arrivalNtp 收到时刻的NTP时间
+     */
+    void onReport(int fraction, int cumulative, long jitter, long lsr, long dlsr, long arrivalNtp) {
+        fractionLost = fraction / 256.0;
+        cumulativeLost = cumulative;
+        jitter90k = jitter;
+        if (lsr != 0) {
+            // RTT = A - LSR - DLSR（NTP中间32位，单位1/65536秒）
+            long rtt = ((arrivalNtp >>> 16) - lsr - dlsr) & 0xFFFFFFFFL;
+            if (rtt < 0x80000000L) {
+                rttNanos = rtt * 1_000_000_000L >>> 16;
+            }
+        }
+        reportCount++;
+    }
+
+    /**
+     * 会话结束：注销并发送BYE（可由任意线程调用，多次调用无副作用）
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        channel.unregister(this);
+        ByteBuffer bye = ByteBuffer.allocate(16);
+        bye.putShort((short) (0x8000 | PT_RR)).putShort((short) 1).putInt(ssrc);
+        bye.putShort((short) (0x8100 | PT_BYE)).putShort((short) 1).putInt(ssrc);
+        bye.flip();
+        try {
+            channel.send(bye, target);
+        } catch (IOException e) {
+            channel.sendFailed();
+        }
+    }
+
+    public int getSsrc() {
+        return ssrc;
+    }
+
+    /**
+     * 最近一次RR的丢包率（0~1）
+     */
+    public double getFractionLost() {
+        return fractionLost;
+    }
+
+    /**
+     * 平台统计的累计丢包数
+     */
+    public long getCumulativeLost() {
+        return cumulativeLost;
+    }
+
+    /**
+     * 到达间隔抖动（毫秒）
+     */
+    public double getJitterMillis() {
+        return jitter90k / 90.0;
+    }
+
+    /**
+     * 往返时延（毫秒），平台未回送LSR时为-1
+     */
+    public double getRttMillis() {
+        long rtt = rttNanos;
+        return rtt < 0 ? -1 : rtt / 1e6;
+    }
+
+    /**
+     * 收到的报告块数
+     */
+    public long getReportCount() {
+        return reportCount;
+    }
+}
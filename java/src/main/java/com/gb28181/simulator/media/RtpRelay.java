@@ -0,0 +1,292 @@
+package com.gb28181.simulator.media;
+
+import com.gb28181.simulator.transport.ImpairedLink;
+import com.gb28181.simulator.transport.ImpairmentScheduler;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编码转发中继：一个FFmpeg编码进程推流到本地端口，收到的每个RTP包
+ * 按订阅会话改写SSRC、序列号和时间戳后转发到各自的目标地址（UDP或TCP连接）
+ */
+public class RtpRelay implements Runnable {
+
+    private static final int RTP_HEADER_LENGTH = 12;
+    // 编码进程意外退出后的重启间隔
+    private static final long RESTART_INTERVAL_MS = 5000;
+
+    /**
+     * 中继的一路订阅会话
+     */
+    public static final class Subscriber implements StreamSession {
+        private final RtpRelay relay;
+        private final String sessionKey;
+        private final InetSocketAddress target;
+        private final int ssrc;
+        private final RtpTcpConnection tcp; // 为null时经UDP转发
+        private final ImpairedLink impairment; // UDP转发的网络损伤，为null时直接发送
+        private final RtcpReporter rtcp; // 为null时不发送RTCP
+        private final int seqBase;
+        private final int timestampBase;
+        private volatile boolean stopped;
+
+        // 以下字段只由中继线程访问
+        private boolean synced;
+        private int seqOffset;
+        private int timestampOffset;
+        private long packetsSent;
+        private long bytesSent;
+
+        private Subscriber(RtpRelay relay, String sessionKey, InetSocketAddress target, int ssrc,
+                           RtpTcpConnection tcp, ImpairedLink impairment, RtcpReporter rtcp) {
+            this.relay = relay;
+            this.sessionKey = sessionKey;
+            this.target = target;
+            this.ssrc = ssrc;
+            this.tcp = tcp;
+            this.impairment = impairment;
+            this.rtcp = rtcp;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            this.seqBase = random.nextInt(0x10000);
+            this.timestampBase = random.nextInt();
+        }
+
+        @Override
+        public void stop() {
+            if (!stopped) {
+                stopped = true;
+                if (tcp != null) {
+                    tcp.close();
+                }
+                if (rtcp != null) {
+                    rtcp.close();
+                }
+                relay.group.unsubscribe(relay, this);
+            }
+        }
+
+        @Override
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        public String getSessionKey() {
+            return sessionKey;
+        }
+
+        @Override
+        public long getPacketsSent() {
+            return packetsSent;
+        }
+
+        @Override
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        @Override
+        public RtcpReporter getRtcp() {
+            return rtcp;
+        }
+    }
+
+    private final RtpRelayGroup group;
+    private final String source;
+    private final int bitrateKbps;
+    private final DatagramSocket socket;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private volatile boolean running = false;
+    private volatile Process encoder;
+    private long encoderStartedAt;
+    private Thread thread;
+
+    RtpRelay(RtpRelayGroup group, String source, int bitrateKbps) throws IOException {
+        this.group = group;
+        this.source = source;
+        this.bitrateKbps = bitrateKbps;
+        this.socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.socket.setSoTimeout(1000);
+    }
+
+    /**
+     * 启动编码进程和转发线程
+     */
+    void start() throws IOException {
+        startEncoder();
+        running = true;
+        thread = new Thread(this, "RtpRelay-" + socket.getLocalPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void startEncoder() throws IOException {
+        // RTCP发到同一端口，转发时按载荷类型丢弃
+        int port = socket.getLocalPort();
+        String rtpUrl = "rtp://127.0.0.1:" + port + "?rtcpport=" + port;
+        ProcessBuilder pb = new ProcessBuilder(FfmpegCommand.encodeToRtp(source, null, rtpUrl, bitrateKbps));
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        encoderStartedAt = System.currentTimeMillis();
+        encoder = pb.start();
+        System.out.println("✓ 编码进程已启动: " + source + " -> 127.0.0.1:" + port);
+    }
+
+    Subscriber subscribe(String sessionKey, InetSocketAddress target, int ssrc, RtpTcpConnection tcp,
+                         ImpairedLink impairment, RtcpReporter rtcp) {
+        Subscriber subscriber = new Subscriber(this, sessionKey, target, ssrc, tcp, impairment, rtcp);
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * 移除订阅，返回中继是否已无订阅
+     */
+    boolean remove(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+        return subscribers.isEmpty();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[65536];
+        DatagramPacket in = new DatagramPacket(buffer, buffer.length);
+        DatagramPacket out = new DatagramPacket(buffer, 0);
+        ByteBuffer tcpOut = ByteBuffer.wrap(buffer);
+        ImpairmentScheduler.Sink udp = (packet, target) -> socket.send(
+            new DatagramPacket(packet.array(), packet.arrayOffset() + packet.position(), packet.remaining(), target));
+        while (running) {
+            try {
+                in.setLength(buffer.length);
+                socket.receive(in);
+            } catch (SocketTimeoutException e) {
+                checkEncoder();
+                continue;
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("✗ 中继 " + source + " 接收出错: " + e.getMessage());
+                }
+                continue;
+            }
+            int length = in.getLength();
+            // RTCP（载荷类型64~95，RFC 5761）不转发
+            int payloadType = buffer[1] & 0x7F;
+            if (length < RTP_HEADER_LENGTH || (payloadType >= 64 && payloadType <= 95)) {
+                continue;
+            }
+            int seq = ((buffer[2] & 0xFF) << 8) | (buffer[3] & 0xFF);
+            int timestamp = readInt(buffer, 4);
+            long now = System.nanoTime();
+            out.setLength(length);
+            for (Subscriber s : subscribers) {
+                if (s.stopped) {
+                    continue;
+                }
+                if (!s.synced) {
+                    s.seqOffset = s.seqBase - seq;
+                    s.timestampOffset = s.timestampBase - timestamp;
+                    s.synced = true;
+                }
+                int outSeq = seq + s.seqOffset;
+                buffer[2] = (byte) (outSeq >> 8);
+                buffer[3] = (byte) outSeq;
+                writeInt(buffer, 4, timestamp + s.timestampOffset);
+                writeInt(buffer, 8, s.ssrc);
+                try {
+                    if (s.tcp != null) {
+                        if (s.tcp.isClosed()) {
+                            s.stop();
+                            continue;
+                        }
+                        // TS流无法判断关键帧，任意包都可作为丢包后的恢复点
+                        tcpOut.limit(length).position(0);
+                        s.tcp.offer(tcpOut, true);
+                    } else if (s.impairment != null) {
+                        tcpOut.limit(length).position(0);
+                        s.impairment.send(tcpOut, s.target, udp);
+                    } else {
+                        out.setSocketAddress(s.target);
+                        socket.send(out);
+                    }
+                    s.packetsSent++;
+                    s.bytesSent += length;
+                    if (s.rtcp != null && s.rtcp.isDue(now)) {
+                        // 转发时刻即该包的发送时刻，SR直接使用其改写后的时间戳
+                        s.rtcp.sendReport(now, timestamp + s.timestampOffset, s.packetsSent,
+                            s.bytesSent - s.packetsSent * RTP_HEADER_LENGTH);
+                    }
+                } catch (IOException e) {
+                    System.err.println("✗ 会话 " + s.sessionKey + " 转发RTP失败: " + e.getMessage());
+                }
+            }
+        }
+        socket.close();
+    }
+
+    /**
+     * 编码进程意外退出时按间隔重启
+     */
+    private void checkEncoder() {
+        Process process = encoder;
+        if (process.isAlive() || System.currentTimeMillis() - encoderStartedAt < RESTART_INTERVAL_MS) {
+            return;
+        }
+        System.err.println("✗ 编码进程已退出（" + source + "，退出码 " + process.exitValue() + "），正在重启");
+        try {
+            startEncoder();
+        } catch (IOException e) {
+            encoderStartedAt = System.currentTimeMillis();
+            System.err.println("✗ 重启编码进程失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 停止编码进程和转发线程
+     */
+    void stop() {
+        running = false;
+        Process process = encoder;
+        if (process != null && process.isAlive()) {
+            process.destroy();
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroyForcibly();
+            }
+        }
+        if (thread == null) {
+            socket.close();
+        }
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] b, int i, int value) {
+        b[i] = (byte) (value >>> 24);
+        b[i + 1] = (byte) (value >>> 16);
+        b[i + 2] = (byte) (value >>> 8);
+        b[i + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,87 @@
+package com.gb28181.simulator.media;
+
+import com.gb28181.simulator.transport.ImpairedLink;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 编码转发中继组：每个媒体源只运行一个FFmpeg编码进程，全部会话订阅共享
+ *
+ * 首个会话订阅时启动中继，最后一个会话退订时停止编码进程。
+ * 共享编码不区分通道，因此不叠加通道名水印
+ */
+public class RtpRelayGroup {
+
+    private final Map<String, RtpRelay> relays = new HashMap<>();
+    private final RtcpChannel rtcp;
+
+    /**
+     * @param rtcp UDP会话共用的RTCP端口，为null时不发送RTCP
+     */
+    public RtpRelayGroup(RtcpChannel rtcp) {
+        this.rtcp = rtcp;
+    }
+
+    /**
+     * 订阅媒体源（必要时启动编码进程）
+     *
+     * @param bitrateKbps 编码码率（仅首次启动编码进程时使用，<=0为默认码率）
+     * @param tcp RTP over TCP连接，为null时经UDP转发到target
+     * @param impairment UDP转发的网络损伤，为null时直接发送
+     */
+    public synchronized StreamSession subscribe(String sessionKey, String source, int bitrateKbps,
+                                                InetSocketAddress target, String ssrc,
+                                                RtpTcpConnection tcp, ImpairedLink impairment) throws IOException {
+        RtpRelay relay = relays.get(source);
+        if (relay == null) {
+            relay = new RtpRelay(this, source, bitrateKbps);
+            try {
+                relay.start();
+            } catch (IOException e) {
+                relay.stop();
+                throw new IOException("启动编码进程失败: " + e.getMessage(), e);
+            }
+            relays.put(source, relay);
+        }
+        int ssrcValue = MediaSession.parseSsrc(ssrc);
+        RtcpReporter reporter = rtcp != null && tcp == null ? rtcp.open(ssrcValue, sessionKey, target, impairment) : null;
+        return relay.subscribe(sessionKey, target, ssrcValue, tcp, impairment, reporter);
+    }
+
+    void unsubscribe(RtpRelay relay, RtpRelay.Subscriber subscriber) {
+        synchronized (this) {
+            if (!relay.remove(subscriber) || !relays.remove(relay.getSource(), relay)) {
+                return;
+            }
+        }
+        // 等待编码进程退出可能较慢，不持有锁
+        relay.stop();
+        System.out.println("✓ 编码进程已停止（无订阅会话）: " + relay.getSource());
+    }
+
+    /**
+     * 运行中的编码进程数
+     */
+    public synchronized int relayCount() {
+        return relays.size();
+    }
+
+    /**
+     * 停止全部中继
+     */
+    public void stop() {
+        List<RtpRelay> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(relays.values());
+            relays.clear();
+        }
+        for (RtpRelay relay : snapshot) {
+            relay.stop();
+        }
+    }
+}
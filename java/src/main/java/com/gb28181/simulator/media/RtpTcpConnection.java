@@ -0,0 +1,179 @@
+package com.gb28181.simulator.media;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * RTP over TCP媒体连接（RFC 4571，每个RTP包前加2字节长度）
+ *
+ * 主动方式（a=setup:active）由本端连接平台；被动方式（a=setup:passive）本端监听，
+ * 等待平台连接。发送线程直接写非阻塞Socket，写不完的部分进入有界待发缓冲区，
+ * 由所属RtpTcpLoop在可写时发出；缓冲区放不下时丢包，并一直丢到下一个可恢复点
+ * （内置引擎为关键帧首包），避免平台收到残缺的帧
+ */
+public final class RtpTcpConnection {
+
+    enum State {
+        CONNECTING,
+        LISTENING,
+        CONNECTED,
+        CLOSED
+    }
+
+    private final RtpTcpLoop loop;
+    private final boolean passive;
+    private final InetSocketAddress remote;
+    private final ByteBuffer pending;
+    private final ByteBuffer lengthPrefix = ByteBuffer.allocate(2);
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    private final long createdAt = System.currentTimeMillis();
+    private volatile State state;
+    private ServerSocketChannel server;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean resync = true; // 连接建立或丢包后，等到可恢复点再发送
+    private volatile long droppedPackets;
+
+    RtpTcpConnection(RtpTcpLoop loop, boolean passive, InetSocketAddress remote, int maxPending) {
+        this.loop = loop;
+        this.passive = passive;
+        this.remote = remote;
+        this.pending = ByteBuffer.allocate(Math.max(maxPending, 2 + 65536));
+        this.state = passive ? State.LISTENING : State.CONNECTING;
+    }
+
+    /**
+     * 发送一个RTP包（packet的position到limit）
+     *
+     * @param resyncPoint 该包之后的数据能否被独立解码（丢包后从这里恢复发送）
+     * @return 是否已写出或进入待发缓冲区
+     */
+    public synchronized boolean offer(ByteBuffer packet, boolean resyncPoint) throws IOException {
+        if (state != State.CONNECTED || (resync && !resyncPoint)) {
+            droppedPackets++;
+            return false;
+        }
+        int length = packet.remaining();
+        if (pending.position() == 0) {
+            lengthPrefix.clear();
+            lengthPrefix.putShort((short) length).flip();
+            gather[0] = lengthPrefix;
+            gather[1] = packet;
+            channel.write(gather);
+            if (packet.hasRemaining()) {
+                // 写了一部分，剩余部分必须完整发出
+                pending.put(lengthPrefix).put(packet);
+                loop.interestWrite(key);
+            }
+            gather[1] = null;
+        } else if (pending.remaining() >= 2 + length) {
+            pending.putShort((short) length).put(packet);
+            loop.interestWrite(key);
+        } else {
+            droppedPackets++;
+            resync = true;
+            return false;
+        }
+        resync = false;
+        return true;
+    }
+
+    /**
+     * 可写时发出待发数据（由RtpTcpLoop调用）；全部发出后取消关注可写事件，
+     * 与offer同在连接锁内判断，发送线程随后追加的数据会重新关注，不会漏发
+     */
+    synchronized void flush() throws IOException {
+        pending.flip();
+        channel.write(pending);
+        pending.compact();
+        if (pending.position() == 0 && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * 关闭连接（任意线程可调用）
+     */
+    public synchronized void close() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.CLOSED;
+        closeQuietly(server);
+        closeQuietly(channel);
+    }
+
+    synchronized void opened(SocketChannel channel, SelectionKey key) {
+        if (state == State.CLOSED) {
+            closeQuietly(channel);
+            return;
+        }
+        closeQuietly(server);
+        server = null;
+        this.channel = channel;
+        this.key = key;
+        this.state = State.CONNECTED;
+    }
+
+    synchronized void setServer(ServerSocketChannel server) {
+        this.server = server;
+    }
+
+    synchronized void setChannel(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    synchronized SelectableChannel selectable() {
+        return passive ? server : channel;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    public boolean isPassive() {
+        return passive;
+    }
+
+    public boolean isConnected() {
+        return state == State.CONNECTED;
+    }
+
+    public boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    InetSocketAddress getRemote() {
+        return remote;
+    }
+
+    /**
+     * 被动方式下的本地监听端口（主动方式返回0）
+     */
+    public synchronized int getLocalPort() {
+        return server != null ? server.socket().getLocalPort() : 0;
+    }
+
+    /**
+     * 因未连接或背压丢弃的包数
+     */
+    public long getDroppedPackets() {
+        return droppedPackets;
+    }
+}
@@ -0,0 +1,226 @@
+package com.gb28181.simulator.media;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * RTP over TCP事件循环：一个Selector线程负责全部TCP媒体连接的建立、
+ * 待发数据的刷出和对端关闭检测（数据写入由发送线程直接完成）
+ */
+public class RtpTcpLoop implements Runnable {
+
+    public static final int DEFAULT_MAX_PENDING = 256 * 1024;
+    // 被动方式等待平台连接的超时
+    private static final long ACCEPT_TIMEOUT_MS = 30_000;
+
+    private final Selector selector;
+    private final int maxPending;
+    private final Queue<RtpTcpConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final List<RtpTcpConnection> waiting = new ArrayList<>(); // 仅事件循环线程访问
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(4096);
+    private volatile boolean running = false;
+    private Thread thread;
+
+    public RtpTcpLoop(int maxPending) throws IOException {
+        this.selector = Selector.open();
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * 启动事件循环线程
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this, "RtpTcpLoop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 被动方式：在本地任意端口监听，等待平台连接
+     */
+    public RtpTcpConnection listen() throws IOException {
+        RtpTcpConnection connection = new RtpTcpConnection(this, true, null, maxPending);
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(0), 1);
+            server.configureBlocking(false);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        connection.setServer(server);
+        register(connection);
+        return connection;
+    }
+
+    /**
+     * 主动方式：连接平台的媒体端口
+     */
+    public RtpTcpConnection connect(InetSocketAddress remote) throws IOException {
+        RtpTcpConnection connection = new RtpTcpConnection(this, false, remote, maxPending);
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.connect(remote);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        connection.setChannel(channel);
+        register(connection);
+        return connection;
+    }
+
+    private void register(RtpTcpConnection connection) {
+        pendingRegistrations.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * 待发缓冲区非空时关注可写事件（在连接锁内调用，与flush清空后取消关注互斥）
+     */
+    void interestWrite(SelectionKey key) {
+        if (key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(1000);
+                registerPending();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handle(key);
+                }
+                expireWaiting();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("✗ TCP媒体事件循环出错: " + e.getMessage());
+                }
+            } catch (Exception e) {
+                System.err.println("✗ TCP媒体事件循环处理出错: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    private void registerPending() {
+        RtpTcpConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            if (connection.isClosed()) {
+                continue;
+            }
+            int ops = connection.isPassive() ? SelectionKey.OP_ACCEPT : SelectionKey.OP_CONNECT;
+            try {
+                connection.selectable().register(selector, ops, connection);
+                waiting.add(connection);
+            } catch (IOException e) {
+                System.err.println("✗ TCP媒体连接注册失败: " + e.getMessage());
+                connection.close();
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        RtpTcpConnection connection = (RtpTcpConnection) key.attachment();
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+                if (channel == null) {
+                    return;
+                }
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connection.opened(channel, channel.register(selector, SelectionKey.OP_READ, connection));
+                waiting.remove(connection);
+                return;
+            }
+            if (key.isConnectable()) {
+                SocketChannel channel = (SocketChannel) key.channel();
+                if (channel.finishConnect()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    connection.opened(channel, key);
+                    waiting.remove(connection);
+                }
+                return;
+            }
+            if (key.isReadable()) {
+                // 平台可能经同一连接发送RTCP，读取后丢弃；读到结尾说明对端已关闭
+                readBuffer.clear();
+                if (((SocketChannel) key.channel()).read(readBuffer) < 0) {
+                    connection.close();
+                    return;
+                }
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        } catch (IOException e) {
+            String peer = connection.getRemote() != null ? connection.getRemote().toString() : "被动连接";
+            System.err.println("✗ TCP媒体连接 " + peer + " 出错: " + e.getMessage());
+            connection.close();
+        }
+    }
+
+    /**
+     * 关闭超时未建立的连接
+     */
+    private void expireWaiting() {
+        long now = System.currentTimeMillis();
+        Iterator<RtpTcpConnection> it = waiting.iterator();
+        while (it.hasNext()) {
+            RtpTcpConnection connection = it.next();
+            if (connection.isClosed()) {
+                it.remove();
+            } else if (now - connection.getCreatedAt() > ACCEPT_TIMEOUT_MS) {
+                String peer = connection.isPassive() ? "端口 " + connection.getLocalPort() : connection.getRemote().toString();
+                System.err.println("✗ TCP媒体连接超时未建立: " + peer);
+                connection.close();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 停止事件循环
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.gb28181.simulator.media;
+
+/**
+ * 一路推流会话（内置引擎或转发中继）
+ */
+public interface StreamSession {
+
+    /**
+     * 停止推流
+     */
+    void stop();
+
+    boolean isStopped();
+
+    long getPacketsSent();
+
+    long getBytesSent();
+
+    /**
+     * 平台RR统计，未开启RTCP（TCP会话）时为null
+     */
+    RtcpReporter getRtcp();
+}
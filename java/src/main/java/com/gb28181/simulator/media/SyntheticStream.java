@@ -0,0 +1,460 @@
+package com.gb28181.simulator.media;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 合成恒定码率码流：不需要输入文件和编码器，按指定码率、帧率和GOP直接生成
+ * H.264/H.265访问单元，再按普通媒体源封装为PS-over-RTP，用于只关心带宽的压力测试
+ *
+ * 媒体源写作 "synthetic:编码:码率kbps:帧率:GOP"（如 synthetic:h264:4000:25:50，
+ * 后面的字段可省略），画面固定为1280x720。每帧由参数集（关键帧）、一个最小的条带
+ * 和填充数据NAL（H.264类型12、H.265类型38）组成，填充数据把每个GOP补齐到目标码率，
+ * 关键帧分到的字节数是普通帧的4倍。H.264条带是可解码的（IDR为灰色画面，P帧全部跳过）；
+ * H.265参数集和条带头有效，条带数据为占位内容（CABAC编码需要编码器，这里不生成）
+ */
+public final class SyntheticStream {
+
+    public static final String PREFIX = "synthetic:";
+    public static final int WIDTH = 1280;
+    public static final int HEIGHT = 720;
+    public static final int DEFAULT_BITRATE_KBPS = 2000;
+    public static final int DEFAULT_FPS = 25;
+    public static final int DEFAULT_GOP = 50;
+    private static final int KEY_FRAME_WEIGHT = 4;
+    private static final int MB_COUNT = (WIDTH / 16) * (HEIGHT / 16);
+
+    private final VideoCodec codec;
+    private final int bitrateKbps;
+    private final int fps;
+    private final int gop;
+
+    private SyntheticStream(VideoCodec codec, int bitrateKbps, int fps, int gop) {
+        this.codec = codec;
+        this.bitrateKbps = bitrateKbps;
+        this.fps = fps;
+        this.gop = gop;
+    }
+
+    /**
+     * 是否为合成码流媒体源
+     */
+    public static boolean isSynthetic(String path) {
+        return path != null && path.regionMatches(true, 0, PREFIX, 0, PREFIX.length());
+    }
+
+    /**
+     * 解析媒体源描述，不是合成码流时返回null，格式错误时抛出IllegalArgumentException
+     */
+    public static SyntheticStream parse(String spec) {
+        if (!isSynthetic(spec)) {
+            return null;
+        }
+        String[] fields = spec.substring(PREFIX.length()).split(":");
+        VideoCodec codec = fields[0].trim().isEmpty() ? VideoCodec.H264 : VideoCodec.fromName(fields[0]);
+        if (codec == null) {
+            throw new IllegalArgumentException("不支持的合成码流编码: " + fields[0] + "（仅支持h264/h265）");
+        }
+        int bitrate = field(fields, 1, DEFAULT_BITRATE_KBPS, 64, 100_000, "码率");
+        int fps = field(fields, 2, DEFAULT_FPS, 1, 60, "帧率");
+        int gop = field(fields, 3, DEFAULT_GOP, 1, 600, "GOP");
+        return new SyntheticStream(codec, bitrate, fps, gop);
+    }
+
+    private static int field(String[] fields, int index, int defaultValue, int min, int max, String name) {
+        if (fields.length <= index || fields[index].trim().isEmpty()) {
+            return defaultValue;
+        }
+        String value = fields[index].trim().toLowerCase(Locale.ROOT);
+        if (value.endsWith("kbps") || value.endsWith("fps")) {
+            value = value.substring(0, value.length() - (value.endsWith("kbps") ? 4 : 3));
+        } else if (value.endsWith("k")) {
+            value = value.substring(0, value.length() - 1);
+        }
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("合成码流" + name + "无效: " + fields[index]);
+        }
+        if (parsed < min || parsed > max) {
+            throw new IllegalArgumentException("合成码流" + name + "应在" + min + "~" + max + "之间: " + parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * 生成两个GOP（H.264相邻IDR的idr_pic_id必须不同）并封装，循环发送即为恒定码率
+     */
+    public PacketizedMedia packetize(int maxPayload) {
+        long gopBytes = bitrateKbps * 125L * gop / fps;
+        long frameBytes = gop > 1 ? gopBytes / (gop - 1 + KEY_FRAME_WEIGHT) : gopBytes;
+        ByteArrayOutputStream es = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, 2 * gopBytes + 4096));
+        for (int g = 0; g < 2; g++) {
+            for (int f = 0; f < gop; f++) {
+                boolean key = f == 0;
+                long target = key ? (gop > 1 ? frameBytes * KEY_FRAME_WEIGHT : gopBytes) : frameBytes;
+                int start = es.size();
+                if (codec == VideoCodec.H264) {
+                    writeH264Frame(es, key, g, f);
+                } else {
+                    writeH265Frame(es, key, f);
+                }
+                writeFiller(es, target - (es.size() - start));
+            }
+        }
+        return PacketizedMedia.build(toString(), es.toByteArray(), codec, fps, maxPayload);
+    }
+
+    private void writeH264Frame(ByteArrayOutputStream es, boolean key, int idrPicId, int frame) {
+        if (key) {
+            writeNal(es, new byte[]{0x67}, h264Sps());
+            writeNal(es, new byte[]{0x68}, h264Pps());
+        }
+        BitWriter slice = new BitWriter();
+        slice.ue(0);                    // first_mb_in_slice
+        slice.ue(key ? 7 : 5);          // slice_type: I / P（全部条带同类型）
+        slice.ue(0);                    // pic_parameter_set_id
+        slice.u(4, frame & 0xF);        // frame_num（log2_max_frame_num = 4）
+        if (key) {
+            slice.ue(idrPicId);         // idr_pic_id
+            slice.u(1, 0);              // no_output_of_prior_pics_flag
+            slice.u(1, 0);              // long_term_reference_flag
+        } else {
+            slice.u(1, 0);              // num_ref_idx_active_override_flag
+            slice.u(1, 0);              // ref_pic_list_modification_flag_l0
+            slice.u(1, 0);              // adaptive_ref_pic_marking_mode_flag
+        }
+        slice.se(0);                    // slice_qp_delta
+        slice.ue(1);                    // disable_deblocking_filter_idc
+        if (key) {
+            for (int mb = 0; mb < MB_COUNT; mb++) {
+                slice.ue(3);            // mb_type: I_16x16，DC预测，无残差
+                slice.ue(0);            // intra_chroma_pred_mode: DC
+                slice.se(0);            // mb_qp_delta
+                slice.u(1, 1);          // Intra16x16DCLevel coeff_token: TotalCoeff=0（nC=0）
+            }
+        } else {
+            slice.ue(MB_COUNT);         // mb_skip_run：全部宏块跳过
+        }
+        slice.trailingBits();
+        writeNal(es, new byte[]{(byte) (key ? 0x65 : 0x41)}, slice.toByteArray());
+    }
+
+    private byte[] h264Sps() {
+        BitWriter sps = new BitWriter();
+        sps.u(8, 66);                   // profile_idc: Baseline
+        sps.u(8, 0xC0);                 // constraint_set0/1（Constrained Baseline）
+        sps.u(8, h264Level());
+        sps.ue(0);                      // seq_parameter_set_id
+        sps.ue(0);                      // log2_max_frame_num_minus4
+        sps.ue(2);                      // pic_order_cnt_type（按frame_num推导，无B帧）
+        sps.ue(1);                      // max_num_ref_frames
+        sps.u(1, 0);                    // gaps_in_frame_num_value_allowed_flag
+        sps.ue(WIDTH / 16 - 1);
+        sps.ue(HEIGHT / 16 - 1);
+        sps.u(1, 1);                    // frame_mbs_only_flag
+        sps.u(1, 1);                    // direct_8x8_inference_flag
+        sps.u(1, 0);                    // frame_cropping_flag
+        sps.u(1, 1);                    // vui_parameters_present_flag
+        sps.u(4, 0);                    // aspect_ratio/overscan/video_signal_type/chroma_loc
+        sps.u(1, 1);                    // timing_info_present_flag
+        sps.u(32, 1);                   // num_units_in_tick
+        sps.u(32, 2L * fps);            // time_scale
+        sps.u(1, 1);                    // fixed_frame_rate_flag
+        sps.u(4, 0);                    // nal_hrd/vcl_hrd/pic_struct/bitstream_restriction
+        sps.trailingBits();
+        return sps.toByteArray();
+    }
+
+    private int h264Level() {
+        long mbPerSecond = (long) MB_COUNT * fps;
+        if (mbPerSecond <= 108_000 && bitrateKbps <= 14_000) {
+            return 31;
+        }
+        if (mbPerSecond <= 216_000 && bitrateKbps <= 20_000) {
+            return 32;
+        }
+        return bitrateKbps <= 50_000 ? 41 : 51;
+    }
+
+    private static byte[] h264Pps() {
+        BitWriter pps = new BitWriter();
+        pps.ue(0);                      // pic_parameter_set_id
+        pps.ue(0);                      // seq_parameter_set_id
+        pps.u(1, 0);                    // entropy_coding_mode_flag: CAVLC
+        pps.u(1, 0);                    // bottom_field_pic_order_in_frame_present_flag
+        pps.ue(0);                      // num_slice_groups_minus1
+        pps.ue(0);                      // num_ref_idx_l0_default_active_minus1
+        pps.ue(0);                      // num_ref_idx_l1_default_active_minus1
+        pps.u(1, 0);                    // weighted_pred_flag
+        pps.u(2, 0);                    // weighted_bipred_idc
+        pps.se(0);                      // pic_init_qp_minus26
+        pps.se(0);                      // pic_init_qs_minus26
+        pps.se(0);                      // chroma_qp_index_offset
+        pps.u(1, 1);                    // deblocking_filter_control_present_flag
+        pps.u(1, 0);                    // constrained_intra_pred_flag
+        pps.u(1, 0);                    // redundant_pic_cnt_present_flag
+        pps.trailingBits();
+        return pps.toByteArray();
+    }
+
+    private void writeH265Frame(ByteArrayOutputStream es, boolean key, int frame) {
+        if (key) {
+            writeNal(es, h265Header(32), h265Vps());
+            writeNal(es, h265Header(33), h265Sps());
+            writeNal(es, h265Header(34), h265Pps());
+        }
+        BitWriter slice = new BitWriter();
+        slice.u(1, 1);                  // first_slice_segment_in_pic_flag
+        if (key) {
+            slice.u(1, 0);              // no_output_of_prior_pics_flag
+        }
+        slice.ue(0);                    // slice_pic_parameter_set_id
+        slice.ue(key ? 2 : 1);          // slice_type: I / P
+        if (!key) {
+            slice.u(8, frame & 0xFF);   // slice_pic_order_cnt_lsb
+            slice.u(1, 0);              // short_term_ref_pic_set_sps_flag
+            slice.ue(1);                // num_negative_pics：参考前一帧
+            slice.ue(0);                // num_positive_pics
+            slice.ue(0);                // delta_poc_s0_minus1
+            slice.u(1, 1);              // used_by_curr_pic_s0_flag
+            slice.u(1, 0);              // num_ref_idx_active_override_flag
+            slice.ue(0);                // five_minus_max_num_merge_cand
+        }
+        slice.se(0);                    // slice_qp_delta
+        slice.trailingBits();           // byte_alignment()，其后为占位的条带数据
+        writeNal(es, h265Header(key ? 19 : 1), slice.toByteArray());
+    }
+
+    private static byte[] h265Header(int type) {
+        return new byte[]{(byte) (type << 1), 0x01};
+    }
+
+    private void h265ProfileTierLevel(BitWriter w) {
+        w.u(2, 0);                      // general_profile_space
+        w.u(1, 0);                      // general_tier_flag
+        w.u(5, 1);                      // general_profile_idc: Main
+        w.u(32, 0x60000000L);           // general_profile_compatibility_flag[1..2]
+        w.u(1, 1);                      // general_progressive_source_flag
+        w.u(1, 0);                      // general_interlaced_source_flag
+        w.u(1, 0);                      // general_non_packed_constraint_flag
+        w.u(1, 1);                      // general_frame_only_constraint_flag
+        w.u(32, 0);                     // general_reserved_zero_43bits + general_inbld_flag
+        w.u(12, 0);
+        w.u(8, fps <= 33 ? 93 : 120);   // general_level_idc: 3.1 / 4
+    }
+
+    private byte[] h265Vps() {
+        BitWriter vps = new BitWriter();
+        vps.u(4, 0);                    // vps_video_parameter_set_id
+        vps.u(1, 1);                    // vps_base_layer_internal_flag
+        vps.u(1, 1);                    // vps_base_layer_available_flag
+        vps.u(6, 0);                    // vps_max_layers_minus1
+        vps.u(3, 0);                    // vps_max_sub_layers_minus1
+        vps.u(1, 1);                    // vps_temporal_id_nesting_flag
+        vps.u(16, 0xFFFF);              // vps_reserved_0xffff_16bits
+        h265ProfileTierLevel(vps);
+        vps.u(1, 1);                    // vps_sub_layer_ordering_info_present_flag
+        vps.ue(1);                      // vps_max_dec_pic_buffering_minus1
+        vps.ue(0);                      // vps_max_num_reorder_pics
+        vps.ue(0);                      // vps_max_latency_increase_plus1
+        vps.u(6, 0);                    // vps_max_layer_id
+        vps.ue(0);                      // vps_num_layer_sets_minus1
+        vps.u(1, 0);                    // vps_timing_info_present_flag
+        vps.u(1, 0);                    // vps_extension_flag
+        vps.trailingBits();
+        return vps.toByteArray();
+    }
+
+    private byte[] h265Sps() {
+        BitWriter sps = new BitWriter();
+        sps.u(4, 0);                    // sps_video_parameter_set_id
+        sps.u(3, 0);                    // sps_max_sub_layers_minus1
+        sps.u(1, 1);                    // sps_temporal_id_nesting_flag
+        h265ProfileTierLevel(sps);
+        sps.ue(0);                      // sps_seq_parameter_set_id
+        sps.ue(1);                      // chroma_format_idc: 4:2:0
+        sps.ue(WIDTH);
+        sps.ue(HEIGHT);
+        sps.u(1, 0);                    // conformance_window_flag
+        sps.ue(0);                      // bit_depth_luma_minus8
+        sps.ue(0);                      // bit_depth_chroma_minus8
+        sps.ue(4);                      // log2_max_pic_order_cnt_lsb_minus4
+        sps.u(1, 1);                    // sps_sub_layer_ordering_info_present_flag
+        sps.ue(1);                      // sps_max_dec_pic_buffering_minus1
+        sps.ue(0);                      // sps_max_num_reorder_pics
+        sps.ue(0);                      // sps_max_latency_increase_plus1
+        sps.ue(0);                      // log2_min_luma_coding_block_size_minus3
+        sps.ue(3);                      // log2_diff_max_min_luma_coding_block_size（CTB 64）
+        sps.ue(0);                      // log2_min_luma_transform_block_size_minus2
+        sps.ue(3);                      // log2_diff_max_min_luma_transform_block_size
+        sps.ue(0);                      // max_transform_hierarchy_depth_inter
+        sps.ue(0);                      // max_transform_hierarchy_depth_intra
+        sps.u(1, 0);                    // scaling_list_enabled_flag
+        sps.u(1, 0);                    // amp_enabled_flag
+        sps.u(1, 0);                    // sample_adaptive_offset_enabled_flag
+        sps.u(1, 0);                    // pcm_enabled_flag
+        sps.ue(0);                      // num_short_term_ref_pic_sets
+        sps.u(1, 0);                    // long_term_ref_pics_present_flag
+        sps.u(1, 0);                    // sps_temporal_mvp_enabled_flag
+        sps.u(1, 0);                    // strong_intra_smoothing_enabled_flag
+        sps.u(1, 1);                    // vui_parameters_present_flag
+        sps.u(8, 0);                    // aspect_ratio ~ default_display_window（8个标志）
+        sps.u(1, 1);                    // vui_timing_info_present_flag
+        sps.u(32, 1);                   // vui_num_units_in_tick
+        sps.u(32, fps);                 // vui_time_scale
+        sps.u(1, 0);                    // vui_poc_proportional_to_timing_flag
+        sps.u(1, 0);                    // vui_hrd_parameters_present_flag
+        sps.u(1, 0);                    // bitstream_restriction_flag
+        sps.u(1, 0);                    // sps_extension_present_flag
+        sps.trailingBits();
+        return sps.toByteArray();
+    }
+
+    private static byte[] h265Pps() {
+        BitWriter pps = new BitWriter();
+        pps.ue(0);                      // pps_pic_parameter_set_id
+        pps.ue(0);                      // pps_seq_parameter_set_id
+        pps.u(1, 0);                    // dependent_slice_segments_enabled_flag
+        pps.u(1, 0);                    // output_flag_present_flag
+        pps.u(3, 0);                    // num_extra_slice_header_bits
+        pps.u(1, 0);                    // sign_data_hiding_enabled_flag
+        pps.u(1, 0);                    // cabac_init_present_flag
+        pps.ue(0);                      // num_ref_idx_l0_default_active_minus1
+        pps.ue(0);                      // num_ref_idx_l1_default_active_minus1
+        pps.se(0);                      // init_qp_minus26
+        pps.u(1, 0);                    // constrained_intra_pred_flag
+        pps.u(1, 0);                    // transform_skip_enabled_flag
+        pps.u(1, 0);                    // cu_qp_delta_enabled_flag
+        pps.se(0);                      // pps_cb_qp_offset
+        pps.se(0);                      // pps_cr_qp_offset
+        pps.u(1, 0);                    // pps_slice_chroma_qp_offsets_present_flag
+        pps.u(1, 0);                    // weighted_pred_flag
+        pps.u(1, 0);                    // weighted_bipred_flag
+        pps.u(1, 0);                    // transquant_bypass_enabled_flag
+        pps.u(1, 0);                    // tiles_enabled_flag
+        pps.u(1, 0);                    // entropy_coding_sync_enabled_flag
+        pps.u(1, 0);                    // pps_loop_filter_across_slices_enabled_flag
+        pps.u(1, 0);                    // deblocking_filter_control_present_flag
+        pps.u(1, 0);                    // pps_scaling_list_data_present_flag
+        pps.u(1, 0);                    // lists_modification_present_flag
+        pps.ue(0);                      // log2_parallel_merge_level_minus2
+        pps.u(1, 0);                    // slice_segment_header_extension_present_flag
+        pps.u(1, 0);                    // pps_extension_present_flag
+        pps.trailingBits();
+        return pps.toByteArray();
+    }
+
+    /**
+     * 填充数据NAL（0xFF × n + rbsp_trailing_bits），bytes不足一个最小NAL时不填充
+     */
+    private void writeFiller(ByteArrayOutputStream es, long bytes) {
+        byte[] header = codec == VideoCodec.H264 ? new byte[]{0x0C} : h265Header(38);
+        long fill = bytes - 4 - header.length - 1;
+        if (fill <= 0) {
+            return;
+        }
+        es.write(0);
+        es.write(0);
+        es.write(0);
+        es.write(1);
+        es.write(header, 0, header.length);
+        byte[] chunk = new byte[(int) Math.min(fill, 1 << 16)];
+        Arrays.fill(chunk, (byte) 0xFF);
+        for (long left = fill; left > 0; left -= chunk.length) {
+            es.write(chunk, 0, (int) Math.min(left, chunk.length));
+        }
+        es.write(0x80);
+    }
+
+    /**
+     * 写入起始码、NAL头和加入防竞争字节后的RBSP
+     */
+    private static void writeNal(ByteArrayOutputStream es, byte[] header, byte[] rbsp) {
+        es.write(0);
+        es.write(0);
+        es.write(0);
+        es.write(1);
+        es.write(header, 0, header.length);
+        int zeros = 0;
+        for (byte b : rbsp) {
+            if (zeros >= 2 && (b & 0xFF) <= 3) {
+                es.write(3);
+                zeros = 0;
+            }
+            es.write(b);
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+    }
+
+    public VideoCodec getCodec() {
+        return codec;
+    }
+
+    public int getBitrateKbps() {
+        return bitrateKbps;
+    }
+
+    public int getFps() {
+        return fps;
+    }
+
+    public int getGop() {
+        return gop;
+    }
+
+    /**
+     * 规范化的媒体源描述（作为媒体源路径和名称）
+     */
+    @Override
+    public String toString() {
+        return PREFIX + (codec == VideoCodec.H264 ? "h264" : "h265") + ":" + bitrateKbps + ":" + fps + ":" + gop;
+    }
+
+    /**
+     * RBSP位写入（u(n)、ue(v)、se(v)）
+     */
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current;
+        private int bits;
+
+        void u(int n, long value) {
+            for (int i = n - 1; i >= 0; i--) {
+                current = (current << 1) | (int) ((value >>> i) & 1);
+                if (++bits == 8) {
+                    out.write(current);
+                    current = 0;
+                    bits = 0;
+                }
+            }
+        }
+
+        void ue(long value) {
+            long v = value + 1;
+            int length = 64 - Long.numberOfLeadingZeros(v);
+            u(length - 1, 0);
+            u(length, v);
+        }
+
+        void se(long value) {
+            ue(value > 0 ? 2 * value - 1 : -2 * value);
+        }
+
+        /**
+         * rbsp_trailing_bits：一个1，再补0到字节边界
+         */
+        void trailingBits() {
+            u(1, 1);
+            while (bits != 0) {
+                u(1, 0);
+            }
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.gb28181.simulator.media;
+
+/**
+ * 支持的视频编码（PS流中的stream_type）
+ */
+public enum VideoCodec {
+    H264(0x1B),
+    H265(0x24);
+
+    private final int streamType;
+
+    VideoCodec(int streamType) {
+        this.streamType = streamType;
+    }
+
+    /**
+     * PSM中的stream_type
+     */
+    public int getStreamType() {
+        return streamType;
+    }
+
+    /**
+     * 按ffprobe的codec_name或文件扩展名识别编码，无法识别时返回null
+     */
+    public static VideoCodec fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        String n = name.trim().toLowerCase();
+        if (n.equals("h264") || n.equals("264") || n.equals("avc")) {
+            return H264;
+        }
+        if (n.equals("hevc") || n.equals("h265") || n.equals("265")) {
+            return H265;
+        }
+        return null;
+    }
+}
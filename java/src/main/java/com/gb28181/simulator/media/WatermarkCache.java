@@ -0,0 +1,191 @@
+package com.gb28181.simulator.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 通道水印预渲染缓存：每个通道的水印版本（媒体源 + drawtext）只编码一次并写入磁盘，
+ * 之后该通道的点播直接以 -c copy 循环推送缓存文件，不再每个会话实时解码、编码
+ *
+ * 缓存文件按 通道ID、水印文字、媒体源、码率 命名，源文件比缓存文件新时重新渲染；
+ * 渲染在后台线程中进行，未渲染完成前由调用方按实时drawtext编码推流
+ */
+public final class WatermarkCache {
+
+    public static final String DEFAULT_CACHE_DIR =
+        new File(System.getProperty("java.io.tmpdir"), "gb28181-watermark-cache").getPath();
+    private static final long RENDER_TIMEOUT_MINUTES = 30;
+
+    private final File dir;
+    private final ExecutorService renderer;
+    // 缓存键 -> 渲染结果（缓存文件路径）
+    private final Map<String, CompletableFuture<String>> variants = new ConcurrentHashMap<>();
+    private final AtomicInteger rendered = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final Set<Process> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param cacheDir 缓存目录（不存在时创建）
+     * @param renderThreads 同时渲染的FFmpeg进程数
+     */
+    public WatermarkCache(String cacheDir, int renderThreads) {
+        this.dir = new File(cacheDir);
+        AtomicInteger index = new AtomicInteger();
+        this.renderer = Executors.newFixedThreadPool(Math.max(1, renderThreads), r -> {
+            Thread thread = new Thread(r, "WatermarkRender-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 已渲染完成的水印版本路径；尚未渲染时提交后台渲染并返回null
+     */
+    public String readyVariant(String channelId, String text, String source, int bitrateKbps) {
+        CompletableFuture<String> variant = variant(channelId, text, source, bitrateKbps);
+        return variant.isDone() && !variant.isCompletedExceptionally() ? variant.getNow(null) : null;
+    }
+
+    /**
+     * 提交渲染（已渲染或正在渲染时不重复提交）
+     */
+    public CompletableFuture<String> variant(String channelId, String text, String source, int bitrateKbps) {
+        String key = channelId + "|" + text + "|" + source + "|" + bitrateKbps;
+        CompletableFuture<String> existing = variants.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        File output = new File(dir, fileName(channelId, key));
+        if (output.isFile() && output.lastModified() >= new File(source).lastModified()) {
+            // 上次运行留下的缓存文件
+            CompletableFuture<String> cached = CompletableFuture.completedFuture(output.getAbsolutePath());
+            existing = variants.putIfAbsent(key, cached);
+            return existing != null ? existing : cached;
+        }
+        CompletableFuture<String> future = new CompletableFuture<>();
+        existing = variants.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            renderer.execute(() -> {
+                try {
+                    render(source, FfmpegCommand.drawtextFilter(text), bitrateKbps, output);
+                    rendered.incrementAndGet();
+                    System.out.println("✓ 通道水印已预渲染 (通道: " + channelId + ") -> " + output.getName());
+                    future.complete(output.getAbsolutePath());
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    System.err.println("✗ 通道水印预渲染失败 (通道: " + channelId + "): " + e.getMessage());
+                    // 失败后移除，下次点播时重试
+                    variants.remove(key, future);
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 已停止
+            variants.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 先渲染到临时文件再改名，推流进程不会读到未写完的文件
+     */
+    private void render(String source, String filter, int bitrateKbps, File output) throws IOException {
+        Files.createDirectories(dir.toPath());
+        File tmp = new File(dir, output.getName() + ".part");
+        List<String> cmd = FfmpegCommand.renderToFile(source, filter, bitrateKbps, tmp.getAbsolutePath());
+        Process process = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        running.add(process);
+        try {
+            byte[] log = process.getInputStream().readAllBytes();
+            if (!process.waitFor(RENDER_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                throw new IOException("ffmpeg 渲染超时");
+            }
+            if (process.exitValue() != 0 || !tmp.isFile()) {
+                throw new IOException("ffmpeg 渲染失败: " + new String(log, StandardCharsets.UTF_8).trim());
+            }
+            Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            throw new IOException("ffmpeg 渲染被中断");
+        } finally {
+            running.remove(process);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * 缓存文件名：通道ID + 缓存键的哈希（水印文字、媒体源或码率变化时生成新文件）
+     */
+    private static String fileName(String channelId, String key) {
+        String safeId = channelId != null ? channelId.replaceAll("[^0-9A-Za-z_-]", "_") : "CHANNEL";
+        return safeId + "-" + Integer.toHexString(key.hashCode()) + ".mp4";
+    }
+
+    /**
+     * 已可复用的水印版本数
+     */
+    public int readyCount() {
+        int ready = 0;
+        for (CompletableFuture<String> variant : variants.values()) {
+            if (variant.isDone() && !variant.isCompletedExceptionally()) {
+                ready++;
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * 正在渲染或排队的水印版本数
+     */
+    public int pendingCount() {
+        int pending = 0;
+        for (CompletableFuture<String> variant : variants.values()) {
+            if (!variant.isDone()) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    public int getRenderedCount() {
+        return rendered.get();
+    }
+
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    public String getCacheDir() {
+        return dir.getAbsolutePath();
+    }
+
+    /**
+     * 停止渲染线程并结束正在运行的FFmpeg渲染进程（未完成的临时文件被删除）
+     */
+    public void stop() {
+        renderer.shutdownNow();
+        for (Process process : running) {
+            process.destroyForcibly();
+        }
+    }
+}
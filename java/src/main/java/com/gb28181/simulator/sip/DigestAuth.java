@@ -8,18 +8,21 @@ import java.security.NoSuchAlgorithmException;
  */
 public class DigestAuth {
     
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
     /**
-     * 计算MD5哈希值
+     * 计算MD5哈希值（小写十六进制）
      */
-    private static String md5(String input) {
+    static String md5(String input) {
         try {
             MessageDigest md = MessageDigest.getInstance("MD5");
             byte[] digest = md.digest(input.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xF];
             }
-            return sb.toString();
+            return new String(hex);
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("MD5算法不可用", e);
         }
@@ -0,0 +1,99 @@
+package com.gb28181.simulator.sip;
+
+/**
+ * INFO消息中的MANSRTSP回放控制命令（不可变）
+ *
+ * 例如 "PLAY RTSP/1.0 / Scale: 2.0"（倍速）、"PLAY RTSP/1.0 / Range: npt=100-"（拖动）、
+ * "PAUSE RTSP/1.0"（暂停）、"TEARDOWN RTSP/1.0"（停止）
+ */
+public final class MansRtsp {
+    private final String method;
+    private final String cseq;
+    private final Double scale;
+    private final Double rangeStart;
+
+    private MansRtsp(String method, String cseq, Double scale, Double rangeStart) {
+        this.method = method;
+        this.cseq = cseq;
+        this.scale = scale;
+        this.rangeStart = rangeStart;
+    }
+
+    /**
+     * 解析MANSRTSP文本，不是有效命令时返回null
+     */
+    public static MansRtsp parse(String text) {
+        if (text == null) {
+            return null;
+        }
+        String method = null;
+        String cseq = null;
+        Double scale = null;
+        Double rangeStart = null;
+        for (String line : text.split("\r?\n")) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (method == null) {
+                if (!line.contains("RTSP/")) {
+                    return null;
+                }
+                method = line.split("\\s+")[0].toUpperCase();
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if ("CSeq".equalsIgnoreCase(name)) {
+                cseq = value;
+            } else if ("Scale".equalsIgnoreCase(name)) {
+                scale = parseDouble(value);
+            } else if ("Range".equalsIgnoreCase(name)) {
+                // npt=100- 表示从第100秒开始；npt=now- 表示从当前位置继续
+                String npt = value.toLowerCase();
+                if (npt.startsWith("npt=")) {
+                    int dash = npt.indexOf('-', 4);
+                    rangeStart = parseDouble(dash > 4 ? npt.substring(4, dash) : npt.substring(4));
+                }
+            }
+        }
+        return method != null ? new MansRtsp(method, cseq, scale, rangeStart) : null;
+    }
+
+    private static Double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return null; // 如npt=now
+        }
+    }
+
+    /**
+     * 命令（PLAY / PAUSE / TEARDOWN）
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    public String getCSeq() {
+        return cseq;
+    }
+
+    /**
+     * 播放倍速（Scale:），未提供时为null
+     */
+    public Double getScale() {
+        return scale;
+    }
+
+    /**
+     * 拖动目标位置（Range: npt=起始秒-），未提供或为now时为null
+     */
+    public Double getRangeStart() {
+        return rangeStart;
+    }
+}
@@ -0,0 +1,198 @@
+package com.gb28181.simulator.sip;
+
+/**
+ * INVITE消息中的SDP信息（不可变）
+ */
+public final class SdpInfo {
+    private final String sessionName;
+    private final String connectionIp;
+    private final Integer videoPort;
+    private final Integer audioPort;
+    private final String ssrc;
+    private final String format;
+    private final boolean tcp;
+    private final String setup;
+    private final long startTime;
+    private final long stopTime;
+    private final int downloadSpeed;
+    
+    private SdpInfo(String sessionName, String connectionIp, Integer videoPort, Integer audioPort,
+                    String ssrc, String format, boolean tcp, String setup, long startTime, long stopTime,
+                    int downloadSpeed) {
+        this.sessionName = sessionName;
+        this.connectionIp = connectionIp;
+        this.videoPort = videoPort;
+        this.audioPort = audioPort;
+        this.ssrc = ssrc;
+        this.format = format;
+        this.tcp = tcp;
+        this.setup = setup;
+        this.startTime = startTime;
+        this.stopTime = stopTime;
+        this.downloadSpeed = downloadSpeed;
+    }
+    
+    /**
+     * 解析SDP文本
+     */
+    public static SdpInfo parse(String sdp) {
+        String sessionName = null;
+        String connectionIp = null;
+        Integer videoPort = null;
+        Integer audioPort = null;
+        String ssrc = null;
+        String format = null;
+        boolean tcp = false;
+        String setup = null;
+        long startTime = 0;
+        long stopTime = 0;
+        int downloadSpeed = 0;
+        
+        if (sdp != null) {
+            for (String line : sdp.split("\r?\n")) {
+                line = line.trim();
+                if (line.startsWith("s=")) {
+                    sessionName = line.substring(2).trim();
+                } else if (line.startsWith("c=IN IP4 ")) {
+                    String[] parts = line.split("\\s+");
+                    if (parts.length >= 3) {
+                        connectionIp = parts[2];
+                    }
+                } else if (line.startsWith("m=video ")) {
+                    videoPort = parsePort(line);
+                    String[] parts = line.split("\\s+");
+                    tcp = parts.length >= 3 && parts[2].toUpperCase().startsWith("TCP/");
+                } else if (line.startsWith("m=audio ")) {
+                    audioPort = parsePort(line);
+                } else if (line.startsWith("y=")) {
+                    ssrc = line.substring(2).trim();
+                } else if (line.startsWith("f=")) {
+                    format = line.substring(2).trim();
+                } else if (line.startsWith("a=setup:")) {
+                    setup = line.substring("a=setup:".length()).trim().toLowerCase();
+                } else if (line.startsWith("t=")) {
+                    String[] parts = line.substring(2).trim().split("\\s+");
+                    if (parts.length >= 2) {
+                        startTime = parseLong(parts[0]);
+                        stopTime = parseLong(parts[1]);
+                    }
+                } else if (line.startsWith("a=downloadspeed:")) {
+                    downloadSpeed = (int) parseLong(line.substring("a=downloadspeed:".length()));
+                }
+            }
+        }
+        return new SdpInfo(sessionName, connectionIp, videoPort, audioPort, ssrc, format, tcp, setup,
+            startTime, stopTime, downloadSpeed);
+    }
+    
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    private static Integer parsePort(String mediaLine) {
+        String[] parts = mediaLine.split("\\s+");
+        if (parts.length >= 2) {
+            try {
+                return Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                // 忽略
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 会话名（s=），如 Play / Playback / Download
+     */
+    public String getSessionName() {
+        return sessionName;
+    }
+    
+    /**
+     * 媒体接收地址（c=）
+     */
+    public String getConnectionIp() {
+        return connectionIp;
+    }
+    
+    /**
+     * 视频端口（m=video）
+     */
+    public Integer getVideoPort() {
+        return videoPort;
+    }
+    
+    /**
+     * 音频端口（m=audio）
+     */
+    public Integer getAudioPort() {
+        return audioPort;
+    }
+    
+    /**
+     * SSRC（y=）
+     */
+    public String getSsrc() {
+        return ssrc;
+    }
+    
+    /**
+     * 媒体描述（f=）
+     */
+    public String getFormat() {
+        return format;
+    }
+    
+    /**
+     * 视频是否要求RTP over TCP（m=video ... TCP/RTP/AVP）
+     */
+    public boolean isTcp() {
+        return tcp;
+    }
+    
+    /**
+     * TCP连接角色（a=setup:），如 active / passive / actpass，未提供时为null
+     */
+    public String getSetup() {
+        return setup;
+    }
+    
+    /**
+     * 是否为历史回放或下载（s=Playback / s=Download）
+     */
+    public boolean isPlayback() {
+        return "Playback".equalsIgnoreCase(sessionName) || isDownload();
+    }
+    
+    /**
+     * 是否为历史下载（s=Download）
+     */
+    public boolean isDownload() {
+        return "Download".equalsIgnoreCase(sessionName);
+    }
+    
+    /**
+     * 回放开始时间（t=第一项，秒），未提供时为0
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+    
+    /**
+     * 回放结束时间（t=第二项，秒），未提供时为0
+     */
+    public long getStopTime() {
+        return stopTime;
+    }
+    
+    /**
+     * 下载倍速（a=downloadspeed:），未提供时为0
+     */
+    public int getDownloadSpeed() {
+        return downloadSpeed;
+    }
+}
@@ -0,0 +1,153 @@
+package com.gb28181.simulator.sip;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 可复用的SIP消息字节缓冲区（非线程安全，按线程复用）
+ *
+ * 数字、十六进制随机串和ASCII文本直接写入字节数组，不产生中间字符串
+ */
+public final class SipBuffer {
+
+    private static final Charset GB18030 = Charset.forName("GB18030");
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf;
+    private int len;
+
+    public SipBuffer(int capacity) {
+        this.buf = new byte[capacity];
+    }
+
+    /**
+     * 清空内容（保留已分配的容量）
+     */
+    public SipBuffer reset() {
+        len = 0;
+        return this;
+    }
+
+    /**
+     * 追加单个字节
+     */
+    public SipBuffer appendByte(int b) {
+        ensure(1);
+        buf[len++] = (byte) b;
+        return this;
+    }
+
+    public SipBuffer append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    public SipBuffer append(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, buf, len, length);
+        len += length;
+        return this;
+    }
+
+    public SipBuffer append(SipBuffer other) {
+        return append(other.buf, 0, other.len);
+    }
+
+    /**
+     * 追加字符串（UTF-8编码，纯ASCII时不分配临时数组）
+     */
+    public SipBuffer append(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return append(s.substring(i).getBytes(StandardCharsets.UTF_8));
+            }
+            buf[len++] = (byte) c;
+        }
+        return this;
+    }
+
+    /**
+     * 追加十进制整数
+     */
+    public SipBuffer append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(Long.toString(value));
+        }
+        if (value < 0) {
+            ensure(1);
+            buf[len++] = '-';
+            value = -value;
+        }
+        int digits = decimalLength(value);
+        ensure(digits);
+        int pos = len + digits;
+        do {
+            buf[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        len += digits;
+        return this;
+    }
+
+    /**
+     * 追加指定位数的随机十六进制串（用于branch、Call-ID、tag）
+     */
+    public SipBuffer appendRandomHex(int digits) {
+        ensure(digits);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long bits = 0;
+        for (int i = 0; i < digits; i++) {
+            if ((i & 15) == 0) {
+                bits = random.nextLong();
+            }
+            buf[len++] = HEX[(int) (bits & 0xF)];
+            bits >>>= 4;
+        }
+        return this;
+    }
+
+    /**
+     * 非负整数的十进制位数
+     */
+    public static int decimalLength(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * 底层数组（有效内容为[0, length)）
+     */
+    public byte[] array() {
+        return buf;
+    }
+
+    public int length() {
+        return len;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, len);
+    }
+
+    /**
+     * 解码为字符串（用于打印；MANSCDP消息体为GB2312编码，按兼容ASCII的GB18030解码）
+     */
+    @Override
+    public String toString() {
+        return new String(buf, 0, len, GB18030);
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+}
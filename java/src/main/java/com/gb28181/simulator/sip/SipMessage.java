@@ -0,0 +1,281 @@
+package com.gb28181.simulator.sip;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 已解析的SIP消息（不可变）
+ * 
+ * 收到消息时由 {@link SipMessageReader} 解析一次，之后传给所有处理器和响应构建器，
+ * 对话标识、SDP以及MANSCDP字段都直接通过访问方法取得，不再重复扫描原始文本。
+ */
+public final class SipMessage {
+    private static final String DEFAULT_PLATFORM_ID = "3402000000";
+    
+    private final byte[] raw;
+    private final String method;
+    private final int statusCode;
+    private final String requestUriUser;
+    private final String fromUser;
+    private final String toUser;
+    private final String via;
+    private final String from;
+    private final String to;
+    private final String callId;
+    private final String cseq;
+    private final String event;
+    private final String expires;
+    private final String contentType;
+    private final String body;
+    private final SdpInfo sdp;
+    private final String cmdType;
+    private final String sn;
+    private final String infoId;
+    private final String bodyDeviceId;
+    
+    private SipMessage(byte[] raw, SipMessageReader reader) {
+        this.raw = raw;
+        this.method = reader.method();
+        this.statusCode = reader.statusCode();
+        this.requestUriUser = reader.requestUriUser();
+        this.fromUser = reader.headerUser("From");
+        this.toUser = reader.headerUser("To");
+        this.via = reader.header("Via");
+        this.from = reader.header("From");
+        this.to = reader.header("To");
+        this.callId = reader.header("Call-ID");
+        this.cseq = reader.header("CSeq");
+        this.event = reader.header("Event");
+        this.expires = reader.header("Expires");
+        this.contentType = reader.header("Content-Type");
+        this.body = reader.body();
+        
+        boolean hasBody = !body.isEmpty();
+        boolean isSdp = hasBody && contentType != null && contentType.toLowerCase().contains("sdp");
+        this.sdp = isSdp ? SdpInfo.parse(body) : null;
+        boolean isXml = hasBody && !isSdp;
+        this.cmdType = isXml ? reader.xmlElement("CmdType") : null;
+        this.sn = isXml ? reader.xmlElement("SN") : null;
+        this.infoId = isXml ? reader.xmlElement("InfoID") : null;
+        this.bodyDeviceId = isXml ? reader.xmlElement("DeviceID") : null;
+    }
+    
+    /**
+     * 解析数据包；不是有效的SIP消息时返回null
+     */
+    public static SipMessage parse(byte[] data, SipMessageReader reader) {
+        if (!reader.parse(ByteBuffer.wrap(data))) {
+            return null;
+        }
+        return new SipMessage(data, reader);
+    }
+    
+    /**
+     * 由刚解析完数据包的reader构建消息，不再重复解析（共享端口在直接接收缓冲区上解析）
+     * 
+     * @param raw 同一数据包的副本，只用于打印
+     */
+    public static SipMessage of(byte[] raw, SipMessageReader reader) {
+        return new SipMessage(raw, reader);
+    }
+    
+    /**
+     * 原始消息文本（仅用于打印）
+     */
+    public String text() {
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+    
+    public boolean isResponse() {
+        return method == null;
+    }
+    
+    public boolean isRequest(String requestMethod) {
+        return requestMethod.equals(method);
+    }
+    
+    /**
+     * 请求方法；响应为null
+     */
+    public String getMethod() {
+        return method;
+    }
+    
+    /**
+     * 响应状态码；请求为-1
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+    
+    /**
+     * Request-URI用户部分（设备ID或通道ID）
+     */
+    public String getRequestUriUser() {
+        return requestUriUser;
+    }
+    
+    /**
+     * From头中的用户部分
+     */
+    public String getFromUser() {
+        return fromUser;
+    }
+    
+    /**
+     * To头中的用户部分
+     */
+    public String getToUser() {
+        return toUser;
+    }
+    
+    public String getVia() {
+        return via;
+    }
+    
+    public String getFrom() {
+        return from;
+    }
+    
+    public String getTo() {
+        return to;
+    }
+    
+    public String getCallId() {
+        return callId;
+    }
+    
+    public String getCSeq() {
+        return cseq;
+    }
+    
+    /**
+     * CSeq中的方法名
+     */
+    public String getCSeqMethod() {
+        if (cseq == null) {
+            return null;
+        }
+        int space = cseq.lastIndexOf(' ');
+        return space >= 0 ? cseq.substring(space + 1).trim() : cseq;
+    }
+    
+    /**
+     * From头的tag参数
+     */
+    public String getFromTag() {
+        return tagOf(from);
+    }
+    
+    /**
+     * To头的tag参数
+     */
+    public String getToTag() {
+        return tagOf(to);
+    }
+    
+    /**
+     * From头的用户部分（平台ID），缺省为3402000000
+     */
+    public String getPlatformId() {
+        String user = userOf(from);
+        return user != null ? user : DEFAULT_PLATFORM_ID;
+    }
+    
+    /**
+     * Event类型（小写，不含参数）
+     */
+    public String getEventType() {
+        if (event == null) {
+            return null;
+        }
+        int semicolon = event.indexOf(';');
+        return (semicolon >= 0 ? event.substring(0, semicolon) : event).trim().toLowerCase();
+    }
+    
+    /**
+     * Expires头
+     */
+    public Integer getExpires() {
+        if (expires != null) {
+            try {
+                return Integer.parseInt(expires.trim());
+            } catch (NumberFormatException e) {
+                // 忽略
+            }
+        }
+        return null;
+    }
+    
+    public String getBody() {
+        return body;
+    }
+    
+    /**
+     * SDP信息（非SDP消息体为null）
+     */
+    public SdpInfo getSdp() {
+        return sdp;
+    }
+    
+    /**
+     * MANSCDP的CmdType
+     */
+    public String getCmdType() {
+        return cmdType;
+    }
+    
+    /**
+     * MANSCDP的SN；缺失时使用当前时间（秒）
+     */
+    public String getSn() {
+        return sn != null && !sn.isEmpty() ? sn : String.valueOf(System.currentTimeMillis() / 1000);
+    }
+    
+    /**
+     * MANSCDP的InfoID
+     */
+    public String getInfoId() {
+        return infoId;
+    }
+    
+    /**
+     * MANSCDP消息体中的DeviceID
+     */
+    public String getBodyDeviceId() {
+        return bodyDeviceId;
+    }
+    
+    private static String tagOf(String headerValue) {
+        if (headerValue == null) {
+            return null;
+        }
+        int index = headerValue.indexOf(";tag=");
+        if (index < 0) {
+            return null;
+        }
+        int start = index + 5;
+        int end = start;
+        while (end < headerValue.length()) {
+            char c = headerValue.charAt(end);
+            if (c == ';' || c == ' ' || c == '>') {
+                break;
+            }
+            end++;
+        }
+        return headerValue.substring(start, end);
+    }
+    
+    private static String userOf(String headerValue) {
+        if (headerValue == null) {
+            return null;
+        }
+        int start = headerValue.indexOf("sip:");
+        if (start < 0) {
+            return null;
+        }
+        start += 4;
+        int end = headerValue.indexOf('@', start);
+        return end > start ? headerValue.substring(start, end) : null;
+    }
+}
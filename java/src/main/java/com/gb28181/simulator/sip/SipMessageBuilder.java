@@ -1,523 +1,306 @@
 package com.gb28181.simulator.sip;
 
-import java.util.UUID;
+import java.nio.charset.StandardCharsets;
 
 /**
  * SIP消息构建器
+ *
+ * 消息直接写入按线程复用的SipBuffer，返回的缓冲区在同一线程下一次构建前有效
  */
 public class SipMessageBuilder {
-    
+
+    private static final ThreadLocal<SipBuffer> MESSAGE = ThreadLocal.withInitial(() -> new SipBuffer(2048));
+    private static final ThreadLocal<SipBuffer> BODY = ThreadLocal.withInitial(() -> new SipBuffer(2048));
+
+    private static final byte[] STATUS_200 = bytes("SIP/2.0 200 OK\r\nVia: ");
+    private static final byte[] FROM = bytes("\r\nFrom: ");
+    private static final byte[] TO = bytes("\r\nTo: ");
+    private static final byte[] TAG = bytes(";tag=");
+    private static final byte[] CALL_ID = bytes("\r\nCall-ID: ");
+    private static final byte[] CSEQ = bytes("\r\nCSeq: ");
+    private static final byte[] CONTACT = bytes("\r\nContact: <sip:");
+    private static final byte[] CONTACT_END = bytes(">");
+    private static final byte[] USER_AGENT = bytes("\r\nUser-Agent: GB28181-Device/1.0");
+    private static final byte[] MAX_FORWARDS = bytes("\r\nMax-Forwards: 70");
+    private static final byte[] MANSCDP = bytes("\r\nContent-Type: Application/MANSCDP+xml");
+    private static final byte[] SDP = bytes("\r\nContent-Type: application/sdp");
+    private static final byte[] CONTENT_LENGTH = bytes("\r\nContent-Length: ");
+    private static final byte[] END_HEADERS = bytes("\r\n\r\n");
+    private static final byte[] BRANCH_PREFIX = bytes(";branch=z9hG4bK");
+
     /**
-     * 生成Call-ID
+     * 当前线程的消息缓冲区（设备模板写入时使用）
      */
-    public static String generateCallId(String localIp) {
-        return UUID.randomUUID().toString().substring(0, 8) + "@" + localIp;
+    public static SipBuffer messageBuffer() {
+        return MESSAGE.get();
     }
-    
+
     /**
-     * 生成CSeq
+     * 当前线程的消息体缓冲区（已清空，用于写入MANSCDP等消息体）
      */
-    public static int generateCSeq() {
-        return 1;
+    public static SipBuffer bodyBuffer() {
+        return BODY.get().reset();
     }
-    
+
     /**
-     * 生成Branch
+     * 将Via中的不可路由地址替换为contactIp
+     *
+     * @param rewriteLoopback 是否同时替换127.0.0.1（contactIp不是回环地址时）
      */
-    public static String generateBranch() {
-        return "z9hG4bK" + UUID.randomUUID().toString().replace("-", "").substring(0, 20);
+    private static String rewriteVia(String via, String contactIp, boolean rewriteLoopback) {
+        if (contactIp == null || via == null) {
+            return via;
+        }
+        boolean unroutable = via.contains("0.0.0.0")
+            || (rewriteLoopback && via.contains("127.0.0.1") && !"127.0.0.1".equals(contactIp));
+        if (!unroutable) {
+            return via;
+        }
+        String[] viaParts = via.split("\\s+");
+        if (viaParts.length >= 2) {
+            String oldAddr = viaParts[1];
+            if (oldAddr.contains(":")) {
+                String portPart = oldAddr.split(":")[1].split(";")[0];
+                String newVia = "SIP/2.0/UDP " + contactIp + ":" + portPart;
+                if (oldAddr.contains(";")) {
+                    String branchPart = oldAddr.split(";", 2)[1];
+                    newVia += ";" + branchPart;
+                }
+                return newVia;
+            }
+        }
+        return via;
     }
-    
+
     /**
-     * 创建REGISTER请求
+     * 写入响应的状态行及Via/From/To/Call-ID/CSeq（To沿用请求中的tag，没有则生成新的）
      */
-    public static String createRegisterRequest(String deviceId, String localIp, int localPort,
-                                              String serverIp, int serverPort, String password,
-                                              String tag, String contactIp) {
-        String callId = generateCallId(localIp);
-        int cseq = generateCSeq();
-        String branch = generateBranch();
-        
-        // 计算Authorization
-        String realm = "3402000000";
-        String nonce = String.valueOf(System.currentTimeMillis() / 1000);
-        String uri = "sip:" + serverIp + ":" + serverPort;
-        
-        String response = DigestAuth.calculateResponse(deviceId, realm, password, "REGISTER", uri, nonce);
-        String auth = DigestAuth.generateAuthorizationHeader(deviceId, realm, nonce, uri, response);
-        
-        // Contact头和Via头使用contactIp（如果提供），否则使用localIp
-        String contactAddress = (contactIp != null && !contactIp.isEmpty()) ? contactIp : localIp;
-        String viaAddress = contactAddress;
-        
-        return String.format(
-            "REGISTER sip:%s:%d SIP/2.0\r\n" +
-            "Via: SIP/2.0/UDP %s:%d;branch=%s\r\n" +
-            "From: <sip:%s@%s:%d>;tag=%s\r\n" +
-            "To: <sip:%s@%s:%d>\r\n" +
-            "Call-ID: %s\r\n" +
-            "CSeq: %d REGISTER\r\n" +
-            "Contact: <sip:%s@%s:%d>\r\n" +
-            "Authorization: %s\r\n" +
-            "Max-Forwards: 70\r\n" +
-            "User-Agent: GB28181-Device/1.0\r\n" +
-            "Expires: 3600\r\n" +
-            "Content-Length: 0\r\n" +
-            "\r\n",
-            serverIp, serverPort,
-            viaAddress, localPort, branch,
-            deviceId, serverIp, serverPort, tag,
-            deviceId, serverIp, serverPort,
-            callId,
-            cseq,
-            deviceId, contactAddress, localPort,
-            auth
-        );
+    private static SipBuffer writeResponseHead(SipMessage request, String via) {
+        SipBuffer out = MESSAGE.get().reset()
+            .append(STATUS_200).append(orEmpty(via))
+            .append(FROM).append(orEmpty(request.getFrom()))
+            .append(TO).append(orEmpty(request.getTo()));
+        if (request.getToTag() == null) {
+            out.append(TAG).appendRandomHex(32);
+        }
+        return out
+            .append(CALL_ID).append(orEmpty(request.getCallId()))
+            .append(CSEQ).append(orEmpty(request.getCSeq()));
     }
-    
+
     /**
-     * 创建Keepalive MESSAGE请求
+     * 写入Content-Length、空行和消息体
      */
-    public static String createKeepaliveMessage(String deviceId, String localIp, int localPort,
-                                                String serverIp, int serverPort, int sn,
-                                                String keepaliveXml, String tag) {
-        String callId = UUID.randomUUID().toString().substring(0, 32);
-        String branch = generateBranch();
-        int cseq = 1;
-        
-        int contentLength = keepaliveXml.getBytes().length;
-        
-        return String.format(
-            "MESSAGE sip:%s:%d SIP/2.0\r\n" +
-            "Via: SIP/2.0/UDP %s:%d;branch=%s\r\n" +
-            "From: <sip:%s@%s:%d>;tag=%s\r\n" +
-            "To: <sip:%s@%s:%d>\r\n" +
-            "Call-ID: %s\r\n" +
-            "CSeq: %d MESSAGE\r\n" +
-            "Content-Type: Application/MANSCDP+xml\r\n" +
-            "Content-Length: %d\r\n" +
-            "User-Agent: GB28181-Device/1.0\r\n" +
-            "Max-Forwards: 70\r\n" +
-            "\r\n" +
-            "%s",
-            serverIp, serverPort,
-            localIp, localPort, branch,
-            deviceId, serverIp, serverPort, tag,
-            deviceId, serverIp, serverPort,
-            callId,
-            cseq,
-            contentLength,
-            keepaliveXml
-        );
+    private static SipBuffer writeBody(SipBuffer out, SipBuffer body) {
+        return out.append(CONTENT_LENGTH).append(body.length())
+            .append(END_HEADERS).append(body);
     }
-    
+
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+
     /**
      * 创建MESSAGE响应（200 OK）
      */
-    public static String createMessageResponse(String[] requestLines, String contactIp) {
-        String via = null;
-        String fromLine = null;
-        String toLine = null;
-        String callId = null;
-        String cseq = null;
-        
-        for (String line : requestLines) {
-            if (line.startsWith("Via:")) {
-                via = line.substring(4).trim();
-            } else if (line.startsWith("From:")) {
-                fromLine = line.substring(5).trim();
-            } else if (line.startsWith("To:")) {
-                toLine = line.substring(3).trim();
-            } else if (line.startsWith("Call-ID:")) {
-                callId = line.substring(8).trim();
-            } else if (line.startsWith("CSeq:")) {
-                cseq = line.substring(5).trim();
-            }
-        }
-        
+    public static SipBuffer createMessageResponse(SipMessage request, String contactIp) {
         // 如果提供了contactIp且Via中包含不可路由地址，替换为contactIp
-        if (contactIp != null && via != null) {
-            if (via.contains("0.0.0.0")) {
-                String[] viaParts = via.split("\\s+");
-                if (viaParts.length >= 2) {
-                    String oldAddr = viaParts[1];
-                    if (oldAddr.contains(":")) {
-                        String portPart = oldAddr.split(":")[1].split(";")[0];
-                        String newVia = "SIP/2.0/UDP " + contactIp + ":" + portPart;
-                        if (oldAddr.contains(";")) {
-                            String branchPart = oldAddr.split(";", 2)[1];
-                            newVia += ";" + branchPart;
-                        }
-                        via = newVia;
-                    }
-                }
-            }
-        }
-        
-        // 从To提取tag（如果没有则生成新的）
-        String toTag = null;
-        if (toLine != null && toLine.contains(";tag=")) {
-            toTag = toLine.split(";tag=")[1].split("\\s+")[0];
-        } else {
-            toTag = UUID.randomUUID().toString().substring(0, 32);
-        }
-        
-        return String.format(
-            "SIP/2.0 200 OK\r\n" +
-            "Via: %s\r\n" +
-            "From: %s\r\n" +
-            "To: %s;tag=%s\r\n" +
-            "Call-ID: %s\r\n" +
-            "CSeq: %s\r\n" +
-            "User-Agent: GB28181-Device/1.0\r\n" +
-            "Content-Length: 0\r\n" +
-            "\r\n",
-            via != null ? via : "",
-            fromLine != null ? fromLine : "",
-            toLine != null ? toLine : "",
-            toTag,
-            callId != null ? callId : "",
-            cseq != null ? cseq : ""
-        );
+        String via = rewriteVia(request.getVia(), contactIp, false);
+
+        return writeResponseHead(request, via)
+            .append(USER_AGENT)
+            .append(CONTENT_LENGTH).append(0)
+            .append(END_HEADERS);
     }
-    
+
+    /**
+     * 创建携带MANSCDP应答体的MESSAGE响应（200 OK）
+     */
+    public static SipBuffer createMessageResponse(SipMessage request, String contactIp, SipBuffer body) {
+        String via = rewriteVia(request.getVia(), contactIp, false);
+
+        SipBuffer out = writeResponseHead(request, via)
+            .append(USER_AGENT)
+            .append(MANSCDP);
+        return writeBody(out, body);
+    }
+
     /**
      * 创建INVITE响应（200 OK，包含SDP，符合GB28181点播流程）
      */
-    public static String createInviteResponse(String[] requestLines, String contactIp, String deviceId, int localPort) {
-        String via = null;
-        String fromLine = null;
-        String toLine = null;
-        String callId = null;
-        String cseq = null;
-        
-        // 解析对端SDP以继承 y(SSRC)、f 参数
-        boolean inSdp = false;
-        java.util.List<String> sdpLines = new java.util.ArrayList<>();
-        
-        for (String line : requestLines) {
-            if (line.startsWith("Via:")) {
-                via = line.substring(4).trim();
-            } else if (line.startsWith("From:")) {
-                fromLine = line.substring(5).trim();
-            } else if (line.startsWith("To:")) {
-                toLine = line.substring(3).trim();
-            } else if (line.startsWith("Call-ID:")) {
-                callId = line.substring(8).trim();
-            } else if (line.startsWith("CSeq:")) {
-                cseq = line.substring(5).trim();
-            } else if (line.trim().isEmpty() && !inSdp) {
-                inSdp = true;
-                continue;
-            } else if (inSdp) {
-                sdpLines.add(line);
-            }
-        }
-        
+    public static SipBuffer createInviteResponse(SipMessage request, String contactIp, String deviceId, int localPort) {
+        return createInviteResponse(request, contactIp, deviceId, localPort, 0, null);
+    }
+    
+    /**
+     * 创建INVITE响应，指定本端媒体端口和传输方式
+     *
+     * @param tcpSetup 本端TCP角色（active / passive），为null时应答UDP（RTP/AVP）
+     */
+    public static SipBuffer createInviteResponse(SipMessage request, String contactIp, String deviceId, int localPort,
+                                                 int mediaPort, String tcpSetup) {
         // 如果提供了contactIp且Via中包含不可路由地址，替换为contactIp
-        if (contactIp != null && via != null) {
-            if (via.contains("0.0.0.0")) {
-                String[] viaParts = via.split("\\s+");
-                if (viaParts.length >= 2) {
-                    String oldAddr = viaParts[1];
-                    if (oldAddr.contains(":")) {
-                        String portPart = oldAddr.split(":")[1].split(";")[0];
-                        String newVia = "SIP/2.0/UDP " + contactIp + ":" + portPart;
-                        if (oldAddr.contains(";")) {
-                            String branchPart = oldAddr.split(";", 2)[1];
-                            newVia += ";" + branchPart;
-                        }
-                        via = newVia;
-                    }
-                }
-            } else if (via.contains("127.0.0.1") && !"127.0.0.1".equals(contactIp)) {
-                String[] viaParts = via.split("\\s+");
-                if (viaParts.length >= 2) {
-                    String oldAddr = viaParts[1];
-                    if (oldAddr.contains(":")) {
-                        String portPart = oldAddr.split(":")[1].split(";")[0];
-                        String newVia = "SIP/2.0/UDP " + contactIp + ":" + portPart;
-                        if (oldAddr.contains(";")) {
-                            String branchPart = oldAddr.split(";", 2)[1];
-                            newVia += ";" + branchPart;
-                        }
-                        via = newVia;
-                    }
-                }
-            }
-        }
-        
-        // 从To提取tag
-        String toTag = null;
-        if (toLine != null && toLine.contains(";tag=")) {
-            toTag = toLine.split(";tag=")[1].split("\\s+")[0];
-        } else {
-            toTag = UUID.randomUUID().toString().substring(0, 32);
-        }
-        
-        // 解析平台SDP中的 y(SSRC) 与 f 参数
-        String remoteSsrc = null;
-        String fParam = null;
-        for (String sdpLine : sdpLines) {
-            if (sdpLine.startsWith("y=")) {
-                String[] parts = sdpLine.split("=", 2);
-                if (parts.length >= 2) {
-                    remoteSsrc = parts[1].trim();
-                }
-            } else if (sdpLine.startsWith("f=")) {
-                String[] parts = sdpLine.split("=", 2);
-                if (parts.length >= 2) {
-                    fParam = parts[1].trim();
-                }
-            }
+        String via = rewriteVia(request.getVia(), contactIp, true);
+
+        // 继承平台SDP中的 y(SSRC) 与 f 参数，回放/下载时沿用 s= 与 t=
+        SdpInfo remoteSdp = request.getSdp();
+        String remoteSsrc = remoteSdp != null ? remoteSdp.getSsrc() : null;
+        String fParam = remoteSdp != null ? remoteSdp.getFormat() : null;
+        boolean playback = remoteSdp != null && remoteSdp.isPlayback();
+
+        // 生成符合GB28181的SDP（发送端，PS/90000，sendonly）
+        SipBuffer sdp = BODY.get().reset()
+            .append("v=0\r\n")
+            .append("o=").append(deviceId).append(" 0 0 IN IP4 ").append(contactIp).append("\r\n")
+            .append("s=").append(playback ? remoteSdp.getSessionName() : "Play").append("\r\n")
+            .append("c=IN IP4 ").append(contactIp).append("\r\n")
+            .append("t=").append(playback ? remoteSdp.getStartTime() : 0)
+            .append(" ").append(playback ? remoteSdp.getStopTime() : 0).append("\r\n")
+            .append("m=video ").append(mediaPort).append(tcpSetup != null ? " TCP/RTP/AVP 96\r\n" : " RTP/AVP 96\r\n")
+            .append("a=rtpmap:96 PS/90000\r\n")
+            .append("a=sendonly\r\n");
+        if (tcpSetup != null) {
+            sdp.append("a=setup:").append(tcpSetup).append("\r\n")
+                .append("a=connection:new\r\n");
         }
-        
+        sdp.append("y=");
         // 若对端未提供SSRC则生成一个
-        String localSsrc = remoteSsrc;
-        if (localSsrc == null || localSsrc.isEmpty()) {
-            localSsrc = String.valueOf(System.currentTimeMillis() % 100000000);
+        if (remoteSsrc == null || remoteSsrc.isEmpty()) {
+            sdp.append(System.currentTimeMillis() % 100000000);
+        } else {
+            sdp.append(remoteSsrc);
         }
-        
-        // 生成符合GB28181的SDP（发送端，PS/90000，sendonly）
-        StringBuilder sdpBody = new StringBuilder();
-        sdpBody.append("v=0\r\n");
-        sdpBody.append(String.format("o=%s 0 0 IN IP4 %s\r\n", deviceId, contactIp));
-        sdpBody.append("s=Play\r\n");
-        sdpBody.append(String.format("c=IN IP4 %s\r\n", contactIp));
-        sdpBody.append("t=0 0\r\n");
-        sdpBody.append("m=video 0 RTP/AVP 96\r\n");
-        sdpBody.append("a=rtpmap:96 PS/90000\r\n");
-        sdpBody.append("a=sendonly\r\n");
-        sdpBody.append(String.format("y=%s\r\n", localSsrc));
+        sdp.append("\r\n");
         if (fParam != null && !fParam.isEmpty()) {
-            sdpBody.append(String.format("f=%s\r\n", fParam));
+            sdp.append("f=").append(fParam).append("\r\n");
         }
-        
-        String sdpBodyStr = sdpBody.toString();
-        int contentLength = sdpBodyStr.getBytes().length;
-        
+
         // 构造带SDP的200 OK
-        return String.format(
-            "SIP/2.0 200 OK\r\n" +
-            "Via: %s\r\n" +
-            "From: %s\r\n" +
-            "To: %s;tag=%s\r\n" +
-            "Call-ID: %s\r\n" +
-            "CSeq: %s\r\n" +
-            "Contact: <sip:%s@%s:%d>\r\n" +
-            "User-Agent: GB28181-Device/1.0\r\n" +
-            "Content-Type: application/sdp\r\n" +
-            "Content-Length: %d\r\n" +
-            "\r\n" +
-            "%s",
-            via != null ? via : "",
-            fromLine != null ? fromLine : "",
-            toLine != null ? toLine : "",
-            toTag,
-            callId != null ? callId : "",
-            cseq != null ? cseq : "",
-            deviceId,
-            contactIp,
-            localPort,
-            contentLength,
-            sdpBodyStr
-        );
+        SipBuffer out = writeResponseHead(request, via)
+            .append(CONTACT).append(deviceId).append("@").append(contactIp).append(":").append(localPort)
+            .append(CONTACT_END)
+            .append(USER_AGENT)
+            .append(SDP);
+        return writeBody(out, sdp);
     }
-    
+
     /**
      * 创建Catalog MESSAGE请求（设备主动发送）
      */
-    public static String createCatalogMessage(String deviceId, String localIp, int localPort,
-                                              String serverIp, int serverPort, String platformId,
-                                              String catalogXml, String contactIp) {
-        String callId = UUID.randomUUID().toString().substring(0, 32);
-        String branch = generateBranch();
-        int cseq = 1;
-        String fromTag = UUID.randomUUID().toString().substring(0, 32);
-        
+    public static SipBuffer createCatalogMessage(String deviceId, String localIp, int localPort,
+                                                 String serverIp, int serverPort, String platformId,
+                                                 SipBuffer body, String contactIp) {
+        return createMessageRequest(deviceId, localIp, localPort, serverIp, serverPort, platformId, body,
+            contactIp, null);
+    }
+
+    /**
+     * 创建MediaStatus通知MESSAGE（回放/下载结束），Call-ID沿用点播INVITE的Call-ID
+     */
+    public static SipBuffer createMediaStatusMessage(String deviceId, String localIp, int localPort,
+                                                     String serverIp, int serverPort, String platformId,
+                                                     SipBuffer body, String contactIp, String callId) {
+        return createMessageRequest(deviceId, localIp, localPort, serverIp, serverPort, platformId, body,
+            contactIp, callId);
+    }
+
+    /**
+     * 创建设备主动发送的MESSAGE请求（callId为null时随机生成）
+     */
+    private static SipBuffer createMessageRequest(String deviceId, String localIp, int localPort,
+                                                  String serverIp, int serverPort, String platformId,
+                                                  SipBuffer body, String contactIp, String callId) {
         String sendIp = (contactIp != null && !contactIp.isEmpty()) ? contactIp : localIp;
-        byte[] catalogBytes = catalogXml.getBytes();
-        int contentLength = catalogBytes.length;
-        
-        return String.format(
-            "MESSAGE sip:%s@%s:%d SIP/2.0\r\n" +
-            "Via: SIP/2.0/UDP %s:%d;branch=%s\r\n" +
-            "From: <sip:%s@%s:%d>;tag=%s\r\n" +
-            "To: <sip:%s@%s:%d>\r\n" +
-            "Call-ID: %s\r\n" +
-            "CSeq: %d MESSAGE\r\n" +
-            "Content-Type: Application/MANSCDP+xml\r\n" +
-            "User-Agent: GB28181-Device/1.0\r\n" +
-            "Max-Forwards: 70\r\n" +
-            "Content-Length: %d\r\n" +
-            "\r\n" +
-            "%s",
-            platformId, serverIp, serverPort,
-            sendIp, localPort, branch,
-            deviceId, serverIp, serverPort, fromTag,
-            platformId, serverIp, serverPort,
-            callId,
-            cseq,
-            contentLength,
-            catalogXml
-        );
+
+        SipBuffer out = MESSAGE.get().reset()
+            .append("MESSAGE sip:").append(platformId).append("@").append(serverIp).append(":").append(serverPort)
+            .append(" SIP/2.0\r\nVia: SIP/2.0/UDP ").append(sendIp).append(":").append(localPort)
+            .append(BRANCH_PREFIX).appendRandomHex(20)
+            .append(FROM).append("<sip:").append(deviceId).append("@").append(serverIp).append(":").append(serverPort)
+            .append(">").append(TAG).appendRandomHex(32)
+            .append(TO).append("<sip:").append(platformId).append("@").append(serverIp).append(":").append(serverPort)
+            .append(">")
+            .append(CALL_ID);
+        if (callId != null) {
+            out.append(callId);
+        } else {
+            out.appendRandomHex(32);
+        }
+        out.append(CSEQ).append("1 MESSAGE")
+            .append(MANSCDP)
+            .append(USER_AGENT)
+            .append(MAX_FORWARDS);
+        return writeBody(out, body);
     }
-    
+
     /**
      * 创建SUBSCRIBE响应（200 OK，包含Result=OK的MANSCDP响应体）
      */
-    public static String createSubscribeResponse(String[] requestLines, String contactIp, String sn, String deviceId) {
-        String via = null;
-        String fromLine = null;
-        String toLine = null;
-        String callId = null;
-        String cseq = null;
-        
-        for (String line : requestLines) {
-            if (line.startsWith("Via:")) {
-                via = line.substring(4).trim();
-            } else if (line.startsWith("From:")) {
-                fromLine = line.substring(5).trim();
-            } else if (line.startsWith("To:")) {
-                toLine = line.substring(3).trim();
-            } else if (line.startsWith("Call-ID:")) {
-                callId = line.substring(8).trim();
-            } else if (line.startsWith("CSeq:")) {
-                cseq = line.substring(5).trim();
-            }
-        }
-        
+    public static SipBuffer createSubscribeResponse(SipMessage request, String contactIp, String sn, String deviceId) {
         // 如果提供了contactIp且Via中包含不可路由地址，替换为contactIp
-        if (contactIp != null && via != null) {
-            if (via.contains("0.0.0.0")) {
-                String[] viaParts = via.split("\\s+");
-                if (viaParts.length >= 2) {
-                    String oldAddr = viaParts[1];
-                    if (oldAddr.contains(":")) {
-                        String portPart = oldAddr.split(":")[1].split(";")[0];
-                        String newVia = "SIP/2.0/UDP " + contactIp + ":" + portPart;
-                        if (oldAddr.contains(";")) {
-                            String branchPart = oldAddr.split(";", 2)[1];
-                            newVia += ";" + branchPart;
-                        }
-                        via = newVia;
-                    }
-                }
-            } else if (via.contains("127.0.0.1") && !"127.0.0.1".equals(contactIp)) {
-                String[] viaParts = via.split("\\s+");
-                if (viaParts.length >= 2) {
-                    String oldAddr = viaParts[1];
-                    if (oldAddr.contains(":")) {
-                        String portPart = oldAddr.split(":")[1].split(";")[0];
-                        String newVia = "SIP/2.0/UDP " + contactIp + ":" + portPart;
-                        if (oldAddr.contains(";")) {
-                            String branchPart = oldAddr.split(";", 2)[1];
-                            newVia += ";" + branchPart;
-                        }
-                        via = newVia;
-                    }
-                }
-            }
-        }
-        
-        // 从To提取tag（如果没有则生成新的）
-        String toTag = null;
-        if (toLine != null && toLine.contains(";tag=")) {
-            toTag = toLine.split(";tag=")[1].split("\\s+")[0];
+        String via = rewriteVia(request.getVia(), contactIp, true);
+
+        // 生成MANSCDP响应体（Result=OK）
+        SipBuffer body = BODY.get().reset()
+            .append("<?xml version=\"1.0\" encoding=\"GB2312\"?>\r\n")
+            .append("<Response>\r\n")
+            .append("<CmdType>Catalog</CmdType>\r\n")
+            .append("<SN>");
+        if (sn != null && !sn.isEmpty()) {
+            body.append(sn);
         } else {
-            toTag = UUID.randomUUID().toString().substring(0, 32);
+            body.append(System.currentTimeMillis() / 1000);
         }
-        
-        // 生成MANSCDP响应体（Result=OK）
-        String snValue = (sn != null && !sn.isEmpty()) ? sn : String.valueOf(System.currentTimeMillis() / 1000);
-        String deviceIdValue = (deviceId != null && !deviceId.isEmpty()) ? deviceId : "34020000001320000001";
-        String okBody = String.format(
-            "<?xml version=\"1.0\" encoding=\"GB2312\"?>\r\n" +
-            "<Response>\r\n" +
-            "<CmdType>Catalog</CmdType>\r\n" +
-            "<SN>%s</SN>\r\n" +
-            "<DeviceID>%s</DeviceID>\r\n" +
-            "<Result>OK</Result>\r\n" +
-            "</Response>",
-            snValue, deviceIdValue
-        );
-        int bodyLength = okBody.getBytes().length;
-        
-        return String.format(
-            "SIP/2.0 200 OK\r\n" +
-            "Via: %s\r\n" +
-            "From: %s\r\n" +
-            "To: %s;tag=%s\r\n" +
-            "Call-ID: %s\r\n" +
-            "CSeq: %s\r\n" +
-            "Content-Type: Application/MANSCDP+xml\r\n" +
-            "User-Agent: GB28181-Device/1.0\r\n" +
-            "Content-Length: %d\r\n" +
-            "\r\n" +
-            "%s",
-            via != null ? via : "",
-            fromLine != null ? fromLine : "",
-            toLine != null ? toLine : "",
-            toTag,
-            callId != null ? callId : "",
-            cseq != null ? cseq : "",
-            bodyLength,
-            okBody
-        );
+        body.append("</SN>\r\n")
+            .append("<DeviceID>")
+            .append((deviceId != null && !deviceId.isEmpty()) ? deviceId : "34020000001320000001")
+            .append("</DeviceID>\r\n")
+            .append("<Result>OK</Result>\r\n")
+            .append("</Response>");
+
+        SipBuffer out = writeResponseHead(request, via)
+            .append(MANSCDP)
+            .append(USER_AGENT);
+        return writeBody(out, body);
     }
-    
+
     /**
      * 创建NOTIFY请求（用于Catalog订阅响应）
      */
-    public static String createNotifyRequest(String deviceId, String localIp, int localPort,
-                                            String serverIp, int serverPort, String platformId,
-                                            String catalogXml, String contactIp, String subscriberTag,
-                                            Integer expires) {
-        String callId = UUID.randomUUID().toString().substring(0, 32);
-        String branch = generateBranch();
-        int cseq = 1;
-        String fromTag = UUID.randomUUID().toString().substring(0, 32);
-        
+    public static SipBuffer createNotifyRequest(String deviceId, String localIp, int localPort,
+                                               String serverIp, int serverPort, String platformId,
+                                               SipBuffer body, String contactIp, String subscriberTag,
+                                               Integer expires) {
         String sendIp = (contactIp != null && !contactIp.isEmpty()) ? contactIp : localIp;
-        byte[] catalogBytes = catalogXml.getBytes();
-        int contentLength = catalogBytes.length;
-        
-        // 生成To tag
-        String toTag = (subscriberTag != null && !subscriberTag.isEmpty()) ? subscriberTag : UUID.randomUUID().toString().substring(0, 32);
-        
-        // 生成Subscription-State
-        String subscriptionState = "active";
+        String platformIdValue = (platformId != null && !platformId.isEmpty()) ? platformId : "3402000000";
+
+        SipBuffer out = MESSAGE.get().reset()
+            .append("NOTIFY sip:").append(platformIdValue).append("@").append(serverIp).append(":").append(serverPort)
+            .append(" SIP/2.0\r\nVia: SIP/2.0/UDP ").append(sendIp).append(":").append(localPort)
+            .append(BRANCH_PREFIX).appendRandomHex(20)
+            .append(FROM).append("<sip:").append(deviceId).append("@").append(serverIp).append(":").append(serverPort)
+            .append(">").append(TAG).appendRandomHex(32)
+            .append(TO).append("<sip:").append(platformIdValue).append("@").append(serverIp).append(":").append(serverPort)
+            .append(">").append(TAG);
+        // To tag沿用订阅者的tag
+        if (subscriberTag != null && !subscriberTag.isEmpty()) {
+            out.append(subscriberTag);
+        } else {
+            out.appendRandomHex(32);
+        }
+        out.append(CALL_ID).appendRandomHex(32)
+            .append(CSEQ).append("1 NOTIFY")
+            .append(MANSCDP)
+            .append("\r\nEvent: presence\r\nSubscription-State: active");
         if (expires != null) {
-            subscriptionState = String.format("active;expires=%d;retry-after=0", expires);
+            out.append(";expires=").append(expires.intValue()).append(";retry-after=0");
         }
-        
-        String platformIdValue = (platformId != null && !platformId.isEmpty()) ? platformId : "3402000000";
-        
-        return String.format(
-            "NOTIFY sip:%s@%s:%d SIP/2.0\r\n" +
-            "Via: SIP/2.0/UDP %s:%d;branch=%s\r\n" +
-            "From: <sip:%s@%s:%d>;tag=%s\r\n" +
-            "To: <sip:%s@%s:%d>;tag=%s\r\n" +
-            "Call-ID: %s\r\n" +
-            "CSeq: %d NOTIFY\r\n" +
-            "Content-Type: Application/MANSCDP+xml\r\n" +
-            "Event: presence\r\n" +
-            "Subscription-State: %s\r\n" +
-            "User-Agent: GB28181-Device/1.0\r\n" +
-            "Max-Forwards: 70\r\n" +
-            "Content-Length: %d\r\n" +
-            "\r\n" +
-            "%s",
-            platformIdValue, serverIp, serverPort,
-            sendIp, localPort, branch,
-            deviceId, serverIp, serverPort, fromTag,
-            platformIdValue, serverIp, serverPort, toTag,
-            callId,
-            cseq,
-            subscriptionState,
-            contentLength,
-            catalogXml
-        );
+        out.append(USER_AGENT)
+            .append(MAX_FORWARDS);
+        return writeBody(out, body);
     }
-}
 
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
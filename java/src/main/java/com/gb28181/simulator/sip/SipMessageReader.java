@@ -0,0 +1,473 @@
+package com.gb28181.simulator.sip;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 基于ByteBuffer的单次扫描SIP解析器
+ * 
+ * 一次扫描记录起始行、各头字段名/值以及消息体在缓冲区中的偏移，不复制数据；
+ * 头字段按名称不区分大小写查找，并支持紧凑形式（如 i=Call-ID、v=Via）。
+ * 只有在调用取值方法时才把对应片段解码为字符串，MANSCDP字段也在消息体上按需查找。
+ * 实例可复用（每次parse重置索引），非线程安全。
+ */
+public final class SipMessageReader {
+    
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    
+    // 紧凑形式（RFC 3261 7.3.3 及常用扩展），FULL_NAMES 与 COMPACT_NAMES 按下标一一对应
+    private static final String[] FULL_NAMES = {
+        "call-id", "contact", "content-encoding", "content-length", "content-type",
+        "from", "subject", "supported", "to", "via", "event", "allow-events", "refer-to"
+    };
+    private static final char[] COMPACT_NAMES = {
+        'i', 'm', 'e', 'l', 'c', 'f', 's', 'k', 't', 'v', 'o', 'u', 'r'
+    };
+    
+    private ByteBuffer buffer;
+    private int start;
+    private int limit;
+    private int startLineEnd;
+    private int headerCount;
+    private int[] nameStart = new int[32];
+    private int[] nameEnd = new int[32];
+    private int[] valueStart = new int[32];
+    private int[] valueEnd = new int[32];
+    private int bodyStart;
+    private int bodyEnd;
+    
+    /**
+     * 解析缓冲区中 [position, limit) 的SIP消息，不改变缓冲区的position/limit
+     * 
+     * @return 是否为结构完整的SIP消息（至少包含起始行）
+     */
+    public boolean parse(ByteBuffer buf) {
+        this.buffer = buf;
+        this.start = buf.position();
+        this.limit = buf.limit();
+        this.headerCount = 0;
+        this.bodyStart = limit;
+        this.bodyEnd = limit;
+        
+        int lineEnd = findLineEnd(start);
+        if (lineEnd <= start) {
+            startLineEnd = start;
+            return false;
+        }
+        startLineEnd = lineEnd;
+        
+        int pos = skipEol(lineEnd);
+        while (pos < limit) {
+            int end = findLineEnd(pos);
+            if (end == pos) {
+                // 空行：头部结束
+                bodyStart = skipEol(end);
+                break;
+            }
+            byte first = buf.get(pos);
+            if ((first == ' ' || first == '\t') && headerCount > 0) {
+                // 折行：延续上一个头字段的值
+                valueEnd[headerCount - 1] = trimEnd(pos, end);
+            } else {
+                indexHeader(pos, end);
+            }
+            pos = skipEol(end);
+        }
+        
+        int contentLength = parseContentLength();
+        if (contentLength >= 0 && bodyStart + contentLength < limit) {
+            bodyEnd = bodyStart + contentLength;
+        }
+        return true;
+    }
+    
+    private void indexHeader(int lineStart, int lineEnd) {
+        int colon = -1;
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (buffer.get(i) == ':') {
+                colon = i;
+                break;
+            }
+        }
+        if (colon < 0) {
+            return; // 非法头字段，忽略
+        }
+        if (headerCount == nameStart.length) {
+            int size = headerCount * 2;
+            nameStart = Arrays.copyOf(nameStart, size);
+            nameEnd = Arrays.copyOf(nameEnd, size);
+            valueStart = Arrays.copyOf(valueStart, size);
+            valueEnd = Arrays.copyOf(valueEnd, size);
+        }
+        nameStart[headerCount] = lineStart;
+        nameEnd[headerCount] = trimEnd(lineStart, colon);
+        valueStart[headerCount] = trimStart(colon + 1, lineEnd);
+        valueEnd[headerCount] = trimEnd(valueStart[headerCount], lineEnd);
+        headerCount++;
+    }
+    
+    private int findLineEnd(int from) {
+        for (int i = from; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == CR || b == LF) {
+                return i;
+            }
+        }
+        return limit;
+    }
+    
+    private int skipEol(int pos) {
+        if (pos < limit && buffer.get(pos) == CR) {
+            pos++;
+        }
+        if (pos < limit && buffer.get(pos) == LF) {
+            pos++;
+        }
+        return pos;
+    }
+    
+    private int trimStart(int from, int to) {
+        while (from < to && isSpace(buffer.get(from))) {
+            from++;
+        }
+        return from;
+    }
+    
+    private int trimEnd(int from, int to) {
+        while (to > from && isSpace(buffer.get(to - 1))) {
+            to--;
+        }
+        return to;
+    }
+    
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+    
+    private int parseContentLength() {
+        int index = indexOf("Content-Length");
+        if (index < 0) {
+            return -1;
+        }
+        int value = 0;
+        int end = valueEnd[index];
+        for (int i = valueStart[index]; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                return i == valueStart[index] ? -1 : value;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+    
+    /**
+     * 是否为响应（起始行以 SIP/2.0 开头）
+     */
+    public boolean isResponse() {
+        return regionStartsWith(start, startLineEnd, "SIP/2.0");
+    }
+    
+    /**
+     * 起始行是否以指定方法开头（如 INVITE），响应返回false
+     */
+    public boolean isMethod(String method) {
+        int len = method.length();
+        return regionStartsWith(start, startLineEnd, method)
+            && start + len < startLineEnd && buffer.get(start + len) == ' ';
+    }
+    
+    /**
+     * 请求方法；响应返回null
+     */
+    public String method() {
+        if (isResponse()) {
+            return null;
+        }
+        int end = start;
+        while (end < startLineEnd && buffer.get(end) != ' ') {
+            end++;
+        }
+        return decode(start, end);
+    }
+    
+    /**
+     * 响应状态码；请求或格式错误时返回-1
+     */
+    public int statusCode() {
+        if (!isResponse()) {
+            return -1;
+        }
+        int pos = start + 7;
+        while (pos < startLineEnd && buffer.get(pos) == ' ') {
+            pos++;
+        }
+        int code = 0;
+        int digits = 0;
+        while (pos < startLineEnd && digits < 3) {
+            byte b = buffer.get(pos++);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            code = code * 10 + (b - '0');
+            digits++;
+        }
+        return digits == 3 ? code : -1;
+    }
+    
+    /**
+     * 起始行文本
+     */
+    public String startLine() {
+        return decode(start, startLineEnd);
+    }
+    
+    /**
+     * Request-URI 中的用户部分（sip:用户@...）
+     */
+    public String requestUriUser() {
+        if (isResponse()) {
+            return null;
+        }
+        return sipUser(start, startLineEnd);
+    }
+    
+    /**
+     * 指定头字段值中的用户部分（sip:用户@...）
+     */
+    public String headerUser(String name) {
+        int index = indexOf(name);
+        return index >= 0 ? sipUser(valueStart[index], valueEnd[index]) : null;
+    }
+    
+    private String sipUser(int from, int to) {
+        for (int i = from; i + 4 <= to; i++) {
+            if (buffer.get(i) == 's' && buffer.get(i + 1) == 'i' && buffer.get(i + 2) == 'p'
+                    && buffer.get(i + 3) == ':') {
+                int userStart = i + 4;
+                for (int j = userStart; j < to; j++) {
+                    byte b = buffer.get(j);
+                    if (b == '@') {
+                        return j > userStart ? decode(userStart, j) : null;
+                    }
+                    if (b == '>' || b == ';' || b == ' ') {
+                        break;
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 头字段数量
+     */
+    public int headerCount() {
+        return headerCount;
+    }
+    
+    /**
+     * 查找头字段下标（不区分大小写，兼容紧凑形式），不存在返回-1
+     */
+    public int indexOf(String name) {
+        if (name.length() == 1) {
+            name = fullNameOf(name.charAt(0));
+        }
+        char compact = compactFormOf(name);
+        for (int i = 0; i < headerCount; i++) {
+            int len = nameEnd[i] - nameStart[i];
+            if (len == name.length() && regionEqualsIgnoreCase(nameStart[i], name)) {
+                return i;
+            }
+            if (compact != 0 && len == 1 && toLower(buffer.get(nameStart[i])) == compact) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * 头字段值（首个同名头）
+     */
+    public String header(String name) {
+        int index = indexOf(name);
+        return index >= 0 ? headerValue(index) : null;
+    }
+    
+    /**
+     * 头字段名（按下标）
+     */
+    public String headerName(int index) {
+        return decode(nameStart[index], nameEnd[index]);
+    }
+    
+    /**
+     * 头字段值（按下标）
+     */
+    public String headerValue(int index) {
+        String value = decode(valueStart[index], valueEnd[index]);
+        // 折行的头字段值合并为单行
+        return value.indexOf('\n') >= 0 ? value.replaceAll("\\r?\\n[ \\t]+", " ") : value;
+    }
+    
+    /**
+     * 头字段值是否等于指定文本（不区分大小写，忽略参数部分）
+     */
+    public boolean headerValueIs(String name, String expected) {
+        int index = indexOf(name);
+        if (index < 0) {
+            return false;
+        }
+        int end = valueStart[index];
+        while (end < valueEnd[index] && buffer.get(end) != ';') {
+            end++;
+        }
+        end = trimEnd(valueStart[index], end);
+        return end - valueStart[index] == expected.length()
+            && regionEqualsIgnoreCase(valueStart[index], expected);
+    }
+    
+    /**
+     * 消息体在缓冲区中的起始偏移
+     */
+    public int bodyOffset() {
+        return bodyStart;
+    }
+    
+    /**
+     * 消息体长度
+     */
+    public int bodyLength() {
+        return bodyEnd - bodyStart;
+    }
+    
+    /**
+     * 消息体文本
+     */
+    public String body() {
+        return decode(bodyStart, bodyEnd);
+    }
+    
+    /**
+     * 消息体中是否包含指定ASCII文本
+     */
+    public boolean bodyContains(String text) {
+        return indexInBody(text, bodyStart, false) >= 0;
+    }
+    
+    /**
+     * 按需从MANSCDP消息体中提取元素文本（标签名不区分大小写），不存在返回null
+     */
+    public String xmlElement(String tag) {
+        int from = bodyStart;
+        while (true) {
+            int open = indexInBody("<" + tag, from, true);
+            if (open < 0) {
+                return null;
+            }
+            int pos = open + tag.length() + 1;
+            if (pos < bodyEnd && buffer.get(pos) == '>') {
+                int valueFrom = pos + 1;
+                int close = indexInBody("</" + tag + ">", valueFrom, true);
+                if (close < 0) {
+                    return null;
+                }
+                int valueTo = close;
+                int s = valueFrom;
+                while (s < valueTo && isXmlSpace(buffer.get(s))) {
+                    s++;
+                }
+                while (valueTo > s && isXmlSpace(buffer.get(valueTo - 1))) {
+                    valueTo--;
+                }
+                return decode(s, valueTo);
+            }
+            from = pos;
+        }
+    }
+    
+    private static boolean isXmlSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+    
+    private int indexInBody(String text, int from, boolean ignoreCase) {
+        int len = text.length();
+        for (int i = from; i + len <= bodyEnd; i++) {
+            boolean match = true;
+            for (int j = 0; j < len; j++) {
+                byte b = buffer.get(i + j);
+                char c = text.charAt(j);
+                if (ignoreCase ? toLower(b) != Character.toLowerCase(c) : b != c) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private boolean regionStartsWith(int from, int to, String prefix) {
+        int len = prefix.length();
+        if (to - from < len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (buffer.get(from + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private boolean regionEqualsIgnoreCase(int from, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (toLower(buffer.get(from + i)) != Character.toLowerCase(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static char toLower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (char) (b + 32) : (char) (b & 0xFF);
+    }
+    
+    private static String fullNameOf(char compact) {
+        char c = Character.toLowerCase(compact);
+        for (int i = 0; i < COMPACT_NAMES.length; i++) {
+            if (COMPACT_NAMES[i] == c) {
+                return FULL_NAMES[i];
+            }
+        }
+        return String.valueOf(compact);
+    }
+    
+    private static char compactFormOf(String name) {
+        for (int i = 0; i < FULL_NAMES.length; i++) {
+            if (FULL_NAMES[i].equalsIgnoreCase(name)) {
+                return COMPACT_NAMES[i];
+            }
+        }
+        return 0;
+    }
+    
+    private String decode(int from, int to) {
+        if (to <= from) {
+            return "";
+        }
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + from, to - from, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
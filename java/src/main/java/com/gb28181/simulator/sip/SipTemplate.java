@@ -0,0 +1,144 @@
+package com.gb28181.simulator.sip;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 设备级SIP请求模板
+ *
+ * 设备ID、Contact、服务器地址、From tag等启动后不变的部分预先编码为字节，
+ * 每条消息只填充branch、Call-ID、CSeq、SN、Content-Length等动态字段
+ */
+public final class SipTemplate {
+
+    private static final String REALM = "3402000000";
+
+    private final String contactAddress;
+
+    // REGISTER: head + branch + dialog + callId + callIdHost + cseq + contact + auth + tail
+    private final byte[] registerHead;
+    private final byte[] registerDialog;
+    private final byte[] registerCallIdHost;
+    private final byte[] registerContact;
+    private final byte[] registerTail;
+
+    // Keepalive MESSAGE: head + branch + dialog + callId + contentType + length + tail + bodyHead + sn + bodyTail
+    private final byte[] keepaliveHead;
+    private final byte[] keepaliveDialog;
+    private final byte[] keepaliveContentLength;
+    private final byte[] keepaliveTail;
+    private final byte[] keepaliveBodyHead;
+    private final byte[] keepaliveBodyTail;
+
+    // Digest认证：HA1/HA2固定，response按秒级nonce缓存
+    private final String deviceId;
+    private final String registerUri;
+    private final String ha1;
+    private final String ha2;
+    private volatile CachedAuth cachedAuth;
+
+    public SipTemplate(String deviceId, String localIp, String contactAddress, int localPort,
+                       String serverIp, int serverPort, String password, String tag) {
+        this.deviceId = deviceId;
+        this.contactAddress = contactAddress;
+        String server = serverIp + ":" + serverPort;
+        String fromTo = "From: <sip:" + deviceId + "@" + server + ">;tag=" + tag + "\r\n"
+            + "To: <sip:" + deviceId + "@" + server + ">\r\n"
+            + "Call-ID: ";
+
+        this.registerHead = bytes("REGISTER sip:" + server + " SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP " + contactAddress + ":" + localPort + ";branch=z9hG4bK");
+        this.registerDialog = bytes("\r\n" + fromTo);
+        this.registerCallIdHost = bytes("@" + localIp + "\r\nCSeq: ");
+        this.registerContact = bytes(" REGISTER\r\n"
+            + "Contact: <sip:" + deviceId + "@" + contactAddress + ":" + localPort + ">\r\n"
+            + "Authorization: ");
+        this.registerTail = bytes("\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "User-Agent: GB28181-Device/1.0\r\n"
+            + "Expires: 3600\r\n"
+            + "Content-Length: 0\r\n"
+            + "\r\n");
+
+        this.keepaliveHead = bytes("MESSAGE sip:" + server + " SIP/2.0\r\n"
+            + "Via: SIP/2.0/UDP " + contactAddress + ":" + localPort + ";branch=z9hG4bK");
+        this.keepaliveDialog = registerDialog;
+        this.keepaliveContentLength = bytes("\r\n"
+            + "CSeq: 1 MESSAGE\r\n"
+            + "Content-Type: Application/MANSCDP+xml\r\n"
+            + "Content-Length: ");
+        this.keepaliveTail = bytes("\r\n"
+            + "User-Agent: GB28181-Device/1.0\r\n"
+            + "Max-Forwards: 70\r\n"
+            + "\r\n");
+        this.keepaliveBodyHead = bytes("<?xml version=\"1.0\" encoding=\"GB2312\" standalone=\"no\"?>"
+            + "<Notify><CmdType>Keepalive</CmdType><SN>");
+        this.keepaliveBodyTail = bytes("</SN><DeviceID>" + deviceId + "</DeviceID>"
+            + "<Status>OK</Status><Info/></Notify>");
+
+        this.registerUri = "sip:" + server;
+        this.ha1 = DigestAuth.md5(deviceId + ":" + REALM + ":" + password);
+        this.ha2 = DigestAuth.md5("REGISTER:" + registerUri);
+    }
+
+    /**
+     * 模板构建时使用的Contact地址（地址变化时需重建模板）
+     */
+    public String getContactAddress() {
+        return contactAddress;
+    }
+
+    /**
+     * 写入REGISTER请求
+     */
+    public SipBuffer writeRegister(SipBuffer out, int cseq) {
+        return out.reset()
+            .append(registerHead).appendRandomHex(20)
+            .append(registerDialog).appendRandomHex(8)
+            .append(registerCallIdHost).append(cseq)
+            .append(registerContact).append(authorization())
+            .append(registerTail);
+    }
+
+    /**
+     * 写入Keepalive MESSAGE请求（消息体随SN变化）
+     */
+    public SipBuffer writeKeepalive(SipBuffer out, int sn) {
+        int bodyLength = keepaliveBodyHead.length + SipBuffer.decimalLength(sn) + keepaliveBodyTail.length;
+        return out.reset()
+            .append(keepaliveHead).appendRandomHex(20)
+            .append(keepaliveDialog).appendRandomHex(32)
+            .append(keepaliveContentLength).append(bodyLength)
+            .append(keepaliveTail)
+            .append(keepaliveBodyHead).append(sn).append(keepaliveBodyTail);
+    }
+
+    /**
+     * Authorization头（nonce为秒级时间戳，同一秒内复用计算结果）
+     */
+    private byte[] authorization() {
+        long nonce = System.currentTimeMillis() / 1000;
+        CachedAuth cached = cachedAuth;
+        if (cached == null || cached.nonce != nonce) {
+            String nonceStr = String.valueOf(nonce);
+            String response = DigestAuth.md5(ha1 + ":" + nonceStr + ":" + ha2);
+            String header = DigestAuth.generateAuthorizationHeader(deviceId, REALM, nonceStr, registerUri, response);
+            cached = new CachedAuth(nonce, bytes(header));
+            cachedAuth = cached;
+        }
+        return cached.header;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class CachedAuth {
+        final long nonce;
+        final byte[] header;
+
+        CachedAuth(long nonce, byte[] header) {
+            this.nonce = nonce;
+            this.header = header;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.gb28181.simulator.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 哈希时间轮定时器
+ * 
+ * 单个工作线程按固定刻度推进，定时任务按到期刻度散列到槽位（超过一圈的记录剩余圈数），
+ * 每个槽位是双向链表，插入与取消均为O(1)。任意线程都可以提交或取消任务，
+ * 提交和取消先进入无锁队列，由工作线程在下一个刻度统一处理。
+ * 到期任务在工作线程上直接执行，任务应当足够轻量（例如发送一个UDP包）。
+ */
+public class TimingWheel {
+    
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+    
+    /**
+     * 定时任务句柄
+     */
+    public static final class Timeout {
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long deadlineTick;
+        private long remainingRounds;
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+        
+        private Timeout(TimingWheel wheel, Runnable task, long deadlineTick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+        
+        /**
+         * 取消任务，返回是否在执行前成功取消
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+                return false;
+            }
+            wheel.cancelledTimeouts.add(this);
+            return true;
+        }
+        
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+        
+        public boolean isExpired() {
+            return state.get() == STATE_EXPIRED;
+        }
+    }
+    
+    /**
+     * 槽位：双向链表
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+        
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+        
+        Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+    }
+    
+    private final String name;
+    private final long tickMs;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private volatile long startTime;
+    private long currentTick = 0;
+    private volatile boolean running = false;
+    private Thread worker;
+    
+    /**
+     * @param name 工作线程名
+     * @param tickMs 刻度（毫秒）
+     * @param wheelSize 槽位数（向上取整为2的幂）
+     */
+    public TimingWheel(String name, long tickMs, int wheelSize) {
+        if (tickMs <= 0) {
+            throw new IllegalArgumentException("tickMs必须大于0: " + tickMs);
+        }
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.name = name;
+        this.tickMs = tickMs;
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.mask = size - 1;
+    }
+    
+    /**
+     * 启动工作线程
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        startTime = System.nanoTime();
+        running = true;
+        worker = new Thread(this::workerLoop, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+    
+    /**
+     * 停止工作线程，未到期的任务被丢弃
+     */
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            try {
+                worker.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * 提交定时任务
+     * 
+     * @param task 任务
+     * @param delayMs 延迟（毫秒）
+     * @return 任务句柄
+     */
+    public Timeout schedule(Runnable task, long delayMs) {
+        if (startTime == 0) {
+            throw new IllegalStateException("时间轮未启动: " + name);
+        }
+        long elapsedMs = (System.nanoTime() - startTime) / 1_000_000;
+        long deadlineTick = (elapsedMs + Math.max(0, delayMs) + tickMs - 1) / tickMs;
+        Timeout timeout = new Timeout(this, task, deadlineTick);
+        pendingTimeouts.add(timeout);
+        pendingCount.incrementAndGet();
+        return timeout;
+    }
+    
+    /**
+     * 提交带抖动的定时任务，实际延迟在 delayMs × (1 ± jitterRatio) 内均匀分布
+     */
+    public Timeout schedule(Runnable task, long delayMs, double jitterRatio) {
+        return schedule(task, jitter(delayMs, jitterRatio));
+    }
+    
+    /**
+     * 在 delayMs × (1 ± jitterRatio) 内均匀取值
+     */
+    public static long jitter(long delayMs, double jitterRatio) {
+        if (jitterRatio <= 0 || delayMs <= 0) {
+            return delayMs;
+        }
+        double offset = (ThreadLocalRandom.current().nextDouble() * 2 - 1) * jitterRatio * delayMs;
+        return Math.max(0, Math.round(delayMs + offset));
+    }
+    
+    /**
+     * 尚未到期的任务数（近似值）
+     */
+    public int pendingTimeouts() {
+        return pendingCount.get();
+    }
+    
+    private void workerLoop() {
+        while (running) {
+            long deadlineNanos = startTime + (currentTick + 1) * tickMs * 1_000_000;
+            long sleepNanos = deadlineNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        break;
+                    }
+                }
+                continue;
+            }
+            
+            processCancelled();
+            transferPending();
+            expire(buckets[(int) (currentTick & mask)]);
+            currentTick++;
+        }
+    }
+    
+    private void processCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+                pendingCount.decrementAndGet();
+            }
+        }
+    }
+    
+    private void transferPending() {
+        // 限制单刻度转移数量，避免大量提交时阻塞到期处理
+        for (int i = 0; i < 100_000; i++) {
+            Timeout timeout = pendingTimeouts.poll();
+            if (timeout == null) {
+                break;
+            }
+            if (timeout.isCancelled()) {
+                pendingCount.decrementAndGet();
+                continue;
+            }
+            long tick = Math.max(timeout.deadlineTick, currentTick);
+            timeout.remainingRounds = (tick - currentTick) / buckets.length;
+            buckets[(int) (tick & mask)].add(timeout);
+        }
+    }
+    
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                timeout = timeout.next;
+                continue;
+            }
+            Timeout next = bucket.remove(timeout);
+            pendingCount.decrementAndGet();
+            if (timeout.state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+                try {
+                    timeout.task.run();
+                } catch (Exception e) {
+                    System.err.println("✗ 定时任务执行出错: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+            timeout = next;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.gb28181.simulator.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * 一条受损链路（一个设备的SIP出口或一路点播会话）：按损伤参数决定每个出站包丢弃、重复、
+ * 延迟多久发送，各链路独立维护丢包状态和限速队列
+ *
+ * 不需要延迟的包直接在调用线程发送；需要延迟的包交给ImpairmentScheduler
+ */
+public final class ImpairedLink {
+
+    private final Impairment impairment;
+    private final ImpairmentScheduler scheduler;
+    private final Random random = new Random();
+    private final double bytesPerNano;
+    private boolean badState;     // Gilbert-Elliott当前处于坏状态
+    private long linkFreeNanos;   // 限速队列清空的时刻
+
+    public ImpairedLink(Impairment impairment, ImpairmentScheduler scheduler) {
+        this.impairment = impairment;
+        this.scheduler = scheduler;
+        this.bytesPerNano = impairment.rateKbps * 125 / 1e9;
+    }
+
+    /**
+     * 经损伤后发送（packet的position不保证不变，调用方不应在之后继续使用其内容）
+     */
+    public void send(ByteBuffer packet, SocketAddress target, ImpairmentScheduler.Sink sink) throws IOException {
+        long now = System.nanoTime();
+        long sendAt;
+        boolean duplicate;
+        synchronized (this) {
+            if (lose()) {
+                scheduler.lost.incrementAndGet();
+                return;
+            }
+            long departure = now;
+            if (bytesPerNano > 0) {
+                // 按带宽上限排队：包在前面的包发完后才开始发送，排队超过上限时尾部丢弃
+                long start = Math.max(now, linkFreeNanos);
+                if (start - now > impairment.queueNanos) {
+                    scheduler.overflowed.incrementAndGet();
+                    return;
+                }
+                linkFreeNanos = start + (long) (packet.remaining() / bytesPerNano);
+                departure = linkFreeNanos;
+            }
+            long delay = impairment.delayNanos;
+            if (impairment.jitterNanos > 0) {
+                delay += (long) ((random.nextDouble() * 2 - 1) * impairment.jitterNanos);
+            }
+            if (impairment.reorder > 0 && random.nextDouble() < impairment.reorder) {
+                delay += impairment.reorderDelayNanos;
+                scheduler.reordered.incrementAndGet();
+            }
+            sendAt = departure + Math.max(0, delay);
+            duplicate = impairment.duplicate > 0 && random.nextDouble() < impairment.duplicate;
+        }
+        if (duplicate) {
+            scheduler.duplicated.incrementAndGet();
+        }
+        if (sendAt - now <= 0) {
+            if (duplicate) {
+                sink.send(packet.duplicate(), target);
+            }
+            sink.send(packet, target);
+            return;
+        }
+        scheduler.schedule(packet, target, sink, sendAt);
+        if (duplicate) {
+            scheduler.schedule(packet, target, sink, sendAt);
+        }
+    }
+
+    /**
+     * 按伯努利或Gilbert-Elliott模型决定是否丢弃
+     */
+    private boolean lose() {
+        if (impairment.isGilbertElliott()) {
+            if (badState) {
+                if (random.nextDouble() < impairment.geBadToGood) {
+                    badState = false;
+                }
+            } else if (random.nextDouble() < impairment.geGoodToBad) {
+                badState = true;
+            }
+            double loss = badState ? impairment.geLossBad : impairment.geLossGood;
+            return loss > 0 && random.nextDouble() < loss;
+        }
+        return impairment.loss > 0 && random.nextDouble() < impairment.loss;
+    }
+
+    public Impairment getImpairment() {
+        return impairment;
+    }
+}
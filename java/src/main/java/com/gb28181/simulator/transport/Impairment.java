@@ -0,0 +1,248 @@
+package com.gb28181.simulator.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 网络损伤参数（不可变）：丢包（伯努利或Gilbert-Elliott）、乱序、重复、延迟抖动和带宽限制
+ *
+ * 文本格式为逗号分隔的 键=值，例如 "loss=1%,delay=80ms,jitter=20ms,rate=2000k"：
+ * loss 丢包率；ge=p/r[/坏状态丢包率[/好状态丢包率]] Gilbert-Elliott丢包（好→坏、坏→好的转移概率，
+ * 默认坏状态全丢、好状态不丢，指定后忽略loss）；reorder 乱序率（被选中的包额外滞留reorder_delay，
+ * 默认20ms，让后面的包先到）；dup 重复率；delay 固定延迟；jitter 抖动（在±jitter内均匀分布）；
+ * rate 带宽上限（kbps，可写 k/m 后缀）；queue 限速时的最大排队时长（默认200ms，超出时尾部丢弃）。
+ * 概率均为百分比，%可省略；时长单位为毫秒，ms可省略
+ */
+public final class Impairment {
+
+    public static final long DEFAULT_REORDER_DELAY_MS = 20;
+    public static final long DEFAULT_QUEUE_MS = 200;
+
+    final double loss;
+    final double geGoodToBad;
+    final double geBadToGood;
+    final double geLossBad;
+    final double geLossGood;
+    final double reorder;
+    final long reorderDelayNanos;
+    final double duplicate;
+    final long delayNanos;
+    final long jitterNanos;
+    final long rateKbps;
+    final long queueNanos;
+    private final String text;
+
+    private Impairment(Map<String, String> values, String text) {
+        this.loss = percent(values, "loss");
+        String ge = values.get("ge");
+        if (ge != null) {
+            String[] parts = ge.split("/");
+            if (parts.length < 2) {
+                throw new IllegalArgumentException("ge格式应为 p/r[/坏状态丢包率[/好状态丢包率]]: " + ge);
+            }
+            this.geGoodToBad = parsePercent(parts[0]);
+            this.geBadToGood = parsePercent(parts[1]);
+            this.geLossBad = parts.length > 2 ? parsePercent(parts[2]) : 1;
+            this.geLossGood = parts.length > 3 ? parsePercent(parts[3]) : 0;
+        } else {
+            this.geGoodToBad = 0;
+            this.geBadToGood = 0;
+            this.geLossBad = 0;
+            this.geLossGood = 0;
+        }
+        this.reorder = percent(values, "reorder");
+        this.reorderDelayNanos = millis(values, "reorder_delay", DEFAULT_REORDER_DELAY_MS) * 1_000_000L;
+        this.duplicate = percent(values, "dup");
+        this.delayNanos = millis(values, "delay", 0) * 1_000_000L;
+        this.jitterNanos = millis(values, "jitter", 0) * 1_000_000L;
+        this.rateKbps = values.containsKey("rate") ? parseRate(values.get("rate")) : 0;
+        this.queueNanos = millis(values, "queue", DEFAULT_QUEUE_MS) * 1_000_000L;
+        this.text = text;
+    }
+
+    /**
+     * 解析损伤参数，为空时返回null，格式错误时抛出IllegalArgumentException
+     */
+    public static Impairment parse(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return null;
+        }
+        Map<String, String> values = new HashMap<>();
+        for (String item : text.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            int eq = item.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("网络损伤参数格式应为 键=值: " + item);
+            }
+            String key = item.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+            switch (key) {
+                case "loss":
+                case "ge":
+                case "reorder":
+                case "reorder_delay":
+                case "dup":
+                case "delay":
+                case "jitter":
+                case "rate":
+                case "queue":
+                    values.put(key, item.substring(eq + 1).trim().toLowerCase(Locale.ROOT));
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知的网络损伤参数: " + key);
+            }
+        }
+        return new Impairment(values, text.trim());
+    }
+
+    private static double percent(Map<String, String> values, String key) {
+        String value = values.get(key);
+        return value != null ? parsePercent(value) : 0;
+    }
+
+    private static double parsePercent(String value) {
+        String v = value.trim();
+        if (v.endsWith("%")) {
+            v = v.substring(0, v.length() - 1);
+        }
+        double p;
+        try {
+            p = Double.parseDouble(v) / 100;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的百分比: " + value);
+        }
+        if (p < 0 || p > 1) {
+            throw new IllegalArgumentException("百分比应在0~100之间: " + value);
+        }
+        return p;
+    }
+
+    private static long millis(Map<String, String> values, String key, long defaultValue) {
+        String value = values.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        String v = value.endsWith("ms") ? value.substring(0, value.length() - 2) : value;
+        try {
+            long ms = Long.parseLong(v.trim());
+            if (ms < 0) {
+                throw new IllegalArgumentException(key + "不能为负数: " + value);
+            }
+            return ms;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的" + key + "时长: " + value);
+        }
+    }
+
+    private static long parseRate(String value) {
+        String v = value.trim();
+        long multiplier = 1;
+        if (v.endsWith("kbps") || v.endsWith("mbps")) {
+            multiplier = v.startsWith("m", v.length() - 4) ? 1000 : 1;
+            v = v.substring(0, v.length() - 4);
+        } else if (v.endsWith("k") || v.endsWith("m")) {
+            multiplier = v.endsWith("m") ? 1000 : 1;
+            v = v.substring(0, v.length() - 1);
+        }
+        try {
+            long kbps = Math.round(Double.parseDouble(v.trim()) * multiplier);
+            if (kbps <= 0) {
+                throw new IllegalArgumentException("带宽上限应大于0: " + value);
+            }
+            return kbps;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的带宽上限: " + value);
+        }
+    }
+
+    /**
+     * 是否使用Gilbert-Elliott丢包模型
+     */
+    boolean isGilbertElliott() {
+        return geGoodToBad > 0 || geBadToGood > 0;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * 按设备或通道指定的损伤参数：通道ID优先于设备ID，都未指定时使用默认参数
+     */
+    public static final class Profiles {
+        private final Impairment defaults;
+        private final Map<String, Impairment> byId;
+
+        private Profiles(Impairment defaults, Map<String, Impairment> byId) {
+            this.defaults = defaults;
+            this.byId = byId;
+        }
+
+        /**
+         * 读取损伤设置：input为已存在的文件时按行读取 "设备ID或通道ID=参数"（* 为默认，# 开头为注释），
+         * 否则把input作为全部设备的参数。没有任何损伤时返回null
+         */
+        public static Profiles load(String input) throws IOException {
+            if (input == null || input.trim().isEmpty()) {
+                return null;
+            }
+            File file = new File(input.trim());
+            if (!file.isFile()) {
+                Impairment defaults = parse(input);
+                return defaults != null ? new Profiles(defaults, new HashMap<>()) : null;
+            }
+            Impairment defaults = null;
+            Map<String, Impairment> byId = new HashMap<>();
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                line = line.trim();
+                int eq = line.indexOf('=');
+                if (line.isEmpty() || line.startsWith("#") || eq <= 0) {
+                    continue;
+                }
+                String id = line.substring(0, eq).trim();
+                Impairment impairment = parse(line.substring(eq + 1));
+                if ("*".equals(id)) {
+                    defaults = impairment;
+                } else if (impairment != null) {
+                    byId.put(id, impairment);
+                }
+            }
+            return defaults != null || !byId.isEmpty() ? new Profiles(defaults, byId) : null;
+        }
+
+        /**
+         * 设备的损伤参数（无损伤时为null）
+         */
+        public Impairment forDevice(String deviceId) {
+            Impairment impairment = byId.get(deviceId);
+            return impairment != null ? impairment : defaults;
+        }
+
+        /**
+         * 通道（点播会话）的损伤参数（无损伤时为null）
+         */
+        public Impairment forChannel(String deviceId, String channelId) {
+            Impairment impairment = channelId != null ? byId.get(channelId) : null;
+            return impairment != null ? impairment : forDevice(deviceId);
+        }
+
+        /**
+         * 单独指定了参数的设备/通道数
+         */
+        public int overrideCount() {
+            return byId.size();
+        }
+
+        public Impairment getDefaults() {
+            return defaults;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.gb28181.simulator.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 网络损伤的延迟发送队列：被延迟的包复制后按发送时刻放入DelayQueue，
+ * 由一个发送线程在到期时交给原发送通道，产生延迟的线程本身不休眠
+ *
+ * 队列中的字节数有上限，超出时新的延迟包被丢弃（计为溢出）
+ */
+public class ImpairmentScheduler implements Runnable {
+
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 64L << 20;
+
+    /**
+     * 实际发送通道
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void send(ByteBuffer packet, SocketAddress target) throws IOException;
+    }
+
+    private static final class Pending implements Delayed {
+        final byte[] data;
+        final SocketAddress target;
+        final Sink sink;
+        final long sendAtNanos;
+        final long order; // 同一时刻按入队顺序发送
+
+        Pending(byte[] data, SocketAddress target, Sink sink, long sendAtNanos, long order) {
+            this.data = data;
+            this.target = target;
+            this.sink = sink;
+            this.sendAtNanos = sendAtNanos;
+            this.order = order;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(sendAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Pending o = (Pending) other;
+            int c = Long.compare(sendAtNanos, o.sendAtNanos);
+            return c != 0 ? c : Long.compare(order, o.order);
+        }
+    }
+
+    private final DelayQueue<Pending> queue = new DelayQueue<>();
+    private final long maxQueuedBytes;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong order = new AtomicLong();
+    private volatile boolean running;
+    private Thread thread;
+
+    // 统计（全部链路合计）
+    final AtomicLong lost = new AtomicLong();
+    final AtomicLong overflowed = new AtomicLong();
+    final AtomicLong duplicated = new AtomicLong();
+    final AtomicLong reordered = new AtomicLong();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong sendErrors = new AtomicLong();
+
+    public ImpairmentScheduler(long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * 启动发送线程
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this, "NetImpairment");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 复制packet（不改变其position）并在sendAtNanos时刻发送
+     */
+    void schedule(ByteBuffer packet, SocketAddress target, Sink sink, long sendAtNanos) {
+        int size = packet.remaining();
+        if (queuedBytes.addAndGet(size) > maxQueuedBytes) {
+            queuedBytes.addAndGet(-size);
+            overflowed.incrementAndGet();
+            return;
+        }
+        byte[] data = new byte[size];
+        packet.duplicate().get(data);
+        queue.add(new Pending(data, target, sink, sendAtNanos, order.getAndIncrement()));
+        delayed.incrementAndGet();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            Pending pending;
+            try {
+                pending = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            queuedBytes.addAndGet(-pending.data.length);
+            try {
+                pending.sink.send(ByteBuffer.wrap(pending.data), pending.target);
+            } catch (IOException e) {
+                sendErrors.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 停止发送线程，丢弃尚未到期的包
+     */
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        queue.clear();
+    }
+
+    public long getLost() {
+        return lost.get();
+    }
+
+    public long getOverflowed() {
+        return overflowed.get();
+    }
+
+    public long getDuplicated() {
+        return duplicated.get();
+    }
+
+    public long getReordered() {
+        return reordered.get();
+    }
+
+    public long getDelayed() {
+        return delayed.get();
+    }
+
+    public long getSendErrors() {
+        return sendErrors.get();
+    }
+
+    /**
+     * 队列中等待发送的包数
+     */
+    public int queuedPackets() {
+        return queue.size();
+    }
+}
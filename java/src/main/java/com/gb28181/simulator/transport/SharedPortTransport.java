@@ -0,0 +1,182 @@
+package com.gb28181.simulator.transport;
+
+import com.gb28181.simulator.device.Channel;
+import com.gb28181.simulator.device.GB28181Device;
+import com.gb28181.simulator.sip.SipMessage;
+import com.gb28181.simulator.sip.SipMessageReader;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 共享端口传输：多个设备共用一个本地SIP端口
+ * 
+ * 同一端口打开多个SO_REUSEPORT通道，每个通道由独立线程接收，
+ * 入站消息在接收线程上解析一次，按Request-URI用户（请求）或From用户（响应）路由到对应设备，
+ * 解析结果直接交给处理器。
+ */
+public class SharedPortTransport {
+    
+    /**
+     * 已解析消息处理接口
+     */
+    @FunctionalInterface
+    public interface MessageHandler {
+        void handle(GB28181Device device, SipMessage message, SocketAddress addr);
+    }
+    
+    private final String bindIp;
+    private final int port;
+    private final int workerCount;
+    private final MessageHandler messageHandler;
+    private final List<DatagramChannel> channels = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    // 设备ID/通道ID -> 设备
+    private final Map<String, GB28181Device> routes = new ConcurrentHashMap<>();
+    private final AtomicInteger nextChannel = new AtomicInteger();
+    private final AtomicLong unroutedPackets = new AtomicLong();
+    private volatile boolean running = false;
+    
+    public SharedPortTransport(String bindIp, int port, int workerCount,
+                               MessageHandler messageHandler) {
+        this.bindIp = bindIp;
+        this.port = port;
+        this.workerCount = Math.max(1, workerCount);
+        this.messageHandler = messageHandler;
+    }
+    
+    /**
+     * 绑定端口并启动接收线程
+     */
+    public void start() throws IOException {
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+            boolean reusePort = channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            } else if (i > 0) {
+                // 平台不支持SO_REUSEPORT时只能使用单个通道
+                channel.close();
+                System.out.println("⚠ 当前平台不支持SO_REUSEPORT，端口 " + port + " 仅使用1个接收线程");
+                break;
+            }
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+            channel.bind(new InetSocketAddress(bindIp, port));
+            channels.add(channel);
+            
+            Thread worker = new Thread(() -> receiveLoop(channel), "SharedPort-" + port + "-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        System.out.println("✓ 共享端口 " + bindIp + ":" + port + " 已启动（接收线程: " + channels.size() + "）");
+    }
+    
+    /**
+     * 登记设备路由，并为设备分配一个发送通道
+     */
+    public void addDevice(GB28181Device device) {
+        routes.put(device.deviceId, device);
+        for (Channel channel : device.getChannels()) {
+            routes.put(channel.getId(), device);
+        }
+        int index = Math.floorMod(nextChannel.getAndIncrement(), channels.size());
+        device.setChannel(channels.get(index));
+    }
+    
+    /**
+     * 共享该端口的设备数
+     */
+    public int deviceCount() {
+        return (int) routes.values().stream().distinct().count();
+    }
+    
+    /**
+     * 无法路由而丢弃的数据包数
+     */
+    public long getUnroutedPackets() {
+        return unroutedPackets.get();
+    }
+    
+    private void receiveLoop(DatagramChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+        SipMessageReader reader = new SipMessageReader();
+        while (running) {
+            try {
+                buffer.clear();
+                SocketAddress addr = channel.receive(buffer);
+                if (addr == null) {
+                    continue;
+                }
+                buffer.flip();
+                
+                // 直接在接收缓冲区上解析，结果即交给处理器的消息，处理器不再重复解析
+                if (!reader.parse(buffer)) {
+                    unroutedPackets.incrementAndGet();
+                    continue;
+                }
+                byte[] data = new byte[buffer.remaining()];
+                buffer.get(data);
+                SipMessage message = SipMessage.of(data, reader);
+                GB28181Device device = route(message);
+                if (device == null) {
+                    unroutedPackets.incrementAndGet();
+                    continue;
+                }
+                messageHandler.handle(device, message, addr);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("✗ 共享端口 " + port + " 接收消息出错: " + e.getMessage());
+                }
+            } catch (Exception e) {
+                System.err.println("✗ 共享端口 " + port + " 处理消息出错: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    /**
+     * 按SIP用户部分找到目标设备：请求取Request-URI用户（缺省取To用户），响应取From用户（设备为UAC）
+     */
+    private GB28181Device route(SipMessage message) {
+        String user;
+        if (message.isResponse()) {
+            user = message.getFromUser();
+        } else {
+            user = message.getRequestUriUser();
+            if (user == null) {
+                user = message.getToUser();
+            }
+        }
+        return user != null ? routes.get(user) : null;
+    }
+    
+    /**
+     * 停止接收并关闭全部通道
+     */
+    public void stop() {
+        running = false;
+        for (DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+}
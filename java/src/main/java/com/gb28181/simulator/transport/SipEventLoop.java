@@ -0,0 +1,166 @@
+package com.gb28181.simulator.transport;
+
+import com.gb28181.simulator.device.GB28181Device;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * SIP事件循环：一个Selector线程复用多个设备的DatagramChannel
+ */
+public class SipEventLoop implements Runnable {
+    
+    /**
+     * 收到数据包时的回调
+     */
+    @FunctionalInterface
+    public interface PacketHandler {
+        void handle(GB28181Device device, byte[] data, SocketAddress addr);
+    }
+    
+    // 单次就绪事件最多读取的数据包数，避免单个设备饿死其他设备
+    private static final int MAX_READS_PER_KEY = 64;
+    
+    private final String name;
+    private final Selector selector;
+    private final PacketHandler packetHandler;
+    private final Queue<GB28181Device> pendingDevices = new ConcurrentLinkedQueue<>();
+    private final List<GB28181Device> devices = new ArrayList<>(); // 仅事件循环线程访问
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(65536);
+    private volatile boolean running = false;
+    private Thread thread;
+    
+    public SipEventLoop(String name, PacketHandler packetHandler) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+        this.packetHandler = packetHandler;
+    }
+    
+    /**
+     * 启动事件循环线程
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * 将设备（已绑定的非阻塞通道）加入本事件循环
+     */
+    public void register(GB28181Device device) {
+        pendingDevices.add(device);
+        selector.wakeup();
+    }
+    
+    /**
+     * 本事件循环管理的设备数量（含待注册）
+     */
+    public int deviceCount() {
+        return devices.size() + pendingDevices.size();
+    }
+    
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                registerPending();
+                
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        readPackets(key);
+                    }
+                }
+
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("✗ 事件循环 " + name + " 出错: " + e.getMessage());
+                }
+            } catch (Exception e) {
+                System.err.println("✗ 事件循环 " + name + " 处理出错: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        closeAll();
+    }
+    
+    private void registerPending() {
+        GB28181Device device;
+        while ((device = pendingDevices.poll()) != null) {
+            DatagramChannel channel = device.getChannel();
+            if (channel == null || !channel.isOpen()) {
+                continue;
+            }
+            try {
+                channel.register(selector, SelectionKey.OP_READ, device);
+                devices.add(device);
+            } catch (IOException e) {
+                System.err.println("✗ 设备 " + device.deviceId + " 注册到事件循环失败: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void readPackets(SelectionKey key) {
+        GB28181Device device = (GB28181Device) key.attachment();
+        DatagramChannel channel = (DatagramChannel) key.channel();
+        for (int i = 0; i < MAX_READS_PER_KEY; i++) {
+            SocketAddress addr;
+            try {
+                receiveBuffer.clear();
+                addr = channel.receive(receiveBuffer);
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("✗ 设备 " + device.deviceId + " 接收消息出错: " + e.getMessage());
+                }
+                return;
+            }
+            if (addr == null) {
+                return;
+            }
+            receiveBuffer.flip();
+            byte[] data = new byte[receiveBuffer.remaining()];
+            receiveBuffer.get(data);
+            packetHandler.handle(device, data, addr);
+        }
+    }
+    
+    /**
+     * 停止事件循环
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private void closeAll() {
+        for (GB28181Device device : devices) {
+            device.closeTransport();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+}
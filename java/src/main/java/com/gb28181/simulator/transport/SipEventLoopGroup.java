@@ -0,0 +1,56 @@
+package com.gb28181.simulator.transport;
+
+import com.gb28181.simulator.device.GB28181Device;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SIP事件循环组：固定数量的Selector线程，设备按轮询方式分配
+ */
+public class SipEventLoopGroup {
+    private final List<SipEventLoop> loops = new ArrayList<>();
+    private int nextIndex = 0;
+    
+    public SipEventLoopGroup(int loopCount, SipEventLoop.PacketHandler packetHandler) throws IOException {
+        int count = Math.max(1, loopCount);
+        for (int i = 0; i < count; i++) {
+            loops.add(new SipEventLoop("SipEventLoop-" + i, packetHandler));
+        }
+    }
+    
+    /**
+     * 启动全部事件循环
+     */
+    public void start() {
+        for (SipEventLoop loop : loops) {
+            loop.start();
+        }
+    }
+    
+    /**
+     * 将设备分配到下一个事件循环
+     */
+    public synchronized void register(GB28181Device device) {
+        SipEventLoop loop = loops.get(nextIndex);
+        nextIndex = (nextIndex + 1) % loops.size();
+        loop.register(device);
+    }
+    
+    /**
+     * 事件循环线程数
+     */
+    public int size() {
+        return loops.size();
+    }
+    
+    /**
+     * 停止全部事件循环
+     */
+    public void stop() {
+        for (SipEventLoop loop : loops) {
+            loop.stop();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.gb28181.simulator.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 平台线程/虚拟线程的统一创建入口
+ *
+ * 本文件是Java 11版本，不支持虚拟线程。用JDK 21及以上构建时，java21配置会把 src/main/java21 下的
+ * 同名类编入多版本jar（META-INF/versions/21），在Java 21及以上运行该jar时自动使用那个版本
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前运行环境是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * 创建（未启动的）守护平台线程；本版本不支持虚拟线程，virtual被忽略（调用方应先检查isSupported）
+     */
+    public static Thread newThread(String name, Runnable task, boolean virtual) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * 固定数量的守护平台线程池，线程名为 namePrefix + 序号；本版本不支持虚拟线程，virtual被忽略
+     * （调用方应先检查isSupported）
+     */
+    public static ExecutorService newExecutor(String namePrefix, int platformThreads, boolean virtual) {
+        return Executors.newFixedThreadPool(Math.max(1, platformThreads), platformFactory(namePrefix));
+    }
+
+    /**
+     * 守护平台线程工厂，线程名为 namePrefix + 序号（从0开始）
+     */
+    private static ThreadFactory platformFactory(String namePrefix) {
+        AtomicInteger index = new AtomicInteger();
+        return task -> newThread(namePrefix + index.getAndIncrement(), task, false);
+    }
+}
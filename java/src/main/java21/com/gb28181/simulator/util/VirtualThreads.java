@@ -0,0 +1,56 @@
+package com.gb28181.simulator.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 平台线程/虚拟线程的统一创建入口
+ *
+ * 本文件是Java 21版本，由java21构建配置编入多版本jar的 META-INF/versions/21，
+ * Java 11版本（src/main/java下的同名类）不支持虚拟线程
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前运行环境是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * 创建（未启动的）线程：virtual为true时为虚拟线程，否则为守护平台线程
+     */
+    public static Thread newThread(String name, Runnable task, boolean virtual) {
+        if (virtual) {
+            return Thread.ofVirtual().name(name).unstarted(task);
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * 执行器：virtual为true时每个任务一个虚拟线程（不限数量），否则为固定数量的守护平台线程池；
+     * 线程名为 namePrefix + 序号
+     */
+    public static ExecutorService newExecutor(String namePrefix, int platformThreads, boolean virtual) {
+        if (virtual) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory());
+        }
+        return Executors.newFixedThreadPool(Math.max(1, platformThreads), platformFactory(namePrefix));
+    }
+
+    /**
+     * 守护平台线程工厂，线程名为 namePrefix + 序号（从0开始）
+     */
+    private static ThreadFactory platformFactory(String namePrefix) {
+        AtomicInteger index = new AtomicInteger();
+        return task -> newThread(namePrefix + index.getAndIncrement(), task, false);
+    }
+}
@@ -0,0 +1,113 @@
+package com.gb28181.simulator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// 解析卡死时判为失败而不是挂起构建
+@Timeout(value = 5, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+class Fmp4ParserTest {
+
+    private static final int FRAMES = 5;
+    private static final int KEYFRAME = 0x02000000;
+    private static final int NON_SYNC = 0x01010000;
+
+    @Test
+    void trunWithTrailingBytesCountsOnlyDeclaredSamples() {
+        // trun的样本之后还有8字节填充：整段送入时不能卡在快速路径上，逐字节送入时不能把填充当成样本
+        byte[] stream = concat(initSegment(), fragment(0, 8), fragment(1, 8));
+        Fmp4Parser whole = feedInChunks(stream, stream.length);
+        assertCounts(whole, 2);
+        Fmp4Parser bytewise = feedInChunks(stream, 1);
+        assertCounts(bytewise, 2);
+    }
+
+    @Test
+    void boxHeadersSplitAcrossFeeds() {
+        byte[] stream = concat(initSegment(), fragment(0, 0), fragment(1, 4), fragment(2, 0));
+        Fmp4Parser whole = feedInChunks(stream, stream.length);
+        assertCounts(whole, 3);
+        // 各种分段大小让box头、trun头和样本字段落在两次feed之间
+        for (int chunk = 1; chunk <= 17; chunk++) {
+            Fmp4Parser split = feedInChunks(stream, chunk);
+            assertCounts(split, 3);
+            assertEquals(whole.getMediaNanos(), split.getMediaNanos(), "chunk=" + chunk);
+        }
+    }
+
+    private static void assertCounts(Fmp4Parser parser, int fragments) {
+        assertFalse(parser.isInvalid());
+        assertEquals(fragments, parser.getFragments());
+        assertEquals(fragments * FRAMES, parser.getFrames());
+        assertEquals(fragments, parser.getKeyframes());
+        assertEquals(fragments * FRAMES * 40_000_000L, parser.getMediaNanos());
+        assertEquals(0, parser.getDiscontinuities());
+    }
+
+    private static Fmp4Parser feedInChunks(byte[] stream, int chunk) {
+        Fmp4Parser parser = new Fmp4Parser();
+        ByteBuffer buffer = ByteBuffer.wrap(stream);
+        for (int from = 0; from < stream.length; from += chunk) {
+            parser.feed(buffer, from, Math.min(stream.length, from + chunk));
+        }
+        return parser;
+    }
+
+    // 90kHz视频轨，25帧/秒
+    private static byte[] initSegment() {
+        byte[] tkhd = fullBox("tkhd", 0, 3, ints(0, 0, 1, 0), new byte[64]);
+        byte[] mdhd = fullBox("mdhd", 0, 0, ints(0, 0, 90_000, 0), new byte[4]);
+        byte[] hdlr = fullBox("hdlr", 0, 0, ints(0), ascii("vide"), new byte[13]);
+        byte[] trak = box("trak", tkhd, box("mdia", mdhd, hdlr));
+        return concat(box("ftyp", ascii("isom"), ints(0x200), ascii("isomiso6")),
+            box("moov", fullBox("mvhd", 0, 0, new byte[96]), trak));
+    }
+
+    // 一个分片：FRAMES个样本（首帧为关键帧），trun按样本写出时长、大小和标志，样本后附加padding字节
+    private static byte[] fragment(int seq, int padding) {
+        ByteArrayOutputStream samples = new ByteArrayOutputStream();
+        for (int i = 0; i < FRAMES; i++) {
+            samples.writeBytes(ints(3600, 100, i == 0 ? KEYFRAME : NON_SYNC));
+        }
+        byte[] tfhd = fullBox("tfhd", 0, 0x020000, ints(1));
+        byte[] tfdt = fullBox("tfdt", 0, 0, ints(seq * FRAMES * 3600));
+        byte[] trun = fullBox("trun", 0, 0x000701, ints(FRAMES, 0), samples.toByteArray(), new byte[padding]);
+        byte[] moof = box("moof", fullBox("mfhd", 0, 0, ints(seq + 1)), box("traf", tfhd, tfdt, trun));
+        return concat(moof, box("mdat", new byte[FRAMES * 100]));
+    }
+
+    private static byte[] box(String type, byte[]... parts) {
+        byte[] body = concat(parts);
+        return concat(ints(8 + body.length), ascii(type), body);
+    }
+
+    private static byte[] fullBox(String type, int version, int flags, byte[]... parts) {
+        return box(type, concat(ints((version << 24) | flags), concat(parts)));
+    }
+
+    private static byte[] ints(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}